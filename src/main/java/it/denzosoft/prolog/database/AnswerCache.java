@@ -0,0 +1,309 @@
+package it.denzosoft.prolog.database;
+
+import it.denzosoft.prolog.model.*;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Keeps the answers of calls to declared predicates across queries.
+ * <p>
+ * The answers of a call are stored under its variant, so that any later
+ * call differing only in variable names, made by any query, is answered
+ * from the cache without resolution. Only predicates declared with
+ * {@link #declare(String, int)} are cached; they should be pure, as side
+ * effects of their clauses happen on the first call only.
+ * <p>
+ * The cache holds a bounded number of calls and drops the least recently
+ * used beyond it; entries may also expire after a time to live. When a
+ * clause is added or removed, every cached predicate that may call the
+ * changed predicate, directly or through other predicates, is dropped.
+ * Dependencies are found in the clause bodies, so calls made through a
+ * variable goal are not seen.
+ */
+public class AnswerCache implements DatabaseListener {
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private static final Set<String> CONTROL = new HashSet<>(java.util.Arrays.asList(
+            ",/2", ";/2", "->/2", "\\+/1", "not/1", "call/1", "once/1",
+            "call_with_time_limit/2", "call_with_inference_limit/3"));
+
+    private final Database database;
+    private final Set<String> declared = Collections.newSetFromMap(new java.util.concurrent.ConcurrentHashMap<>());
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Set<String>> dependencies = new HashMap<>();
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long timeToLive = 0;
+    private long generation = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    public AnswerCache(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * Declares a predicate whose answers are cached.
+     */
+    public void declare(String name, int arity) {
+        declared.add(Database.indicator(name, arity));
+    }
+
+    public boolean isCached(String name, int arity) {
+        return !declared.isEmpty() && declared.contains(Database.indicator(name, arity));
+    }
+
+    /**
+     * Sets the number of calls kept, the least recently used being
+     * dropped beyond it.
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        trim();
+    }
+
+    /**
+     * Sets how long answers are kept after they were computed, or 0 to keep
+     * them until they are dropped.
+     */
+    public synchronized void setTimeToLive(long time, TimeUnit unit) {
+        this.timeToLive = unit.toNanos(time);
+    }
+
+    /**
+     * Gets the answers of a variant of a call.
+     * @return the answers as facts, or null if they are not cached
+     */
+    public synchronized java.util.List<Clause> get(Term call) {
+        String key = variantKey(call);
+        Entry entry = entries.get(key);
+        if (entry != null && timeToLive > 0 && System.nanoTime() - entry.created > timeToLive) {
+            entries.remove(key);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.answers;
+    }
+
+    /**
+     * Gets the number of invalidations so far; answers computed from the
+     * clauses seen at one generation may only be stored at the same one.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Stores the answers of a call, unless the clauses changed since the
+     * given generation, which would make them possibly stale.
+     */
+    public synchronized void put(Term call, java.util.List<Clause> answers, long computedAt) {
+        if (computedAt != generation) {
+            return;
+        }
+        entries.put(variantKey(call), new Entry(Database.indicatorOf(call), answers, System.nanoTime()));
+        trim();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Gets the share of lookups answered from the cache.
+     */
+    public synchronized double getHitRatio() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * Gets the number of entries dropped for size or age.
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Gets the number of entries dropped because clauses changed.
+     */
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        dependencies.clear();
+        generation++;
+    }
+
+    @Override
+    public void clauseAdded(Clause clause) {
+        changed(Database.indicatorOf(clause.getHead()));
+    }
+
+    @Override
+    public void clauseRemoved(Clause clause) {
+        changed(Database.indicatorOf(clause.getHead()));
+    }
+
+    /**
+     * Drops the answers of every cached predicate that may call the
+     * changed one.
+     */
+    private synchronized void changed(String indicator) {
+        if (declared.isEmpty()) {
+            return;
+        }
+        generation++;
+        Set<String> stale = new HashSet<>();
+        for (String cached : declared) {
+            if (dependencies.computeIfAbsent(cached, this::callees).contains(indicator)) {
+                stale.add(cached);
+            }
+        }
+        // The changed clause may call other predicates than before
+        dependencies.clear();
+        if (stale.isEmpty()) {
+            return;
+        }
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (stale.contains(it.next().predicate)) {
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    private void trim() {
+        Iterator<String> eldest = entries.keySet().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Collects the predicates a predicate may call, itself included.
+     */
+    private Set<String> callees(String indicator) {
+        Set<String> found = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(indicator);
+        while (!pending.isEmpty()) {
+            String current = pending.pop();
+            if (!found.add(current)) {
+                continue;
+            }
+            int slash = current.lastIndexOf('/');
+            int arity = Integer.parseInt(current.substring(slash + 1));
+            Term[] args = new Term[arity];
+            for (int i = 0; i < arity; i++) {
+                args[i] = new Variable("_");
+            }
+            Term head = arity == 0 ? new Atom(current.substring(0, slash))
+                    : new Struct(new Atom(current.substring(0, slash)), args);
+            for (Clause clause : database.findClauses(head)) {
+                if (clause.getBody() != null) {
+                    addGoals(clause.getBody(), pending);
+                }
+            }
+        }
+        return found;
+    }
+
+    private static void addGoals(Term body, Deque<String> pending) {
+        while (body instanceof Variable && ((Variable) body).isBound()) {
+            body = ((Variable) body).getBinding();
+        }
+        String indicator = Database.indicatorOf(body);
+        if (indicator == null) {
+            return;
+        }
+        if (CONTROL.contains(indicator)) {
+            Struct control = (Struct) body;
+            for (int i = 0; i < control.getArity(); i++) {
+                addGoals(control.getArg(i), pending);
+            }
+            return;
+        }
+        pending.push(indicator);
+    }
+
+    /**
+     * Gets a key equal for two terms exactly when they are variants: every
+     * symbol is spelled with its length, and variables are numbered by
+     * first occurrence.
+     */
+    static String variantKey(Term call) {
+        StringBuilder key = new StringBuilder();
+        Map<Variable, Integer> numbering = new IdentityHashMap<>();
+        Deque<Term> pending = new ArrayDeque<>();
+        pending.push(call);
+        while (!pending.isEmpty()) {
+            Term current = pending.pop();
+            while (current instanceof Variable && ((Variable) current).isBound()) {
+                current = ((Variable) current).getBinding();
+            }
+            if (current instanceof Variable) {
+                Integer index = numbering.computeIfAbsent((Variable) current, v -> numbering.size());
+                key.append('V').append(index).append(';');
+            } else if (current instanceof Struct) {
+                Struct struct = (Struct) current;
+                String name = struct.getFunctor().getValue();
+                key.append('S').append(name.length()).append(':').append(name).append('/').append(struct.getArity());
+                for (int i = struct.getArity() - 1; i >= 0; i--) {
+                    pending.push(struct.getArg(i));
+                }
+            } else if (current instanceof it.denzosoft.prolog.model.List) {
+                it.denzosoft.prolog.model.List list = (it.denzosoft.prolog.model.List) current;
+                key.append('L');
+                pending.push(list.getTail());
+                pending.push(list.getHead());
+            } else if (current instanceof Atom) {
+                String name = ((Atom) current).getValue();
+                key.append('A').append(name.length()).append(':').append(name);
+            } else {
+                key.append('N').append(current).append(';');
+            }
+        }
+        return key.toString();
+    }
+
+    private static final class Entry {
+        private final String predicate;
+        private final java.util.List<Clause> answers;
+        private final long created;
+
+        private Entry(String predicate, java.util.List<Clause> answers, long created) {
+            this.predicate = predicate;
+            this.answers = answers;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package it.denzosoft.prolog.database;
+
+import it.denzosoft.prolog.model.*;
+import java.io.Closeable;
+import java.util.Iterator;
+
+
+/**
+ * A backend that holds the clauses of a single predicate outside the
+ * in-memory clause lists of {@link Database}.
+ */
+public interface ClauseSource extends Closeable {
+
+    /**
+     * Gets the predicate name served by this source.
+     */
+    String getName();
+
+    /**
+     * Gets the predicate arity served by this source.
+     */
+    int getArity();
+
+    /**
+     * Enumerates the clauses that may match the given goal, in clause order.
+     * Clauses are decoded lazily as the iterator advances.
+     */
+    Iterator<Clause> clauses(Term goal);
+
+    /**
+     * Checks whether clauses can be added to or removed from this source.
+     */
+    boolean isWritable();
+
+    /**
+     * Appends a clause to this source.
+     * @throws UnsupportedOperationException if the source is read-only
+     */
+    void add(Clause clause);
+
+    /**
+     * Removes a clause from this source.
+     * @return true if clause was removed
+     * @throws UnsupportedOperationException if the source is read-only
+     */
+    boolean remove(Clause clause);
+}
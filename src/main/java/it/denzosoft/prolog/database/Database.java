@@ -1,78 +1,423 @@
 package it.denzosoft.prolog.database;
 
+import it.denzosoft.prolog.engine.ForeignPredicates;
+import it.denzosoft.prolog.engine.ListLibrary;
 import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.tabling.TableSpace;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 
+/**
+ * The clauses of a program, indexed per predicate.
+ * <p>
+ * A database may be shared by threads: queries read it without locking
+ * while others add and remove clauses. A call enumerates the clauses of
+ * its predicate as they were when the call was made, as in the logical
+ * update view of ISO Prolog. Changes to a predicate are serialized by one
+ * of a fixed set of locks chosen by the predicate's indicator, so writers
+ * of different predicates rarely wait for each other.
+ */
 public class Database {
-    private final List<Clause> clauses = new ArrayList<>();
-    private final List<Clause> dynamicClauses = new ArrayList<>();
-    
+    private static final int LOCK_STRIPES = 64;
+
+    private final Map<Long, Clause> clauses = new ConcurrentSkipListMap<>();
+    private final Map<Long, Clause> dynamicClauses = new ConcurrentSkipListMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, ClauseSource> sources = new ConcurrentHashMap<>();
+    private final Map<String, Predicate> predicates = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final TableSpace tableSpace = new TableSpace();
+    private final java.util.List<DatabaseListener> listeners = new CopyOnWriteArrayList<>();
+    private final AnswerCache answerCache = new AnswerCache(this);
+    private final ForeignPredicates foreignPredicates = new ForeignPredicates();
+    private final Map<Clause, Clause> compiled = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    public Database() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        listeners.add(answerCache);
+        ListLibrary.install(foreignPredicates);
+    }
+
     /**
-     * Adds a clause to the database.
+     * Adds a clause to the database. A directive {@code :- D} is executed
+     * instead of being stored.
      */
     public void addClause(Clause clause) {
-        clauses.add(clause);
+        if (isDirective(clause)) {
+            executeDirective(((Struct) clause.getHead()).getArg(0));
+            return;
+        }
+        ClauseSource source = sourceFor(clause.getHead());
+        if (source != null) {
+            source.add(clause);
+        } else {
+            long number = sequence.incrementAndGet();
+            predicateFor(clause.getHead()).add(compile(clause), number);
+            clauses.put(number, stored(clause));
+            clausesChanged();
+        }
+        for (DatabaseListener listener : listeners) {
+            listener.clauseAdded(clause);
+        }
     }
-    
+
     /**
      * Adds a dynamic clause.
      */
     public void addDynamicClause(Clause clause) {
-        dynamicClauses.add(clause);
+        ClauseSource source = sourceFor(clause.getHead());
+        if (source != null) {
+            source.add(clause);
+        } else {
+            long number = sequence.incrementAndGet();
+            predicateFor(clause.getHead()).add(compile(clause), number);
+            dynamicClauses.put(number, stored(clause));
+            clausesChanged();
+        }
+        for (DatabaseListener listener : listeners) {
+            listener.clauseAdded(clause);
+        }
     }
-    
+
     /**
      * Removes a clause from the database.
      * @return true if clause was removed
      */
     public boolean removeClause(Clause clause) {
-        return clauses.remove(clause);
+        ClauseSource source = sourceFor(clause.getHead());
+        boolean removed;
+        if (source != null) {
+            removed = source.remove(clause);
+        } else {
+            String key = indicatorOf(clause.getHead());
+            Predicate predicate = key != null ? predicates.get(key) : null;
+            long number = predicate != null ? predicate.remove(stored(clause)) : -1;
+            removed = number >= 0;
+            if (removed) {
+                compiled.remove(clause);
+                if (clauses.remove(number) == null) {
+                    dynamicClauses.remove(number);
+                }
+                clausesChanged();
+            }
+        }
+        if (removed) {
+            fireClauseRemoved(clause);
+        }
+        return removed;
+    }
+
+    void fireClauseRemoved(Clause clause) {
+        for (DatabaseListener listener : listeners) {
+            listener.clauseRemoved(clause);
+        }
+    }
+
+    /**
+     * Attaches an external clause source. From now on all clauses of its
+     * predicate are read from and written to the source.
+     */
+    public void attachSource(ClauseSource source) {
+        sources.put(indicator(source.getName(), source.getArity()), source);
+    }
+
+    /**
+     * Detaches the clause source of the given predicate without closing it.
+     * @return the detached source, or null if none was attached
+     */
+    public ClauseSource detachSource(String name, int arity) {
+        return sources.remove(indicator(name, arity));
     }
-    
+
     /**
      * Finds clauses that match the given term.
      */
     public List<Clause> findClauses(Term term) {
         List<Clause> matches = new ArrayList<>();
-        
-        // Search in static clauses
-        for (Clause clause : clauses) {
-            if (clause.getHead().equals(term)) {
-                matches.add(clause);
-            }
+        Iterator<Clause> iterator = clauseIterator(term);
+        while (iterator.hasNext()) {
+            matches.add(iterator.next());
         }
-        
-        // Search in dynamic clauses
-        for (Clause clause : dynamicClauses) {
-            if (clause.getHead().equals(term)) {
-                matches.add(clause);
-            }
-        }
-        
         return matches;
     }
-    
+
+    /**
+     * Enumerates the clauses that may match the given term, in clause order.
+     * Clauses of in-memory predicates are preselected on the first argument;
+     * clauses held by an attached source are produced lazily.
+     */
+    public Iterator<Clause> clauseIterator(Term term) {
+        ClauseSource source = sourceFor(term);
+        if (source != null) {
+            return source.clauses(term);
+        }
+
+        String key = indicatorOf(term);
+        Predicate predicate = key != null ? predicates.get(key) : null;
+        if (predicate == null) {
+            return Collections.emptyIterator();
+        }
+        return predicate.candidates(term);
+    }
+
+    /**
+     * Gets the number of facts of the predicate of a goal, provided it is
+     * held in memory and all its clauses are facts with atomic arguments.
+     * @return the number of facts, or -1 if the predicate does not qualify
+     */
+    public int factCount(Term goal) {
+        if (sourceFor(goal) != null) {
+            return -1;
+        }
+        String key = indicatorOf(goal);
+        Predicate predicate = key != null ? predicates.get(key) : null;
+        if (predicate == null) {
+            return 0;
+        }
+        return predicate.isFactTable() ? predicate.size() : -1;
+    }
+
+    /**
+     * Gets the cardinality statistics of an in-memory predicate.
+     * @return the statistics, or null if the predicate has no in-memory
+     *         clauses
+     */
+    public PredicateStatistics getStatistics(String name, int arity) {
+        Predicate predicate = predicates.get(indicator(name, arity));
+        return predicate != null ? predicate.statistics() : null;
+    }
+
+    /**
+     * Enumerates, in clause order, the facts of the predicate of a goal
+     * whose arguments in the mask hold the given values. The predicate must
+     * qualify for {@link #factCount(Term)}.
+     * @param mask the bound arguments, bit i standing for argument i
+     * @param values the values of the bound arguments in argument order
+     */
+    public Iterator<Clause> factIterator(Term goal, long mask, Term[] values) {
+        String key = indicatorOf(goal);
+        Predicate predicate = key != null ? predicates.get(key) : null;
+        if (predicate == null) {
+            return Collections.emptyIterator();
+        }
+        return predicate.lookup(mask, values);
+    }
+
+    /**
+     * Registers a listener notified of every clause added or removed.
+     */
+    public void addListener(DatabaseListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(DatabaseListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Declares a predicate as tabled: its calls are answered from tables
+     * keyed by call variant instead of by plain resolution.
+     */
+    public void table(String name, int arity) {
+        tableSpace.declare(name, arity);
+    }
+
     /**
-     * Clears all clauses.
+     * Gets the tabled predicates and their answer tables.
+     */
+    public TableSpace getTableSpace() {
+        return tableSpace;
+    }
+
+    /**
+     * Declares a predicate whose answers are kept across queries, see
+     * {@link AnswerCache}.
+     */
+    public void cacheAnswers(String name, int arity) {
+        answerCache.declare(name, arity);
+    }
+
+    public AnswerCache getAnswerCache() {
+        return answerCache;
+    }
+
+    /**
+     * Tells whether the database has clauses, or had some, for a predicate.
+     */
+    public boolean isDefined(String name, int arity) {
+        String key = indicator(name, arity);
+        return predicates.containsKey(key) || sources.containsKey(key);
+    }
+
+    /**
+     * Gets the predicates implemented in Java that queries on this
+     * database may call.
+     */
+    public ForeignPredicates getForeignPredicates() {
+        return foreignPredicates;
+    }
+
+    /**
+     * Binds the foreign calls of a clause body to their predicates. The
+     * clause stored then differs from the one added, which still removes
+     * it.
+     */
+    private Clause compile(Clause clause) {
+        ForeignPredicates foreign = getForeignPredicates();
+        if (clause.getBody() == null || foreign.isEmpty()) {
+            return clause;
+        }
+        Term body = foreign.compile(clause.getBody());
+        if (body == clause.getBody()) {
+            return clause;
+        }
+        Clause bound = new Clause(clause.getHead(), body);
+        compiled.put(clause, bound);
+        return bound;
+    }
+
+    /**
+     * Gets the clause stored for a clause added to this database.
+     */
+    Clause stored(Clause clause) {
+        Clause bound = compiled.get(clause);
+        return bound != null ? bound : clause;
+    }
+
+    /**
+     * Clears all clauses and closes the attached clause sources.
      */
     public void clear() {
         clauses.clear();
         dynamicClauses.clear();
+        predicates.clear();
+        compiled.clear();
+        clausesChanged();
+        answerCache.clear();
+        for (ClauseSource source : sources.values()) {
+            try {
+                source.close();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot close clause source " + source.getName(), e);
+            }
+        }
+        sources.clear();
     }
-    
+
     /**
      * Gets all static clauses.
      */
     public List<Clause> getClauses() {
-        return new ArrayList<>(clauses);
+        return new ArrayList<>(clauses.values());
     }
-    
+
     /**
      * Gets all dynamic clauses.
      */
     public List<Clause> getDynamicClauses() {
-        return new ArrayList<>(dynamicClauses);
+        return new ArrayList<>(dynamicClauses.values());
+    }
+
+    private static boolean isDirective(Clause clause) {
+        Term head = clause.getHead();
+        return clause.getBody() == null && head instanceof Struct
+                && ((Struct) head).getArity() == 1
+                && ((Struct) head).getFunctor().getValue().equals(":-");
+    }
+
+    private void executeDirective(Term directive) {
+        if (directive instanceof Struct && ((Struct) directive).getArity() == 1
+                && (((Struct) directive).getFunctor().getValue().equals("table")
+                || ((Struct) directive).getFunctor().getValue().equals("cache"))) {
+            boolean cache = ((Struct) directive).getFunctor().getValue().equals("cache");
+            Term specs = ((Struct) directive).getArg(0);
+            while (specs instanceof Struct && ((Struct) specs).getArity() == 2
+                    && ((Struct) specs).getFunctor().getValue().equals(",")) {
+                declarePredicate(((Struct) specs).getArg(0), cache);
+                specs = ((Struct) specs).getArg(1);
+            }
+            declarePredicate(specs, cache);
+            return;
+        }
+        throw new IllegalArgumentException("Unsupported directive: " + directive);
+    }
+
+    private void declarePredicate(Term spec, boolean cache) {
+        if (spec instanceof Struct && ((Struct) spec).getArity() == 2
+                && ((Struct) spec).getFunctor().getValue().equals("/")
+                && ((Struct) spec).getArg(0) instanceof Atom
+                && ((Struct) spec).getArg(1) instanceof it.denzosoft.prolog.model.Number) {
+            Struct indicator = (Struct) spec;
+            String name = ((Atom) indicator.getArg(0)).getValue();
+            int arity = (int) ((it.denzosoft.prolog.model.Number) indicator.getArg(1)).getValue();
+            if (cache) {
+                cacheAnswers(name, arity);
+            } else {
+                table(name, arity);
+            }
+            return;
+        }
+        throw new IllegalArgumentException("Invalid predicate indicator: " + spec);
+    }
+
+    /**
+     * Answer tables may depend on any clause, so they are invalidated
+     * whenever the clauses change.
+     */
+    void clausesChanged() {
+        tableSpace.invalidate();
+    }
+
+    private Predicate predicateFor(Term head) {
+        String key = indicatorOf(head);
+        if (key == null) {
+            throw new IllegalArgumentException("Clause head is not callable: " + head);
+        }
+        return predicates.computeIfAbsent(key, k -> new Predicate(locks[(k.hashCode() & 0x7fffffff) % locks.length]));
+    }
+
+    private ClauseSource sourceFor(Term term) {
+        if (sources.isEmpty()) {
+            return null;
+        }
+        String key = indicatorOf(term);
+        return key != null ? sources.get(key) : null;
+    }
+
+    /**
+     * Gets the predicate indicator (name/arity) of a clause head or goal.
+     * @return the indicator, or null if the term is not callable
+     */
+    public static String indicatorOf(Term term) {
+        if (term instanceof Variable && ((Variable) term).isBound()) {
+            return indicatorOf(((Variable) term).getBinding());
+        }
+        if (term instanceof Atom) {
+            return indicator(((Atom) term).getValue(), 0);
+        }
+        if (term instanceof Struct) {
+            Struct struct = (Struct) term;
+            return indicator(struct.getFunctor().getValue(), struct.getArity());
+        }
+        if (term instanceof it.denzosoft.prolog.model.List) {
+            return indicator(".", 2);
+        }
+        return null;
+    }
+
+    static String indicator(String name, int arity) {
+        return name + "/" + arity;
     }
 }
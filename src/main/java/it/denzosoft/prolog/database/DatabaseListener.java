@@ -0,0 +1,20 @@
+package it.denzosoft.prolog.database;
+
+import it.denzosoft.prolog.model.*;
+
+
+/**
+ * Receives the changes made to a {@link Database}, after they are applied.
+ */
+public interface DatabaseListener {
+
+    /**
+     * Called after a clause was added.
+     */
+    void clauseAdded(Clause clause);
+
+    /**
+     * Called after a clause was removed.
+     */
+    void clauseRemoved(Clause clause);
+}
@@ -0,0 +1,269 @@
+package it.denzosoft.prolog.database;
+
+import it.denzosoft.prolog.engine.ForeignPredicates;
+import it.denzosoft.prolog.model.*;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A database layered over a shared base database, holding only its own
+ * changes.
+ * <p>
+ * Clauses added to the layer are stored in the layer, after the clauses
+ * of the base. Removing a clause of the base only records the removal in
+ * the layer, so the base is never modified and can serve any number of
+ * layers; its memory is shared, and a layer costs memory in proportion to
+ * its own changes. Lookups run on the indexes of both databases and merge
+ * the results, leaving out removed base clauses. The logical update view
+ * also holds for removals of base clauses: an iterator still produces
+ * the base clauses removed after it was created.
+ * <p>
+ * The layer starts with the tabled predicates of the base and has answer
+ * tables of its own. Clauses added to the base later are visible in the
+ * layer, and changes to the base invalidate the tables of the layer as
+ * its own changes do; predicates tabled in the base later are not.
+ */
+public class LayeredDatabase extends Database {
+    private final Database base;
+    private final Map<Clause, Long> removed = new ConcurrentHashMap<>();
+    private final Map<String, Integer> removedCounts = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+
+    public LayeredDatabase(Database base) {
+        this.base = base;
+        getTableSpace().declareAll(base.getTableSpace());
+        base.addListener(new BaseListener(this, base));
+    }
+
+    @Override
+    public boolean isDefined(String name, int arity) {
+        return super.isDefined(name, arity) || base.isDefined(name, arity);
+    }
+
+    /**
+     * Gets the foreign predicates of the base, which the layer shares.
+     */
+    @Override
+    public ForeignPredicates getForeignPredicates() {
+        return base.getForeignPredicates();
+    }
+
+    /**
+     * Gets the database this layer is stacked on.
+     */
+    public Database getBase() {
+        return base;
+    }
+
+    /**
+     * Removes a clause of the layer, or hides a clause of the base from the
+     * layer.
+     * @return true if clause was removed
+     */
+    @Override
+    public boolean removeClause(Clause clause) {
+        if (super.removeClause(clause)) {
+            return true;
+        }
+        Clause stored = base.stored(clause);
+        if (!inBase(stored) || removed.putIfAbsent(stored, clock.incrementAndGet()) != null) {
+            return false;
+        }
+        removedCounts.merge(indicatorOf(clause.getHead()), 1, Integer::sum);
+        clausesChanged();
+        fireClauseRemoved(clause);
+        return true;
+    }
+
+    @Override
+    public Iterator<Clause> clauseIterator(Term term) {
+        return merge(base.clauseIterator(term), super.clauseIterator(term));
+    }
+
+    @Override
+    public int factCount(Term goal) {
+        int shared = base.factCount(goal);
+        int own = super.factCount(goal);
+        if (shared < 0 || own < 0) {
+            return -1;
+        }
+        return shared - removedCount(indicatorOf(goal)) + own;
+    }
+
+    @Override
+    public Iterator<Clause> factIterator(Term goal, long mask, Term[] values) {
+        return merge(base.factIterator(goal, mask, values), super.factIterator(goal, mask, values));
+    }
+
+    /**
+     * Gets the statistics of a predicate across both layers. Distinct
+     * values are taken as the larger of the counts of the two layers.
+     */
+    @Override
+    public PredicateStatistics getStatistics(String name, int arity) {
+        PredicateStatistics shared = base.getStatistics(name, arity);
+        PredicateStatistics own = super.getStatistics(name, arity);
+        int hidden = removedCount(name + "/" + arity);
+        if (shared == null || (own == null && hidden == 0)) {
+            return shared != null ? shared : own;
+        }
+        int[] distinct = new int[shared.getArity()];
+        for (int i = 0; i < distinct.length; i++) {
+            distinct[i] = own != null && i < own.getArity()
+                    ? Math.max(shared.getDistinct(i), own.getDistinct(i))
+                    : shared.getDistinct(i);
+        }
+        int cardinality = shared.getCardinality() - hidden + (own != null ? own.getCardinality() : 0);
+        return new PredicateStatistics(Math.max(0, cardinality), distinct);
+    }
+
+    /**
+     * Gets the static clauses of the base still visible, then those of the
+     * layer.
+     */
+    @Override
+    public List<Clause> getClauses() {
+        List<Clause> visible = visible(base.getClauses());
+        visible.addAll(super.getClauses());
+        return visible;
+    }
+
+    @Override
+    public List<Clause> getDynamicClauses() {
+        List<Clause> visible = visible(base.getDynamicClauses());
+        visible.addAll(super.getDynamicClauses());
+        return visible;
+    }
+
+    /**
+     * Drops the changes of the layer, making the base visible as it is.
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        removed.clear();
+        removedCounts.clear();
+    }
+
+    private boolean inBase(Clause clause) {
+        Iterator<Clause> candidates = base.clauseIterator(clause.getHead());
+        while (candidates.hasNext()) {
+            if (candidates.next() == clause) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int removedCount(String key) {
+        Integer count = key != null && !removedCounts.isEmpty() ? removedCounts.get(key) : null;
+        return count != null ? count : 0;
+    }
+
+    private List<Clause> visible(List<Clause> clauses) {
+        List<Clause> visible = new ArrayList<>(clauses.size());
+        for (Clause clause : clauses) {
+            if (!removed.containsKey(clause)) {
+                visible.add(clause);
+            }
+        }
+        return visible;
+    }
+
+    private Iterator<Clause> merge(Iterator<Clause> shared, Iterator<Clause> own) {
+        if (removed.isEmpty() && !own.hasNext()) {
+            return shared;
+        }
+        return new Merged(shared, own, clock.get());
+    }
+
+    /**
+     * Iterates the base clauses not removed as of a point of the layer's
+     * clock, then the clauses of the layer. Removed clauses are skipped
+     * ahead of time, so that the iterator knows when no clause is left.
+     */
+    private final class Merged implements Iterator<Clause> {
+        private final Iterator<Clause> shared;
+        private final Iterator<Clause> own;
+        private final long time;
+        private Clause next;
+
+        private Merged(Iterator<Clause> shared, Iterator<Clause> own, long time) {
+            this.shared = shared;
+            this.own = own;
+            this.time = time;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Clause next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Clause clause = next;
+            advance();
+            return clause;
+        }
+
+        private void advance() {
+            next = null;
+            while (shared.hasNext()) {
+                Clause clause = shared.next();
+                Long removal = removed.get(clause);
+                if (removal == null || removal > time) {
+                    next = clause;
+                    return;
+                }
+            }
+            if (own.hasNext()) {
+                next = own.next();
+            }
+        }
+    }
+
+    /**
+     * Passes the changes of the base on to a layer. The layer is held
+     * weakly so the base does not keep discarded layers alive; the listener
+     * removes itself once its layer is gone.
+     */
+    private static final class BaseListener implements DatabaseListener {
+        private final WeakReference<LayeredDatabase> layer;
+        private final Database base;
+
+        private BaseListener(LayeredDatabase layer, Database base) {
+            this.layer = new WeakReference<>(layer);
+            this.base = base;
+        }
+
+        @Override
+        public void clauseAdded(Clause clause) {
+            changed();
+        }
+
+        @Override
+        public void clauseRemoved(Clause clause) {
+            changed();
+        }
+
+        private void changed() {
+            LayeredDatabase current = layer.get();
+            if (current != null) {
+                current.clausesChanged();
+            } else {
+                base.removeListener(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package it.denzosoft.prolog.database;
+
+import it.denzosoft.prolog.model.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * The in-memory clauses of one predicate, indexed on the first argument.
+ * <p>
+ * Each first-argument key (an atom, a number, or the name and arity of a
+ * structure) has a bucket holding, in clause order, the clauses with that
+ * key and the clauses whose first argument is a variable. A call whose
+ * first argument is bound only sees its bucket, so when a single clause
+ * can match, the iterator says so before the clause is tried.
+ * <p>
+ * When every clause is a fact with atomic arguments, the predicate can
+ * also be probed on any combination of arguments through hash indexes
+ * built on first use, which is what hash joins read.
+ * <p>
+ * The number of clauses holding each argument value is kept up to date,
+ * which gives the distinct-value counts of {@link PredicateStatistics}.
+ * <p>
+ * Readers never lock. Every change advances the generation of the
+ * predicate, and each clause records the generation that added it and the
+ * one that removed it; an iterator only enumerates the clauses alive at
+ * the generation current when it was created, which is the logical update
+ * view. Writers hold the lock given at creation. Clause lists are only
+ * appended to, and a removal merely stamps the clause; once removed
+ * clauses outnumber the others, the lists are rebuilt without them and
+ * published as a new state, leaving the old one to its iterators.
+ */
+final class Predicate {
+    private static final int MIN_COMPACTION = 16;
+
+    private final Object lock;
+    private volatile State state = new State(0);
+    private volatile int live = 0;
+    private volatile int nonFacts = 0;
+    private volatile java.util.List<Map<Object, Integer>> valueCounts = Collections.emptyList();
+    private int removedCount = 0;
+
+    Predicate(Object lock) {
+        this.lock = lock;
+    }
+
+    /**
+     * Adds a clause after the others.
+     * @param sequence the number identifying the clause in the database
+     */
+    void add(Clause clause, long sequence) {
+        synchronized (lock) {
+            State current = state;
+            append(current, new Entry(clause, sequence, current.generation + 1));
+            current.generation++;
+        }
+    }
+
+    /**
+     * Removes the first clause identical to the given one.
+     * @return the sequence number of the removed clause, or -1 if there is
+     *         no such clause
+     */
+    long remove(Clause clause) {
+        synchronized (lock) {
+            State current = state;
+            long generation = current.generation;
+            Entry found = null;
+            for (int i = 0; i < current.clauses.size && found == null; i++) {
+                Entry entry = current.clauses.entries[i];
+                if (entry.clause == clause && entry.isAlive(generation)) {
+                    found = entry;
+                }
+            }
+            if (found == null) {
+                return -1;
+            }
+            found.removed = generation + 1;
+            live--;
+            if (!isAtomicFact(clause)) {
+                nonFacts--;
+            }
+            uncountValues(clause.getHead());
+            current.generation++;
+            if (++removedCount > MIN_COMPACTION && removedCount > live) {
+                compact(current);
+            }
+            return found.sequence;
+        }
+    }
+
+    int size() {
+        return live;
+    }
+
+    /**
+     * Enumerates the clauses that may match the goal, in clause order.
+     */
+    Iterator<Clause> candidates(Term goal) {
+        State current = state;
+        long generation = current.generation;
+        Object key = key(firstArgument(goal));
+        if (key == null) {
+            return new Snapshot(current.clauses, generation);
+        }
+        ClauseList bucket = current.buckets.get(key);
+        return new Snapshot(bucket != null ? bucket : current.unkeyed, generation);
+    }
+
+    PredicateStatistics statistics() {
+        java.util.List<Map<Object, Integer>> counts = valueCounts;
+        int[] distinct = new int[counts.size()];
+        for (int i = 0; i < distinct.length; i++) {
+            distinct[i] = counts.get(i).size();
+        }
+        return new PredicateStatistics(live, distinct);
+    }
+
+    /**
+     * Adds an entry to the lists of a state; the caller holds the lock.
+     */
+    private void append(State target, Entry entry) {
+        Clause clause = entry.clause;
+        target.clauses.add(entry);
+        if (target == state) {
+            live++;
+            countValues(clause.getHead());
+            if (!isAtomicFact(clause)) {
+                nonFacts++;
+                target.indexes.clear();
+            }
+        }
+        for (Map.Entry<Long, Map<Key, ClauseList>> index : target.indexes.entrySet()) {
+            index.getValue().computeIfAbsent(key(clause.getHead(), index.getKey()), k -> new ClauseList()).add(entry);
+        }
+        Object key = key(firstArgument(clause.getHead()));
+        if (key == null) {
+            target.unkeyed.add(entry);
+            for (ClauseList bucket : target.buckets.values()) {
+                bucket.add(entry);
+            }
+            return;
+        }
+        ClauseList bucket = target.buckets.get(key);
+        if (bucket == null) {
+            // Removed clauses are copied too, for iterators of older generations
+            bucket = new ClauseList();
+            for (int i = 0; i < target.unkeyed.size; i++) {
+                bucket.add(target.unkeyed.entries[i]);
+            }
+            target.buckets.put(key, bucket);
+        }
+        bucket.add(entry);
+    }
+
+    /**
+     * Publishes a state holding only the clauses still alive.
+     */
+    private void compact(State current) {
+        State compacted = new State(current.generation);
+        for (int i = 0; i < current.clauses.size; i++) {
+            Entry entry = current.clauses.entries[i];
+            if (entry.isAlive(current.generation)) {
+                append(compacted, entry);
+            }
+        }
+        removedCount = 0;
+        state = compacted;
+    }
+
+    private void countValues(Term head) {
+        if (!(head instanceof Struct)) {
+            return;
+        }
+        Struct struct = (Struct) head;
+        if (valueCounts.size() < struct.getArity()) {
+            java.util.List<Map<Object, Integer>> counts = new ArrayList<>(valueCounts);
+            while (counts.size() < struct.getArity()) {
+                counts.add(new ConcurrentHashMap<>());
+            }
+            valueCounts = counts;
+        }
+        for (int i = 0; i < struct.getArity(); i++) {
+            Object value = key(struct.getArg(i));
+            if (value != null) {
+                valueCounts.get(i).merge(value, 1, Integer::sum);
+            }
+        }
+    }
+
+    private void uncountValues(Term head) {
+        if (!(head instanceof Struct)) {
+            return;
+        }
+        Struct struct = (Struct) head;
+        for (int i = 0; i < struct.getArity(); i++) {
+            Object value = key(struct.getArg(i));
+            if (value != null) {
+                valueCounts.get(i).computeIfPresent(value, (v, n) -> n == 1 ? null : n - 1);
+            }
+        }
+    }
+
+    /**
+     * Checks whether every clause is a fact whose arguments are atoms or
+     * numbers.
+     */
+    boolean isFactTable() {
+        return nonFacts == 0;
+    }
+
+    /**
+     * Gets the facts whose arguments in the mask hold the given values, in
+     * clause order. Only valid when {@link #isFactTable()} holds. A missing
+     * index is built under the lock, so that no concurrent addition is
+     * left out of it.
+     * @param mask the bound arguments, bit i standing for argument i
+     * @param values the values of the bound arguments in argument order
+     */
+    Iterator<Clause> lookup(long mask, Term[] values) {
+        State current = state;
+        long generation = current.generation;
+        if (mask == 0) {
+            return new Snapshot(current.clauses, generation);
+        }
+        Map<Key, ClauseList> index = current.indexes.get(mask);
+        if (index == null) {
+            synchronized (lock) {
+                index = current.indexes.get(mask);
+                if (index == null) {
+                    index = new ConcurrentHashMap<>();
+                    for (int i = 0; i < current.clauses.size; i++) {
+                        Entry entry = current.clauses.entries[i];
+                        index.computeIfAbsent(key(entry.clause.getHead(), mask), k -> new ClauseList()).add(entry);
+                    }
+                    current.indexes.put(mask, index);
+                }
+            }
+        }
+        ClauseList matches = index.get(new Key(values));
+        return matches != null ? new Snapshot(matches, generation) : Collections.emptyIterator();
+    }
+
+    private static boolean isAtomicFact(Clause clause) {
+        if (clause.getBody() != null) {
+            return false;
+        }
+        if (clause.getHead() instanceof Struct) {
+            Struct head = (Struct) clause.getHead();
+            for (int i = 0; i < head.getArity(); i++) {
+                Term arg = head.getArg(i);
+                if (!(arg instanceof Atom || arg instanceof it.denzosoft.prolog.model.Number)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return clause.getHead() instanceof Atom;
+    }
+
+    private static Key key(Term head, long mask) {
+        Term[] values = new Term[Long.bitCount(mask)];
+        int n = 0;
+        for (int i = 0; i < ((Struct) head).getArity(); i++) {
+            if ((mask & (1L << i)) != 0) {
+                values[n++] = ((Struct) head).getArg(i);
+            }
+        }
+        return new Key(values);
+    }
+
+    private static Term firstArgument(Term term) {
+        term = deref(term);
+        if (term instanceof Struct && ((Struct) term).getArity() > 0) {
+            return ((Struct) term).getArg(0);
+        }
+        if (term instanceof it.denzosoft.prolog.model.List) {
+            return ((it.denzosoft.prolog.model.List) term).getHead();
+        }
+        return null;
+    }
+
+    /**
+     * Gets the index key of a first argument.
+     * @return the key, or null if the argument is unbound or absent
+     */
+    private static Object key(Term arg) {
+        arg = deref(arg);
+        if (arg == null || arg instanceof Variable) {
+            return null;
+        }
+        if (arg instanceof Struct) {
+            Struct struct = (Struct) arg;
+            return struct.getFunctor().getValue() + "/" + struct.getArity();
+        }
+        if (arg instanceof it.denzosoft.prolog.model.List) {
+            return "./2";
+        }
+        return arg;
+    }
+
+    private static Term deref(Term term) {
+        while (term instanceof Variable && ((Variable) term).isBound()) {
+            term = ((Variable) term).getBinding();
+        }
+        return term;
+    }
+
+    /**
+     * The clause lists of a predicate, from one compaction to the next.
+     */
+    private static final class State {
+        private final ClauseList clauses = new ClauseList();
+        private final Map<Object, ClauseList> buckets = new ConcurrentHashMap<>();
+        private final ClauseList unkeyed = new ClauseList();
+        private final Map<Long, Map<Key, ClauseList>> indexes = new ConcurrentHashMap<>();
+        private volatile long generation;
+
+        private State(long generation) {
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * A clause with the generations that added and removed it.
+     */
+    private static final class Entry {
+        private final Clause clause;
+        private final long sequence;
+        private final long added;
+        private volatile long removed = Long.MAX_VALUE;
+
+        private Entry(Clause clause, long sequence, long added) {
+            this.clause = clause;
+            this.sequence = sequence;
+            this.added = added;
+        }
+
+        private boolean isAlive(long generation) {
+            return added <= generation && generation < removed;
+        }
+    }
+
+    /**
+     * A list only ever appended to, by one writer at a time. The size is
+     * published after the entry, so a reader that reads the size first
+     * sees every entry below it.
+     */
+    private static final class ClauseList {
+        private volatile Entry[] entries = new Entry[2];
+        private volatile int size = 0;
+
+        private void add(Entry entry) {
+            Entry[] array = entries;
+            if (size == array.length) {
+                array = Arrays.copyOf(array, array.length * 2);
+                entries = array;
+            }
+            array[size] = entry;
+            size = size + 1;
+        }
+    }
+
+    /**
+     * Iterates the clauses of a list alive at a generation, up to the size
+     * the list had when the iterator was created.
+     */
+    private static final class Snapshot implements Iterator<Clause> {
+        private final Entry[] entries;
+        private final int end;
+        private final long generation;
+        private int position = 0;
+
+        private Snapshot(ClauseList list, long generation) {
+            this.end = list.size;
+            this.entries = list.entries;
+            this.generation = generation;
+            skip();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < end;
+        }
+
+        @Override
+        public Clause next() {
+            if (position >= end) {
+                throw new NoSuchElementException();
+            }
+            Clause clause = entries[position++].clause;
+            skip();
+            return clause;
+        }
+
+        private void skip() {
+            while (position < end && !entries[position].isAlive(generation)) {
+                position++;
+            }
+        }
+    }
+
+    /**
+     * The values of the indexed arguments of a fact. Atom hashes are string
+     * hashes, so they are scrambled before being combined.
+     */
+    private static final class Key {
+        private final Term[] values;
+        private final int hash;
+
+        private Key(Term[] values) {
+            this.values = values;
+            int h = 0;
+            for (Term value : values) {
+                int v = value.hashCode() * 0x9E3779B9;
+                h = (h ^ (v ^ (v >>> 16))) * 0x85EBCA6B;
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && Arrays.equals(values, ((Key) obj).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package it.denzosoft.prolog.database;
+
+
+/**
+ * Cardinality statistics of a predicate: its number of clauses and, for
+ * each argument, the number of distinct values it takes. Arguments that
+ * are variables are not counted as values.
+ */
+public class PredicateStatistics {
+    private final int cardinality;
+    private final int[] distinct;
+
+    public PredicateStatistics(int cardinality, int[] distinct) {
+        this.cardinality = cardinality;
+        this.distinct = distinct.clone();
+    }
+
+    public int getCardinality() {
+        return cardinality;
+    }
+
+    public int getArity() {
+        return distinct.length;
+    }
+
+    /**
+     * Gets the number of distinct values of an argument.
+     * @param arg the 0-based argument position
+     */
+    public int getDistinct(int arg) {
+        return distinct[arg];
+    }
+
+    /**
+     * Estimates how many clauses match a call whose arguments in the mask
+     * are bound, assuming values are uniformly distributed and arguments
+     * independent.
+     * @param mask the bound arguments, bit i standing for argument i
+     */
+    public double estimateMatches(long mask) {
+        double matches = cardinality;
+        for (int i = 0; i < distinct.length; i++) {
+            if ((mask & (1L << i)) != 0 && distinct[i] > 0) {
+                matches /= distinct[i];
+            }
+        }
+        return matches;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("cardinality=" + cardinality + ", distinct=[");
+        for (int i = 0; i < distinct.length; i++) {
+            sb.append(i > 0 ? ", " : "").append(distinct[i]);
+        }
+        return sb.append("]").toString();
+    }
+}
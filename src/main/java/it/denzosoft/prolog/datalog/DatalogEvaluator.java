@@ -0,0 +1,137 @@
+package it.denzosoft.prolog.datalog;
+
+import it.denzosoft.prolog.PrologConfig;
+import it.denzosoft.prolog.database.Database;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Evaluates Datalog predicates bottom-up.
+ * <p>
+ * A predicate qualifies when its clauses and those of every predicate it
+ * depends on are function-free: facts are ground atoms and numbers, rule
+ * bodies are conjunctions of calls and comparisons, and every variable of
+ * a rule is bound by one of its calls. The dependency graph is split into
+ * strata, its strongly connected components, which are computed callees
+ * first. Each stratum is brought to a fixpoint by semi-naive iteration:
+ * a round only fires rules with at least one recursive call reading the
+ * tuples derived in the previous round. Calls are joined left to right,
+ * probing hash indexes on the columns already bound.
+ * <p>
+ * Relations are computed from the clauses present at evaluation time;
+ * {@link #reset()} discards them after the database changes.
+ */
+public class DatalogEvaluator {
+    private final Database database;
+    private final Map<String, Relation> relations = new HashMap<>();
+    private final SemiNaive semiNaive = new SemiNaive();
+
+    public DatalogEvaluator(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * Checks whether a predicate and everything it depends on can be
+     * evaluated bottom-up.
+     */
+    public boolean isDatalog(String name, int arity) {
+        try {
+            Program.analyze(database, name, arity, relations.keySet());
+            return true;
+        } catch (IllegalArgumentException e) {
+            PrologConfig.debug(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Computes the relation of a predicate.
+     * @throws IllegalArgumentException if the predicate is not Datalog
+     */
+    public Relation evaluate(String name, int arity) {
+        String key = name + "/" + arity;
+        Relation known = relations.get(key);
+        if (known != null) {
+            return known;
+        }
+        Program program = Program.analyze(database, name, arity, relations.keySet());
+        for (java.util.List<String> stratum : program.strata()) {
+            evaluateStratum(stratum, program);
+        }
+        return relations.get(key);
+    }
+
+    /**
+     * Computes the relation of a predicate and attaches it to the database,
+     * so queries read the predicate from the relation instead of resolving
+     * its rules.
+     */
+    public Relation materialize(String name, int arity) {
+        Relation relation = evaluate(name, arity);
+        database.attachSource(new RelationSource(relation));
+        return relation;
+    }
+
+    /**
+     * Discards every computed relation.
+     */
+    public void reset() {
+        relations.clear();
+    }
+
+    /**
+     * Gets the number of semi-naive rounds run so far.
+     */
+    public long getIterations() {
+        return semiNaive.getRounds();
+    }
+
+    /**
+     * Gets the number of head tuples produced by rule firings, duplicates
+     * included.
+     */
+    public long getDerivations() {
+        return semiNaive.getDerivations();
+    }
+
+    private void evaluateStratum(java.util.List<String> stratum, Program program) {
+        if (relations.containsKey(stratum.get(0))) {
+            return;
+        }
+        Set<String> recursive = new HashSet<>(stratum);
+        Map<String, Relation> delta = new HashMap<>();
+        for (String key : stratum) {
+            Program.Definition definition = program.get(key);
+            Relation full = new Relation(definition.name, definition.arity);
+            Relation initial = new Relation(definition.name, definition.arity);
+            for (Tuple fact : definition.facts) {
+                full.add(fact);
+                initial.add(fact);
+            }
+            relations.put(key, full);
+            delta.put(key, initial);
+        }
+
+        // Rules without recursive calls only need to fire once
+        for (String key : stratum) {
+            Relation full = relations.get(key);
+            Relation initial = delta.get(key);
+            for (Rule rule : program.get(key).rules) {
+                if (!rule.callsAny(recursive)) {
+                    semiNaive.addDerivations(rule.fire(SemiNaive.inputs(rule, -1, null, relations), tuple -> {
+                        if (full.add(tuple)) {
+                            initial.add(tuple);
+                        }
+                    }));
+                }
+            }
+        }
+        semiNaive.saturate(stratum, program, relations, delta, null);
+        if (PrologConfig.isDebugEnabled()) {
+            PrologConfig.debug("Evaluated stratum " + stratum + " after " + semiNaive.getRounds() + " rounds");
+        }
+    }
+}
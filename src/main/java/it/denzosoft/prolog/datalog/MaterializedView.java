@@ -0,0 +1,498 @@
+package it.denzosoft.prolog.datalog;
+
+import it.denzosoft.prolog.PrologConfig;
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.database.DatabaseListener;
+import it.denzosoft.prolog.model.*;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * The extension of a Datalog predicate, stored in the database and kept up
+ * to date as facts are added and removed.
+ * <p>
+ * The view holds a relation for the predicate and for everything it
+ * depends on, and is attached to the database so that queries read it
+ * through hash indexes. A fact change is propagated stratum by stratum:
+ * <ul>
+ * <li>non-recursive predicates keep the number of derivations of each
+ * tuple (counting), so an insertion or deletion only fires the rules on
+ * the changed tuples and a tuple disappears when its count drops to zero;</li>
+ * <li>recursive strata use delete-and-rederive: tuples depending on a
+ * deleted one are removed, those with another derivation are put back,
+ * and insertions continue the semi-naive iteration from the new tuples.</li>
+ * </ul>
+ * A change to the rules of the view recomputes it from scratch. The cost
+ * of each update is recorded as the number of rule derivations it took.
+ * The clauses of the view predicate itself are read-only until the view
+ * is dropped.
+ */
+public class MaterializedView implements DatabaseListener {
+    private final Database database;
+    private final String name;
+    private final int arity;
+    private Program program;
+    private java.util.List<java.util.List<String>> strata;
+    private final Map<String, Relation> relations = new HashMap<>();
+    private final Map<String, Map<Tuple, Integer>> facts = new HashMap<>();
+    private final Map<String, Map<Tuple, Integer>> counts = new HashMap<>();
+    private RelationSource source;
+    private long updates = 0;
+    private long recomputations = 0;
+    private long totalCost = 0;
+    private long lastCost = 0;
+    private long lastNanos = 0;
+
+    private MaterializedView(Database database, String name, int arity) {
+        this.database = database;
+        this.name = name;
+        this.arity = arity;
+    }
+
+    /**
+     * Computes the extension of a predicate and keeps it materialized in
+     * the database.
+     * @throws IllegalArgumentException if the predicate is not Datalog
+     */
+    public static MaterializedView create(Database database, String name, int arity) {
+        MaterializedView view = new MaterializedView(database, name, arity);
+        view.recompute();
+        database.addListener(view);
+        return view;
+    }
+
+    /**
+     * Stops maintaining the view and gives the predicate back to its rules.
+     */
+    public void drop() {
+        database.removeListener(this);
+        database.detachSource(name, arity);
+    }
+
+    public Relation getRelation() {
+        return relations.get(name + "/" + arity);
+    }
+
+    @Override
+    public void clauseAdded(Clause clause) {
+        String key = Database.indicatorOf(clause.getHead());
+        if (!program.keys().contains(key)) {
+            return;
+        }
+        long start = System.nanoTime();
+        SemiNaive work = new SemiNaive();
+        if (clause.getBody() != null) {
+            recompute();
+        } else {
+            Tuple tuple = Program.fact(clause.getHead());
+            if (adjust(facts.get(key), tuple, 1) == 1) {
+                insert(key, tuple, work);
+            } else if (counts.containsKey(key)) {
+                adjust(counts.get(key), tuple, 1);
+            }
+        }
+        recordUpdate(work, start);
+    }
+
+    @Override
+    public void clauseRemoved(Clause clause) {
+        String key = Database.indicatorOf(clause.getHead());
+        if (!program.keys().contains(key)) {
+            return;
+        }
+        long start = System.nanoTime();
+        SemiNaive work = new SemiNaive();
+        if (clause.getBody() != null) {
+            recompute();
+        } else {
+            Tuple tuple = Program.fact(clause.getHead());
+            Map<Tuple, Integer> multiplicity = facts.get(key);
+            if (!multiplicity.containsKey(tuple)) {
+                return;
+            }
+            if (adjust(multiplicity, tuple, -1) == 0) {
+                delete(key, tuple, work);
+            } else if (counts.containsKey(key)) {
+                adjust(counts.get(key), tuple, -1);
+            }
+        }
+        recordUpdate(work, start);
+    }
+
+    /**
+     * Gets the number of fact updates the view has processed.
+     */
+    public long getUpdateCount() {
+        return updates;
+    }
+
+    /**
+     * Gets the number of times the view was computed from scratch.
+     */
+    public long getRecomputationCount() {
+        return recomputations;
+    }
+
+    /**
+     * Gets the number of rule derivations made by the last update.
+     */
+    public long getLastUpdateCost() {
+        return lastCost;
+    }
+
+    public long getLastUpdateNanos() {
+        return lastNanos;
+    }
+
+    /**
+     * Gets the average number of rule derivations per update.
+     */
+    public double getAverageUpdateCost() {
+        return updates == 0 ? 0 : (double) totalCost / updates;
+    }
+
+    private void recordUpdate(SemiNaive work, long start) {
+        updates++;
+        lastCost = work.getDerivations();
+        totalCost += lastCost;
+        lastNanos = System.nanoTime() - start;
+        if (PrologConfig.isDebugEnabled()) {
+            PrologConfig.debug("View " + name + "/" + arity + " updated with " + lastCost + " derivations");
+        }
+    }
+
+    /**
+     * Computes every relation from the clauses of the database.
+     */
+    private void recompute() {
+        recomputations++;
+        database.detachSource(name, arity);
+        program = Program.analyze(database, name, arity, Collections.emptySet());
+        strata = program.strata();
+        relations.clear();
+        facts.clear();
+        counts.clear();
+
+        SemiNaive work = new SemiNaive();
+        for (java.util.List<String> stratum : strata) {
+            Map<String, Relation> delta = new HashMap<>();
+            for (String key : stratum) {
+                Program.Definition definition = program.get(key);
+                Relation full = new Relation(definition.name, definition.arity);
+                Map<Tuple, Integer> multiplicity = new HashMap<>();
+                for (Tuple fact : definition.facts) {
+                    adjust(multiplicity, fact, 1);
+                    full.add(fact);
+                }
+                relations.put(key, full);
+                facts.put(key, multiplicity);
+                delta.put(key, new Relation(definition.name, definition.arity));
+                for (Tuple tuple : full) {
+                    delta.get(key).add(tuple);
+                }
+            }
+
+            if (!SemiNaive.isRecursive(stratum, program)) {
+                String key = stratum.get(0);
+                Map<Tuple, Integer> count = new HashMap<>(facts.get(key));
+                Relation full = relations.get(key);
+                for (Rule rule : program.get(key).rules) {
+                    work.addDerivations(rule.fire(SemiNaive.inputs(rule, -1, null, relations), tuple -> {
+                        adjust(count, tuple, 1);
+                        full.add(tuple);
+                    }));
+                }
+                counts.put(key, count);
+                continue;
+            }
+
+            Set<String> recursive = new HashSet<>(stratum);
+            for (String key : stratum) {
+                Relation full = relations.get(key);
+                Relation initial = delta.get(key);
+                for (Rule rule : program.get(key).rules) {
+                    if (!rule.callsAny(recursive)) {
+                        work.addDerivations(rule.fire(SemiNaive.inputs(rule, -1, null, relations), tuple -> {
+                            if (full.add(tuple)) {
+                                initial.add(tuple);
+                            }
+                        }));
+                    }
+                }
+            }
+            work.saturate(stratum, program, relations, delta, null);
+        }
+
+        source = new RelationSource(getRelation());
+        database.attachSource(source);
+    }
+
+    /**
+     * Propagates the insertion of a base fact.
+     */
+    private void insert(String changed, Tuple fact, SemiNaive work) {
+        Map<String, Relation> plus = new HashMap<>();
+        for (java.util.List<String> stratum : strata) {
+            Map<String, Relation> delta = new HashMap<>();
+            for (String key : stratum) {
+                Program.Definition definition = program.get(key);
+                delta.put(key, new Relation(definition.name, definition.arity));
+            }
+            if (stratum.contains(changed) && relations.get(changed).add(fact)) {
+                delta.get(changed).add(fact);
+            }
+
+            if (!SemiNaive.isRecursive(stratum, program)) {
+                String key = stratum.get(0);
+                Map<Tuple, Integer> count = counts.get(key);
+                if (key.equals(changed)) {
+                    adjust(count, fact, 1);
+                }
+                Relation full = relations.get(key);
+                Relation added = delta.get(key);
+                for (Rule rule : program.get(key).rules) {
+                    String[] calls = rule.calls();
+                    for (int i = 0; i < calls.length; i++) {
+                        if (calls[i] == null || !plus.containsKey(calls[i]) || plus.get(calls[i]).isEmpty()) {
+                            continue;
+                        }
+                        // Earlier calls read the old state, later ones the new one
+                        RelationView[] inputs = SemiNaive.inputs(rule, i, plus.get(calls[i]), relations);
+                        for (int j = 0; j < i; j++) {
+                            if (calls[j] != null && plus.containsKey(calls[j])) {
+                                inputs[j] = new Overlay(relations.get(calls[j]), null, plus.get(calls[j]));
+                            }
+                        }
+                        work.addDerivations(rule.fire(inputs, tuple -> {
+                            if (adjust(count, tuple, 1) == 1) {
+                                added.add(tuple);
+                            }
+                        }));
+                    }
+                }
+                for (Tuple tuple : added) {
+                    full.add(tuple);
+                }
+                plus.put(key, added);
+                continue;
+            }
+
+            Map<String, Relation> added = new HashMap<>();
+            for (String key : stratum) {
+                Relation full = relations.get(key);
+                Relation initial = delta.get(key);
+                for (Rule rule : program.get(key).rules) {
+                    String[] calls = rule.calls();
+                    for (int i = 0; i < calls.length; i++) {
+                        if (calls[i] == null || stratum.contains(calls[i])
+                                || !plus.containsKey(calls[i]) || plus.get(calls[i]).isEmpty()) {
+                            continue;
+                        }
+                        work.addDerivations(rule.fire(SemiNaive.inputs(rule, i, plus.get(calls[i]), relations), tuple -> {
+                            if (!full.contains(tuple)) {
+                                initial.add(tuple);
+                            }
+                        }));
+                    }
+                }
+                for (Tuple tuple : initial) {
+                    full.add(tuple);
+                }
+                added.put(key, copy(initial));
+            }
+            work.saturate(stratum, program, relations, delta, added);
+            plus.putAll(added);
+        }
+    }
+
+    /**
+     * Propagates the deletion of a base fact.
+     */
+    private void delete(String changed, Tuple fact, SemiNaive work) {
+        Map<String, Relation> minus = new HashMap<>();
+        for (java.util.List<String> stratum : strata) {
+            if (!SemiNaive.isRecursive(stratum, program)) {
+                String key = stratum.get(0);
+                Program.Definition definition = program.get(key);
+                Map<Tuple, Integer> count = counts.get(key);
+                Relation removed = new Relation(definition.name, definition.arity);
+                if (key.equals(changed) && adjust(count, fact, -1) == 0) {
+                    removed.add(fact);
+                }
+                for (Rule rule : definition.rules) {
+                    String[] calls = rule.calls();
+                    for (int i = 0; i < calls.length; i++) {
+                        if (calls[i] == null || !minus.containsKey(calls[i]) || minus.get(calls[i]).isEmpty()) {
+                            continue;
+                        }
+                        // Earlier calls read the new state, later ones the old one
+                        RelationView[] inputs = SemiNaive.inputs(rule, i, minus.get(calls[i]), relations);
+                        for (int j = i + 1; j < calls.length; j++) {
+                            if (calls[j] != null && minus.containsKey(calls[j])) {
+                                inputs[j] = new Overlay(relations.get(calls[j]), minus.get(calls[j]), null);
+                            }
+                        }
+                        work.addDerivations(rule.fire(inputs, tuple -> {
+                            if (adjust(count, tuple, -1) == 0) {
+                                removed.add(tuple);
+                            }
+                        }));
+                    }
+                }
+                Relation full = relations.get(key);
+                for (Tuple tuple : removed) {
+                    full.remove(tuple);
+                }
+                minus.put(key, removed);
+                continue;
+            }
+            rederive(stratum, changed, fact, minus, work);
+        }
+    }
+
+    /**
+     * Delete-and-rederive over a recursive stratum.
+     */
+    private void rederive(java.util.List<String> stratum, String changed, Tuple fact,
+                          Map<String, Relation> minus, SemiNaive work) {
+        // Relations as they were before the deletion, for the strata below
+        Map<String, Relation> old = new HashMap<>(relations);
+        Map<String, RelationView> before = new HashMap<>();
+        for (Map.Entry<String, Relation> entry : minus.entrySet()) {
+            before.put(entry.getKey(), new Overlay(relations.get(entry.getKey()), entry.getValue(), null));
+        }
+
+        // 1. Over-delete everything with a derivation through a deleted tuple
+        Map<String, Relation> deleted = new HashMap<>();
+        Map<String, Relation> frontier = new HashMap<>();
+        for (String key : stratum) {
+            Program.Definition definition = program.get(key);
+            deleted.put(key, new Relation(definition.name, definition.arity));
+            frontier.put(key, new Relation(definition.name, definition.arity));
+        }
+        if (stratum.contains(changed) && relations.get(changed).contains(fact)) {
+            deleted.get(changed).add(fact);
+            frontier.get(changed).add(fact);
+        }
+        Map<String, Relation> lower = minus;
+        boolean first = true;
+        while (true) {
+            Map<String, Relation> next = new HashMap<>();
+            boolean changedAny = false;
+            for (String key : stratum) {
+                Program.Definition definition = program.get(key);
+                Relation found = new Relation(definition.name, definition.arity);
+                for (Rule rule : definition.rules) {
+                    String[] calls = rule.calls();
+                    for (int i = 0; i < calls.length; i++) {
+                        Relation source = null;
+                        if (calls[i] != null && stratum.contains(calls[i])) {
+                            source = frontier.get(calls[i]);
+                        } else if (first && calls[i] != null && lower.containsKey(calls[i])) {
+                            source = lower.get(calls[i]);
+                        }
+                        if (source == null || source.isEmpty()) {
+                            continue;
+                        }
+                        RelationView[] inputs = SemiNaive.inputs(rule, i, source, old);
+                        for (int j = 0; j < calls.length; j++) {
+                            if (j != i && calls[j] != null && before.containsKey(calls[j])) {
+                                inputs[j] = before.get(calls[j]);
+                            }
+                        }
+                        Relation full = relations.get(key);
+                        Relation already = deleted.get(key);
+                        work.addDerivations(rule.fire(inputs, tuple -> {
+                            if (full.contains(tuple) && !already.contains(tuple)) {
+                                found.add(tuple);
+                            }
+                        }));
+                    }
+                }
+                for (Tuple tuple : found) {
+                    deleted.get(key).add(tuple);
+                }
+                next.put(key, found);
+                changedAny |= !found.isEmpty();
+            }
+            first = false;
+            if (!changedAny) {
+                break;
+            }
+            frontier = next;
+        }
+
+        // 2. Remove them, 3. put back those that still have a derivation
+        for (String key : stratum) {
+            for (Tuple tuple : deleted.get(key)) {
+                relations.get(key).remove(tuple);
+            }
+        }
+        Map<String, Relation> rederived = new HashMap<>();
+        for (String key : stratum) {
+            Program.Definition definition = program.get(key);
+            Relation back = new Relation(definition.name, definition.arity);
+            for (Tuple tuple : deleted.get(key)) {
+                if (facts.get(key).containsKey(tuple)) {
+                    back.add(tuple);
+                    continue;
+                }
+                for (Rule rule : definition.rules) {
+                    long derivations = rule.fireFor(tuple, SemiNaive.inputs(rule, -1, null, relations), t -> { });
+                    work.addDerivations(derivations);
+                    if (derivations > 0) {
+                        back.add(tuple);
+                        break;
+                    }
+                }
+            }
+            for (Tuple tuple : back) {
+                relations.get(key).add(tuple);
+            }
+            rederived.put(key, back);
+        }
+
+        // 4. Let the rederived tuples derive the rest again
+        Map<String, Relation> added = new HashMap<>();
+        for (String key : stratum) {
+            added.put(key, copy(rederived.get(key)));
+        }
+        work.saturate(stratum, program, relations, rederived, added);
+        for (String key : stratum) {
+            Program.Definition definition = program.get(key);
+            Relation removed = new Relation(definition.name, definition.arity);
+            for (Tuple tuple : deleted.get(key)) {
+                if (!relations.get(key).contains(tuple)) {
+                    removed.add(tuple);
+                }
+            }
+            minus.put(key, removed);
+        }
+    }
+
+    private static Relation copy(Relation relation) {
+        Relation copy = new Relation(relation.getName(), relation.getArity());
+        for (Tuple tuple : relation) {
+            copy.add(tuple);
+        }
+        return copy;
+    }
+
+    /**
+     * Adds to the count of a tuple, dropping it at zero.
+     * @return the new count
+     */
+    private static int adjust(Map<Tuple, Integer> counts, Tuple tuple, int change) {
+        int count = counts.getOrDefault(tuple, 0) + change;
+        if (count <= 0) {
+            counts.remove(tuple);
+            return 0;
+        }
+        counts.put(tuple, count);
+        return count;
+    }
+}
@@ -0,0 +1,41 @@
+package it.denzosoft.prolog.datalog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+
+/**
+ * A relation as it was before or will be after an update: the tuples of a
+ * base relation minus the removed ones, plus the added ones.
+ */
+final class Overlay implements RelationView {
+    private final RelationView base;
+    private final Relation added;
+    private final Relation removed;
+
+    Overlay(RelationView base, Relation added, Relation removed) {
+        this.base = base;
+        this.added = added;
+        this.removed = removed;
+    }
+
+    @Override
+    public Iterable<Tuple> lookup(long mask, Tuple values) {
+        Iterable<Tuple> matches = base.lookup(mask, values);
+        if ((removed == null || removed.isEmpty()) && (added == null || added.isEmpty())) {
+            return matches;
+        }
+        java.util.List<Tuple> result = new ArrayList<>();
+        for (Tuple tuple : matches) {
+            if (removed == null || !removed.contains(tuple)) {
+                result.add(tuple);
+            }
+        }
+        if (added != null) {
+            for (Tuple tuple : added.lookup(mask, values)) {
+                result.add(tuple);
+            }
+        }
+        return result.isEmpty() ? Collections.emptyList() : result;
+    }
+}
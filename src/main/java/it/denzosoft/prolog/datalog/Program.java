@@ -0,0 +1,162 @@
+package it.denzosoft.prolog.datalog;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * The Datalog definitions a predicate depends on, read from a database.
+ */
+final class Program {
+    private final Map<String, Definition> definitions = new LinkedHashMap<>();
+
+    /**
+     * Reads the facts and rules of a predicate and of everything it calls.
+     * @param known predicates whose relations are already computed; their
+     *              clauses are not read
+     * @throws IllegalArgumentException if a clause is not Datalog
+     */
+    static Program analyze(Database database, String name, int arity, Set<String> known) {
+        Program program = new Program();
+        Deque<Definition> pending = new ArrayDeque<>();
+        Definition root = new Definition(name, arity);
+        program.definitions.put(root.key, root);
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Definition definition = pending.pop();
+            if (known.contains(definition.key)) {
+                continue;
+            }
+            Term[] args = new Term[definition.arity];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = new Variable("_");
+            }
+            Term goal = args.length == 0 ? new Atom(definition.name) : new Struct(new Atom(definition.name), args);
+            for (Clause clause : database.findClauses(goal)) {
+                if (clause.getBody() == null) {
+                    definition.facts.add(fact(clause.getHead()));
+                    continue;
+                }
+                Rule rule = Rule.compile(clause);
+                definition.rules.add(rule);
+                for (String callee : rule.calls()) {
+                    if (callee != null && !program.definitions.containsKey(callee)) {
+                        int slash = callee.lastIndexOf('/');
+                        Definition next = new Definition(callee.substring(0, slash),
+                                Integer.parseInt(callee.substring(slash + 1)));
+                        program.definitions.put(next.key, next);
+                        pending.push(next);
+                    }
+                }
+            }
+        }
+        return program;
+    }
+
+    /**
+     * Converts a ground function-free fact to a tuple.
+     * @throws IllegalArgumentException if the fact has a variable or a
+     *                                  compound argument
+     */
+    static Tuple fact(Term head) {
+        Term[] values = new Term[head instanceof Struct ? ((Struct) head).getArity() : 0];
+        for (int i = 0; i < values.length; i++) {
+            Term arg = ((Struct) head).getArg(i);
+            if (!(arg instanceof Atom || arg instanceof it.denzosoft.prolog.model.Number)) {
+                throw new IllegalArgumentException("Not a Datalog fact: " + head);
+            }
+            values[i] = arg;
+        }
+        return new Tuple(values);
+    }
+
+    Definition get(String key) {
+        return definitions.get(key);
+    }
+
+    Set<String> keys() {
+        return definitions.keySet();
+    }
+
+    /**
+     * Splits the program into strongly connected components, callees first
+     * (Tarjan's algorithm, which emits components in that order).
+     */
+    java.util.List<java.util.List<String>> strata() {
+        java.util.List<java.util.List<String>> strata = new ArrayList<>();
+        Map<String, Integer> index = new HashMap<>();
+        Map<String, Integer> lowLink = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        Set<String> onStack = new HashSet<>();
+        for (String start : definitions.keySet()) {
+            if (!index.containsKey(start)) {
+                connect(start, index, lowLink, stack, onStack, strata);
+            }
+        }
+        return strata;
+    }
+
+    private void connect(String key, Map<String, Integer> index, Map<String, Integer> lowLink,
+                         Deque<String> stack, Set<String> onStack,
+                         java.util.List<java.util.List<String>> strata) {
+        index.put(key, index.size());
+        lowLink.put(key, index.get(key));
+        stack.push(key);
+        onStack.add(key);
+        for (String callee : definitions.get(key).callees()) {
+            if (!index.containsKey(callee)) {
+                connect(callee, index, lowLink, stack, onStack, strata);
+                lowLink.put(key, Math.min(lowLink.get(key), lowLink.get(callee)));
+            } else if (onStack.contains(callee)) {
+                lowLink.put(key, Math.min(lowLink.get(key), index.get(callee)));
+            }
+        }
+        if (lowLink.get(key).equals(index.get(key))) {
+            java.util.List<String> component = new ArrayList<>();
+            String member;
+            do {
+                member = stack.pop();
+                onStack.remove(member);
+                component.add(member);
+            } while (!member.equals(key));
+            strata.add(component);
+        }
+    }
+
+    /**
+     * The facts and rules of one predicate.
+     */
+    static final class Definition {
+        final String name;
+        final int arity;
+        final String key;
+        final java.util.List<Tuple> facts = new ArrayList<>();
+        final java.util.List<Rule> rules = new ArrayList<>();
+
+        private Definition(String name, int arity) {
+            this.name = name;
+            this.arity = arity;
+            this.key = name + "/" + arity;
+        }
+
+        Set<String> callees() {
+            Set<String> callees = new HashSet<>();
+            for (Rule rule : rules) {
+                for (String callee : rule.calls()) {
+                    if (callee != null) {
+                        callees.add(callee);
+                    }
+                }
+            }
+            return callees;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package it.denzosoft.prolog.datalog;
+
+import it.denzosoft.prolog.model.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * A set of tuples of one predicate, with hash indexes built on demand.
+ * <p>
+ * An index covers one combination of bound columns, given as a bit mask,
+ * and maps the values of those columns to the matching tuples. Once built,
+ * an index is kept up to date by {@link #add(Tuple)} and
+ * {@link #remove(Tuple)}, so joins that probe the same columns round after
+ * round pay for it only once.
+ */
+public class Relation implements Iterable<Tuple>, RelationView {
+    private final String name;
+    private final int arity;
+    private final Set<Tuple> tuples = new LinkedHashSet<>();
+    private final Map<Long, Map<Tuple, java.util.List<Tuple>>> indexes = new HashMap<>();
+
+    public Relation(String name, int arity) {
+        if (arity > 63) {
+            throw new IllegalArgumentException("Relations are limited to 63 columns: " + name + "/" + arity);
+        }
+        this.name = name;
+        this.arity = arity;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getArity() {
+        return arity;
+    }
+
+    public int size() {
+        return tuples.size();
+    }
+
+    public boolean isEmpty() {
+        return tuples.isEmpty();
+    }
+
+    public boolean contains(Tuple tuple) {
+        return tuples.contains(tuple);
+    }
+
+    /**
+     * Adds a tuple.
+     * @return false if it was already present
+     */
+    public boolean add(Tuple tuple) {
+        if (tuple.size() != arity) {
+            throw new IllegalArgumentException("Expected " + arity + " columns: " + tuple);
+        }
+        if (!tuples.add(tuple)) {
+            return false;
+        }
+        for (Map.Entry<Long, Map<Tuple, java.util.List<Tuple>>> index : indexes.entrySet()) {
+            index.getValue().computeIfAbsent(key(tuple, index.getKey()), k -> new ArrayList<>(2)).add(tuple);
+        }
+        return true;
+    }
+
+    /**
+     * Finds the tuples whose columns in the mask hold the given values.
+     * @param mask the bound columns, bit i standing for column i
+     * @param values a tuple holding the values of the bound columns in
+     *               column order
+     */
+    @Override
+    public Iterable<Tuple> lookup(long mask, Tuple values) {
+        if (mask == 0) {
+            return tuples;
+        }
+        Map<Tuple, java.util.List<Tuple>> index = indexes.get(mask);
+        if (index == null) {
+            index = new HashMap<>();
+            for (Tuple tuple : tuples) {
+                index.computeIfAbsent(key(tuple, mask), k -> new ArrayList<>(2)).add(tuple);
+            }
+            indexes.put(mask, index);
+        }
+        java.util.List<Tuple> matches = index.get(values);
+        return matches != null ? matches : Collections.emptyList();
+    }
+
+    /**
+     * Removes a tuple.
+     * @return false if it was not present
+     */
+    public boolean remove(Tuple tuple) {
+        if (!tuples.remove(tuple)) {
+            return false;
+        }
+        for (Map.Entry<Long, Map<Tuple, java.util.List<Tuple>>> index : indexes.entrySet()) {
+            Tuple key = key(tuple, index.getKey());
+            java.util.List<Tuple> bucket = index.getValue().get(key);
+            bucket.remove(tuple);
+            if (bucket.isEmpty()) {
+                index.getValue().remove(key);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Iterator<Tuple> iterator() {
+        return Collections.unmodifiableSet(tuples).iterator();
+    }
+
+    private static Tuple key(Tuple tuple, long mask) {
+        Term[] values = new Term[Long.bitCount(mask)];
+        int n = 0;
+        for (int i = 0; i < tuple.size(); i++) {
+            if ((mask & (1L << i)) != 0) {
+                values[n++] = tuple.get(i);
+            }
+        }
+        return new Tuple(values);
+    }
+}
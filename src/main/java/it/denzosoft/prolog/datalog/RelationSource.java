@@ -0,0 +1,85 @@
+package it.denzosoft.prolog.datalog;
+
+import it.denzosoft.prolog.database.ClauseSource;
+import it.denzosoft.prolog.model.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+
+/**
+ * Serves a materialized relation as the clauses of its predicate. A goal
+ * with bound arguments is answered through the hash index on those
+ * arguments. The source is read-only.
+ */
+public class RelationSource implements ClauseSource {
+    private final Relation relation;
+
+    public RelationSource(Relation relation) {
+        this.relation = relation;
+    }
+
+    public Relation getRelation() {
+        return relation;
+    }
+
+    @Override
+    public String getName() {
+        return relation.getName();
+    }
+
+    @Override
+    public int getArity() {
+        return relation.getArity();
+    }
+
+    @Override
+    public Iterator<Clause> clauses(Term goal) {
+        long mask = 0;
+        java.util.List<Term> values = new ArrayList<>();
+        if (goal instanceof Struct) {
+            Struct struct = (Struct) goal;
+            for (int i = 0; i < struct.getArity(); i++) {
+                Term arg = struct.getArg(i);
+                while (arg instanceof Variable && ((Variable) arg).isBound()) {
+                    arg = ((Variable) arg).getBinding();
+                }
+                if (arg instanceof Atom || arg instanceof it.denzosoft.prolog.model.Number) {
+                    mask |= 1L << i;
+                    values.add(arg);
+                }
+            }
+        }
+        Iterator<Tuple> tuples = relation.lookup(mask, new Tuple(values.toArray(new Term[0]))).iterator();
+        return new Iterator<Clause>() {
+            @Override
+            public boolean hasNext() {
+                return tuples.hasNext();
+            }
+
+            @Override
+            public Clause next() {
+                return new Clause(tuples.next().toTerm(relation.getName()), null);
+            }
+        };
+    }
+
+    @Override
+    public boolean isWritable() {
+        return false;
+    }
+
+    @Override
+    public void add(Clause clause) {
+        throw new UnsupportedOperationException("Materialized relation is read-only: " + getName());
+    }
+
+    @Override
+    public boolean remove(Clause clause) {
+        throw new UnsupportedOperationException("Materialized relation is read-only: " + getName());
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+}
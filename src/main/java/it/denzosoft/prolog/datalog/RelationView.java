@@ -0,0 +1,15 @@
+package it.denzosoft.prolog.datalog;
+
+
+/**
+ * A set of tuples that can be probed on any combination of columns.
+ */
+interface RelationView {
+
+    /**
+     * Finds the tuples whose columns in the mask hold the given values.
+     * @param mask the bound columns, bit i standing for column i
+     * @param values the values of the bound columns in column order
+     */
+    Iterable<Tuple> lookup(long mask, Tuple values);
+}
@@ -0,0 +1,365 @@
+package it.denzosoft.prolog.datalog;
+
+import it.denzosoft.prolog.model.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+
+/**
+ * A Datalog rule compiled to variable slots, with comparisons moved to the
+ * first position where their variables are bound.
+ */
+final class Rule {
+    private final Arg[] head;
+    private final Literal[] body;
+    private final int slots;
+
+    private Rule(Arg[] head, Literal[] body, int slots) {
+        this.head = head;
+        this.body = body;
+        this.slots = slots;
+    }
+
+    static Rule compile(Clause clause) {
+        Map<Variable, Integer> slots = new IdentityHashMap<>();
+        java.util.List<Term> goals = new ArrayList<>();
+        Term body = clause.getBody();
+        while (body instanceof Struct && ((Struct) body).getArity() == 2
+                && ((Struct) body).getFunctor().getValue().equals(",")) {
+            goals.add(((Struct) body).getArg(0));
+            body = ((Struct) body).getArg(1);
+        }
+        goals.add(body);
+
+        java.util.List<Literal> calls = new ArrayList<>();
+        java.util.List<Literal> tests = new ArrayList<>();
+        for (Term goal : goals) {
+            Literal literal = Literal.compile(goal, slots, clause);
+            if (literal.key != null) {
+                calls.add(literal);
+            } else if (!literal.name.equals("true")) {
+                tests.add(literal);
+            }
+        }
+
+        // Place every comparison right after the calls that bind its variables
+        Set<Integer> bound = new HashSet<>();
+        java.util.List<Literal> ordered = new ArrayList<>();
+        placeTests(tests, bound, ordered);
+        for (Literal call : calls) {
+            ordered.add(call);
+            for (Arg arg : call.args) {
+                if (arg.slot >= 0) {
+                    bound.add(arg.slot);
+                }
+            }
+            placeTests(tests, bound, ordered);
+        }
+        if (!tests.isEmpty()) {
+            throw new IllegalArgumentException("Unbound variable in comparison: " + clause);
+        }
+
+        Term headTerm = clause.getHead();
+        Arg[] head = new Arg[headTerm instanceof Struct ? ((Struct) headTerm).getArity() : 0];
+        for (int i = 0; i < head.length; i++) {
+            head[i] = Arg.compile(((Struct) headTerm).getArg(i), slots, clause);
+            if (head[i].slot >= 0 && !bound.contains(head[i].slot)) {
+                throw new IllegalArgumentException("Head variable not bound by the body: " + clause);
+            }
+        }
+        return new Rule(head, ordered.toArray(new Literal[0]), slots.size());
+    }
+
+    private static void placeTests(java.util.List<Literal> tests, Set<Integer> bound, java.util.List<Literal> ordered) {
+        boolean placed = true;
+        while (placed) {
+            placed = false;
+            for (int i = 0; i < tests.size(); i++) {
+                Literal test = tests.get(i);
+                int unbound = 0;
+                for (Arg arg : test.args) {
+                    if (arg.slot >= 0 && !bound.contains(arg.slot)) {
+                        unbound++;
+                    }
+                }
+                // X = c binds X, every other comparison needs its variables bound
+                if (unbound == 0 || (unbound == 1 && test.name.equals("=")
+                        && (test.args[0].slot < 0 || test.args[1].slot < 0
+                            || bound.contains(test.args[0].slot) || bound.contains(test.args[1].slot)))) {
+                    ordered.add(test);
+                    for (Arg arg : test.args) {
+                        if (arg.slot >= 0) {
+                            bound.add(arg.slot);
+                        }
+                    }
+                    tests.remove(i);
+                    placed = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Joins the body and emits every head tuple it derives.
+     * @param inputs the relation each body position reads; positions of
+     *               comparisons are ignored
+     * @return the number of tuples emitted
+     */
+    long fire(RelationView[] inputs, Consumer<Tuple> out) {
+        return join(0, new Term[slots], inputs, out);
+    }
+
+    /**
+     * Emits the derivations of one head tuple.
+     * @return the number of derivations found
+     */
+    long fireFor(Tuple target, RelationView[] inputs, Consumer<Tuple> out) {
+        Term[] env = new Term[slots];
+        for (int i = 0; i < head.length; i++) {
+            Term value = head[i].value(env);
+            if (value == null) {
+                env[head[i].slot] = target.get(i);
+            } else if (!value.equals(target.get(i))) {
+                return 0;
+            }
+        }
+        return join(0, env, inputs, out);
+    }
+
+    /**
+     * Gets the predicate indicators called by the body, in body order.
+     * Comparisons have a null entry.
+     */
+    String[] calls() {
+        String[] calls = new String[body.length];
+        for (int i = 0; i < body.length; i++) {
+            calls[i] = body[i].key;
+        }
+        return calls;
+    }
+
+    boolean callsAny(Set<String> keys) {
+        for (Literal literal : body) {
+            if (literal.key != null && keys.contains(literal.key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long join(int position, Term[] env, RelationView[] inputs, Consumer<Tuple> out) {
+        if (position == body.length) {
+            Term[] values = new Term[head.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = head[i].value(env);
+            }
+            out.accept(new Tuple(values));
+            return 1;
+        }
+
+        Literal literal = body[position];
+        if (literal.key == null) {
+            long derived = 0;
+            int bound = literal.evaluate(env);
+            if (bound != Literal.FAILED) {
+                derived = join(position + 1, env, inputs, out);
+                if (bound >= 0) {
+                    env[bound] = null;
+                }
+            }
+            return derived;
+        }
+
+        long mask = 0;
+        java.util.List<Term> key = new ArrayList<>(literal.args.length);
+        for (int i = 0; i < literal.args.length; i++) {
+            Term value = literal.args[i].value(env);
+            if (value != null) {
+                mask |= 1L << i;
+                key.add(value);
+            }
+        }
+        long derived = 0;
+        int[] assigned = new int[literal.args.length];
+        for (Tuple tuple : inputs[position].lookup(mask, new Tuple(key.toArray(new Term[0])))) {
+            int count = 0;
+            boolean matches = true;
+            for (int i = 0; i < literal.args.length && matches; i++) {
+                Arg arg = literal.args[i];
+                if (arg.slot < 0) {
+                    continue;
+                }
+                Term current = env[arg.slot];
+                if (current == null) {
+                    env[arg.slot] = tuple.get(i);
+                    assigned[count++] = arg.slot;
+                } else if ((mask & (1L << i)) == 0) {
+                    // A variable repeated within the literal
+                    matches = current.equals(tuple.get(i));
+                }
+            }
+            if (matches) {
+                derived += join(position + 1, env, inputs, out);
+            }
+            for (int i = 0; i < count; i++) {
+                env[assigned[i]] = null;
+            }
+        }
+        return derived;
+    }
+
+    /**
+     * A call to a relation, or a comparison when {@code key} is null.
+     */
+    private static final class Literal {
+        private static final int FAILED = -2;
+        private static final int NO_BINDING = -1;
+
+        private final String name;
+        private final String key;
+        private final Arg[] args;
+
+        private Literal(String name, String key, Arg[] args) {
+            this.name = name;
+            this.key = key;
+            this.args = args;
+        }
+
+        private static Literal compile(Term goal, Map<Variable, Integer> slots, Clause clause) {
+            String name;
+            Term[] terms;
+            if (goal instanceof Atom) {
+                name = ((Atom) goal).getValue();
+                terms = new Term[0];
+            } else if (goal instanceof Struct) {
+                name = ((Struct) goal).getFunctor().getValue();
+                terms = ((Struct) goal).getArgs();
+            } else {
+                throw new IllegalArgumentException("Not a Datalog goal: " + goal + " in " + clause);
+            }
+            Arg[] args = new Arg[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                args[i] = Arg.compile(terms[i], slots, clause);
+            }
+            if (terms.length == 0 && name.equals("true")) {
+                return new Literal(name, null, args);
+            }
+            if (terms.length == 2 && isComparison(name)) {
+                return new Literal(name, null, args);
+            }
+            if (isControl(name, terms.length)) {
+                throw new IllegalArgumentException("Not a Datalog goal: " + goal + " in " + clause);
+            }
+            return new Literal(name, name + "/" + terms.length, args);
+        }
+
+        private static boolean isComparison(String name) {
+            switch (name) {
+                case "=": case "\\=": case "==": case "\\==":
+                case "<": case ">": case "=<": case ">=": case "=:=": case "=\\=":
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        private static boolean isControl(String name, int arity) {
+            switch (name) {
+                case ";": case "->": case "is": case "call": case "findall":
+                    return true;
+                case "!": case "fail": case "false":
+                    return arity == 0;
+                case "\\+": case "not": case "once":
+                    return arity == 1;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * Evaluates a comparison.
+         * @return FAILED, NO_BINDING, or the slot that {@code =} bound
+         */
+        private int evaluate(Term[] env) {
+            if (name.equals("true")) {
+                return NO_BINDING;
+            }
+            Term left = args[0].value(env);
+            Term right = args[1].value(env);
+            if (name.equals("=") && (left == null || right == null)) {
+                Arg unbound = left == null ? args[0] : args[1];
+                env[unbound.slot] = left == null ? right : left;
+                return unbound.slot;
+            }
+            boolean result;
+            switch (name) {
+                case "=":
+                case "==":
+                    result = left.equals(right);
+                    break;
+                case "\\=":
+                case "\\==":
+                    result = !left.equals(right);
+                    break;
+                default:
+                    result = compare(left, right);
+                    break;
+            }
+            return result ? NO_BINDING : FAILED;
+        }
+
+        private boolean compare(Term left, Term right) {
+            if (!(left instanceof it.denzosoft.prolog.model.Number) || !(right instanceof it.denzosoft.prolog.model.Number)) {
+                return false;
+            }
+            int cmp = Double.compare(((it.denzosoft.prolog.model.Number) left).getValue(),
+                    ((it.denzosoft.prolog.model.Number) right).getValue());
+            switch (name) {
+                case "<": return cmp < 0;
+                case ">": return cmp > 0;
+                case "=<": return cmp <= 0;
+                case ">=": return cmp >= 0;
+                case "=:=": return cmp == 0;
+                default: return cmp != 0;
+            }
+        }
+    }
+
+    /**
+     * A rule argument: a constant, or the slot of a variable.
+     */
+    private static final class Arg {
+        private final Term constant;
+        private final int slot;
+
+        private Arg(Term constant, int slot) {
+            this.constant = constant;
+            this.slot = slot;
+        }
+
+        private Term value(Term[] env) {
+            return slot >= 0 ? env[slot] : constant;
+        }
+
+        private static Arg compile(Term term, Map<Variable, Integer> slots, Clause clause) {
+            if (term instanceof Variable) {
+                Variable var = (Variable) term;
+                Integer slot = slots.get(var);
+                if (slot == null) {
+                    slot = slots.size();
+                    slots.put(var, slot);
+                }
+                return new Arg(null, slot);
+            }
+            if (term instanceof Atom || term instanceof it.denzosoft.prolog.model.Number) {
+                return new Arg(term, -1);
+            }
+            throw new IllegalArgumentException("Not a Datalog argument: " + term + " in " + clause);
+        }
+    }
+}
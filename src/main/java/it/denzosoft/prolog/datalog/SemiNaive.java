@@ -0,0 +1,105 @@
+package it.denzosoft.prolog.datalog;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Semi-naive fixpoint iteration over one stratum, with counters.
+ */
+final class SemiNaive {
+    private long derivations = 0;
+    private long rounds = 0;
+
+    /**
+     * Adds to the relations of a stratum every tuple derivable from the
+     * delta tuples. A round fires each rule once per recursive call whose
+     * delta is not empty, reading the delta at that call and full relations
+     * elsewhere; the tuples it derives are the delta of the next round.
+     * @param delta the new tuples of each predicate of the stratum, already
+     *              present in the relations
+     * @param added if not null, receives every tuple added
+     */
+    void saturate(Collection<String> stratum, Program program, Map<String, Relation> relations,
+                  Map<String, Relation> delta, Map<String, Relation> added) {
+        Set<String> recursive = new HashSet<>(stratum);
+        while (true) {
+            rounds++;
+            Map<String, Relation> next = new HashMap<>();
+            boolean changed = false;
+            for (String key : stratum) {
+                Program.Definition definition = program.get(key);
+                Relation full = relations.get(key);
+                Relation derived = new Relation(definition.name, definition.arity);
+                for (Rule rule : definition.rules) {
+                    String[] calls = rule.calls();
+                    for (int i = 0; i < calls.length; i++) {
+                        if (calls[i] == null || !recursive.contains(calls[i])
+                                || delta.get(calls[i]) == null || delta.get(calls[i]).isEmpty()) {
+                            continue;
+                        }
+                        derivations += rule.fire(inputs(rule, i, delta.get(calls[i]), relations), tuple -> {
+                            if (!full.contains(tuple)) {
+                                derived.add(tuple);
+                            }
+                        });
+                    }
+                }
+                next.put(key, derived);
+                changed |= !derived.isEmpty();
+            }
+            if (!changed) {
+                return;
+            }
+            for (String key : stratum) {
+                Relation full = relations.get(key);
+                for (Tuple tuple : next.get(key)) {
+                    full.add(tuple);
+                    if (added != null) {
+                        added.get(key).add(tuple);
+                    }
+                }
+            }
+            delta = next;
+        }
+    }
+
+    /**
+     * Chooses the relation read by each body position of a rule.
+     * @param position the position that reads {@code special}, or -1 to
+     *                 read the relations only
+     */
+    static RelationView[] inputs(Rule rule, int position, RelationView special, Map<String, Relation> relations) {
+        String[] calls = rule.calls();
+        RelationView[] inputs = new RelationView[calls.length];
+        for (int i = 0; i < calls.length; i++) {
+            if (calls[i] != null) {
+                inputs[i] = i == position ? special : relations.get(calls[i]);
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Checks whether a stratum is recursive: it has several predicates, or
+     * its only predicate calls itself.
+     */
+    static boolean isRecursive(java.util.List<String> stratum, Program program) {
+        return stratum.size() > 1 || program.get(stratum.get(0)).callees().contains(stratum.get(0));
+    }
+
+    void addDerivations(long count) {
+        derivations += count;
+    }
+
+    long getDerivations() {
+        return derivations;
+    }
+
+    long getRounds() {
+        return rounds;
+    }
+}
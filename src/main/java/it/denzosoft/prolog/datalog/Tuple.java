@@ -0,0 +1,68 @@
+package it.denzosoft.prolog.datalog;
+
+import it.denzosoft.prolog.model.*;
+import java.util.Arrays;
+
+
+/**
+ * A row of a relation: a fixed number of atoms and numbers.
+ */
+public final class Tuple {
+    private final Term[] values;
+    private final int hash;
+
+    public Tuple(Term... values) {
+        this.values = values;
+        this.hash = hash(values);
+    }
+
+    public Term get(int column) {
+        return values[column];
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Builds the fact this tuple stands for.
+     */
+    public Term toTerm(String name) {
+        if (values.length == 0) {
+            return new Atom(name);
+        }
+        return new Struct(new Atom(name), values.clone());
+    }
+
+    /**
+     * Combines the hashes of the values after scrambling each one. Atom
+     * hashes are string hashes, and summing them linearly, as
+     * Arrays.hashCode does, makes rows of similar names collide.
+     */
+    private static int hash(Term[] values) {
+        int hash = 1;
+        for (Term value : values) {
+            int h = value.hashCode() * 0x9E3779B9;
+            hash = 31 * hash + (h ^ (h >>> 16));
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof Tuple)) return false;
+        Tuple other = (Tuple) obj;
+        return hash == other.hash && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+}
@@ -0,0 +1,63 @@
+package it.denzosoft.prolog.engine;
+
+import it.denzosoft.prolog.model.Term;
+import java.util.function.UnaryOperator;
+
+
+/**
+ * The access of a foreign predicate to the engine running it: bindings
+ * made through {@link #unify(Term, Term)} are recorded on the engine's
+ * trail and undone on backtracking like those of any other goal.
+ */
+public final class ForeignContext {
+    private final Trail trail;
+    private final UnaryOperator<Term> solver;
+
+    /**
+     * @param solver finds the first solution of a goal for {@link #once(Term)}
+     */
+    public ForeignContext(Trail trail, UnaryOperator<Term> solver) {
+        this.trail = trail;
+        this.solver = solver;
+    }
+
+    public ForeignContext(Trail trail) {
+        this(trail, goal -> {
+            throw new UnsupportedOperationException("No engine to solve " + goal);
+        });
+    }
+
+    /**
+     * Unifies two terms, recording the bindings on the trail.
+     */
+    public boolean unify(Term a, Term b) {
+        return Unifier.unify(a, b, trail);
+    }
+
+    /**
+     * Follows the bindings of a variable to its value.
+     */
+    public Term deref(Term term) {
+        return Unifier.deref(term);
+    }
+
+    /**
+     * Copies a term with every bound variable replaced by its value.
+     */
+    public Term resolve(Term term) {
+        return Unifier.resolve(term);
+    }
+
+    /**
+     * Solves a goal once, on a query of its own: the variables of the goal
+     * are left unbound.
+     * @return the goal as solved, or null if it has no solution
+     */
+    public Term once(Term goal) {
+        return solver.apply(goal);
+    }
+
+    public Trail getTrail() {
+        return trail;
+    }
+}
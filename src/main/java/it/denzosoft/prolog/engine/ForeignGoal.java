@@ -0,0 +1,31 @@
+package it.denzosoft.prolog.engine;
+
+import it.denzosoft.prolog.model.Atom;
+import it.denzosoft.prolog.model.Struct;
+import it.denzosoft.prolog.model.Term;
+
+
+/**
+ * A call to a foreign predicate in a clause body, bound to the slot of its
+ * name and arity when the clause was added so that running it needs no
+ * lookup.
+ */
+public final class ForeignGoal extends Struct {
+    private final ForeignPredicates.Slot slot;
+
+    public ForeignGoal(ForeignPredicates.Slot slot, Atom functor, Term... args) {
+        super(functor, args);
+        this.slot = slot;
+    }
+
+    public ForeignPredicates.Slot getSlot() {
+        return slot;
+    }
+
+    /**
+     * Gets the definition registered for the call now.
+     */
+    public ForeignPredicates.Definition getDefinition() {
+        return slot.get();
+    }
+}
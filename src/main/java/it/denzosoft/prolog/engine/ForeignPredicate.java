@@ -0,0 +1,18 @@
+package it.denzosoft.prolog.engine;
+
+import it.denzosoft.prolog.model.Term;
+
+
+/**
+ * A deterministic predicate implemented in Java: it succeeds at most once.
+ */
+@FunctionalInterface
+public interface ForeignPredicate {
+
+    /**
+     * Solves a call, binding its arguments through the context.
+     * @param args the arguments of the call, not dereferenced
+     * @return false if the call fails
+     */
+    boolean call(ForeignContext context, Term[] args);
+}
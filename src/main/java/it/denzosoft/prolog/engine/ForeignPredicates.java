@@ -0,0 +1,211 @@
+package it.denzosoft.prolog.engine;
+
+import it.denzosoft.prolog.model.*;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * The predicates implemented in Java that a database's queries may call,
+ * by name and arity.
+ * <p>
+ * A foreign predicate takes precedence over a built-in or user predicate
+ * of the same name and arity; control constructs cannot be redefined.
+ * Library predicates, such as those of {@link ListLibrary} that every
+ * database starts with, give way to a user predicate of the same name
+ * and arity instead: they are only called when no such predicate is
+ * defined, and calls to them are never bound at load time.
+ * Calls to foreign predicates in clauses added once the predicate is
+ * registered are bound to it as the clauses are added, see
+ * {@link #compile(Term)}; other calls are looked up when run. A bound
+ * call holds the {@link Slot} of its name and arity rather than the
+ * definition itself, so registering a replacement takes effect on calls
+ * bound before it.
+ */
+public class ForeignPredicates {
+    private static final Set<String> CONTROL = new HashSet<>(Arrays.asList(
+            ",/2", ";/2", "->/2", "!/0", "call/1", "\\+/1", "not/1", "once/1"));
+
+    private final Map<String, Slot[]> definitions = new ConcurrentHashMap<>();
+    private volatile boolean ownDefinitions = false;
+
+    /**
+     * The definition currently registered under a name and arity.
+     */
+    public static final class Slot {
+        private volatile Definition definition;
+
+        private Slot(Definition definition) {
+            this.definition = definition;
+        }
+
+        public Definition get() {
+            return definition;
+        }
+    }
+
+    /**
+     * A foreign predicate with its name and arity.
+     */
+    public static final class Definition {
+        private final String name;
+        private final int arity;
+        private final ForeignPredicate deterministic;
+        private final NondeterministicPredicate nondeterministic;
+        private final boolean library;
+
+        private Definition(String name, int arity, ForeignPredicate deterministic,
+                           NondeterministicPredicate nondeterministic, boolean library) {
+            this.name = name;
+            this.arity = arity;
+            this.deterministic = deterministic;
+            this.nondeterministic = nondeterministic;
+            this.library = library;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getArity() {
+            return arity;
+        }
+
+        /**
+         * Gets the implementation of a deterministic predicate.
+         * @return the implementation, or null if the predicate is
+         *         nondeterministic
+         */
+        public ForeignPredicate getDeterministic() {
+            return deterministic;
+        }
+
+        /**
+         * Gets the implementation of a nondeterministic predicate.
+         * @return the implementation, or null if the predicate is
+         *         deterministic
+         */
+        public NondeterministicPredicate getNondeterministic() {
+            return nondeterministic;
+        }
+
+        /**
+         * Tells whether user clauses for the predicate replace it.
+         */
+        public boolean isLibrary() {
+            return library;
+        }
+
+        @Override
+        public String toString() {
+            return name + "/" + arity;
+        }
+    }
+
+    /**
+     * Registers a deterministic predicate, replacing any of the same name
+     * and arity.
+     */
+    public void register(String name, int arity, ForeignPredicate predicate) {
+        define(new Definition(name, arity, predicate, null, false));
+    }
+
+    /**
+     * Registers a nondeterministic predicate, replacing any of the same
+     * name and arity.
+     */
+    public void registerNondeterministic(String name, int arity, NondeterministicPredicate predicate) {
+        define(new Definition(name, arity, null, predicate, false));
+    }
+
+    /**
+     * Registers a deterministic library predicate.
+     */
+    void registerLibrary(String name, int arity, ForeignPredicate predicate) {
+        define(new Definition(name, arity, predicate, null, true));
+    }
+
+    /**
+     * Registers a nondeterministic library predicate.
+     */
+    void registerLibraryNondeterministic(String name, int arity, NondeterministicPredicate predicate) {
+        define(new Definition(name, arity, null, predicate, true));
+    }
+
+    /**
+     * Checks whether no predicate is registered besides the library ones,
+     * which are only looked up for calls no clause answers.
+     */
+    public boolean isEmpty() {
+        return !ownDefinitions;
+    }
+
+    /**
+     * Gets the predicate of a name and arity.
+     * @return the predicate, or null if none is registered
+     */
+    public Definition lookup(String name, int arity) {
+        Slot slot = slot(name, arity);
+        return slot != null ? slot.definition : null;
+    }
+
+    private Slot slot(String name, int arity) {
+        Slot[] byArity = definitions.get(name);
+        return byArity != null && arity < byArity.length ? byArity[arity] : null;
+    }
+
+    /**
+     * Binds the calls to foreign predicates in a clause body to their
+     * definitions, looking into control constructs.
+     * @return the body with the calls replaced by {@link ForeignGoal}s, or
+     *         the body itself if it calls no foreign predicate
+     */
+    public Term compile(Term body) {
+        if (isEmpty() || !(body instanceof Struct) || body instanceof ForeignGoal) {
+            return body;
+        }
+        Struct goal = (Struct) body;
+        String name = goal.getFunctor().getValue();
+        if (CONTROL.contains(name + "/" + goal.getArity())) {
+            Term[] args = new Term[goal.getArity()];
+            boolean changed = false;
+            for (int i = 0; i < args.length; i++) {
+                args[i] = compile(goal.getArg(i));
+                changed |= args[i] != goal.getArg(i);
+            }
+            return changed ? new Struct(goal.getFunctor(), args) : body;
+        }
+        Slot slot = slot(name, goal.getArity());
+        if (slot == null || slot.definition.isLibrary()) {
+            // Library calls stay plain, as the program may define the predicate later
+            return body;
+        }
+        Term[] args = new Term[goal.getArity()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = goal.getArg(i);
+        }
+        return new ForeignGoal(slot, goal.getFunctor(), args);
+    }
+
+    private synchronized void define(Definition definition) {
+        if (CONTROL.contains(definition.toString())) {
+            throw new IllegalArgumentException("Cannot redefine control construct " + definition);
+        }
+        if (!definition.library) {
+            ownDefinitions = true;
+        }
+        Slot slot = slot(definition.name, definition.arity);
+        if (slot != null) {
+            slot.definition = definition;
+            return;
+        }
+        Slot[] byArity = definitions.get(definition.name);
+        int length = Math.max(definition.arity + 1, byArity != null ? byArity.length : 0);
+        Slot[] updated = byArity != null ? Arrays.copyOf(byArity, length) : new Slot[length];
+        updated[definition.arity] = new Slot(definition);
+        definitions.put(definition.name, updated);
+    }
+}
@@ -0,0 +1,392 @@
+package it.denzosoft.prolog.engine;
+
+import it.denzosoft.prolog.model.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+
+/**
+ * The list predicates of the library, in Java: {@code append/3},
+ * {@code length/2}, {@code member/2}, {@code memberchk/2},
+ * {@code nth0/3}, {@code nth1/3}, {@code reverse/2}, {@code last/2},
+ * {@code sum_list/2}, {@code msort/2}, {@code sort/2}, {@code sort/4} and
+ * {@code predsort/3}.
+ * <p>
+ * They walk list cells in loops and build their results from the last
+ * cell back, so no list is too long for them. Sorting takes
+ * O(n log n) comparisons in the {@link TermOrder standard order}, and
+ * is stable. Modes that would enumerate without end, such as
+ * {@code length(L, N)} with both unbound, do so one solution per redo.
+ */
+public final class ListLibrary {
+    private static final Atom NIL = new Atom("[]");
+
+    private ListLibrary() {
+    }
+
+    /**
+     * Registers the predicates as library predicates.
+     */
+    public static void install(ForeignPredicates foreign) {
+        foreign.registerLibraryNondeterministic("append", 3, ListLibrary::append);
+        foreign.registerLibraryNondeterministic("length", 2, ListLibrary::length);
+        foreign.registerLibraryNondeterministic("member", 2, ListLibrary::member);
+        foreign.registerLibrary("memberchk", 2, ListLibrary::memberchk);
+        foreign.registerLibraryNondeterministic("nth0", 3, (context, args) -> nth(context, args, 0));
+        foreign.registerLibraryNondeterministic("nth1", 3, (context, args) -> nth(context, args, 1));
+        foreign.registerLibrary("reverse", 2, ListLibrary::reverse);
+        foreign.registerLibrary("last", 2, ListLibrary::last);
+        foreign.registerLibrary("sum_list", 2, ListLibrary::sumList);
+        foreign.registerLibrary("msort", 2, (context, args) -> sort(context, args[0], args[1], 0, false, false));
+        foreign.registerLibrary("sort", 2, (context, args) -> sort(context, args[0], args[1], 0, false, true));
+        foreign.registerLibrary("sort", 4, ListLibrary::sort4);
+        foreign.registerLibrary("predsort", 3, ListLibrary::predsort);
+    }
+
+    /**
+     * Gets the elements of a proper list.
+     * @return the elements, or null if the term is not a proper list
+     */
+    public static java.util.List<Term> elements(Term list) {
+        java.util.List<Term> elements = new ArrayList<>();
+        Term tail = prefix(list, elements);
+        return TermOrder.isNil(tail) ? elements : null;
+    }
+
+    /**
+     * Builds a list of elements ending in a tail.
+     */
+    public static Term list(java.util.List<Term> elements, Term tail) {
+        Term list = tail;
+        for (int i = elements.size() - 1; i >= 0; i--) {
+            list = new it.denzosoft.prolog.model.List(elements.get(i), list);
+        }
+        return list;
+    }
+
+    /**
+     * Collects the elements of the cells of a list.
+     * @return what follows the last cell: [] for a proper list, a variable
+     *         for a partial list, anything else otherwise
+     */
+    private static Term prefix(Term list, java.util.List<Term> elements) {
+        Term current = Unifier.deref(list);
+        while (current instanceof it.denzosoft.prolog.model.List) {
+            it.denzosoft.prolog.model.List cell = (it.denzosoft.prolog.model.List) current;
+            elements.add(cell.getHead());
+            current = Unifier.deref(cell.getTail());
+        }
+        return current;
+    }
+
+    private static java.util.List<Term> fresh(int count) {
+        java.util.List<Term> vars = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            vars.add(new Variable("_L" + i));
+        }
+        return vars;
+    }
+
+    /**
+     * Gets the value of an integer term.
+     * @return the value, or null if the term is not an integer
+     */
+    private static Long integer(Term term) {
+        term = Unifier.deref(term);
+        if (term instanceof it.denzosoft.prolog.model.Number && ((it.denzosoft.prolog.model.Number) term).isInteger()) {
+            return (long) ((it.denzosoft.prolog.model.Number) term).getValue();
+        }
+        return null;
+    }
+
+    /**
+     * append(Front, Back, Whole): when Front is a proper list, builds Whole
+     * at once; otherwise tries the prefixes of increasing length, up to the
+     * length of Whole when it is known.
+     */
+    private static NondeterministicPredicate.Redo append(ForeignContext context, Term[] args) {
+        java.util.List<Term> front = new ArrayList<>();
+        Term frontTail = prefix(args[0], front);
+        if (TermOrder.isNil(frontTail)) {
+            boolean[] done = {false};
+            return again -> !done[0] && (done[0] = true) && again.unify(args[2], list(front, args[1]));
+        }
+        if (!(frontTail instanceof Variable)) {
+            return null;
+        }
+        java.util.List<Term> whole = new ArrayList<>();
+        Term wholeTail = prefix(args[2], whole);
+        long max = wholeTail instanceof Variable ? Long.MAX_VALUE : whole.size();
+        long[] length = {front.size()};
+        return again -> {
+            while (length[0] <= max) {
+                int mark = again.getTrail().mark();
+                java.util.List<Term> cells = fresh((int) length[0]++);
+                if (again.unify(args[0], list(cells, NIL)) && again.unify(args[2], list(cells, args[1]))) {
+                    return true;
+                }
+                again.getTrail().undo(mark);
+            }
+            return false;
+        };
+    }
+
+    /**
+     * length(List, Length): counts a proper list; fills a partial list up to
+     * a given length, or to every length in turn.
+     */
+    private static NondeterministicPredicate.Redo length(ForeignContext context, Term[] args) {
+        java.util.List<Term> elements = new ArrayList<>();
+        Term tail = prefix(args[0], elements);
+        if (TermOrder.isNil(tail)) {
+            boolean[] done = {false};
+            return again -> !done[0] && (done[0] = true)
+                    && again.unify(args[1], new it.denzosoft.prolog.model.Number((double) elements.size()));
+        }
+        if (!(tail instanceof Variable)) {
+            return null;
+        }
+        Term length = Unifier.deref(args[1]);
+        Long wanted = integer(length);
+        if (wanted != null) {
+            boolean[] done = {false};
+            return again -> !done[0] && (done[0] = true) && wanted >= elements.size()
+                    && again.unify(tail, list(fresh((int) (wanted - elements.size())), NIL));
+        }
+        if (!(length instanceof Variable)) {
+            return null;
+        }
+        int[] extra = {0};
+        return again -> {
+            int count = extra[0]++;
+            return again.unify(tail, list(fresh(count), NIL))
+                    && again.unify(length, new it.denzosoft.prolog.model.Number((double) (elements.size() + count)));
+        };
+    }
+
+    /**
+     * member(Element, List): unifies Element with each element in turn.
+     */
+    private static NondeterministicPredicate.Redo member(ForeignContext context, Term[] args) {
+        Term[] cell = {Unifier.deref(args[1])};
+        return again -> {
+            while (cell[0] instanceof it.denzosoft.prolog.model.List) {
+                it.denzosoft.prolog.model.List current = (it.denzosoft.prolog.model.List) cell[0];
+                cell[0] = Unifier.deref(current.getTail());
+                int mark = again.getTrail().mark();
+                if (again.unify(args[0], current.getHead())) {
+                    return true;
+                }
+                again.getTrail().undo(mark);
+            }
+            return false;
+        };
+    }
+
+    private static boolean memberchk(ForeignContext context, Term[] args) {
+        Term current = Unifier.deref(args[1]);
+        while (current instanceof it.denzosoft.prolog.model.List) {
+            it.denzosoft.prolog.model.List cell = (it.denzosoft.prolog.model.List) current;
+            int mark = context.getTrail().mark();
+            if (context.unify(args[0], cell.getHead())) {
+                return true;
+            }
+            context.getTrail().undo(mark);
+            current = Unifier.deref(cell.getTail());
+        }
+        return false;
+    }
+
+    /**
+     * nth0/nth1(Index, List, Element): picks the element at an index, or
+     * enumerates indexes and elements when the index is unbound.
+     */
+    private static NondeterministicPredicate.Redo nth(ForeignContext context, Term[] args, int base) {
+        java.util.List<Term> elements = new ArrayList<>();
+        prefix(args[1], elements);
+        Term index = Unifier.deref(args[0]);
+        Long position = integer(index);
+        if (position != null) {
+            boolean[] done = {false};
+            return again -> !done[0] && (done[0] = true) && position >= base
+                    && position - base < elements.size()
+                    && again.unify(args[2], elements.get((int) (position - base)));
+        }
+        if (!(index instanceof Variable)) {
+            return null;
+        }
+        int[] next = {0};
+        return again -> {
+            while (next[0] < elements.size()) {
+                int i = next[0]++;
+                int mark = again.getTrail().mark();
+                if (again.unify(args[2], elements.get(i))
+                        && again.unify(index, new it.denzosoft.prolog.model.Number(i + base))) {
+                    return true;
+                }
+                again.getTrail().undo(mark);
+            }
+            return false;
+        };
+    }
+
+    private static boolean reverse(ForeignContext context, Term[] args) {
+        java.util.List<Term> elements = elements(args[0]);
+        if (elements == null) {
+            return false;
+        }
+        Collections.reverse(elements);
+        return context.unify(args[1], list(elements, NIL));
+    }
+
+    private static boolean last(ForeignContext context, Term[] args) {
+        java.util.List<Term> elements = elements(args[0]);
+        return elements != null && !elements.isEmpty() && context.unify(args[1], elements.get(elements.size() - 1));
+    }
+
+    private static boolean sumList(ForeignContext context, Term[] args) {
+        java.util.List<Term> elements = elements(args[0]);
+        if (elements == null) {
+            return false;
+        }
+        double sum = 0;
+        for (Term element : elements) {
+            Term value = Unifier.deref(element);
+            if (!(value instanceof it.denzosoft.prolog.model.Number)) {
+                return false;
+            }
+            sum += ((it.denzosoft.prolog.model.Number) value).getValue();
+        }
+        return context.unify(args[1], new it.denzosoft.prolog.model.Number(sum));
+    }
+
+    /**
+     * sort(Key, Order, List, Sorted): Key 0 sorts on whole elements, Key N
+     * on their N-th argument; Order is one of @&lt;, @=&lt;, @&gt; and @&gt;=,
+     * the strict ones dropping elements whose keys are equal.
+     */
+    private static boolean sort4(ForeignContext context, Term[] args) {
+        Long key = integer(args[0]);
+        Term order = Unifier.deref(args[1]);
+        if (key == null || key < 0 || !(order instanceof Atom)) {
+            return false;
+        }
+        switch (((Atom) order).getValue()) {
+            case "@<":
+                return sort(context, args[2], args[3], key.intValue(), false, true);
+            case "@=<":
+                return sort(context, args[2], args[3], key.intValue(), false, false);
+            case "@>":
+                return sort(context, args[2], args[3], key.intValue(), true, true);
+            case "@>=":
+                return sort(context, args[2], args[3], key.intValue(), true, false);
+            default:
+                return false;
+        }
+    }
+
+    private static boolean sort(ForeignContext context, Term list, Term sorted, int key,
+                                boolean descending, boolean unique) {
+        java.util.List<Term> elements = elements(list);
+        if (elements == null) {
+            return false;
+        }
+        Comparator<Term> order = TermOrder.INSTANCE;
+        if (key > 0) {
+            for (Term element : elements) {
+                Term value = Unifier.deref(element);
+                if (!(value instanceof Struct) || ((Struct) value).getArity() < key) {
+                    return false;
+                }
+            }
+            order = Comparator.comparing(element -> ((Struct) Unifier.deref(element)).getArg(key - 1), TermOrder.INSTANCE);
+        }
+        if (descending) {
+            order = order.reversed();
+        }
+        elements.sort(order);
+        if (unique) {
+            java.util.List<Term> distinct = new ArrayList<>(elements.size());
+            for (Term element : elements) {
+                if (distinct.isEmpty() || order.compare(distinct.get(distinct.size() - 1), element) != 0) {
+                    distinct.add(element);
+                }
+            }
+            elements = distinct;
+        }
+        return context.unify(sorted, list(elements, NIL));
+    }
+
+    /**
+     * predsort(Pred, List, Sorted): sorts with call(Pred, Order, A, B), Order
+     * being &lt;, &gt; or =; elements found = to their predecessor are dropped.
+     * Fails if a comparison fails.
+     */
+    private static boolean predsort(ForeignContext context, Term[] args) {
+        java.util.List<Term> elements = elements(args[1]);
+        if (elements == null) {
+            return false;
+        }
+        Term predicate = Unifier.deref(args[0]);
+        Comparator<Term> order = (a, b) -> {
+            Term delta = new Variable("_Order");
+            Term solved = context.once(call(predicate, delta, a, b));
+            if (solved == null) {
+                throw new ComparisonFailed();
+            }
+            Term result = Unifier.deref(((Struct) solved).getArg(((Struct) solved).getArity() - 3));
+            switch (result instanceof Atom ? ((Atom) result).getValue() : "") {
+                case "<":
+                    return -1;
+                case ">":
+                    return 1;
+                case "=":
+                    return 0;
+                default:
+                    throw new ComparisonFailed();
+            }
+        };
+        try {
+            elements.sort(order);
+            java.util.List<Term> distinct = new ArrayList<>(elements.size());
+            for (Term element : elements) {
+                if (distinct.isEmpty() || order.compare(distinct.get(distinct.size() - 1), element) != 0) {
+                    distinct.add(element);
+                }
+            }
+            return context.unify(args[2], list(distinct, NIL));
+        } catch (ComparisonFailed e) {
+            return false;
+        }
+    }
+
+    /**
+     * Adds three arguments to a callable term.
+     */
+    private static Term call(Term predicate, Term order, Term a, Term b) {
+        if (predicate instanceof Atom) {
+            return new Struct((Atom) predicate, order, a, b);
+        }
+        Struct struct = (Struct) predicate;
+        Term[] args = new Term[struct.getArity() + 3];
+        for (int i = 0; i < struct.getArity(); i++) {
+            args[i] = struct.getArg(i);
+        }
+        args[args.length - 3] = order;
+        args[args.length - 2] = a;
+        args[args.length - 1] = b;
+        return new Struct(struct.getFunctor(), args);
+    }
+
+    /**
+     * Ends a sort whose comparison predicate failed.
+     */
+    private static final class ComparisonFailed extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private ComparisonFailed() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package it.denzosoft.prolog.engine;
+
+import it.denzosoft.prolog.model.Term;
+
+
+/**
+ * A predicate implemented in Java that may succeed any number of times.
+ * <p>
+ * A call starts an enumeration of solutions, which the engine then asks
+ * for one solution at a time: once right after the call, and once more
+ * each time it backtracks into the call. The bindings of one solution are
+ * undone before the next is asked for. An enumeration cut away, or never
+ * backtracked into, is simply dropped.
+ */
+@FunctionalInterface
+public interface NondeterministicPredicate {
+
+    /**
+     * Starts solving a call.
+     * @param args the arguments of the call, not dereferenced
+     * @return the enumeration of solutions, or null if there is none
+     */
+    Redo call(ForeignContext context, Term[] args);
+
+    /**
+     * The solutions of one call.
+     */
+    @FunctionalInterface
+    interface Redo {
+
+        /**
+         * Produces the next solution, binding the arguments of the call
+         * through the context.
+         * @return false if there are no more solutions
+         */
+        boolean next(ForeignContext context);
+    }
+}
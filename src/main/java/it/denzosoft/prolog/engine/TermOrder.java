@@ -0,0 +1,113 @@
+package it.denzosoft.prolog.engine;
+
+import it.denzosoft.prolog.model.*;
+import java.util.Comparator;
+
+
+/**
+ * The standard order of terms: variables before numbers, numbers before
+ * atoms, atoms before compound terms. Variables are ordered by age,
+ * numbers by value and atoms alphabetically; compound terms by arity,
+ * then name, then arguments from left to right. A list cell is the
+ * compound {@code '.'(Head, Tail)}.
+ * <p>
+ * The comparison follows the last argument of compound terms in a loop,
+ * so long lists are compared without deep recursion.
+ */
+public final class TermOrder implements Comparator<Term> {
+    public static final TermOrder INSTANCE = new TermOrder();
+
+    private static final String CONS = ".";
+
+    private TermOrder() {
+    }
+
+    @Override
+    public int compare(Term a, Term b) {
+        while (true) {
+            a = Unifier.deref(a);
+            b = Unifier.deref(b);
+            if (a == b) {
+                return 0;
+            }
+            int rank = Integer.compare(rank(a), rank(b));
+            if (rank != 0) {
+                return rank;
+            }
+            if (a instanceof Variable) {
+                return compareVariables((Variable) a, (Variable) b);
+            }
+            if (a instanceof it.denzosoft.prolog.model.Number) {
+                return Double.compare(((it.denzosoft.prolog.model.Number) a).getValue(),
+                        ((it.denzosoft.prolog.model.Number) b).getValue());
+            }
+            if (rank(a) == 2) {
+                return name(a).compareTo(name(b));
+            }
+            int arity = Integer.compare(arity(a), arity(b));
+            if (arity != 0) {
+                return arity;
+            }
+            int name = name(a).compareTo(name(b));
+            if (name != 0) {
+                return name;
+            }
+            int last = arity(a) - 1;
+            for (int i = 0; i < last; i++) {
+                int order = compare(arg(a, i), arg(b, i));
+                if (order != 0) {
+                    return order;
+                }
+            }
+            a = arg(a, last);
+            b = arg(b, last);
+        }
+    }
+
+    /**
+     * Tells whether a term is the empty list, the atom {@code []}.
+     */
+    public static boolean isNil(Term term) {
+        return term instanceof Atom && ((Atom) term).getValue().equals("[]");
+    }
+
+    private static int rank(Term term) {
+        if (term instanceof Variable) {
+            return 0;
+        }
+        if (term instanceof it.denzosoft.prolog.model.Number) {
+            return 1;
+        }
+        if (term instanceof Atom || isNil(term) || (term instanceof Struct && ((Struct) term).getArity() == 0)) {
+            return 2;
+        }
+        return 3;
+    }
+
+    private static int compareVariables(Variable a, Variable b) {
+        int order = Long.compare(a.getSerial(), b.getSerial());
+        return order != 0 ? order : Integer.compare(System.identityHashCode(a), System.identityHashCode(b));
+    }
+
+    private static String name(Term term) {
+        if (term instanceof Atom) {
+            return ((Atom) term).getValue();
+        }
+        if (term instanceof Struct) {
+            return ((Struct) term).getFunctor().getValue();
+        }
+        return isNil(term) ? "[]" : CONS;
+    }
+
+    private static int arity(Term term) {
+        return term instanceof Struct ? ((Struct) term).getArity() : 2;
+    }
+
+    private static Term arg(Term term, int index) {
+        if (term instanceof Struct) {
+            return ((Struct) term).getArg(index);
+        }
+        it.denzosoft.prolog.model.List cell = (it.denzosoft.prolog.model.List) term;
+        return index == 0 ? cell.getHead() : cell.getTail();
+    }
+}
@@ -1,41 +1,124 @@
 package it.denzosoft.prolog.engine;
 
+import it.denzosoft.prolog.PrologConfig;
 import it.denzosoft.prolog.model.Variable;
-import java.util.Stack;
+import java.util.Arrays;
 
 
+/**
+ * The variables bound since the search began, in binding order, so that
+ * backtracking can undo the bindings. The array grows as needed and keeps
+ * its capacity when the trail is reset, so a trail reused across queries
+ * stops allocating once warm.
+ * <p>
+ * The trail also carries the trace and debug settings of the search it
+ * serves, which {@link Unifier} follows, so that one engine may trace its
+ * unifications without affecting the others.
+ */
 public class Trail {
-    private final Stack<Variable> trail = new Stack<>();
-    
+    private Variable[] trail = new Variable[64];
+    private int size = 0;
+    private long boundary = Long.MAX_VALUE;
+    private long skipped = 0;
+    private boolean traceEnabled = PrologConfig.isTraceEnabled();
+    private boolean debugEnabled = PrologConfig.isDebugEnabled();
+
     /**
-     * Pushes a variable onto the trail.
+     * Pushes a variable onto the trail, unless it was created after the
+     * boundary: such a variable is unreachable once the search backtracks,
+     * so its binding never needs undoing.
      */
     public void push(Variable var) {
-        trail.push(var);
+        if (var.getSerial() >= boundary) {
+            skipped++;
+            return;
+        }
+        if (size == trail.length) {
+            trail = Arrays.copyOf(trail, size * 2);
+        }
+        trail[size++] = var;
     }
-    
+
+    /**
+     * Sets the serial from which variables are no longer trailed. By default
+     * every binding is trailed.
+     */
+    public void setBoundary(long boundary) {
+        this.boundary = boundary;
+    }
+
+    public long getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * Sets whether unifications recorded on this trail are traced, and
+     * whether their bindings are logged.
+     */
+    public void setTracing(boolean traceEnabled, boolean debugEnabled) {
+        this.traceEnabled = traceEnabled;
+        this.debugEnabled = debugEnabled;
+    }
+
+    public boolean isTraceEnabled() {
+        return traceEnabled;
+    }
+
+    public boolean isDebugEnabled() {
+        return debugEnabled;
+    }
+
+    /**
+     * Gets the number of bindings that were not trailed.
+     */
+    public long getSkippedCount() {
+        return skipped;
+    }
+
     /**
      * Undo all bindings since the last mark.
      * @return the mark value for the current state
      */
     public int mark() {
-        return trail.size();
+        return size;
     }
-    
+
     /**
      * Undoes bindings up to the given mark.
      */
     public void undo(int mark) {
-        while (trail.size() > mark) {
-            Variable var = trail.pop();
+        while (size > mark) {
+            Variable var = trail[--size];
+            trail[size] = null;
             var.bind(var.getName(), null); // Unbind
         }
     }
-    
+
+    /**
+     * Gets the variable recorded at the given position.
+     */
+    public Variable get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Trail index " + index + " out of " + size);
+        }
+        return trail[index];
+    }
+
     /**
      * Clears the trail.
      */
     public void clear() {
-        trail.clear();
+        Arrays.fill(trail, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Clears the trail and restores its initial settings, keeping the
+     * capacity it has grown to. The bindings are left in place.
+     */
+    public void reset() {
+        clear();
+        boundary = Long.MAX_VALUE;
+        skipped = 0;
     }
 }
@@ -1,14 +1,13 @@
 package it.denzosoft.prolog.engine;
 
-import it.denzosoft.prolog.PrologConfig;
 import it.denzosoft.prolog.model.*;
 import java.util.Map;
 
 
 public class Unifier {
-    
+
     /**
-     * Unifies two terms.
+     * Unifies two terms, recording every new binding in the substitution.
      * @param a the first term
      * @param b the second term
      * @param substitution the current variable substitution
@@ -16,135 +15,167 @@ public class Unifier {
      * @return true if unification succeeds
      */
     public static boolean unify(Term a, Term b, Map<String, Term> substitution, Trail trail) {
-        PrologConfig.trace("Attempting to unify: " + a + " with " + b);
-        
-        // Apply substitutions first
-        a = substitute(a, substitution);
-        b = substitute(b, substitution);
-        
-        // Handle variables
-        if (a instanceof Variable) {
-            if (b instanceof Variable) {
-                boolean result = ((Variable) a).getName().equals(((Variable) b).getName());
-                PrologConfig.trace("Unifying variables: " + a + " and " + b + " -> " + result);
-                return result;
-            }
-            return bind((Variable) a, b, substitution, trail);
-        }
-        
-        if (b instanceof Variable) {
-            return bind((Variable) b, a, substitution, trail);
-        }
-        
-        // Handle numbers and atoms
-        if (a.getClass() != b.getClass()) {
-            PrologConfig.trace("Different classes, unification failed: " + a.getClass() + " vs " + b.getClass());
+        int mark = trail.mark();
+        if (!unify(a, b, trail)) {
             return false;
         }
-        
-        // Atoms
-        if (a instanceof Atom) {
-            boolean result = a.equals(b);
-            PrologConfig.trace("Unifying atoms: " + a + " and " + b + " -> " + result);
-            return result;
-        }
-        
-        // Numbers
-        if (a instanceof it.denzosoft.prolog.model.Number) {
-            it.denzosoft.prolog.model.Number numA = (it.denzosoft.prolog.model.Number) a;
-            it.denzosoft.prolog.model.Number numB = (it.denzosoft.prolog.model.Number) b;
-            boolean result = Double.compare(numA.getValue(), numB.getValue()) == 0;
-            PrologConfig.trace("Unifying numbers: " + a + " and " + b + " -> " + result);
-            return result;
+        for (int i = mark; i < trail.mark(); i++) {
+            Variable var = trail.get(i);
+            substitution.put(var.getName(), var.getBinding());
         }
-        
-        // Lists
-        if (a instanceof List && b instanceof List) {
-            List listA = (List) a;
-            List listB = (List) b;
-            
-            // Handle empty list case
-            if (listA.isEmpty() && listB.isEmpty()) {
-                PrologConfig.trace("Both lists are empty, unification succeeded");
+        return true;
+    }
+
+    /**
+     * Unifies two terms by binding variables in place. Every binding is
+     * pushed on the trail so that it can be undone on backtracking.
+     * @return true if unification succeeds
+     */
+    public static boolean unify(Term a, Term b, Trail trail) {
+        while (true) {
+            if (trail.isTraceEnabled()) {
+                trace("Attempting to unify: " + a + " with " + b);
+            }
+
+            a = deref(a);
+            b = deref(b);
+            if (a == b) {
                 return true;
             }
-            
-            // Recursively unify head and tail
-            boolean result = unify(listA.getHead(), listB.getHead(), substitution, trail) &&
-                   unify(listA.getTail(), listB.getTail(), substitution, trail);
-            PrologConfig.trace("Unifying lists: " + a + " and " + b + " -> " + result);
-            return result;
-        }
-        
-        // Structures
-        if (a instanceof Struct && b instanceof Struct) {
-            Struct structA = (Struct) a;
-            Struct structB = (Struct) b;
-            
-            if (!structA.getFunctor().equals(structB.getFunctor()) ||
-                structA.getArity() != structB.getArity()) {
-                PrologConfig.trace("Structure functors or arities don't match");
+
+            // Handle variables
+            if (a instanceof Variable) {
+                return bind((Variable) a, b, trail);
+            }
+
+            if (b instanceof Variable) {
+                return bind((Variable) b, a, trail);
+            }
+
+            // Handle numbers and atoms
+            if (a.getClass() != b.getClass() && !(a instanceof Struct && b instanceof Struct)) {
+                if (trail.isTraceEnabled()) {
+                    trace("Different classes, unification failed");
+                }
                 return false;
             }
-            
-            // Recursively unify args
-            for (int i = 0; i < structA.getArity(); i++) {
-                if (!unify(structA.getArgs()[i], structB.getArgs()[i], substitution, trail)) {
-                    PrologConfig.trace("Failed to unify argument " + i + " of structures");
+
+            // Atoms
+            if (a instanceof Atom) {
+                return ((Atom) a).getValue().equals(((Atom) b).getValue());
+            }
+
+            // Numbers
+            if (a instanceof it.denzosoft.prolog.model.Number) {
+                it.denzosoft.prolog.model.Number numA = (it.denzosoft.prolog.model.Number) a;
+                it.denzosoft.prolog.model.Number numB = (it.denzosoft.prolog.model.Number) b;
+                return Double.compare(numA.getValue(), numB.getValue()) == 0;
+            }
+
+            // Lists: unify heads, then continue with the tails without recursion
+            if (a instanceof List) {
+                List listA = (List) a;
+                List listB = (List) b;
+                if (!unify(listA.getHead(), listB.getHead(), trail)) {
+                    return false;
+                }
+                a = listA.getTail();
+                b = listB.getTail();
+                continue;
+            }
+
+            // Structures
+            if (a instanceof Struct) {
+                Struct structA = (Struct) a;
+                Struct structB = (Struct) b;
+
+                if (structA.getArity() != structB.getArity() ||
+                    !structA.getFunctor().equals(structB.getFunctor())) {
+                    if (trail.isTraceEnabled()) {
+                        trace("Structure functors or arities don't match");
+                    }
                     return false;
                 }
+
+                // Recursively unify args, continuing with the last one in place
+                int arity = structA.getArity();
+                if (arity == 0) {
+                    return true;
+                }
+                for (int i = 0; i < arity - 1; i++) {
+                    if (!unify(structA.getArg(i), structB.getArg(i), trail)) {
+                        return false;
+                    }
+                }
+                a = structA.getArg(arity - 1);
+                b = structB.getArg(arity - 1);
+                continue;
             }
-            
-            PrologConfig.trace("Structures unified successfully: " + a + " and " + b);
-            return true;
-        }
-        
-        PrologConfig.trace("Unification failed for unknown reason");
-        return false;
-    }
-    
-    // Substitute variables in a term with their bindings
-    private static Term substitute(Term term, Map<String, Term> substitution) {
-        if (term instanceof Variable) {
-            Variable var = (Variable) term;
-            if (var.isBound()) {
-                Term result = substitution.get(var.getName());
-                PrologConfig.trace("Substituting variable " + var + " with " + result);
-                return result;
+
+            if (trail.isTraceEnabled()) {
+                trace("Unification failed for unknown reason");
             }
-            return var;
+            return false;
         }
-        
-        if (term instanceof List) {
-            List list = (List) term;
-            return new List(
-                substitute(list.getHead(), substitution),
-                substitute(list.getTail(), substitution)
-            );
+    }
+
+    /**
+     * Follows variable bindings until an unbound variable or a non-variable
+     * term is reached.
+     */
+    public static Term deref(Term term) {
+        while (term instanceof Variable && ((Variable) term).isBound()) {
+            term = ((Variable) term).getBinding();
         }
-        
+        return term;
+    }
+
+    /**
+     * Builds a copy of a term with every bound variable replaced by its
+     * value, so the result stays valid after the bindings are undone.
+     */
+    public static Term resolve(Term term) {
+        term = deref(term);
         if (term instanceof Struct) {
             Struct struct = (Struct) term;
-            Term[] newArgs = new Term[struct.getArity()];
-            for (int i = 0; i < struct.getArity(); i++) {
-                newArgs[i] = substitute(struct.getArgs()[i], substitution);
+            Term[] args = struct.getArgs();
+            boolean changed = false;
+            for (int i = 0; i < args.length; i++) {
+                Term resolved = resolve(args[i]);
+                changed |= resolved != args[i];
+                args[i] = resolved;
+            }
+            return changed ? new Struct(struct.getFunctor(), args) : struct;
+        }
+        if (term instanceof List) {
+            // Resolve the spine iteratively so long lists do not overflow the stack
+            java.util.List<Term> heads = new java.util.ArrayList<>();
+            Term current = term;
+            while (current instanceof List) {
+                List cell = (List) current;
+                heads.add(resolve(cell.getHead()));
+                current = deref(cell.getTail());
             }
-            return new Struct(struct.getFunctor(), newArgs);
+            Term result = resolve(current);
+            for (int i = heads.size() - 1; i >= 0; i--) {
+                result = new List(heads.get(i), result);
+            }
+            return result;
         }
-        
-        return term; // Atoms and numbers are not substituted
+        return term;
     }
-    
+
     // Bind a variable to a value
-    private static boolean bind(Variable var, Term value, Map<String, Term> substitution, Trail trail) {
-        if (!var.isBound()) {
-            trail.push(var);
-            substitution.put(var.getName(), value);
-            PrologConfig.debug("Binding variable " + var.getName() + " to " + value);
-            return true;
+    private static boolean bind(Variable var, Term value, Trail trail) {
+        var.bind(var.getName(), value);
+        trail.push(var);
+        if (trail.isDebugEnabled()) {
+            System.err.println("[DEBUG] Binding variable " + var.getName() + " to " + value);
         }
-        // If already bound, unify the binding with the new value
-        PrologConfig.debug("Variable " + var.getName() + " already bound, unifying with " + value);
-        return Unifier.unify(var.getBinding(), value, substitution, trail);
+        return true;
+    }
+
+    private static void trace(String message) {
+        System.err.println("[TRACE] " + message);
     }
 }
@@ -44,19 +44,19 @@ public class List implements Term {
         return tail;
     }
     
+    /**
+     * Checks whether this list is empty. A cell always holds an element;
+     * the empty list is the atom {@code []}, never a cell.
+     */
     public boolean isEmpty() {
-        return tail instanceof Atom && ((Atom) tail).getValue().equals("[]");
+        return false;
     }
     
     @Override
     public String toString() {
-        if (isEmpty()) {
-            return "[]";
-        }
-        
         StringBuilder sb = new StringBuilder("[" + head);
         Term current = tail;
-        while (current instanceof List && !((List) current).isEmpty()) {
+        while (current instanceof List) {
             List list = (List) current;
             sb.append(", ").append(list.head);
             current = list.tail;
@@ -52,6 +52,14 @@ public class Struct implements Term {
         return args.clone();
     }
     
+    /**
+     * Gets a single argument without copying the argument array.
+     * @param index the 0-based argument position
+     */
+    public Term getArg(int index) {
+        return args[index];
+    }
+    
     public int getArity() {
         return args.length;
     }
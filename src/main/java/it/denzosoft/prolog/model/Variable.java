@@ -5,10 +5,20 @@ import java.util.Map;
 
 public class Variable implements Term {
     private final String name;
+    private final long serial;
     private Term boundTo = null;
     
     public Variable(String name) {
+        this(name, 0);
+    }
+
+    /**
+     * Creates a variable with a creation stamp. Stamps grow with the age of
+     * the search, so the engine can tell whether a binding must be trailed.
+     */
+    public Variable(String name, long serial) {
         this.name = name;
+        this.serial = serial;
     }
     
     @Override
@@ -48,6 +58,10 @@ public class Variable implements Term {
         return name;
     }
     
+    public long getSerial() {
+        return serial;
+    }
+    
     public boolean isBound() {
         return boundTo != null;
     }
@@ -1,19 +1,22 @@
 package it.denzosoft.prolog.parser;
 
 import java.io.IOException;
+import java.io.PushbackReader;
 import java.io.Reader;
 
 
 public class Lexer {
-    private final Reader reader;
+    private static final String SYMBOL_CHARS = "+-*/\\^<>=~:.?@#&$";
+
+    private final PushbackReader reader;
     private int currentChar;
     private int position = 0;
     private int line = 1;
     private int column = 1;
 
     public Lexer(Reader reader) throws IOException {
-        this.reader = reader;
-        this.currentChar = reader.read();
+        this.reader = new PushbackReader(reader, 2);
+        this.currentChar = this.reader.read();
     }
 
     /**
@@ -21,85 +24,130 @@ public class Lexer {
      */
     public Token nextToken() throws IOException {
         skipWhitespace();
-        
+
         if (currentChar == -1) {
             return new Token(Token.Type.EOF, "", line, column);
         }
-        
+
         Token token = readToken();
         return token != null ? token : new Token(Token.Type.ERROR, String.valueOf((char)currentChar), line, column);
     }
-    
+
     private void skipWhitespace() throws IOException {
-        while (currentChar != -1 && Character.isWhitespace(currentChar)) {
-            if (currentChar == '\n') {
-                line++;
-                column = 1;
+        while (currentChar != -1) {
+            if (Character.isWhitespace(currentChar)) {
+                advance();
+            } else if (currentChar == '%') {
+                // Line comment
+                while (currentChar != -1 && currentChar != '\n') {
+                    advance();
+                }
+            } else if (currentChar == '/' && peek() == '*') {
+                // Block comment
+                advance();
+                advance();
+                while (currentChar != -1 && !(currentChar == '*' && peek() == '/')) {
+                    advance();
+                }
+                if (currentChar != -1) {
+                    advance();
+                    advance();
+                }
             } else {
-                column++;
+                break;
             }
-            currentChar = reader.read();
         }
     }
-    
+
     private Token readToken() throws IOException {
         int startLine = line;
         int startColumn = column;
-        
+
         // Handle numbers
         if (Character.isDigit(currentChar)) {
             StringBuilder sb = new StringBuilder();
-            while (currentChar != -1 && (Character.isDigit(currentChar) || currentChar == '.')) {
+            while (currentChar != -1 && Character.isDigit(currentChar)) {
                 sb.append((char) currentChar);
-                currentChar = reader.read();
-                column++;
+                advance();
+            }
+            // A dot is part of the number only when a digit follows it
+            if (currentChar == '.' && Character.isDigit(peek())) {
+                sb.append('.');
+                advance();
+                while (currentChar != -1 && Character.isDigit(currentChar)) {
+                    sb.append((char) currentChar);
+                    advance();
+                }
             }
             return new Token(Token.Type.NUMBER, sb.toString(), startLine, startColumn);
         }
-        
+
         // Handle atoms, variables, and operators
         if (Character.isLetter(currentChar) || currentChar == '_' || currentChar == '\'') {
             StringBuilder sb = new StringBuilder();
             boolean isQuoted = currentChar == '\'';
-            
+
             if (isQuoted) {
-                currentChar = reader.read();
-                column++;
+                advance();
                 while (currentChar != -1 && currentChar != '\'') {
                     sb.append((char) currentChar);
-                    currentChar = reader.read();
-                    column++;
+                    advance();
                 }
                 if (currentChar == '\'') {
-                    currentChar = reader.read();
-                    column++;
+                    advance();
                     return new Token(Token.Type.ATOM, sb.toString(), startLine, startColumn);
                 } else {
                     return new Token(Token.Type.ERROR, "Unterminated quoted atom", startLine, startColumn);
                 }
             }
-            
+
             while (currentChar != -1 && (Character.isLetterOrDigit(currentChar) || currentChar == '_')) {
                 sb.append((char) currentChar);
-                currentChar = reader.read();
-                column++;
+                advance();
             }
-            
+
             String value = sb.toString();
-            
-            // Check if it's a variable (starts with uppercase) or atom
-            if (Character.isUpperCase(value.charAt(0))) {
+
+            // Check if it's a variable (starts with uppercase or underscore) or atom
+            if (Character.isUpperCase(value.charAt(0)) || value.charAt(0) == '_') {
                 return new Token(Token.Type.VARIABLE, value, startLine, startColumn);
             } else {
                 return new Token(Token.Type.ATOM, value, startLine, startColumn);
             }
         }
-        
-        // Handle operators and special characters
+
+        // Handle double-quoted strings
+        if (currentChar == '"') {
+            StringBuilder sb = new StringBuilder();
+            advance();
+            while (currentChar != -1 && currentChar != '"') {
+                sb.append((char) currentChar);
+                advance();
+            }
+            if (currentChar != '"') {
+                return new Token(Token.Type.ERROR, "Unterminated string", startLine, startColumn);
+            }
+            advance();
+            return new Token(Token.Type.STRING, sb.toString(), startLine, startColumn);
+        }
+
+        // Handle symbol sequences such as :- -> \+ =.. as single tokens
+        if (SYMBOL_CHARS.indexOf(currentChar) >= 0) {
+            StringBuilder sb = new StringBuilder();
+            while (currentChar != -1 && SYMBOL_CHARS.indexOf(currentChar) >= 0) {
+                sb.append((char) currentChar);
+                advance();
+                if (sb.length() == 1 && sb.charAt(0) == '.' && !isSymbolChar(currentChar)) {
+                    break;
+                }
+            }
+            return symbolToken(sb.toString(), startLine, startColumn);
+        }
+
+        // Handle punctuation
         char ch = (char) currentChar;
-        currentChar = reader.read();
-        column++;
-        
+        advance();
+
         switch (ch) {
             case '(': return new Token(Token.Type.LPAREN, "(", startLine, startColumn);
             case ')': return new Token(Token.Type.RPAREN, ")", startLine, startColumn);
@@ -107,39 +155,52 @@ public class Lexer {
             case ']': return new Token(Token.Type.RBRACKET, "]", startLine, startColumn);
             case '|': return new Token(Token.Type.BAR, "|", startLine, startColumn);
             case ',': return new Token(Token.Type.COMMA, ",", startLine, startColumn);
-            case '.': return new Token(Token.Type.DOT, ".", startLine, startColumn);
             case ';': return new Token(Token.Type.SEMICOLON, ";", startLine, startColumn);
-            case '+': return new Token(Token.Type.PLUS, "+", startLine, startColumn);
-            case '-': return new Token(Token.Type.MINUS, "-", startLine, startColumn);
-            case '*': return new Token(Token.Type.MULTIPLY, "*", startLine, startColumn);
-            case '/': return new Token(Token.Type.DIVIDE, "/", startLine, startColumn);
-            case '^': return new Token(Token.Type.CARET, "^", startLine, startColumn);
-            case '\\': return new Token(Token.Type.BACKSLASH, "\\", startLine, startColumn);
-            case '=': 
-                if (currentChar == '<') {
-                    currentChar = reader.read();
-                    column++;
-                    return new Token(Token.Type.LTE, "=<", startLine, startColumn);
-                }
-                return new Token(Token.Type.EQ, "=", startLine, startColumn);
-            case '>': 
-                if (currentChar == '=') {
-                    currentChar = reader.read();
-                    column++;
-                    return new Token(Token.Type.GTE, ">=", startLine, startColumn);
-                }
-                return new Token(Token.Type.GT, ">", startLine, startColumn);
-            case '<':
-                return new Token(Token.Type.LT, "<", startLine, startColumn);
-            case ':':
-                if (currentChar == '-') {
-                    currentChar = reader.read();
-                    column++;
-                    return new Token(Token.Type.DEFINE, ":-", startLine, startColumn);
-                }
-                return new Token(Token.Type.ERROR, ":", startLine, startColumn);
-            default: 
+            case '!': return new Token(Token.Type.ATOM, "!", startLine, startColumn);
+            default:
                 return new Token(Token.Type.ERROR, String.valueOf(ch), startLine, startColumn);
         }
     }
+
+    private Token symbolToken(String symbol, int startLine, int startColumn) {
+        switch (symbol) {
+            case ".": return new Token(Token.Type.DOT, ".", startLine, startColumn);
+            case ":-": return new Token(Token.Type.DEFINE, ":-", startLine, startColumn);
+            case "=": return new Token(Token.Type.EQ, "=", startLine, startColumn);
+            case ">": return new Token(Token.Type.GT, ">", startLine, startColumn);
+            case "<": return new Token(Token.Type.LT, "<", startLine, startColumn);
+            case ">=": return new Token(Token.Type.GTE, ">=", startLine, startColumn);
+            case "=<": return new Token(Token.Type.LTE, "=<", startLine, startColumn);
+            case "+": return new Token(Token.Type.PLUS, "+", startLine, startColumn);
+            case "-": return new Token(Token.Type.MINUS, "-", startLine, startColumn);
+            case "*": return new Token(Token.Type.MULTIPLY, "*", startLine, startColumn);
+            case "/": return new Token(Token.Type.DIVIDE, "/", startLine, startColumn);
+            case "^": return new Token(Token.Type.CARET, "^", startLine, startColumn);
+            case "\\": return new Token(Token.Type.BACKSLASH, "\\", startLine, startColumn);
+            default: return new Token(Token.Type.OPERATOR, symbol, startLine, startColumn);
+        }
+    }
+
+    private boolean isSymbolChar(int c) {
+        return c != -1 && SYMBOL_CHARS.indexOf(c) >= 0;
+    }
+
+    private int peek() throws IOException {
+        int next = reader.read();
+        if (next != -1) {
+            reader.unread(next);
+        }
+        return next;
+    }
+
+    private void advance() throws IOException {
+        if (currentChar == '\n') {
+            line++;
+            column = 1;
+        } else {
+            column++;
+        }
+        position++;
+        currentChar = reader.read();
+    }
 }
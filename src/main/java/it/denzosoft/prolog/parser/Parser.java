@@ -4,190 +4,336 @@ import it.denzosoft.prolog.model.*;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.io.StringReader;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 public class Parser {
+    private static final Map<String, Operator> INFIX_OPERATORS = new HashMap<>();
+    private static final Map<String, Operator> PREFIX_OPERATORS = new HashMap<>();
+
+    static {
+        infix(1200, "xfx", ":-", "-->");
+        infix(1100, "xfy", ";", "|");
+        infix(1050, "xfy", "->");
+        infix(1000, "xfy", ",");
+        infix(700, "xfx", "=", "\\=", "==", "\\==", "@<", "@>", "@=<", "@>=", "=..",
+                "is", "=:=", "=\\=", "<", ">", "=<", ">=");
+        infix(500, "yfx", "+", "-");
+        infix(400, "yfx", "*", "/", "//", "mod", "rem");
+        infix(200, "xfx", "**");
+        infix(200, "xfy", "^");
+        prefix(1200, "fx", ":-", "?-");
+        prefix(1150, "fx", "table", "cache");
+        prefix(900, "fy", "\\+");
+        prefix(200, "fy", "-", "+");
+    }
+
     private final Lexer lexer;
     private Token currentToken;
-    
+    private Map<String, Variable> variables = new HashMap<>();
+    // Precedence of the term most recently returned by parsePrimary or parse
+    private int lastPrecedence = 0;
+
     public Parser(Lexer lexer) throws IOException {
         this.lexer = lexer;
         this.currentToken = lexer.nextToken();
     }
-    
+
+    /**
+     * Parses a term. Occurrences of the same variable name within the term
+     * share one {@link Variable}.
+     */
     public Term parseTerm() throws IOException {
+        variables = new HashMap<>();
+        return parse(1200);
+    }
+
+    private Term parse(int maxPrecedence) throws IOException {
         skipComments();
-        
+        Term left = parsePrimary(maxPrecedence);
+        int leftPrecedence = lastPrecedence;
+
+        while (true) {
+            String name = operatorName(currentToken);
+            Operator op = name != null ? INFIX_OPERATORS.get(name) : null;
+            if (op == null || op.precedence > maxPrecedence) {
+                break;
+            }
+            int leftMax = op.type.charAt(0) == 'y' ? op.precedence : op.precedence - 1;
+            if (leftPrecedence > leftMax) {
+                break;
+            }
+            int rightMax = op.type.charAt(2) == 'y' ? op.precedence : op.precedence - 1;
+            advance();
+            Term right = parse(rightMax);
+            left = new Struct(new Atom(name), left, right);
+            leftPrecedence = op.precedence;
+        }
+        lastPrecedence = leftPrecedence;
+        return left;
+    }
+
+    private Term parsePrimary(int maxPrecedence) throws IOException {
+        lastPrecedence = 0;
+
         if (currentToken.getType() == Token.Type.VARIABLE) {
             String varName = currentToken.getValue();
             advance();
-            return new Variable(varName);
+            if (varName.equals("_")) {
+                return new Variable("_");
+            }
+            Variable var = variables.get(varName);
+            if (var == null) {
+                var = new Variable(varName);
+                variables.put(varName, var);
+            }
+            return var;
         }
-        
+
         if (currentToken.getType() == Token.Type.NUMBER) {
             String numStr = currentToken.getValue();
             advance();
             return new it.denzosoft.prolog.model.Number(Double.parseDouble(numStr));
         }
-        
-        if (currentToken.getType() == Token.Type.ATOM) {
-            // Check for string
-            String atomValue = currentToken.getValue();
-            if (atomValue.startsWith("'") && atomValue.endsWith("'")) {
-                advance();
-                return new Atom(atomValue.substring(1, atomValue.length() - 1));
-            }
-            
+
+        if (currentToken.getType() == Token.Type.STRING) {
+            String value = currentToken.getValue();
+            advance();
+            return new Atom(value);
+        }
+
+        if (currentToken.getType() == Token.Type.LPAREN) {
+            advance(); // '('
+            Term inner = parse(1200);
+            expect(Token.Type.RPAREN);
+            lastPrecedence = 0;
+            return inner;
+        }
+
+        if (currentToken.getType() == Token.Type.LBRACKET) {
+            return parseList();
+        }
+
+        String name = operatorName(currentToken);
+        if (name != null) {
             advance();
-            
-            // Check if it's a structure or list
+
+            // Functional notation: name(args)
             if (currentToken.getType() == Token.Type.LPAREN) {
                 advance(); // '('
                 List<Term> args = parseArguments();
                 expect(Token.Type.RPAREN);
-                return new Struct(new Atom(atomValue), args.toArray(new Term[0]));
+                return new Struct(new Atom(name), args.toArray(new Term[0]));
             }
-            
-            return new Atom(atomValue);
-        }
-        
-        if (currentToken.getType() == Token.Type.LBRACKET) {
-            return parseList();
+
+            // Negative numeric literal
+            if (name.equals("-") && currentToken.getType() == Token.Type.NUMBER) {
+                String numStr = currentToken.getValue();
+                advance();
+                return new it.denzosoft.prolog.model.Number(-Double.parseDouble(numStr));
+            }
+
+            Operator op = PREFIX_OPERATORS.get(name);
+            if (op != null && startsTerm(currentToken)) {
+                int precedence = op.precedence;
+                if (precedence > maxPrecedence) {
+                    precedence = 999;
+                }
+                int argMax = op.type.charAt(1) == 'y' ? precedence : precedence - 1;
+                Term arg = parse(argMax);
+                lastPrecedence = precedence;
+                return new Struct(new Atom(name), arg);
+            }
+
+            return new Atom(name);
         }
-        
+
         if (currentToken.getType() == Token.Type.EOF) {
             throw new IOException("Unexpected end of input");
         }
-        
+
         throw new IOException("Unexpected token: " + currentToken);
     }
-    
+
     private java.util.List<Term> parseArguments() throws IOException {
         java.util.List<Term> args = new ArrayList<>();
         skipComments();
-        
+
         if (currentToken.getType() != Token.Type.RPAREN) {
-            args.add(parseTerm());
-            
+            args.add(parse(999));
+
             while (true) {
                 skipComments();
                 if (currentToken.getType() != Token.Type.COMMA) {
                     break;
                 }
                 advance(); // ','
-                args.add(parseTerm());
+                args.add(parse(999));
             }
         }
-        
+
         return args;
     }
-    
+
     private Term parseList() throws IOException {
         advance(); // '['
         skipComments();
-        
-        if (currentToken.getType() == Token.Type.RBRACKET) {
-            advance(); // ']'
-            return new it.denzosoft.prolog.model.List(new Atom("[]"), new Atom("[]"));
-        }
-        
-        Term head = parseTerm();
-        skipComments();
-        
-        if (currentToken.getType() == Token.Type.BAR) {
-            advance(); // '|'
-            Term tail = parseTerm();
-            expect(Token.Type.RBRACKET);
-            return new it.denzosoft.prolog.model.List(head, tail);
-        }
-        
+
         if (currentToken.getType() == Token.Type.RBRACKET) {
             advance(); // ']'
-            return new it.denzosoft.prolog.model.List(head, new Atom("[]"));
+            lastPrecedence = 0;
+            return new Atom("[]");
         }
-        
-        // Multiple elements: collect them
+
         java.util.List<Term> elements = new ArrayList<>();
-        elements.add(head);
-        
-        while (true) {
-            skipComments();
-            if (currentToken.getType() == Token.Type.BAR || 
-                currentToken.getType() == Token.Type.RBRACKET) {
-                break;
-            }
-            
-            elements.add(parseTerm());
-            skipComments();
+        elements.add(parse(999));
+        while (currentToken.getType() == Token.Type.COMMA) {
+            advance(); // ','
+            elements.add(parse(999));
         }
-        
+
+        Term list = new Atom("[]");
         if (currentToken.getType() == Token.Type.BAR) {
             advance(); // '|'
-            Term tail = parseTerm();
-            expect(Token.Type.RBRACKET);
-            
-            // Build the list structure
-            Term list = tail;
-            for (int i = elements.size() - 1; i >= 0; i--) {
-                list = new it.denzosoft.prolog.model.List(elements.get(i), list);
-            }
-            return list;
+            list = parse(999);
         }
-        
         expect(Token.Type.RBRACKET);
-        
-        // Build the list structure with null-terminated list
-        Term list = new Atom("[]");
+
         for (int i = elements.size() - 1; i >= 0; i--) {
             list = new it.denzosoft.prolog.model.List(elements.get(i), list);
         }
+        lastPrecedence = 0;
         return list;
     }
-    
+
+    /**
+     * Gets the name a token has when it is read as an atom or operator.
+     * @return the name, or null for punctuation and non-atomic tokens
+     */
+    private static String operatorName(Token token) {
+        switch (token.getType()) {
+            case ATOM:
+            case OPERATOR:
+            case COMMA:
+            case SEMICOLON:
+            case BAR:
+            case DEFINE:
+            case EQ:
+            case GT:
+            case LT:
+            case GTE:
+            case LTE:
+            case PLUS:
+            case MINUS:
+            case MULTIPLY:
+            case DIVIDE:
+            case BACKSLASH:
+            case CARET:
+                return token.getValue();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Checks whether a token can begin the operand of a prefix operator.
+     */
+    private static boolean startsTerm(Token token) {
+        switch (token.getType()) {
+            case VARIABLE:
+            case NUMBER:
+            case STRING:
+            case LPAREN:
+            case LBRACKET:
+                return true;
+            case ATOM:
+                return !INFIX_OPERATORS.containsKey(token.getValue());
+            case OPERATOR:
+            case MINUS:
+            case PLUS:
+            case BACKSLASH:
+                return PREFIX_OPERATORS.containsKey(token.getValue());
+            default:
+                return false;
+        }
+    }
+
     private void expect(Token.Type type) throws IOException {
         if (currentToken.getType() != type) {
             throw new IOException("Expected " + type + " but found " + currentToken);
         }
         advance();
     }
-    
+
     private void advance() throws IOException {
         currentToken = lexer.nextToken();
     }
-    
+
     private void skipComments() throws IOException {
-        // We don't have comments in this lexer yet
+        // Comments are skipped by the lexer
     }
-    
+
+    /**
+     * Parses a clause terminated by a dot. A rule {@code H :- B} becomes a
+     * clause with a body; any other term becomes a fact.
+     */
     public Clause parseClause() throws IOException {
-        Term head = parseTerm();
-        skipComments();
-        
-        if (currentToken.getType() == Token.Type.DOT) {
-            advance();
-            return new Clause(head, null); // Fact
-        }
-        
-        expect(Token.Type.DEFINE);
-        skipComments();
-        
-        Term body = parseTerm();
+        variables = new HashMap<>();
+        Term term = parse(1200);
         expect(Token.Type.DOT);
-        return new Clause(head, body);
+
+        if (term instanceof Struct) {
+            Struct struct = (Struct) term;
+            if (struct.getFunctor().getValue().equals(":-") && struct.getArity() == 2) {
+                Term[] args = struct.getArgs();
+                return new Clause(args[0], args[1]);
+            }
+        }
+        return new Clause(term, null); // Fact
+    }
+
+    /**
+     * Checks whether all input has been consumed.
+     */
+    public boolean isAtEnd() {
+        return currentToken.getType() == Token.Type.EOF;
     }
-    
+
     // Add a helper method to parse from string
     public static Term parseTermFromString(String input) throws IOException {
         Lexer lexer = new Lexer(new StringReader(input));
         Parser parser = new Parser(lexer);
         return parser.parseTerm();
     }
-    
+
     // Add a helper method to parse clause from string
     public static Clause parseClauseFromString(String input) throws IOException {
         Lexer lexer = new Lexer(new StringReader(input));
         Parser parser = new Parser(lexer);
         return parser.parseClause();
     }
+
+    private static void infix(int precedence, String type, String... names) {
+        for (String name : names) {
+            INFIX_OPERATORS.put(name, new Operator(precedence, type));
+        }
+    }
+
+    private static void prefix(int precedence, String type, String... names) {
+        for (String name : names) {
+            PREFIX_OPERATORS.put(name, new Operator(precedence, type));
+        }
+    }
+
+    private static final class Operator {
+        private final int precedence;
+        private final String type;
+
+        private Operator(int precedence, String type) {
+            this.precedence = precedence;
+            this.type = type;
+        }
+    }
 }
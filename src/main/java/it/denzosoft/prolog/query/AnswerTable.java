@@ -0,0 +1,105 @@
+package it.denzosoft.prolog.query;
+
+import it.denzosoft.prolog.model.Term;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+
+/**
+ * Answers of a query as rows of values under one header of variable
+ * names.
+ * <p>
+ * A row holds, at the position of each column, the fully dereferenced
+ * value of the goal variable of that name, or null if the answer leaves
+ * the variable unbound. Rows share the header, so an answer costs one
+ * array of as many slots as the goal has variables, however large the
+ * proof that found it.
+ */
+public class AnswerTable implements Iterable<Term[]> {
+    private final String[] columns;
+    private final java.util.List<Term[]> rows = new ArrayList<>();
+
+    public AnswerTable(String[] columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Gets the names of the columns, the variables of the goal in the order
+     * they first occur.
+     */
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    /**
+     * Gets the position of a column.
+     * @return the position, or -1 if there is no such column
+     */
+    public int getColumnIndex(String name) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public void add(Term[] row) {
+        if (row.length != columns.length) {
+            throw new IllegalArgumentException("Expected " + columns.length + " values, got " + row.length);
+        }
+        rows.add(row);
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    public Term[] getRow(int index) {
+        return rows.get(index);
+    }
+
+    /**
+     * Gets the value of a variable in an answer.
+     * @return the value, or null if the variable is unbound or unknown
+     */
+    public Term get(int index, String column) {
+        int position = getColumnIndex(column);
+        return position < 0 ? null : rows.get(index)[position];
+    }
+
+    /**
+     * Gets an answer in the form of {@link Query#nextSolution()}: the bound
+     * variables by name.
+     */
+    public Map<String, Term> toMap(int index) {
+        return toMap(columns, rows.get(index));
+    }
+
+    static Map<String, Term> toMap(String[] columns, Term[] row) {
+        Map<String, Term> answer = new HashMap<>();
+        for (int i = 0; i < columns.length; i++) {
+            if (row[i] != null) {
+                answer.put(columns[i], row[i]);
+            }
+        }
+        return answer;
+    }
+
+    @Override
+    public Iterator<Term[]> iterator() {
+        return rows.iterator();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(Arrays.toString(columns));
+        for (Term[] row : rows) {
+            sb.append('\n').append(Arrays.toString(row));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,202 @@
+package it.denzosoft.prolog.query;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Runs queries without blocking the caller: answers are computed on an
+ * executor, on engines of an {@link EnginePool}, and delivered through a
+ * {@link CompletableFuture} or a {@link Flow.Publisher}.
+ * <p>
+ * Each query works on a copy of the goal, so one goal may be submitted
+ * any number of times, concurrently. Cancelling a future or a
+ * subscription cancels the query, which stops the search at its next
+ * step rather than letting it run to the end in the background.
+ */
+public class AsyncQueries {
+    private final EnginePool engines;
+    private final Executor executor;
+
+    public AsyncQueries(EnginePool engines, Executor executor) {
+        this.engines = engines;
+        this.executor = executor;
+    }
+
+    /**
+     * Runs queries on the common fork-join pool.
+     */
+    public AsyncQueries(Database database) {
+        this(new EnginePool(database), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds the first answer of a goal.
+     * @return a future of the answer, completed with null if there is none
+     */
+    public CompletableFuture<Map<String, Term>> first(Term goal) {
+        return submit(goal, query -> query.nextSolution());
+    }
+
+    /**
+     * Finds all answers of a goal.
+     */
+    public CompletableFuture<java.util.List<Map<String, Term>>> all(Term goal) {
+        return submit(goal, query -> {
+            java.util.List<Map<String, Term>> answers = new ArrayList<>();
+            Map<String, Term> answer;
+            while ((answer = query.nextSolution()) != null) {
+                answers.add(answer);
+            }
+            return answers;
+        });
+    }
+
+    /**
+     * Publishes the answers of a goal. Every subscriber gets a query of its
+     * own, which computes answers only as they are requested.
+     */
+    public Flow.Publisher<Map<String, Term>> publish(Term goal) {
+        return subscriber -> {
+            AnswerSubscription subscription = new AnswerSubscription(Terms.copy(goal), subscriber);
+            subscriber.onSubscribe(subscription);
+        };
+    }
+
+    private <T> CompletableFuture<T> submit(Term goal, java.util.function.Function<Query, T> work) {
+        Term copy = Terms.copy(goal);
+        CompletableFuture<T> future = new CompletableFuture<>();
+        AtomicReference<Query> running = new AtomicReference<>();
+        future.whenComplete((result, error) -> {
+            Query query = running.get();
+            if (future.isCancelled() && query != null) {
+                query.cancel();
+            }
+        });
+        executor.execute(() -> {
+            if (future.isDone()) {
+                return;
+            }
+            try (Engine engine = engines.acquire()) {
+                Query query = engine.query(copy);
+                running.set(query);
+                if (future.isCancelled()) {
+                    return;
+                }
+                future.complete(work.apply(query));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * The subscription of one subscriber: a query that computes as many
+     * answers as requested, on the executor. Drains never overlap: a
+     * request or cancellation arriving while a drain runs is left to that
+     * drain, which holds the engine until the query ends.
+     */
+    private final class AnswerSubscription implements Flow.Subscription, Runnable {
+        private final Term goal;
+        private final Flow.Subscriber<? super Map<String, Term>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        private volatile RuntimeException invalid;
+        private volatile Query query;
+        private Engine engine;
+        private boolean done = false;
+
+        private AnswerSubscription(Term goal, Flow.Subscriber<? super Map<String, Term>> subscriber) {
+            this.goal = goal;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalid = new IllegalArgumentException("Non-positive request: " + n);
+                cancel();
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            Query running = query;
+            if (running != null) {
+                running.cancel();
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (done) {
+                return;
+            }
+            try {
+                if (engine == null && !cancelled) {
+                    engine = engines.acquire();
+                    query = engine.query(goal);
+                }
+                while (!cancelled && demand.get() > 0) {
+                    Map<String, Term> answer = query.nextSolution();
+                    if (answer == null) {
+                        if (!cancelled) {
+                            finish();
+                            subscriber.onComplete();
+                        }
+                        break;
+                    }
+                    demand.decrementAndGet();
+                    subscriber.onNext(answer);
+                }
+                if (cancelled) {
+                    finish();
+                    if (invalid != null) {
+                        subscriber.onError(invalid);
+                    }
+                }
+            } catch (RuntimeException e) {
+                finish();
+                subscriber.onError(e);
+            }
+        }
+
+        private void finish() {
+            done = true;
+            if (engine != null) {
+                engine.close();
+                engine = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package it.denzosoft.prolog.query;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.Term;
+import it.denzosoft.prolog.tabling.VariantTrie;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+
+
+/**
+ * Runs large batches of independent goals against one database on a
+ * worker pool.
+ * <p>
+ * Goals that are variants of each other are solved once, and their
+ * answers are given to every position of the batch holding one of them.
+ * The distinct goals are split into chunks, a few per worker, and each
+ * chunk is solved on one engine of an {@link EnginePool}, so that the cost
+ * of setting up a query is paid per chunk rather than per goal. Answers
+ * come back as {@link AnswerTable}s in the order of the batch, and may
+ * also be handed to a listener as each goal finishes.
+ * <p>
+ * A batch may be run from a worker of the fork-join pool it runs on: the
+ * wait for its chunks lets the pool add a thread meanwhile. With any other
+ * executor, a batch must not be run from one of the executor's own
+ * threads, which the chunks could then wait for forever.
+ */
+public class BatchQueries {
+    private static final int MAX_CHUNK = 256;
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private final EnginePool engines;
+    private final Executor executor;
+    private final int parallelism;
+
+    /**
+     * @param parallelism the number of threads of the executor to spread
+     *                    the batch over
+     */
+    public BatchQueries(EnginePool engines, Executor executor, int parallelism) {
+        this.engines = engines;
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Runs batches on the common fork-join pool.
+     */
+    public BatchQueries(Database database) {
+        this(new EnginePool(database), ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Solves every goal of a batch and waits for all of them.
+     */
+    public BatchResult run(Iterable<? extends Term> goals) {
+        return run(goals, null);
+    }
+
+    /**
+     * Solves every goal of a batch and waits for all of them.
+     * @param listener called with the position and answers of each goal as
+     *                 it finishes, on the worker thread that solved it, or
+     *                 null
+     */
+    public BatchResult run(Iterable<? extends Term> goals, BiConsumer<Integer, AnswerTable> listener) {
+        long start = System.nanoTime();
+        java.util.List<Term> batch = new ArrayList<>();
+        for (Term goal : goals) {
+            batch.add(goal);
+        }
+        // Group the positions of each goal under the first variant seen
+        VariantTrie<Integer> seen = new VariantTrie<>();
+        java.util.List<Integer> distinct = new ArrayList<>();
+        int[] representative = new int[batch.size()];
+        java.util.List<java.util.List<Integer>> duplicates = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Integer first = seen.putIfAbsent(batch.get(i), distinct.size());
+            if (first == null) {
+                representative[i] = distinct.size();
+                distinct.add(i);
+                duplicates.add(new ArrayList<>());
+            } else {
+                representative[i] = first;
+                duplicates.get(first).add(i);
+            }
+        }
+
+        AnswerTable[] answers = new AnswerTable[batch.size()];
+        RuntimeException[] errors = new RuntimeException[batch.size()];
+        int chunk = chunkSize(distinct.size(), parallelism);
+        int chunks = (distinct.size() + chunk - 1) / chunk;
+        CountDownLatch done = new CountDownLatch(chunks);
+        RuntimeException rejected = null;
+        for (int c = 0; c < chunks; c++) {
+            int from = c * chunk;
+            int to = Math.min(distinct.size(), from + chunk);
+            try {
+                executor.execute(() -> {
+                    try (Engine engine = engines.acquire()) {
+                        for (int d = from; d < to; d++) {
+                            solve(engine, d, batch, distinct, duplicates, answers, errors, listener);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            } catch (RuntimeException e) {
+                // The chunks not submitted will never count down themselves
+                for (int unsubmitted = c; unsubmitted < chunks; unsubmitted++) {
+                    done.countDown();
+                }
+                rejected = e;
+                break;
+            }
+        }
+        await(done);
+        if (rejected != null) {
+            throw rejected;
+        }
+        return new BatchResult(answers, errors, distinct.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Binds each tuple of values to the parameters of a prepared query and
+     * solves the resulting goals as a batch.
+     */
+    public BatchResult run(PreparedQuery prepared, Iterable<Object[]> tuples) {
+        return run(prepared, tuples, null);
+    }
+
+    public BatchResult run(PreparedQuery prepared, Iterable<Object[]> tuples,
+                           BiConsumer<Integer, AnswerTable> listener) {
+        java.util.List<Term> goals = new ArrayList<>();
+        for (Object[] tuple : tuples) {
+            goals.add(prepared.bind(tuple));
+        }
+        return run(goals, listener);
+    }
+
+    /**
+     * Waits for the chunks of a batch, letting a fork-join pool compensate
+     * for a worker of its own that waits.
+     */
+    private void await(CountDownLatch done) {
+        try {
+            if (executor instanceof ForkJoinPool) {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        done.await();
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        return done.getCount() == 0;
+                    }
+                });
+            } else {
+                done.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running a batch", e);
+        }
+    }
+
+    private void solve(Engine engine, int d, java.util.List<Term> batch, java.util.List<Integer> distinct,
+                       java.util.List<java.util.List<Integer>> duplicates, AnswerTable[] answers,
+                       RuntimeException[] errors, BiConsumer<Integer, AnswerTable> listener) {
+        int position = distinct.get(d);
+        AnswerTable table;
+        try {
+            table = engine.solveRows(Terms.copy(batch.get(position)));
+        } catch (RuntimeException e) {
+            errors[position] = e;
+            for (int duplicate : duplicates.get(d)) {
+                errors[duplicate] = e;
+            }
+            return;
+        }
+        answers[position] = table;
+        for (int duplicate : duplicates.get(d)) {
+            // A variant has its variables in the same positions, under its own names
+            AnswerTable copy = new AnswerTable(Query.columns(batch.get(duplicate)));
+            for (Term[] row : table) {
+                copy.add(row);
+            }
+            answers[duplicate] = copy;
+        }
+        if (listener != null) {
+            listener.accept(position, table);
+            for (int duplicate : duplicates.get(d)) {
+                listener.accept(duplicate, answers[duplicate]);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of goals solved on one engine: a few chunks per
+     * worker, so that uneven goals still balance, up to a bound.
+     */
+    static int chunkSize(int goals, int parallelism) {
+        int chunk = goals / (parallelism * CHUNKS_PER_WORKER);
+        return Math.max(1, Math.min(MAX_CHUNK, chunk));
+    }
+}
@@ -0,0 +1,83 @@
+package it.denzosoft.prolog.query;
+
+
+/**
+ * The answers of a batch of goals run by {@link BatchQueries}, in the
+ * order of the batch, with the throughput of the run.
+ */
+public class BatchResult {
+    private final AnswerTable[] answers;
+    private final RuntimeException[] errors;
+    private final int distinct;
+    private final long elapsed;
+
+    BatchResult(AnswerTable[] answers, RuntimeException[] errors, int distinct, long elapsed) {
+        this.answers = answers;
+        this.errors = errors;
+        this.distinct = distinct;
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * Gets the number of goals of the batch.
+     */
+    public int size() {
+        return answers.length;
+    }
+
+    /**
+     * Gets the answers of a goal.
+     * @return the answers, or null if solving the goal failed with an error
+     */
+    public AnswerTable get(int index) {
+        return answers[index];
+    }
+
+    /**
+     * Gets the error solving a goal failed with.
+     * @return the error, or null if the goal was solved
+     */
+    public RuntimeException getError(int index) {
+        return errors[index];
+    }
+
+    /**
+     * Gets the number of goals that failed with an error.
+     */
+    public int getErrorCount() {
+        int count = 0;
+        for (RuntimeException error : errors) {
+            if (error != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of goals actually solved, variants being solved once.
+     */
+    public int getDistinctCount() {
+        return distinct;
+    }
+
+    /**
+     * Gets the wall-clock time of the run, in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsed;
+    }
+
+    /**
+     * Gets the number of goals of the batch answered per second.
+     */
+    public double getGoalsPerSecond() {
+        return elapsed > 0 ? answers.length * 1e9 / elapsed : 0;
+    }
+
+    @Override
+    public String toString() {
+        return answers.length + " goals (" + distinct + " distinct) in "
+                + String.format("%.1f ms, %.0f goals/s", elapsed / 1e6, getGoalsPerSecond());
+    }
+}
@@ -0,0 +1,136 @@
+package it.denzosoft.prolog.query;
+
+import it.denzosoft.prolog.model.Term;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+
+/**
+ * Solves a list of independent goals on a fork-join pool, each once, on a
+ * worker query of its own.
+ * <p>
+ * The goals are handed out in chunks sized so that a chunk takes about
+ * {@link #TARGET_CHUNK_NANOS}: the first goals are solved on the calling
+ * thread until {@link #CALIBRATION_NANOS} have passed, which gives the
+ * time per goal, and the rest is cut into chunks of as many goals as fit
+ * in the target, but no larger than needed to give every pool thread a
+ * few chunks. Tiny goals thus travel in large chunks, and slow goals one
+ * by one. A goal without solution stops the chunks not yet started.
+ */
+final class ConcurrentCalls {
+    static final long TARGET_CHUNK_NANOS = 500_000;
+    static final long CALIBRATION_NANOS = 100_000;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final ForkJoinPool pool;
+    private final java.util.List<Term> goals;
+    private final Function<Term, Query> workers;
+    private final Term[] results;
+    private final AtomicBoolean failed = new AtomicBoolean();
+    private int chunks = 0;
+
+    /**
+     * @param goals the goals, sharing no variable with each other or with
+     *              the calling query
+     * @param workers creates the worker query for a goal
+     */
+    ConcurrentCalls(ForkJoinPool pool, java.util.List<Term> goals, Function<Term, Query> workers) {
+        this.pool = pool;
+        this.goals = goals;
+        this.workers = workers;
+        this.results = new Term[goals.size()];
+    }
+
+    /**
+     * Solves every goal.
+     * @return the first solution of each goal, as the resolved goal, or null
+     *         if a goal has no solution
+     */
+    Term[] solve() {
+        int done = 0;
+        long start = System.nanoTime();
+        long elapsed = 0;
+        while (done < goals.size() && elapsed < CALIBRATION_NANOS) {
+            if (!solve(done++)) {
+                return null;
+            }
+            elapsed = System.nanoTime() - start;
+        }
+        int size = chunkSize(elapsed / Math.max(1, done), goals.size() - done, pool.getParallelism());
+        java.util.List<Chunk> tasks = new ArrayList<>();
+        for (int from = done; from < goals.size(); from += size) {
+            tasks.add(new Chunk(from, Math.min(goals.size(), from + size)));
+        }
+        chunks = tasks.size();
+        if (!tasks.isEmpty()) {
+            if (ForkJoinTask.inForkJoinPool()) {
+                ForkJoinTask.invokeAll(tasks);
+            } else {
+                pool.invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(tasks);
+                    }
+                });
+            }
+        }
+        return failed.get() ? null : results;
+    }
+
+    /**
+     * Gets the number of chunks handed to the pool.
+     */
+    int getChunkCount() {
+        return chunks;
+    }
+
+    /**
+     * Computes how many goals go in a chunk.
+     * @param nanosPerGoal the measured time per goal
+     * @param remaining the goals left to solve
+     * @param parallelism the number of pool threads
+     */
+    static int chunkSize(long nanosPerGoal, int remaining, int parallelism) {
+        long fitting = TARGET_CHUNK_NANOS / Math.max(1, nanosPerGoal);
+        long balanced = (remaining + (long) parallelism * CHUNKS_PER_THREAD - 1)
+                / ((long) parallelism * CHUNKS_PER_THREAD);
+        return (int) Math.max(1, Math.min(fitting, balanced));
+    }
+
+    private boolean solve(int index) {
+        Term solution = workers.apply(goals.get(index)).once(goals.get(index), failed);
+        if (solution == null) {
+            failed.set(true);
+            return false;
+        }
+        results[index] = solution;
+        return true;
+    }
+
+    /**
+     * Solves a range of the goals in order.
+     */
+    private final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+
+        private Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = from; i < to && !failed.get(); i++) {
+                if (!solve(i)) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package it.denzosoft.prolog.query;
+
+import it.denzosoft.prolog.PrologConfig;
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.Term;
+import java.util.Map;
+
+
+/**
+ * A session running queries against a database, one at a time, on one
+ * thread at a time.
+ * <p>
+ * The engine owns the trail, choicepoint stack and variable map that its
+ * queries fill, and hands them from one query to the next: creating a
+ * query resets them, keeping the capacity they have grown to, so a warm
+ * engine allocates none of them. The query made before is then no longer
+ * usable. Debug and trace output are settings of the engine, starting
+ * from the defaults of {@link PrologConfig}, so that sessions on different
+ * threads do not affect each other.
+ * <p>
+ * An engine taken from an {@link EnginePool} goes back to it when closed.
+ */
+public class Engine implements AutoCloseable {
+    private final Database database;
+    private final EnginePool pool;
+    private final Query.Stacks stacks = new Query.Stacks();
+    private boolean debugEnabled = PrologConfig.isDebugEnabled();
+    private boolean traceEnabled = PrologConfig.isTraceEnabled();
+    private long queries = 0;
+    private boolean leased = false;
+
+    public Engine(Database database) {
+        this(database, null);
+    }
+
+    Engine(Database database, EnginePool pool) {
+        this.database = database;
+        this.pool = pool;
+    }
+
+    public Database getDatabase() {
+        return database;
+    }
+
+    public boolean isDebugEnabled() {
+        return debugEnabled;
+    }
+
+    public void setDebugEnabled(boolean enabled) {
+        this.debugEnabled = enabled;
+    }
+
+    public boolean isTraceEnabled() {
+        return traceEnabled;
+    }
+
+    public void setTraceEnabled(boolean enabled) {
+        this.traceEnabled = enabled;
+    }
+
+    /**
+     * Creates a query for a goal, replacing the previous query of this
+     * engine.
+     */
+    public Query query(Term goal) {
+        stacks.reset();
+        queries++;
+        return new Query(goal, this);
+    }
+
+    /**
+     * Finds all solutions of a goal.
+     */
+    public java.util.List<Map<String, Term>> solve(Term goal) {
+        return query(goal).solve();
+    }
+
+    /**
+     * Finds all solutions of a goal as rows.
+     */
+    public AnswerTable solveRows(Term goal) {
+        return query(goal).solveRows();
+    }
+
+    /**
+     * Gets the number of queries this engine has created.
+     */
+    public long getQueryCount() {
+        return queries;
+    }
+
+    /**
+     * Clears the structures of the last query and restores the settings
+     * to the defaults of {@link PrologConfig}.
+     */
+    public void reset() {
+        stacks.reset();
+        debugEnabled = PrologConfig.isDebugEnabled();
+        traceEnabled = PrologConfig.isTraceEnabled();
+    }
+
+    /**
+     * Returns the engine to its pool, if it came from one.
+     */
+    @Override
+    public void close() {
+        if (pool != null && leased) {
+            leased = false;
+            pool.release(this);
+        }
+    }
+
+    void lease() {
+        leased = true;
+    }
+
+    Query.Stacks stacks() {
+        return stacks;
+    }
+}
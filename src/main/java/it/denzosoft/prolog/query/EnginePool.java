@@ -0,0 +1,96 @@
+package it.denzosoft.prolog.query;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.Term;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Warm {@link Engine}s over a shared database, handed to callers on any
+ * thread.
+ * <p>
+ * An engine is taken with {@link #acquire()} and given back by closing
+ * it, which resets it. Idle engines are reused most recently released
+ * first, as their structures are the likeliest to still be in a cache;
+ * when none is idle a new one is created. At most the configured number
+ * of engines are kept idle, and the others are dropped on release.
+ */
+public class EnginePool {
+    private final Database database;
+    private final int maxIdle;
+    private final ConcurrentLinkedDeque<Engine> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+
+    /**
+     * @param maxIdle the number of idle engines kept for reuse
+     */
+    public EnginePool(Database database, int maxIdle) {
+        this.database = database;
+        this.maxIdle = maxIdle;
+    }
+
+    public EnginePool(Database database) {
+        this(database, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    public Database getDatabase() {
+        return database;
+    }
+
+    /**
+     * Takes an idle engine, or creates one if none is idle.
+     */
+    public Engine acquire() {
+        Engine engine = idle.pollFirst();
+        if (engine != null) {
+            idleCount.decrementAndGet();
+        } else {
+            created.incrementAndGet();
+            engine = new Engine(database, this);
+        }
+        engine.lease();
+        return engine;
+    }
+
+    /**
+     * Finds all solutions of a goal on an engine of the pool.
+     */
+    public java.util.List<Map<String, Term>> solve(Term goal) {
+        try (Engine engine = acquire()) {
+            return engine.solve(goal);
+        }
+    }
+
+    /**
+     * Finds all solutions of a goal as rows on an engine of the pool.
+     */
+    public AnswerTable solveRows(Term goal) {
+        try (Engine engine = acquire()) {
+            return engine.solveRows(goal);
+        }
+    }
+
+    /**
+     * Gets the number of engines the pool has created.
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+
+    void release(Engine engine) {
+        engine.reset();
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.offerFirst(engine);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package it.denzosoft.prolog.query;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.database.PredicateStatistics;
+import it.denzosoft.prolog.engine.Unifier;
+import it.denzosoft.prolog.model.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+
+/**
+ * A cost-based order for a run of calls to fact predicates.
+ * <p>
+ * The calls are placed greedily: the next call is the one that is cheapest
+ * to run once per row produced so far, given the arguments bound by the
+ * calls already placed. A call costs one step plus the clauses it scans,
+ * which are those of its first-argument bucket when the first argument is
+ * bound, the matches themselves when hash joins probe the bound
+ * arguments, and every clause otherwise. Matches are estimated from the
+ * {@link PredicateStatistics} of the predicate, assuming uniform and
+ * independent arguments. Fact predicates have no side effects and always
+ * terminate, so any order gives the same answers, though not in the same
+ * order.
+ */
+final class GoalOrder {
+    private final java.util.List<Step> steps = new ArrayList<>();
+    private double cost = 0;
+
+    private GoalOrder() {
+    }
+
+    /**
+     * Orders calls to fact predicates.
+     * @param calls the calls, dereferenced
+     * @param hashJoins true if calls probe hash indexes on all their bound
+     *                  arguments
+     */
+    static GoalOrder plan(Database database, java.util.List<Term> calls, boolean hashJoins) {
+        GoalOrder order = new GoalOrder();
+        java.util.List<Term> remaining = new ArrayList<>(calls);
+        Set<Variable> bound = Collections.newSetFromMap(new IdentityHashMap<>());
+        double rows = 1;
+        while (!remaining.isEmpty()) {
+            Step best = null;
+            int chosen = -1;
+            for (int i = 0; i < remaining.size(); i++) {
+                Step step = estimate(database, remaining.get(i), bound, rows, hashJoins);
+                if (best == null || step.cost < best.cost
+                        || (step.cost == best.cost && step.matches < best.matches)) {
+                    best = step;
+                    chosen = i;
+                }
+            }
+            remaining.remove(chosen);
+            order.steps.add(best);
+            order.cost += best.cost;
+            rows = best.rows;
+            collectVariables(best.goal, bound);
+        }
+        return order;
+    }
+
+    /**
+     * Gets the calls in the chosen order.
+     */
+    java.util.List<Term> getGoals() {
+        java.util.List<Term> goals = new ArrayList<>();
+        for (Step step : steps) {
+            goals.add(step.goal);
+        }
+        return goals;
+    }
+
+    double getCost() {
+        return cost;
+    }
+
+    /**
+     * Lists the calls in order, one per line, with their estimates.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        int n = 1;
+        for (Step step : steps) {
+            sb.append(String.format("%d. %s  matches=%.1f rows=%.1f cost=%.1f%n",
+                    n++, step.goal, step.matches, step.rows, step.cost));
+        }
+        return sb.toString();
+    }
+
+    private static Step estimate(Database database, Term call, Set<Variable> bound, double rows, boolean hashJoins) {
+        Struct struct = (Struct) call;
+        PredicateStatistics statistics = database.getStatistics(struct.getFunctor().getValue(), struct.getArity());
+        long mask = 0;
+        for (int i = 0; i < struct.getArity(); i++) {
+            Term arg = Unifier.deref(struct.getArg(i));
+            if (!(arg instanceof Variable) || bound.contains(arg)) {
+                mask |= 1L << i;
+            }
+        }
+        double matches = statistics.estimateMatches(mask);
+        double scanned;
+        if (hashJoins && mask != 0) {
+            scanned = matches;
+        } else if ((mask & 1L) != 0) {
+            scanned = statistics.estimateMatches(1L);
+        } else {
+            scanned = statistics.getCardinality();
+        }
+        return new Step(call, matches, rows * matches, rows * (1 + scanned));
+    }
+
+    private static void collectVariables(Term term, Set<Variable> variables) {
+        term = Unifier.deref(term);
+        if (term instanceof Variable) {
+            variables.add((Variable) term);
+        } else if (term instanceof Struct) {
+            for (int i = 0; i < ((Struct) term).getArity(); i++) {
+                collectVariables(((Struct) term).getArg(i), variables);
+            }
+        }
+    }
+
+    /**
+     * A call with its estimated matches per row, rows after it and cost.
+     */
+    private static final class Step {
+        private final Term goal;
+        private final double matches;
+        private final double rows;
+        private final double cost;
+
+        private Step(Term goal, double matches, double rows, double cost) {
+            this.goal = goal;
+            this.matches = matches;
+            this.rows = rows;
+            this.cost = cost;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package it.denzosoft.prolog.query;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.engine.Unifier;
+import it.denzosoft.prolog.model.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Executes a conjunction of calls to fact predicates as a pipeline of hash
+ * joins.
+ * <p>
+ * The first call enumerates its facts; every later call probes a hash index
+ * of its predicate on the arguments that are constants or variables bound
+ * by the calls before it, so a row on the left costs one lookup instead of
+ * a scan of the right. Indexes are kept by the predicates and built on
+ * first use. The join is run depth-first and every index bucket lists its
+ * facts in clause order, so rows come out in exactly the order, and with
+ * the multiplicity, of the nested loops that plain resolution would run.
+ * <p>
+ * Each row is produced as a fact {@code '$join'(V1, ..., Vn)} holding the
+ * values of the variables of the conjunction, to be unified with
+ * {@link #getGoal()}.
+ */
+final class HashJoin implements Iterator<Clause> {
+    private static final Atom JOIN = new Atom("$join");
+
+    private final Database database;
+    private final Term[] calls;
+    /** Per call and argument: a constant, or null if it holds a variable */
+    private final Term[][] constants;
+    /** Per call and argument: the variable slot, or -1 */
+    private final int[][] slots;
+    /** Per call and argument: whether the slot is first bound there */
+    private final boolean[][] binds;
+    private final long[] masks;
+    private final java.util.List<Variable> variables;
+    private final Term[] values;
+    private final java.util.List<Iterator<Clause>> iterators;
+    private int level = 0;
+    private Clause next;
+
+    private HashJoin(Database database, java.util.List<Term> calls, java.util.List<Variable> variables,
+                     Term[][] constants, int[][] slots, boolean[][] binds, long[] masks) {
+        this.database = database;
+        this.calls = calls.toArray(new Term[0]);
+        this.variables = variables;
+        this.constants = constants;
+        this.slots = slots;
+        this.binds = binds;
+        this.masks = masks;
+        this.values = new Term[variables.size()];
+        this.iterators = new ArrayList<>(Collections.nCopies(calls.size(), null));
+    }
+
+    /**
+     * Plans a join over the leading calls of a conjunction that read fact
+     * predicates with atomic or unbound arguments.
+     * @param conjuncts the goals of the conjunction, dereferenced
+     * @return the join, or null if fewer than two leading calls qualify
+     */
+    static HashJoin plan(Database database, java.util.List<Term> conjuncts) {
+        java.util.List<Term> calls = new ArrayList<>();
+        for (Term goal : conjuncts) {
+            if (!isFactCall(database, goal)) {
+                break;
+            }
+            calls.add(goal);
+        }
+        if (calls.size() < 2) {
+            return null;
+        }
+
+        Map<Variable, Integer> slotOf = new IdentityHashMap<>();
+        java.util.List<Variable> variables = new ArrayList<>();
+        Term[][] constants = new Term[calls.size()][];
+        int[][] slots = new int[calls.size()][];
+        boolean[][] binds = new boolean[calls.size()][];
+        long[] masks = new long[calls.size()];
+        for (int i = 0; i < calls.size(); i++) {
+            int arity = calls.get(i) instanceof Struct ? ((Struct) calls.get(i)).getArity() : 0;
+            constants[i] = new Term[arity];
+            slots[i] = new int[arity];
+            binds[i] = new boolean[arity];
+            for (int j = 0; j < arity; j++) {
+                Term arg = Unifier.deref(((Struct) calls.get(i)).getArg(j));
+                if (!(arg instanceof Variable)) {
+                    constants[i][j] = arg;
+                    slots[i][j] = -1;
+                    masks[i] |= 1L << j;
+                    continue;
+                }
+                Integer slot = slotOf.get(arg);
+                if (slot == null) {
+                    slot = variables.size();
+                    slotOf.put((Variable) arg, slot);
+                    variables.add((Variable) arg);
+                    binds[i][j] = true;
+                } else if (!isBoundIn(binds[i], slots[i], slot, j)) {
+                    masks[i] |= 1L << j;
+                }
+                slots[i][j] = slot;
+            }
+        }
+        return new HashJoin(database, calls, variables, constants, slots, binds, masks);
+    }
+
+    /**
+     * Checks whether the join is worth running instead of nested loops: a
+     * call probes a predicate of at least {@code threshold} facts on an
+     * argument other than the first, which first-argument indexing alone
+     * would not narrow down.
+     */
+    boolean isWorthwhile(int threshold) {
+        for (int i = 1; i < calls.length; i++) {
+            if ((masks[i] & ~1L) != 0 && database.factCount(calls[i]) >= threshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of calls the join covers.
+     */
+    int size() {
+        return calls.length;
+    }
+
+    /**
+     * Gets the term each row is unified with.
+     */
+    Term getGoal() {
+        return variables.isEmpty() ? JOIN : new Struct(JOIN, variables.toArray(new Term[0]));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = advance();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Clause next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Clause row = next;
+        next = null;
+        return row;
+    }
+
+    private Clause advance() {
+        while (level >= 0) {
+            if (level == calls.length) {
+                level--;
+                return new Clause(values.length == 0 ? JOIN : new Struct(JOIN, values), null);
+            }
+            if (iterators.get(level) == null) {
+                iterators.set(level, open(level));
+            }
+            Iterator<Clause> facts = iterators.get(level);
+            if (!facts.hasNext()) {
+                iterators.set(level, null);
+                level--;
+                continue;
+            }
+            if (bind(level, (Struct) facts.next().getHead())) {
+                level++;
+            }
+        }
+        return null;
+    }
+
+    private Iterator<Clause> open(int call) {
+        Term[] key = new Term[Long.bitCount(masks[call])];
+        int n = 0;
+        for (int j = 0; j < slots[call].length; j++) {
+            if ((masks[call] & (1L << j)) != 0) {
+                key[n++] = slots[call][j] < 0 ? constants[call][j] : values[slots[call][j]];
+            }
+        }
+        return database.factIterator(calls[call], masks[call], key);
+    }
+
+    /**
+     * Records the values of the variables a fact binds.
+     * @return false if a variable repeated within the call gets two values
+     */
+    private boolean bind(int call, Struct fact) {
+        for (int j = 0; j < slots[call].length; j++) {
+            int slot = slots[call][j];
+            if (slot < 0 || (masks[call] & (1L << j)) != 0) {
+                continue;
+            }
+            if (binds[call][j]) {
+                values[slot] = fact.getArg(j);
+            } else if (!values[slot].equals(fact.getArg(j))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBoundIn(boolean[] binds, int[] slots, int slot, int limit) {
+        for (int j = 0; j < limit; j++) {
+            if (binds[j] && slots[j] == slot) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a goal calls a fact predicate with atomic or unbound
+     * arguments.
+     */
+    static boolean isFactCall(Database database, Term goal) {
+        if (!(goal instanceof Struct) || database.factCount(goal) <= 0) {
+            return false;
+        }
+        Struct call = (Struct) goal;
+        if (database.getTableSpace().isTabled(call.getFunctor().getValue(), call.getArity())) {
+            return false;
+        }
+        for (int j = 0; j < call.getArity(); j++) {
+            Term arg = Unifier.deref(call.getArg(j));
+            if (!(arg instanceof Variable || arg instanceof Atom || arg instanceof it.denzosoft.prolog.model.Number)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,211 @@
+package it.denzosoft.prolog.query;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.engine.Unifier;
+import it.denzosoft.prolog.model.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+
+/**
+ * Leading goals of a conjunction that share no unbound variable, solved
+ * in parallel.
+ * <p>
+ * Independence is checked when the conjunction is reached: goals join the
+ * group while none of their unbound variables occurs in the goals before
+ * them. Only calls to predicates with rules or attached sources qualify,
+ * since a fact lookup is cheaper than handing it to another thread, and a
+ * goal containing a cut is never moved. Each goal is copied to a worker
+ * query that collects all its solutions; a goal without solutions cancels
+ * the others. The solutions are then combined as a cross product, the
+ * first goal varying slowest, which is the order sequential execution
+ * would produce.
+ * <p>
+ * Each row is produced as a fact {@code '$and'(V1, ..., Vn)} holding the
+ * values of the variables of the goals, to be unified with
+ * {@link #getGoal()}.
+ */
+final class IndependentConjunction implements Iterator<Clause> {
+    private static final Atom AND = new Atom("$and");
+
+    private final java.util.List<Term> goals;
+    private final java.util.List<java.util.List<Variable>> variables;
+    private java.util.List<java.util.List<Term[]>> solutions;
+    private int[] positions;
+    private boolean more;
+
+    private IndependentConjunction(java.util.List<Term> goals, java.util.List<java.util.List<Variable>> variables) {
+        this.goals = goals;
+        this.variables = variables;
+    }
+
+    /**
+     * Finds the leading independent goals of a conjunction.
+     * @return the group, or null if fewer than two goals qualify
+     */
+    static IndependentConjunction plan(Database database, java.util.List<Term> conjuncts) {
+        if (database.getTableSpace().hasTabledPredicates()) {
+            return null;
+        }
+        java.util.List<Term> goals = new ArrayList<>();
+        java.util.List<java.util.List<Variable>> variables = new ArrayList<>();
+        Set<Variable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Term conjunct : conjuncts) {
+            Term goal = Unifier.deref(conjunct);
+            if (!(goal instanceof Struct || goal instanceof Atom)
+                    || database.factCount(goal) >= 0 || Terms.containsCut(goal)) {
+                break;
+            }
+            java.util.List<Variable> own = new ArrayList<>();
+            collectVariables(goal, own);
+            boolean shared = false;
+            for (Variable var : own) {
+                shared |= seen.contains(var);
+            }
+            if (shared) {
+                break;
+            }
+            seen.addAll(own);
+            goals.add(goal);
+            variables.add(own);
+        }
+        return goals.size() < 2 ? null : new IndependentConjunction(goals, variables);
+    }
+
+    /**
+     * Gets the number of goals in the group.
+     */
+    int size() {
+        return goals.size();
+    }
+
+    /**
+     * Gets the term each row is unified with.
+     */
+    Term getGoal() {
+        java.util.List<Term> all = new ArrayList<>();
+        for (java.util.List<Variable> own : variables) {
+            all.addAll(own);
+        }
+        return all.isEmpty() ? AND : new Struct(AND, all.toArray(new Term[0]));
+    }
+
+    /**
+     * Solves every goal, the first on the calling thread and the others as
+     * tasks of the pool.
+     * @param workers creates the worker query for a copy of a goal
+     * @return false if a goal has no solution
+     */
+    boolean solve(ForkJoinPool pool, Function<Term, Query> workers) {
+        AtomicBoolean failed = new AtomicBoolean();
+        java.util.List<Branch> branches = new ArrayList<>();
+        for (int i = 0; i < goals.size(); i++) {
+            Map<Variable, Variable> fresh = new IdentityHashMap<>();
+            Term goal = Terms.snapshot(goals.get(i), fresh);
+            Term[] template = new Term[variables.get(i).size()];
+            for (int j = 0; j < template.length; j++) {
+                template[j] = fresh.get(variables.get(i).get(j));
+            }
+            branches.add(new Branch(workers.apply(goal), template, failed));
+        }
+        for (int i = 1; i < branches.size(); i++) {
+            if (ForkJoinTask.inForkJoinPool()) {
+                branches.get(i).fork();
+            } else {
+                pool.execute(branches.get(i));
+            }
+        }
+        solutions = new ArrayList<>();
+        solutions.add(branches.get(0).invoke());
+        for (int i = 1; i < branches.size(); i++) {
+            solutions.add(branches.get(i).join());
+        }
+        if (failed.get()) {
+            return false;
+        }
+        positions = new int[goals.size()];
+        more = true;
+        return true;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return more;
+    }
+
+    @Override
+    public Clause next() {
+        if (!more) {
+            throw new NoSuchElementException();
+        }
+        java.util.List<Term> values = new ArrayList<>();
+        for (int i = 0; i < positions.length; i++) {
+            Collections.addAll(values, solutions.get(i).get(positions[i]));
+        }
+        // Advance the last goal fastest, like nested backtracking would
+        more = false;
+        for (int i = positions.length - 1; i >= 0; i--) {
+            if (++positions[i] < solutions.get(i).size()) {
+                more = true;
+                break;
+            }
+            positions[i] = 0;
+        }
+        return new Clause(values.isEmpty() ? AND : new Struct(AND, values.toArray(new Term[0])), null);
+    }
+
+    private static void collectVariables(Term term, java.util.List<Variable> variables) {
+        term = Unifier.deref(term);
+        if (term instanceof Variable) {
+            for (Variable known : variables) {
+                if (known == term) {
+                    return;
+                }
+            }
+            variables.add((Variable) term);
+        } else if (term instanceof Struct) {
+            for (int i = 0; i < ((Struct) term).getArity(); i++) {
+                collectVariables(((Struct) term).getArg(i), variables);
+            }
+        } else if (term instanceof it.denzosoft.prolog.model.List) {
+            collectVariables(((it.denzosoft.prolog.model.List) term).getHead(), variables);
+            collectVariables(((it.denzosoft.prolog.model.List) term).getTail(), variables);
+        }
+    }
+
+    /**
+     * Collects the solutions of one goal; an empty result cancels the
+     * other branches.
+     */
+    private static final class Branch extends RecursiveTask<java.util.List<Term[]>> {
+        private static final long serialVersionUID = 1L;
+        private final Query worker;
+        private final Term[] template;
+        private final AtomicBoolean failed;
+
+        private Branch(Query worker, Term[] template, AtomicBoolean failed) {
+            this.worker = worker;
+            this.template = template;
+            this.failed = failed;
+        }
+
+        @Override
+        protected java.util.List<Term[]> compute() {
+            java.util.List<Term[]> rows = worker.collect(template, failed);
+            if (rows.isEmpty()) {
+                failed.set(true);
+            }
+            return rows;
+        }
+    }
+}
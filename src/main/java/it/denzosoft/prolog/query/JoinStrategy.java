@@ -0,0 +1,23 @@
+package it.denzosoft.prolog.query;
+
+
+/**
+ * How a query executes a conjunction of calls to fact predicates.
+ */
+public enum JoinStrategy {
+    /**
+     * Each call enumerates the clauses of its predicate in turn, indexed on
+     * the first argument only.
+     */
+    NESTED_LOOP,
+    /**
+     * Each call after the first probes a hash index on the arguments bound
+     * by the calls before it.
+     */
+    HASH,
+    /**
+     * Hash joins are used when a call probes a predicate with at least the
+     * join threshold of facts on arguments other than the first.
+     */
+    AUTO
+}
@@ -0,0 +1,162 @@
+package it.denzosoft.prolog.query;
+
+import it.denzosoft.prolog.model.Term;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * The shared state of an OR-parallel search: the branches still running
+ * on the pool and the queue their answers are merged into.
+ * <p>
+ * A branch is a worker {@link Query} with its own copy of the bindings.
+ * When a worker reaches a call with enough candidate clauses while the
+ * pool may have idle threads, it keeps the first half of the candidates
+ * and forks a branch for the rest; forked branches go to the worker's own
+ * deque, from which idle threads steal them. The search ends when the last
+ * branch finishes, or as soon as one answer is found if only the first
+ * solution is wanted.
+ */
+final class OrParallelSearch {
+    private static final Object END = new Object();
+
+    private final ForkJoinPool pool;
+    private final boolean firstSolutionOnly;
+    private final int threshold;
+    private final BlockingQueue<Object> answers = new LinkedBlockingQueue<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong branches = new AtomicLong();
+    private final AtomicLong inferences = new AtomicLong();
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private volatile boolean cancelled = false;
+
+    OrParallelSearch(ForkJoinPool pool, boolean firstSolutionOnly, int threshold) {
+        this.pool = pool;
+        this.firstSolutionOnly = firstSolutionOnly;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Starts a branch: forked to the current worker's deque when called
+     * from the pool, submitted to the pool otherwise.
+     */
+    void start(Query worker) {
+        running.incrementAndGet();
+        branches.incrementAndGet();
+        Branch branch = new Branch(worker);
+        if (ForkJoinTask.inForkJoinPool()) {
+            branch.fork();
+        } else {
+            pool.execute(branch);
+        }
+    }
+
+    /**
+     * Checks whether a worker should give away alternatives: the search is
+     * still on and the worker has few queued branches that others could
+     * steal.
+     */
+    boolean wantsWork() {
+        return !cancelled && ForkJoinTask.inForkJoinPool() && ForkJoinTask.getSurplusQueuedTaskCount() < 2;
+    }
+
+    /**
+     * Gets the number of candidate clauses from which a call is split.
+     */
+    int getThreshold() {
+        return threshold;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    void addAnswer(Map<String, Term> answer) {
+        if (cancelled) {
+            return;
+        }
+        if (firstSolutionOnly) {
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+            }
+        }
+        answers.add(answer);
+    }
+
+    /**
+     * Waits for the next answer.
+     * @return the answer, or null once every branch has finished
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Term> take() {
+        Object next;
+        try {
+            next = answers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            return null;
+        }
+        if (next == END) {
+            answers.add(END);
+            RuntimeException error = failure.get();
+            if (error != null) {
+                throw error;
+            }
+            return null;
+        }
+        return (Map<String, Term>) next;
+    }
+
+    /**
+     * Gets the number of branches started so far.
+     */
+    long getBranchCount() {
+        return branches.get();
+    }
+
+    /**
+     * Gets the inferences of the branches that have finished.
+     */
+    long getInferenceCount() {
+        return inferences.get();
+    }
+
+    private final class Branch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Query worker;
+
+        private Branch(Query worker) {
+            this.worker = worker;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                worker.runBranch();
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+                OrParallelSearch.this.cancel();
+            } finally {
+                inferences.addAndGet(worker.getInferenceCount());
+                if (running.decrementAndGet() == 0) {
+                    answers.add(END);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package it.denzosoft.prolog.query;
+
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+/**
+ * A goal parsed once and run many times with different values for some of
+ * its variables, its parameters.
+ * <p>
+ * Preparing the goal compiles it into a builder: every execution builds a
+ * fresh instance of the goal directly from the Java values of the
+ * parameters, without any text to format or parse. Subterms holding no
+ * variable are built once and shared by all instances, and the other
+ * variables of the goal are created anew for each instance, so that
+ * executions never see each other's bindings and may run on different
+ * threads at once.
+ * <p>
+ * Java values are converted by {@link #toTerm(Object)}.
+ */
+public class PreparedQuery {
+    private final Term goal;
+    private final String[] parameters;
+    private final Node builder;
+    private final int locals;
+
+    /**
+     * @param parameters the names of the variables of the goal that are
+     *                   given a value on each execution, in the order of
+     *                   positional values
+     */
+    public PreparedQuery(Term goal, String... parameters) {
+        this.goal = goal;
+        this.parameters = parameters.clone();
+        Compiler compiler = new Compiler(this.parameters);
+        this.builder = compiler.compile(goal);
+        for (int i = 0; i < parameters.length; i++) {
+            if (!compiler.seen[i]) {
+                throw new IllegalArgumentException("No variable " + parameters[i] + " in " + goal);
+            }
+        }
+        this.locals = compiler.locals.size();
+    }
+
+    /**
+     * Parses and prepares a goal.
+     */
+    public static PreparedQuery prepare(String goal, String... parameters) throws IOException {
+        return new PreparedQuery(Parser.parseTermFromString(goal), parameters);
+    }
+
+    public Term getGoal() {
+        return goal;
+    }
+
+    public String[] getParameters() {
+        return parameters.clone();
+    }
+
+    /**
+     * Builds an instance of the goal.
+     * @param values the values of the parameters, in order
+     */
+    public Term bind(Object... values) {
+        if (values.length != parameters.length) {
+            throw new IllegalArgumentException("Expected " + parameters.length + " values, got " + values.length);
+        }
+        Term[] terms = new Term[values.length];
+        for (int i = 0; i < values.length; i++) {
+            terms[i] = toTerm(values[i]);
+        }
+        return builder.build(terms, new Variable[locals]);
+    }
+
+    /**
+     * Builds an instance of the goal.
+     * @param values the values of the parameters by name
+     */
+    public Term bind(Map<String, ?> values) {
+        Object[] ordered = new Object[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            if (!values.containsKey(parameters[i])) {
+                throw new IllegalArgumentException("No value for parameter " + parameters[i]);
+            }
+            ordered[i] = values.get(parameters[i]);
+        }
+        return bind(ordered);
+    }
+
+    /**
+     * Creates a query on an engine for an instance of the goal.
+     */
+    public Query query(Engine engine, Object... values) {
+        return engine.query(bind(values));
+    }
+
+    /**
+     * Finds all solutions of an instance of the goal on an engine of a pool.
+     */
+    public java.util.List<Map<String, Term>> solve(EnginePool engines, Object... values) {
+        return engines.solve(bind(values));
+    }
+
+    public java.util.List<Map<String, Term>> solve(EnginePool engines, Map<String, ?> values) {
+        return engines.solve(bind(values));
+    }
+
+    /**
+     * Converts a Java value to a term: a term is kept as it is, a string or
+     * character becomes an atom, a number a number, a boolean the atom
+     * {@code true} or {@code false}, and a list a Prolog list of the
+     * converted elements.
+     */
+    public static Term toTerm(Object value) {
+        if (value instanceof Term) {
+            return (Term) value;
+        }
+        if (value instanceof String || value instanceof Character || value instanceof Boolean) {
+            return new Atom(value.toString());
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return new it.denzosoft.prolog.model.Number(((java.lang.Number) value).intValue());
+        }
+        if (value instanceof java.lang.Number) {
+            return new it.denzosoft.prolog.model.Number(((java.lang.Number) value).doubleValue());
+        }
+        if (value instanceof java.util.List) {
+            java.util.List<?> elements = (java.util.List<?>) value;
+            Term list = new Atom("[]");
+            for (int i = elements.size() - 1; i >= 0; i--) {
+                list = new it.denzosoft.prolog.model.List(toTerm(elements.get(i)), list);
+            }
+            return list;
+        }
+        throw new IllegalArgumentException("Cannot convert to a term: " + value);
+    }
+
+    /**
+     * Builds one subterm of an instance from the parameter values and the
+     * variables of the instance, created on first use.
+     */
+    private interface Node {
+        Term build(Term[] values, Variable[] locals);
+    }
+
+    /**
+     * Turns the goal into builder nodes, numbering its variables.
+     */
+    private static final class Compiler {
+        private final String[] parameters;
+        private final boolean[] seen;
+        private final Map<Variable, Integer> locals = new IdentityHashMap<>();
+
+        private Compiler(String[] parameters) {
+            this.parameters = parameters;
+            this.seen = new boolean[parameters.length];
+        }
+
+        /**
+         * @return the node building the term, or null if the term holds no
+         *         variable and may be shared
+         */
+        private Node compile(Term term) {
+            Node node = compileShared(term);
+            if (node != null) {
+                return node;
+            }
+            Term shared = term;
+            return (values, vars) -> shared;
+        }
+
+        private Node compileShared(Term term) {
+            if (term instanceof Variable) {
+                Variable var = (Variable) term;
+                if (var.isBound()) {
+                    return compileShared(var.getBinding());
+                }
+                for (int i = 0; i < parameters.length; i++) {
+                    if (parameters[i].equals(var.getName()) && !var.getName().equals("_")) {
+                        seen[i] = true;
+                        int slot = i;
+                        return (values, vars) -> values[slot];
+                    }
+                }
+                int local = locals.computeIfAbsent(var, v -> locals.size());
+                String name = var.getName();
+                return (values, vars) -> {
+                    if (vars[local] == null) {
+                        vars[local] = new Variable(name);
+                    }
+                    return vars[local];
+                };
+            }
+            if (term instanceof Struct) {
+                Struct struct = (Struct) term;
+                Node[] args = new Node[struct.getArity()];
+                boolean ground = true;
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = compileShared(struct.getArg(i));
+                    ground &= args[i] == null;
+                }
+                if (ground) {
+                    return null;
+                }
+                Term[] shared = new Term[args.length];
+                for (int i = 0; i < args.length; i++) {
+                    if (args[i] == null) {
+                        shared[i] = struct.getArg(i);
+                    }
+                }
+                Atom functor = struct.getFunctor();
+                return (values, vars) -> {
+                    Term[] built = new Term[args.length];
+                    for (int i = 0; i < built.length; i++) {
+                        built[i] = args[i] != null ? args[i].build(values, vars) : shared[i];
+                    }
+                    return new Struct(functor, built);
+                };
+            }
+            if (term instanceof it.denzosoft.prolog.model.List) {
+                it.denzosoft.prolog.model.List list = (it.denzosoft.prolog.model.List) term;
+                Node head = compileShared(list.getHead());
+                Node tail = compileShared(list.getTail());
+                if (head == null && tail == null) {
+                    return null;
+                }
+                Node first = head != null ? head : compile(list.getHead());
+                Node rest = tail != null ? tail : compile(list.getTail());
+                return (values, vars) -> new it.denzosoft.prolog.model.List(
+                        first.build(values, vars), rest.build(values, vars));
+            }
+            return null;
+        }
+    }
+}
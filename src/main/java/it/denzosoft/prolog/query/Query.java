@@ -2,338 +2,1848 @@ package it.denzosoft.prolog.query;
 
 import it.denzosoft.prolog.PrologConfig;
 import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.database.AnswerCache;
 import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.engine.ForeignContext;
+import it.denzosoft.prolog.engine.ForeignGoal;
+import it.denzosoft.prolog.engine.ForeignPredicates;
+import it.denzosoft.prolog.engine.NondeterministicPredicate;
+import it.denzosoft.prolog.engine.TermOrder;
 import it.denzosoft.prolog.engine.Trail;
 import it.denzosoft.prolog.engine.Unifier;
+import it.denzosoft.prolog.tabling.Evaluation;
+import it.denzosoft.prolog.tabling.Scheduling;
+import it.denzosoft.prolog.tabling.SubgoalTable;
+import it.denzosoft.prolog.tabling.TableSpace;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
+/**
+ * Solves a goal against a database by depth-first resolution.
+ * <p>
+ * The engine is iterative: pending goals form a continuation list and
+ * alternatives are kept on an explicit choicepoint stack. Every goal frame
+ * carries the choicepoint height it may cut back to, which makes {@code !}
+ * prune exactly the alternatives created since its clause was entered.
+ * Solutions are produced one at a time by {@link #nextSolution()}.
+ * <p>
+ * A call leaves no choicepoint when first-argument indexing yields a single
+ * candidate clause, and the choicepoint of a call is dropped before its last
+ * candidate is tried. Variables are stamped with a serial at creation, and
+ * bindings of variables younger than the newest choicepoint are not trailed.
+ * <p>
+ * Calls to tabled predicates are answered from the answer table of their
+ * variant. A new table is filled by an {@link Evaluation}, which runs the
+ * clauses of each subgoal in a query of its own; a call to a table that is
+ * still incomplete suspends there, as a copy of the call and of the goals
+ * that follow it in that query, and is resumed once per answer. Cuts in a
+ * resumed continuation only prune within it.
+ * <p>
+ * A conjunction starting with calls to predicates made of atomic facts
+ * may be run as a {@link HashJoin}, which yields the same answers in the
+ * same order; {@link #setJoinStrategy(JoinStrategy)} selects when. Such
+ * calls may also be reordered by estimated cost, see
+ * {@link #setGoalReordering(boolean)}; {@code explain(G, Plan)} unifies
+ * Plan with a description of the order chosen for G, without running it.
+ * <p>
+ * With {@link #setOrParallel(ForkJoinPool, boolean)} the search runs on a
+ * fork-join pool as an {@link OrParallelSearch}: the query itself only
+ * collects the answers of worker queries, which split the candidate
+ * clauses of their calls among the pool threads. Answers then come in no
+ * particular order.
+ * <p>
+ * With {@link #setAndParallel(ForkJoinPool)}, leading goals of a
+ * conjunction found to share no unbound variable are solved in parallel as
+ * an {@link IndependentConjunction}.
+ * <p>
+ * {@code concurrent_maplist/2..4} and {@code concurrent_forall/2} solve
+ * their calls as {@link ConcurrentCalls} on the worker pool, see
+ * {@link #setWorkerPool(ForkJoinPool)}.
+ * <p>
+ * A query may be limited in inferences, call depth, wall-clock time and
+ * size of its trail and choicepoint stack. The limits are checked before
+ * every step; a query exceeding one is aborted with a
+ * {@link ResourceLimitException}. {@code call_with_time_limit/2} and
+ * {@code call_with_inference_limit/3} limit a single call.
+ * <p>
+ * Calls to predicates declared in the database's {@link AnswerCache} are
+ * answered from the answers cached for their variant, which are computed
+ * on the first such call.
+ * <p>
+ * Calls to the database's {@link ForeignPredicates} run Java code, bound
+ * in advance for calls in clauses and looked up by name otherwise. A
+ * nondeterministic one keeps a choicepoint whose alternative asks it for
+ * the next solution.
+ */
 public class Query {
+    private static final Atom TRUE = new Atom("true");
+    private static final Atom FAIL = new Atom("fail");
+    private static final Atom CUT = new Atom("!");
+    private static final int DEFAULT_JOIN_THRESHOLD = 256;
+    private static final int DEFAULT_SPLIT_THRESHOLD = 2;
+    private static final Atom ANSWER = new Atom("$answer");
+    // Renamed clause variables are numbered from here; the goal's own are 0
+    private static final long FIRST_SERIAL = 1;
+
     private final Term goal;
     private final Database database;
-    private final Map<String, Term> substitution = new HashMap<>();
-    private final Trail trail = new Trail();
-    private int callDepth = 0; // For trace indentation
-    
+    private final Trail trail;
+    private final ArrayList<ChoicePoint> choicepoints;
+    private Goals goals;
+    private boolean started = false;
+    private boolean exhausted = false;
+    private volatile boolean cancelled = false;
+    private long yieldAt = Long.MAX_VALUE;
+    private boolean suspended = false;
+    private boolean limited = false;
+    private long inferenceLimit = Long.MAX_VALUE;
+    private int depthLimit = Integer.MAX_VALUE;
+    private int stackLimit = Integer.MAX_VALUE;
+    private long deadline = 0;
+    private boolean hasDeadline = false;
+    private int steps = 0;
+    private final Map<String, Variable> variables;
+    private long inferences = 0;
+    private long calls = 0;
+    private long deterministicCalls = 0;
+    private long lastClauseTries = 0;
+    private long choicePointsCreated = 0;
+    private long renameCounter = 0;
+    private final Evaluation evaluation;
+    private final SubgoalTable producer;
+    private final Term template;
+    private boolean bypassTable;
+    private JoinStrategy joinStrategy = JoinStrategy.AUTO;
+    private int joinThreshold = DEFAULT_JOIN_THRESHOLD;
+    private long hashJoins = 0;
+    private boolean reorderGoals = false;
+    private ForkJoinPool pool;
+    private boolean firstSolutionOnly;
+    private int splitThreshold = DEFAULT_SPLIT_THRESHOLD;
+    private volatile OrParallelSearch search;
+    private Term answerTemplate;
+    private java.util.List<String> answerNames;
+    private Term startCall;
+    private java.util.List<Clause> startClauses;
+    private ForkJoinPool andPool;
+    private AtomicBoolean stop;
+    private long parallelConjunctions = 0;
+    private ForkJoinPool workerPool = ForkJoinPool.commonPool();
+    private boolean traceEnabled = PrologConfig.isTraceEnabled();
+    private boolean debugEnabled = PrologConfig.isDebugEnabled();
+    private ForeignContext foreignContext;
+
     public Query(Term goal, Database database) {
+        this(goal, database, null, null, null, false, new Stacks());
+    }
+
+    /**
+     * Creates a query on the reusable structures and settings of an engine.
+     */
+    Query(Term goal, Engine engine) {
+        this(goal, engine.getDatabase(), null, null, null, false, engine.stacks());
+        this.traceEnabled = engine.isTraceEnabled();
+        this.debugEnabled = engine.isDebugEnabled();
+    }
+
+    /**
+     * Creates a query that computes answers for a table during a tabled
+     * evaluation. Each solution is an instance of the template.
+     * @param generator true if the goal is the tabled call itself, which must
+     *                  then be resolved against its clauses
+     */
+    private Query(Term goal, Database database, Evaluation evaluation, SubgoalTable producer,
+                  Term template, boolean generator, Stacks stacks) {
+        this.trail = stacks.trail;
+        this.choicepoints = stacks.choicepoints;
+        this.variables = stacks.variables;
         this.goal = goal;
         this.database = database;
+        this.evaluation = evaluation;
+        this.producer = producer;
+        this.template = template;
+        this.bypassTable = generator;
+        collectVariables(goal, variables);
+        trail.setBoundary(FIRST_SERIAL);
+    }
+
+    /**
+     * Executes the query and returns solutions.
+     */
+    public java.util.List<Map<String, Term>> solve() {
+        debug("Starting query execution for: " + goal);
+        java.util.List<Map<String, Term>> solutions = new ArrayList<>();
+        Map<String, Term> solution;
+        while ((solution = nextSolution()) != null) {
+            solutions.add(solution);
+        }
+        debug("Query execution completed with " + solutions.size() + " solutions");
+        return solutions;
+    }
+
+    /**
+     * Executes the query and returns its answers as rows.
+     */
+    public AnswerTable solveRows() {
+        AnswerTable table = new AnswerTable(getColumns());
+        Term[] row;
+        while ((row = nextRow()) != null) {
+            table.add(row);
+        }
+        return table;
+    }
+
+    /**
+     * Gets the names of the variables of the goal in the order they first
+     * occur: the columns of the rows of {@link #nextRow()}.
+     */
+    public String[] getColumns() {
+        return variables.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * Computes the next solution as a row of the values of the goal
+     * variables, in the order of {@link #getColumns()}, null standing for
+     * an unbound variable.
+     * @return the row, or null if there are no more solutions
+     */
+    public Term[] nextRow() {
+        if (pool != null) {
+            Map<String, Term> answer = nextParallelSolution();
+            if (answer == null) {
+                return null;
+            }
+            Term[] row = new Term[variables.size()];
+            int i = 0;
+            for (String name : variables.keySet()) {
+                row[i++] = answer.get(name);
+            }
+            return row;
+        }
+        if (!advance()) {
+            return null;
+        }
+        Term[] row = new Term[variables.size()];
+        int i = 0;
+        for (Variable var : variables.values()) {
+            row[i++] = var.isBound() ? Unifier.resolve(var) : null;
+        }
+        return row;
+    }
+
+    /**
+     * Computes the next solution, resuming the search where the previous
+     * call left it.
+     * @return the bindings of the solution, or null if there are no more
+     */
+    public Map<String, Term> nextSolution() {
+        if (pool != null) {
+            return nextParallelSolution();
+        }
+        return advance() ? getSubstitution() : null;
+    }
+
+    /**
+     * Runs the search OR-parallel on a fork-join pool.
+     * @param pool the pool the worker queries run on, or null to search
+     *             sequentially
+     * @param firstSolutionOnly true to stop every worker as soon as one
+     *                          answer is found
+     */
+    public void setOrParallel(ForkJoinPool pool, boolean firstSolutionOnly) {
+        if (started) {
+            throw new IllegalStateException("Query already started");
+        }
+        this.pool = pool;
+        this.firstSolutionOnly = firstSolutionOnly;
+    }
+
+    /**
+     * Sets the number of candidate clauses from which a call may be split
+     * among workers.
+     */
+    public void setSplitThreshold(int threshold) {
+        this.splitThreshold = Math.max(2, threshold);
+    }
+
+    /**
+     * Solves independent goals of conjunctions in parallel on a pool. Each
+     * goal of such a group is solved to completion before the group's
+     * answers are combined, so the goals should have finitely many
+     * solutions.
+     * @param pool the pool, or null to solve conjunctions sequentially
+     */
+    public void setAndParallel(ForkJoinPool pool) {
+        this.andPool = pool;
+    }
+
+    /**
+     * Gets the number of groups of independent goals solved in parallel.
+     */
+    public long getParallelConjunctionCount() {
+        return parallelConjunctions;
+    }
+
+    /**
+     * Sets the pool on which {@code concurrent_maplist} and
+     * {@code concurrent_forall} run their calls; the common pool by default.
+     */
+    public void setWorkerPool(ForkJoinPool pool) {
+        this.workerPool = pool != null ? pool : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Stops the search, and the workers of an OR-parallel search; the query
+     * then reports no further solutions. May be called from any thread: a
+     * search running on another thread stops at its next step.
+     */
+    public void cancel() {
+        cancelled = true;
+        OrParallelSearch running = search;
+        if (running != null) {
+            running.cancel();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Sets the number of inferences the query may make.
+     */
+    public void setInferenceLimit(long limit) {
+        this.inferenceLimit = limit;
+        this.limited = true;
+    }
+
+    /**
+     * Sets how deep calls may nest.
+     */
+    public void setDepthLimit(int limit) {
+        this.depthLimit = limit;
+        this.limited = true;
+    }
+
+    /**
+     * Sets the number of trail entries and choicepoints the query may hold
+     * at once.
+     */
+    public void setStackLimit(int limit) {
+        this.stackLimit = limit;
+        this.limited = true;
+    }
+
+    /**
+     * Sets the wall-clock time the query may run, from now. The deadline is
+     * checked every few hundred steps.
+     */
+    public void setTimeLimit(long timeout, TimeUnit unit) {
+        this.deadline = System.nanoTime() + unit.toNanos(timeout);
+        this.hasDeadline = true;
+        this.limited = true;
+    }
+
+    /**
+     * Gets the number of worker branches an OR-parallel search has started.
+     */
+    public long getBranchCount() {
+        return search != null && pool != null ? search.getBranchCount() : 0;
+    }
+
+    private Map<String, Term> nextParallelSolution() {
+        if (exhausted || cancelled) {
+            return null;
+        }
+        if (!started) {
+            started = true;
+            search = new OrParallelSearch(pool, firstSolutionOnly, splitThreshold);
+            Map<Variable, Variable> fresh = new IdentityHashMap<>();
+            Term[] vars = new Term[variables.size()];
+            int i = 0;
+            for (Variable var : variables.values()) {
+                vars[i++] = Terms.snapshot(var, fresh);
+            }
+            Term answer = vars.length == 0 ? ANSWER : new Struct(ANSWER, vars);
+            search.start(worker(Terms.snapshot(goal, fresh), answer, new ArrayList<>(variables.keySet()), null, null));
+        }
+        Map<String, Term> answer = search.take();
+        if (answer == null) {
+            exhausted = true;
+        }
+        return answer;
+    }
+
+    /**
+     * Creates a worker query of this query's OR-parallel search. A worker
+     * either solves a goal, or resolves a call with given candidate clauses
+     * and then solves the goal as its continuation.
+     */
+    private Query worker(Term goal, Term answer, java.util.List<String> names, Term call, java.util.List<Clause> clauses) {
+        Query worker = new Query(goal, database, null, null, null, false, new Stacks());
+        worker.search = search;
+        worker.answerTemplate = answer;
+        worker.answerNames = names;
+        worker.startCall = call;
+        worker.startClauses = clauses;
+        worker.joinStrategy = joinStrategy;
+        worker.joinThreshold = joinThreshold;
+        worker.reorderGoals = reorderGoals;
+        worker.andPool = andPool;
+        worker.workerPool = workerPool;
+        worker.traceEnabled = traceEnabled;
+        worker.debugEnabled = debugEnabled;
+        return worker;
+    }
+
+    /**
+     * Creates a query solving one goal of an independent conjunction.
+     */
+    private Query branch(Term goal) {
+        Query branch = new Query(goal, database, null, null, null, false, new Stacks());
+        branch.joinStrategy = joinStrategy;
+        branch.joinThreshold = joinThreshold;
+        branch.reorderGoals = reorderGoals;
+        branch.andPool = andPool;
+        branch.workerPool = workerPool;
+        branch.traceEnabled = traceEnabled;
+        branch.debugEnabled = debugEnabled;
+        branch.stackLimit = stackLimit;
+        branch.deadline = deadline;
+        branch.hasDeadline = hasDeadline;
+        branch.limited = limited;
+        return branch;
+    }
+
+    /**
+     * Collects every solution as the resolved values of the template,
+     * giving up once the flag is raised.
+     */
+    java.util.List<Term[]> collect(Term[] template, AtomicBoolean stop) {
+        this.stop = stop;
+        java.util.List<Term[]> rows = new ArrayList<>();
+        while (advance()) {
+            Term[] row = new Term[template.length];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = Unifier.resolve(template[i]);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Finds the first solution, giving up once the flag is raised.
+     * @return the resolved template, or null if there is no solution
+     */
+    Term once(Term template, AtomicBoolean stop) {
+        this.stop = stop;
+        return advance() ? Unifier.resolve(template) : null;
+    }
+
+    /**
+     * Runs a worker to exhaustion, passing its answers to the search.
+     */
+    void runBranch() {
+        while (!search.isCancelled() && advance()) {
+            Map<String, Term> answer = new HashMap<>();
+            for (int i = 0; i < answerNames.size(); i++) {
+                Term value = Unifier.deref(((Struct) answerTemplate).getArg(i));
+                if (!(value instanceof Variable)) {
+                    answer.put(answerNames.get(i), Unifier.resolve(value));
+                }
+            }
+            search.addAnswer(answer);
+        }
+    }
+
+    /**
+     * Moves to the next solution, leaving its bindings in place.
+     * @return false if there are no more solutions
+     */
+    private boolean advance() {
+        if (exhausted || cancelled) {
+            return false;
+        }
+        trail.setTracing(traceEnabled, debugEnabled);
+        boolean found;
+        if (suspended) {
+            suspended = false;
+            found = run();
+        } else if (!started && startCall != null) {
+            started = true;
+            goals = new Goals(goal, 0, 0, null);
+            found = (selectClause(startCall, startClauses.iterator(), new Goals(startCall, 0, 0, null))
+                    || backtrack()) && run();
+        } else if (!started) {
+            started = true;
+            goals = new Goals(goal, 0, 0, null);
+            found = run();
+        } else {
+            found = backtrack() && run();
+        }
+        if (!found && !suspended) {
+            exhausted = true;
+            // Leave the goal as the caller gave it
+            trail.undo(0);
+        }
+        return found;
+    }
+
+    /**
+     * How far a bounded run of the search got.
+     */
+    enum Progress { SOLUTION, EXHAUSTED, SUSPENDED }
+
+    /**
+     * Runs the search towards the next solution for about the given number
+     * of inferences. A suspended search keeps its state and goes on from
+     * there on the next call, which may come from another thread.
+     */
+    Progress advance(long budget) {
+        yieldAt = inferences + budget;
+        try {
+            if (advance()) {
+                return Progress.SOLUTION;
+            }
+            return suspended ? Progress.SUSPENDED : Progress.EXHAUSTED;
+        } finally {
+            yieldAt = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Gets the number of predicate calls and clause tries made so far.
+     */
+    public long getInferenceCount() {
+        return getBranchCount() > 0 ? inferences + search.getInferenceCount() : inferences;
+    }
+
+    /**
+     * Selects how conjunctions of calls to fact predicates are executed.
+     * The default is {@link JoinStrategy#AUTO}.
+     */
+    public void setJoinStrategy(JoinStrategy strategy) {
+        this.joinStrategy = strategy;
+    }
+
+    /**
+     * Sets the number of facts above which {@link JoinStrategy#AUTO} runs a
+     * conjunction as a hash join.
+     */
+    public void setJoinThreshold(int threshold) {
+        this.joinThreshold = threshold;
+    }
+
+    /**
+     * Enables cost-based reordering of the calls to fact predicates that
+     * start a conjunction; see {@link GoalOrder}. Answers are the same but
+     * may come in a different order. Disabled by default.
+     */
+    public void setGoalReordering(boolean enabled) {
+        this.reorderGoals = enabled;
+    }
+
+    /**
+     * Gets the number of conjunctions executed as hash joins.
+     */
+    public long getHashJoinCount() {
+        return hashJoins;
+    }
+
+    /**
+     * Gets the current number of open choicepoints.
+     */
+    public int getChoicePointCount() {
+        return choicepoints.size();
+    }
+
+    /**
+     * Gets the execution counters accumulated so far.
+     */
+    public QueryStatistics getStatistics() {
+        return new QueryStatistics(calls, deterministicCalls, lastClauseTries,
+                choicePointsCreated, inferences, trail.getSkippedCount());
+    }
+
+    private boolean run() {
+        while (true) {
+            if (goals == null) {
+                return true;
+            }
+            if (cancelled || (search != null && search.isCancelled()) || (stop != null && stop.get())) {
+                return false;
+            }
+            if (inferences >= yieldAt) {
+                suspended = true;
+                return false;
+            }
+            Goals frame = goals;
+            if (limited) {
+                checkLimits(frame);
+            }
+            goals = frame.next;
+            if (!step(frame) && !backtrack()) {
+                return false;
+            }
+        }
+    }
+
+    private void checkLimits(Goals frame) {
+        if (inferences > inferenceLimit) {
+            throw abort(ResourceLimitException.Limit.INFERENCES, "Inference limit of " + inferenceLimit + " exceeded");
+        }
+        if (frame.depth > depthLimit) {
+            throw abort(ResourceLimitException.Limit.DEPTH, "Depth limit of " + depthLimit + " exceeded");
+        }
+        if (trail.mark() + choicepoints.size() > stackLimit) {
+            throw abort(ResourceLimitException.Limit.STACK, "Stack limit of " + stackLimit + " exceeded");
+        }
+        if (hasDeadline && (++steps & 0xff) == 0 && System.nanoTime() - deadline > 0) {
+            throw abort(ResourceLimitException.Limit.TIME, "Time limit exceeded");
+        }
+    }
+
+    /**
+     * Ends the search, undoing its bindings, for an exception to throw.
+     */
+    private ResourceLimitException abort(ResourceLimitException.Limit limit, String message) {
+        ResourceLimitException e = new ResourceLimitException(limit, message + " in " + goal, getStatistics());
+        exhausted = true;
+        goals = null;
+        choicepoints.clear();
+        trail.undo(0);
+        return e;
+    }
+
+    /**
+     * Executes one goal frame.
+     * @return false if the goal failed
+     */
+    private boolean step(Goals frame) {
+        Term term = Unifier.deref(frame.goal);
+        if (traceEnabled) {
+            trace("  ".repeat(frame.depth) + "Solving: " + term);
+        }
+        if (term instanceof ForeignGoal) {
+            return callForeign(((ForeignGoal) term).getDefinition(), ((Struct) term).getArgs(), frame);
+        }
+
+        String name;
+        Term[] args;
+        if (term instanceof Atom) {
+            name = ((Atom) term).getValue();
+            args = new Term[0];
+        } else if (term instanceof Struct) {
+            name = ((Struct) term).getFunctor().getValue();
+            args = ((Struct) term).getArgs();
+        } else {
+            trace("Cannot solve term: " + term);
+            return false;
+        }
+        ForeignPredicates foreign = database.getForeignPredicates();
+        if (!foreign.isEmpty()) {
+            ForeignPredicates.Definition definition = foreign.lookup(name, args.length);
+            if (definition != null && !definition.isLibrary()) {
+                return callForeign(definition, args, frame);
+            }
+        }
+
+        switch (args.length) {
+            case 0:
+                switch (name) {
+                    case "true":
+                        return true;
+                    case "fail":
+                    case "false":
+                        return false;
+                    case "!":
+                        cutTo(frame.cutBarrier);
+                        return true;
+                    case "abolish_all_tables":
+                        database.getTableSpace().abolishAllTables();
+                        return true;
+                    default:
+                        break;
+                }
+                break;
+            case 1:
+                switch (name) {
+                    case "\\+":
+                    case "not":
+                        return solveNegation(args[0], frame);
+                    case "once":
+                        return solveOnce(args[0], frame);
+                    case "call":
+                        goals = new Goals(args[0], choicepoints.size(), frame.depth + 1, goals);
+                        return true;
+                    default:
+                        break;
+                }
+                break;
+            case 2:
+                switch (name) {
+                    case ",":
+                        if (reorderGoals || joinStrategy != JoinStrategy.NESTED_LOOP) {
+                            java.util.List<Term> conjuncts = leadingFactCalls(term);
+                            if (conjuncts != null) {
+                                return solveFactCalls(conjuncts, frame);
+                            }
+                        }
+                        if (andPool != null) {
+                            java.util.List<Term> conjuncts = new ArrayList<>();
+                            flatten(term, conjuncts);
+                            IndependentConjunction group = IndependentConjunction.plan(database, conjuncts);
+                            if (group != null) {
+                                return solveIndependent(group, conjuncts, frame);
+                            }
+                        }
+                        goals = new Goals(args[0], frame.cutBarrier, frame.depth,
+                                new Goals(args[1], frame.cutBarrier, frame.depth, goals));
+                        return true;
+                    case ";":
+                        return solveDisjunction(args[0], args[1], frame);
+                    case "concurrent_maplist":
+                        return solveConcurrentMaplist(args);
+                    case "concurrent_forall":
+                        return solveConcurrentForall(args[0], args[1]);
+                    case "call_with_time_limit":
+                        return solveTimeLimit(args[0], args[1], frame);
+                    case "->":
+                        return solveIfThenElse(args[0], args[1], FAIL, frame);
+                    case "is":
+                        return solveIsOperator(args[0], args[1], frame);
+                    case "explain":
+                        return Unifier.unify(args[1], new Atom(explain(args[0])), trail);
+                    case "=":
+                        return Unifier.unify(args[0], args[1], trail);
+                    case "\\=":
+                        return !unifiable(args[0], args[1]);
+                    case "==":
+                        return identical(args[0], args[1]);
+                    case "\\==":
+                        return !identical(args[0], args[1]);
+                    case "<":
+                    case ">":
+                    case "=<":
+                    case ">=":
+                    case "=:=":
+                    case "=\\=":
+                        return compareNumbers(name, args[0], args[1], frame);
+                    default:
+                        break;
+                }
+                break;
+            case 3:
+            case 4:
+                if (name.equals("concurrent_maplist")) {
+                    return solveConcurrentMaplist(args);
+                }
+                if (args.length == 3 && name.equals("call_with_inference_limit")) {
+                    return solveInferenceLimit(args[0], args[1], args[2], frame);
+                }
+                break;
+            default:
+                break;
+        }
+        return callPredicate(term, name, args.length, frame);
+    }
+
+    /**
+     * Runs a foreign predicate. A nondeterministic one that succeeds leaves
+     * a choicepoint asking it for its next solution on backtracking.
+     */
+    private boolean callForeign(ForeignPredicates.Definition definition, Term[] args, Goals frame) {
+        inferences++;
+        calls++;
+        if (foreignContext == null) {
+            foreignContext = new ForeignContext(trail, this::solveOnce);
+        }
+        if (definition.getDeterministic() != null) {
+            return definition.getDeterministic().call(foreignContext, args);
+        }
+        NondeterministicPredicate.Redo redo = definition.getNondeterministic().call(foreignContext, args);
+        if (redo == null) {
+            return false;
+        }
+        ChoicePoint cp = new ChoicePoint(trail.mark(), goals, FAIL, frame.cutBarrier, frame.depth);
+        cp.redo = redo;
+        pushChoicePoint(cp);
+        if (redo.next(foreignContext)) {
+            return true;
+        }
+        popChoicePoint();
+        return false;
+    }
+
+    /**
+     * Finds the first solution of a copy of a goal for a foreign predicate.
+     */
+    private Term solveOnce(Term goal) {
+        Term copy = Terms.snapshot(goal, new IdentityHashMap<>());
+        Query solver = branch(copy);
+        try {
+            return solver.once(copy, null);
+        } finally {
+            inferences += solver.inferences;
+        }
+    }
+
+    private boolean callPredicate(Term term, String name, int arity, Goals frame) {
+        if (bypassTable) {
+            bypassTable = false;
+        } else if (database.getTableSpace().isTabled(name, arity)) {
+            return callTabled(term, name, arity, frame);
+        } else if (database.getAnswerCache().isCached(name, arity)) {
+            return callCached(term, frame);
+        }
+        Iterator<Clause> clauses = database.clauseIterator(term);
+        if (!clauses.hasNext()) {
+            // A library predicate runs only while the program does not define its own
+            ForeignPredicates.Definition library = database.getForeignPredicates().lookup(name, arity);
+            if (library != null && library.isLibrary() && !database.isDefined(name, arity)) {
+                return callForeign(library, term instanceof Struct ? ((Struct) term).getArgs() : new Term[0], frame);
+            }
+        }
+        return selectClause(term, clauses, frame);
+    }
+
+    /**
+     * Answers a call from the answer cache, first filling the cache entry
+     * of its variant by solving a copy of the call to the end.
+     */
+    private boolean callCached(Term term, Goals frame) {
+        AnswerCache cache = database.getAnswerCache();
+        java.util.List<Clause> answers = cache.get(term);
+        if (answers == null) {
+            long generation = cache.getGeneration();
+            Term copy = Terms.snapshot(term, new IdentityHashMap<>());
+            Query solver = branch(copy);
+            solver.bypassTable = true;
+            solver.inferenceLimit = inferenceLimit == Long.MAX_VALUE ? Long.MAX_VALUE : inferenceLimit - inferences;
+            answers = new ArrayList<>();
+            try {
+                while (solver.advance()) {
+                    answers.add(new Clause(Unifier.resolve(copy), null));
+                }
+            } catch (ResourceLimitException e) {
+                inferences += solver.inferences;
+                throw abort(e.getLimit(), e.getMessage());
+            }
+            inferences += solver.inferences;
+            cache.put(term, answers, generation);
+        }
+        return selectClause(term, answers.iterator(), frame);
+    }
+
+    /**
+     * Resolves a goal with candidate clauses, leaving a choicepoint only if
+     * more than one candidate remains.
+     */
+    private boolean selectClause(Term term, Iterator<Clause> clauses, Goals frame) {
+        inferences++;
+        calls++;
+        if (search != null && search.wantsWork()) {
+            clauses = share(term, clauses);
+        }
+        if (!clauses.hasNext()) {
+            return false;
+        }
+        Clause first = clauses.next();
+        if (!clauses.hasNext()) {
+            deterministicCalls++;
+            return tryClause(first, term, goals, choicepoints.size(), frame.depth + 1);
+        }
+        ChoicePoint cp = new ChoicePoint(trail.mark(), goals, term, clauses, frame.depth + 1);
+        cp.pending = first;
+        pushChoicePoint(cp);
+        return resumeClauses(cp);
+    }
+
+    /**
+     * Flattens a conjunction that starts with at least two calls to fact
+     * predicates.
+     * @return the goals of the conjunction, or null if it does not qualify
+     */
+    private java.util.List<Term> leadingFactCalls(Term conjunction) {
+        Struct struct = (Struct) conjunction;
+        if (!HashJoin.isFactCall(database, Unifier.deref(struct.getArg(0)))) {
+            return null;
+        }
+        java.util.List<Term> conjuncts = new ArrayList<>();
+        flatten(conjunction, conjuncts);
+        return HashJoin.isFactCall(database, conjuncts.get(1)) ? conjuncts : null;
+    }
+
+    /**
+     * Runs the leading calls to fact predicates of a conjunction, reordered
+     * by cost if enabled and as a hash join if the join strategy allows,
+     * followed by the rest of the conjunction.
+     */
+    private boolean solveFactCalls(java.util.List<Term> conjuncts, Goals frame) {
+        int run = 0;
+        while (run < conjuncts.size() && HashJoin.isFactCall(database, conjuncts.get(run))) {
+            run++;
+        }
+        java.util.List<Term> calls = conjuncts.subList(0, run);
+        if (reorderGoals) {
+            GoalOrder order = GoalOrder.plan(database, calls, joinStrategy != JoinStrategy.NESTED_LOOP);
+            if (traceEnabled) {
+                trace("  ".repeat(frame.depth) + "Reordered " + calls + "\n" + order);
+            }
+            calls = order.getGoals();
+        }
+        if (run < conjuncts.size()) {
+            goals = new Goals(conjunction(conjuncts.subList(run, conjuncts.size())),
+                    frame.cutBarrier, frame.depth, goals);
+        }
+
+        HashJoin join = null;
+        if (joinStrategy != JoinStrategy.NESTED_LOOP) {
+            join = HashJoin.plan(database, calls);
+            if (join != null && joinStrategy == JoinStrategy.AUTO && !join.isWorthwhile(joinThreshold)) {
+                join = null;
+            }
+        }
+        int joined = join != null ? join.size() : 0;
+        for (int i = calls.size() - 1; i >= joined; i--) {
+            goals = new Goals(calls.get(i), frame.cutBarrier, frame.depth, goals);
+        }
+        if (join == null) {
+            return true;
+        }
+        hashJoins++;
+        if (traceEnabled) {
+            trace("  ".repeat(frame.depth) + "Hash join over " + calls.subList(0, joined));
+        }
+        return selectClause(join.getGoal(), join, frame);
+    }
+
+    /**
+     * Solves a group of independent goals in parallel, then chooses among
+     * the combinations of their solutions before running the rest of the
+     * conjunction.
+     */
+    private boolean solveIndependent(IndependentConjunction group, java.util.List<Term> conjuncts, Goals frame) {
+        parallelConjunctions++;
+        if (traceEnabled) {
+            trace("  ".repeat(frame.depth) + "Parallel goals " + conjuncts.subList(0, group.size()));
+        }
+        if (!group.solve(andPool, this::branch)) {
+            return false;
+        }
+        if (group.size() < conjuncts.size()) {
+            goals = new Goals(conjunction(conjuncts.subList(group.size(), conjuncts.size())),
+                    frame.cutBarrier, frame.depth, goals);
+        }
+        return selectClause(group.getGoal(), group, frame);
+    }
+
+    /**
+     * Builds the right-nested conjunction of goals.
+     */
+    private static Term conjunction(java.util.List<Term> goals) {
+        Term result = goals.get(goals.size() - 1);
+        for (int i = goals.size() - 2; i >= 0; i--) {
+            result = new Struct(new Atom(","), goals.get(i), result);
+        }
+        return result;
+    }
+
+    /**
+     * Describes the order in which the leading calls to fact predicates of
+     * a conjunction would run, with their estimated costs.
+     */
+    public String explain(Term conjunction) {
+        java.util.List<Term> conjuncts = new ArrayList<>();
+        flatten(conjunction, conjuncts);
+        int run = 0;
+        while (run < conjuncts.size() && HashJoin.isFactCall(database, conjuncts.get(run))) {
+            run++;
+        }
+        if (run == 0) {
+            return "No calls to fact predicates to reorder in " + Unifier.deref(conjunction);
+        }
+        GoalOrder order = GoalOrder.plan(database, conjuncts.subList(0, run), joinStrategy != JoinStrategy.NESTED_LOOP);
+        StringBuilder sb = new StringBuilder(order.toString());
+        for (int i = run; i < conjuncts.size(); i++) {
+            sb.append(String.format("%d. %s  (not reordered)%n", i + 1, conjuncts.get(i)));
+        }
+        return sb.append(String.format("estimated cost=%.1f", order.getCost())).toString();
+    }
+
+    private static void flatten(Term conjunction, java.util.List<Term> conjuncts) {
+        Term term = Unifier.deref(conjunction);
+        if (term instanceof Struct && ((Struct) term).getArity() == 2
+                && ((Struct) term).getFunctor().getValue().equals(",")) {
+            flatten(((Struct) term).getArg(0), conjuncts);
+            flatten(((Struct) term).getArg(1), conjuncts);
+        } else {
+            conjuncts.add(term);
+        }
+    }
+
+    /**
+     * Gives the second half of the candidate clauses of a call to a new
+     * worker, along with a copy of the goals after the call.
+     * @return the candidates this query keeps
+     */
+    private Iterator<Clause> share(Term term, Iterator<Clause> clauses) {
+        java.util.List<Clause> candidates = new ArrayList<>();
+        while (clauses.hasNext()) {
+            candidates.add(clauses.next());
+        }
+        if (candidates.size() < search.getThreshold() || !canShare(candidates)) {
+            return candidates.iterator();
+        }
+        int keep = (candidates.size() + 1) / 2;
+        java.util.List<Term> rest = new ArrayList<>();
+        for (Goals frame = goals; frame != null; frame = frame.next) {
+            rest.add(frame.goal);
+        }
+        Map<Variable, Variable> fresh = new IdentityHashMap<>();
+        Term continuation = rest.isEmpty() ? TRUE : Terms.snapshot(conjunction(rest), fresh);
+        search.start(worker(continuation, Terms.snapshot(answerTemplate, fresh), answerNames, Terms.snapshot(term, fresh),
+                new ArrayList<>(candidates.subList(keep, candidates.size()))));
+        return candidates.subList(0, keep).iterator();
+    }
+
+    /**
+     * Checks whether the alternatives of a call can run apart from this
+     * query: no cut in the candidate clauses or in the goals after the call
+     * may prune them, and no table is shared between threads.
+     */
+    private boolean canShare(java.util.List<Clause> candidates) {
+        if (database.getTableSpace().hasTabledPredicates()) {
+            return false;
+        }
+        for (Clause clause : candidates) {
+            if (clause.getBody() != null && Terms.containsCut(clause.getBody())) {
+                return false;
+            }
+        }
+        for (Goals frame = goals; frame != null; frame = frame.next) {
+            if (Terms.containsCut(frame.goal)) {
+                return false;
+            }
+        }
+        return true;
     }
-    
+
     /**
-     * Executes the query and returns solutions.
+     * Calls a tabled predicate. A complete table is read like a list of
+     * facts; an incomplete one is either evaluated first or, inside an
+     * evaluation, waited on by suspending this query.
      */
-    public java.util.List<Map<String, Term>> solve() {
-        PrologConfig.debug("Starting query execution for: " + goal);
-        java.util.List<Map<String, Term>> solutions = new ArrayList<>();
-        solve(goal, solutions);
-        PrologConfig.debug("Query execution completed with " + solutions.size() + " solutions");
-        return solutions;
+    private boolean callTabled(Term term, String name, int arity, Goals frame) {
+        TableSpace space = database.getTableSpace();
+        SubgoalTable table = space.lookup(name, arity, term, evaluation);
+        if (table != null && table.isComplete()) {
+            return selectClause(term, table.getAnswers().iterator(), frame);
+        }
+        Iterator<Clause> answers;
+        // Evaluations run one at a time, under the evaluation lock
+        synchronized (space.getEvaluationLock()) {
+            table = space.lookup(name, arity, term, evaluation);
+            if (table == null) {
+                table = space.create(name, arity, term, evaluation);
+                SubgoalTable created = table;
+                table.getEvaluation().schedule(() -> {
+                    Term call = space.copy(created.getVariant());
+                    produce(database, created.getEvaluation(), created, call, call, true);
+                });
+            }
+            if (table.isComplete()) {
+                answers = table.getAnswers().iterator();
+            } else if (evaluation != null) {
+                suspend(term, table);
+                return false;
+            } else if (space.getScheduling() == Scheduling.LOCAL) {
+                table.getEvaluation().run();
+                answers = table.getAnswers().iterator();
+            } else {
+                answers = new IncrementalAnswers(table, table.getEvaluation(), space.getEvaluationLock());
+            }
+        }
+        return selectClause(term, answers, frame);
     }
-    
-    private boolean solve(Term term, java.util.List<Map<String, Term>> solutions) {
-        String indent = "  ".repeat(callDepth);
-        PrologConfig.trace(indent + "Solving: " + term);
-        
-        if (term instanceof Struct) {
-            Struct struct = (Struct) term;
-            Atom functor = struct.getFunctor();
-            Term[] args = struct.getArgs();
-            
-            // Handle built-in predicates
-            if (functor.getValue().equals("is") && args.length == 2) {
-                PrologConfig.trace(indent + "Handling 'is' operator");
-                solveIsOperator(args[0], args[1], solutions);
+
+    /**
+     * Registers the rest of this query as a consumer of an incomplete table.
+     * The call, the goals after it and the answer template are copied, so
+     * the consumer survives backtracking.
+     */
+    private void suspend(Term call, SubgoalTable table) {
+        java.util.List<Term> rest = new ArrayList<>();
+        for (Goals frame = goals; frame != null; frame = frame.next) {
+            rest.add(frame.goal);
+        }
+        Term continuation = TRUE;
+        for (int i = rest.size() - 1; i >= 0; i--) {
+            continuation = continuation == TRUE ? rest.get(i) : new Struct(new Atom(","), rest.get(i), continuation);
+        }
+
+        TableSpace space = database.getTableSpace();
+        Struct consumer = (Struct) space.copy(new Struct(new Atom("$consumer"), template, call, continuation));
+        Database db = database;
+        Evaluation running = evaluation;
+        SubgoalTable target = producer;
+        running.suspend(table, answer -> {
+            Struct resumed = (Struct) space.copy(new Struct(new Atom("$consumer"), consumer.getArg(0),
+                    new Struct(new Atom(","), new Struct(new Atom("="), consumer.getArg(1), answer.getHead()),
+                            consumer.getArg(2))));
+            produce(db, running, target, resumed.getArg(1), resumed.getArg(0), false);
+        });
+    }
+
+    /**
+     * Runs a goal to exhaustion, adding each instance of the template to the
+     * table.
+     */
+    private static void produce(Database database, Evaluation evaluation, SubgoalTable table,
+                                Term goal, Term template, boolean generator) {
+        Query query = new Query(goal, database, evaluation, table, template, generator, new Stacks());
+        while (query.advance()) {
+            evaluation.addAnswer(table, template);
+        }
+    }
+
+    /**
+     * Tries the pending clause of the choicepoint on top of the stack and,
+     * on failure, the ones after it. The choicepoint is popped before the
+     * last candidate is tried, so that clause runs without one; the body of
+     * the selected clause may cut back to just below it.
+     * @return false if no remaining clause head unifies
+     */
+    private boolean resumeClauses(ChoicePoint cp) {
+        int barrier = choicepoints.size() - 1;
+        while (true) {
+            Clause clause = cp.pending;
+            if (!cp.clauses.hasNext()) {
+                popChoicePoint();
+                lastClauseTries++;
+                return tryClause(clause, cp.goal, cp.continuation, barrier, cp.depth);
+            }
+            cp.pending = cp.clauses.next();
+            if (tryClause(clause, cp.goal, cp.continuation, barrier, cp.depth)) {
                 return true;
             }
-            
-            if (functor.getValue().equals(",") && args.length == 2) {
-                // Conjunction: solve first part, then remaining
-                PrologConfig.trace(indent + "Handling conjunction");
-                return solveConjunction(args[0], args[1], solutions);
-            }
-            
-            if (functor.getValue().equals(";") && args.length == 2) {
-                // Disjunction: solve either part
-                PrologConfig.trace(indent + "Handling disjunction");
-                return solveDisjunction(args[0], args[1], solutions);
-            }
-            
-            // Check user-defined predicates
-            java.util.List<Clause> clauses = database.findClauses(term);
-            PrologConfig.trace(indent + "Found " + clauses.size() + " matching clauses");
-            
-            boolean foundSolution = false;
-            for (Clause clause : clauses) {
-                PrologConfig.trace(indent + "Trying clause: " + clause);
-                
-                // Save state for backtracking
-                Map<String, Term> saveSubstitution = new HashMap<>(substitution);
-                int trailMark = trail.mark();
-                
-                try {
-                    // Unify goal with clause head
-                    if (Unifier.unify(term, clause.getHead(), substitution, trail)) {
-                        if (clause.getBody() == null) {
-                            // Fact - solution found
-                            PrologConfig.trace(indent + "  Matched fact, solution found");
-                            solutions.add(new HashMap<>(substitution));
-                            foundSolution = true;
-                        } else {
-                            // Recurse on body
-                            PrologConfig.trace(indent + "  Matched rule, solving body: " + clause.getBody());
-                            callDepth++;
-                            if (solve(clause.getBody(), solutions)) {
-                                foundSolution = true;
-                            }
-                            callDepth--;
-                        }
-                    } else {
-                        PrologConfig.trace(indent + "  Unification failed");
-                    }
-                } finally {
-                    // Backtrack by restoring substitution and trail
-                    trail.undo(trailMark);
-                    substitution.clear();
-                    substitution.putAll(saveSubstitution);
-                    PrologConfig.trace(indent + "  Backtracked");
+            trail.undo(cp.trailMark);
+        }
+    }
+
+    /**
+     * Unifies the goal with a renamed copy of the clause head and, on
+     * success, schedules the clause body.
+     */
+    private boolean tryClause(Clause stored, Term term, Goals continuation, int barrier, int depth) {
+        Clause clause = rename(stored);
+        inferences++;
+        if (traceEnabled) {
+            trace("  ".repeat(depth) + "Trying clause: " + clause);
+        }
+        if (!Unifier.unify(term, clause.getHead(), trail)) {
+            if (traceEnabled) {
+                trace("  ".repeat(depth) + "  Unification failed");
+            }
+            return false;
+        }
+        if (clause.getBody() == null) {
+            goals = continuation;
+        } else {
+            goals = new Goals(clause.getBody(), barrier, depth, continuation);
+        }
+        return true;
+    }
+
+    /**
+     * Restores the most recent choicepoint that still has an alternative.
+     * @return false if the search space is exhausted
+     */
+    private boolean backtrack() {
+        while (!choicepoints.isEmpty()) {
+            ChoicePoint cp = choicepoints.get(choicepoints.size() - 1);
+            trail.undo(cp.trailMark);
+            if (cp.clauses != null) {
+                if (resumeClauses(cp)) {
+                    return true;
                 }
+            } else if (cp.redo != null) {
+                inferences++;
+                if (cp.redo.next(foreignContext)) {
+                    goals = cp.continuation;
+                    return true;
+                }
+                trail.undo(cp.trailMark);
+                popChoicePoint();
+            } else {
+                popChoicePoint();
+                goals = new Goals(cp.alternative, cp.cutBarrier, cp.depth, cp.continuation);
+                return true;
             }
-            return foundSolution;
         }
-        PrologConfig.trace(indent + "Cannot solve term: " + term);
         return false;
     }
-    
-    private boolean solveConjunction(Term left, Term right, java.util.List<Map<String, Term>> solutions) {
-        String indent = "  ".repeat(callDepth);
-        PrologConfig.trace(indent + "Solving conjunction: " + left + " , " + right);
-        
-        // Save state for backtracking
-        Map<String, Term> saveSubstitution = new HashMap<>(substitution);
-        int trailMark = trail.mark();
-        
-        try {
-            // Solve left part
-            java.util.List<Map<String, Term>> leftSolutions = new ArrayList<>();
-            if (solve(left, leftSolutions)) {
-                PrologConfig.trace(indent + "Left part succeeded with " + leftSolutions.size() + " solutions");
-                boolean foundSolution = false;
-                // For each solution of left, solve right
-                for (Map<String, Term> leftSolution : leftSolutions) {
-                    // Save current state
-                    Map<String, Term> midSubstitution = new HashMap<>(substitution);
-                    int midTrailMark = trail.mark();
-                    
-                    try {
-                        // Apply left solution
-                        substitution.putAll(leftSolution);
-                        PrologConfig.trace(indent + "  Applying left solution and solving right: " + right);
-                        
-                        // Solve right part
-                        if (solve(right, solutions)) {
-                            foundSolution = true;
-                        }
-                    } finally {
-                        // Restore state after solving right
-                        trail.undo(midTrailMark);
-                        substitution.clear();
-                        substitution.putAll(midSubstitution);
-                        PrologConfig.trace(indent + "  Backtracked from right part");
-                    }
-                }
-                return foundSolution;
+
+    /**
+     * Pushes a choicepoint; from now on bindings of every variable that
+     * already exists are trailed.
+     */
+    private void pushChoicePoint(ChoicePoint cp) {
+        cp.serialMark = renameCounter + 1;
+        choicepoints.add(cp);
+        choicePointsCreated++;
+        trail.setBoundary(cp.serialMark);
+    }
+
+    private void popChoicePoint() {
+        choicepoints.remove(choicepoints.size() - 1);
+        updateTrailBoundary();
+    }
+
+    private void updateTrailBoundary() {
+        trail.setBoundary(choicepoints.isEmpty() ? FIRST_SERIAL : choicepoints.get(choicepoints.size() - 1).serialMark);
+    }
+
+    /**
+     * Removes all choicepoints above the given height.
+     */
+    private void cutTo(int height) {
+        while (choicepoints.size() > height) {
+            choicepoints.remove(choicepoints.size() - 1);
+        }
+        updateTrailBoundary();
+    }
+
+    private boolean solveDisjunction(Term left, Term right, Goals frame) {
+        Term condition = Unifier.deref(left);
+        if (condition instanceof Struct && ((Struct) condition).getArity() == 2
+                && ((Struct) condition).getFunctor().getValue().equals("->")) {
+            Struct ifThen = (Struct) condition;
+            return solveIfThenElse(ifThen.getArg(0), ifThen.getArg(1), right, frame);
+        }
+        // Disjunction is transparent to cut: both branches keep the frame's barrier
+        pushChoicePoint(new ChoicePoint(trail.mark(), goals, right, frame.cutBarrier, frame.depth));
+        goals = new Goals(left, frame.cutBarrier, frame.depth, goals);
+        return true;
+    }
+
+    /**
+     * (C -> T ; E): the else branch is a choicepoint that the first solution
+     * of C cuts away together with any alternatives of C itself.
+     */
+    private boolean solveIfThenElse(Term condition, Term then, Term otherwise, Goals frame) {
+        int height = choicepoints.size();
+        pushChoicePoint(new ChoicePoint(trail.mark(), goals, otherwise, frame.cutBarrier, frame.depth));
+        goals = new Goals(condition, height + 1, frame.depth,
+                new Goals(CUT, height, frame.depth,
+                new Goals(then, frame.cutBarrier, frame.depth, goals)));
+        return true;
+    }
+
+    /**
+     * \+ G: if G has a solution, cut the choicepoint that would resume the
+     * continuation and fail; otherwise backtracking reaches it.
+     */
+    private boolean solveNegation(Term inner, Goals frame) {
+        int height = choicepoints.size();
+        pushChoicePoint(new ChoicePoint(trail.mark(), goals, TRUE, frame.cutBarrier, frame.depth));
+        goals = new Goals(inner, height + 1, frame.depth + 1,
+                new Goals(CUT, height, frame.depth,
+                new Goals(FAIL, height, frame.depth, null)));
+        return true;
+    }
+
+    private boolean solveOnce(Term inner, Goals frame) {
+        int height = choicepoints.size();
+        goals = new Goals(inner, height, frame.depth + 1,
+                new Goals(CUT, height, frame.depth, goals));
+        return true;
+    }
+
+    /**
+     * Solves {@code concurrent_maplist(G, L1, ..., Ln)}: calls G with the
+     * i-th elements of the lists added as arguments, for every i, each call
+     * on a worker query of its own. Lists that are not proper are unified
+     * with lists of the length of the first proper one. The first solution
+     * of each call is unified back in list order.
+     */
+    private boolean solveConcurrentMaplist(Term[] args) {
+        int length = -1;
+        for (int j = 1; j < args.length && length < 0; j++) {
+            length = properLength(args[j]);
+        }
+        if (length < 0) {
+            return false;
+        }
+        Term[][] elements = new Term[args.length - 1][length];
+        for (int j = 0; j < elements.length; j++) {
+            Term list = new Atom("[]");
+            for (int i = length - 1; i >= 0; i--) {
+                elements[j][i] = new Variable("_M" + i);
+                list = new it.denzosoft.prolog.model.List(elements[j][i], list);
+            }
+            if (!Unifier.unify(args[j + 1], list, trail)) {
+                return false;
+            }
+        }
+        java.util.List<Term> calls = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            Term[] extra = new Term[elements.length];
+            for (int j = 0; j < extra.length; j++) {
+                extra[j] = elements[j][i];
+            }
+            Term call = addArguments(args[0], extra);
+            if (call == null) {
+                return false;
+            }
+            calls.add(call);
+        }
+        return solveConcurrently(calls);
+    }
+
+    /**
+     * Solves {@code concurrent_forall(Cond, Action)}: finds every solution of
+     * the condition, then runs the action for each of them concurrently.
+     * Succeeds without binding anything if every action succeeds.
+     */
+    private boolean solveConcurrentForall(Term condition, Term action) {
+        Term pair = Terms.snapshot(new Struct(new Atom("$forall"), new Term[]{condition, action}), new IdentityHashMap<>());
+        Term[] template = {((Struct) pair).getArg(1)};
+        java.util.List<Term> actions = new ArrayList<>();
+        for (Term[] row : branch(((Struct) pair).getArg(0)).collect(template, null)) {
+            actions.add(row[0]);
+        }
+        Term[] solved = new ConcurrentCalls(workerPool, snapshots(actions), this::branch).solve();
+        return solved != null;
+    }
+
+    /**
+     * Solves calls on the worker pool and unifies each with its first
+     * solution, in order.
+     */
+    private boolean solveConcurrently(java.util.List<Term> calls) {
+        Term[] solved = new ConcurrentCalls(workerPool, snapshots(calls), this::branch).solve();
+        if (solved == null) {
+            return false;
+        }
+        for (int i = 0; i < solved.length; i++) {
+            if (!Unifier.unify(calls.get(i), solved[i], trail)) {
+                return false;
             }
-            PrologConfig.trace(indent + "Left part failed");
+        }
+        return true;
+    }
+
+    /**
+     * Solves a goal once within a number of seconds, aborting the query
+     * when they run out.
+     */
+    private boolean solveTimeLimit(Term time, Term call, Goals frame) {
+        Term seconds = evaluateExpression(time, "");
+        if (!(seconds instanceof it.denzosoft.prolog.model.Number)) {
+            trace("call_with_time_limit/2 needs a number of seconds: " + time);
             return false;
-        } finally {
-            // Backtrack to original state
-            trail.undo(trailMark);
-            substitution.clear();
-            substitution.putAll(saveSubstitution);
-            PrologConfig.trace(indent + "Backtracked from conjunction");
-        }
-    }
-    
-    private boolean solveDisjunction(Term left, Term right, java.util.List<Map<String, Term>> solutions) {
-        String indent = "  ".repeat(callDepth);
-        PrologConfig.trace(indent + "Solving disjunction: " + left + " ; " + right);
-        
-        // Save state for backtracking
-        Map<String, Term> saveSubstitution = new HashMap<>(substitution);
-        int trailMark = trail.mark();
-        
-        boolean foundSolution = false;
-        
+        }
+        long timeout = (long) (((it.denzosoft.prolog.model.Number) seconds).getValue() * 1e9);
+        Term copy = Terms.snapshot(call, new IdentityHashMap<>());
+        Query limited = branch(copy);
+        if (!hasDeadline || deadline - System.nanoTime() > timeout) {
+            limited.setTimeLimit(timeout, TimeUnit.NANOSECONDS);
+        }
+        Term answer;
+        try {
+            answer = limited.once(copy, null);
+        } catch (ResourceLimitException e) {
+            inferences += limited.inferences;
+            throw abort(e.getLimit(), e.getMessage());
+        }
+        inferences += limited.inferences;
+        return answer != null && Unifier.unify(call, answer, trail);
+    }
+
+    /**
+     * Solves a goal within a number of inferences. Result is {@code !} for
+     * the last answer, {@code true} for the others and
+     * {@code inference_limit_exceeded} after the answers found before the
+     * limit was reached. The answers are all computed on the call.
+     */
+    private boolean solveInferenceLimit(Term call, Term limit, Term result, Goals frame) {
+        Term max = evaluateExpression(limit, "");
+        if (!(max instanceof it.denzosoft.prolog.model.Number) || !((it.denzosoft.prolog.model.Number) max).isInteger()) {
+            trace("call_with_inference_limit/3 needs an integer limit: " + limit);
+            return false;
+        }
+        long own = (long) ((it.denzosoft.prolog.model.Number) max).getValue();
+        long left = inferenceLimit == Long.MAX_VALUE ? Long.MAX_VALUE : inferenceLimit - inferences;
+        Term copy = Terms.snapshot(call, new IdentityHashMap<>());
+        Query limited = branch(copy);
+        limited.setInferenceLimit(Math.min(own, left));
+        java.util.List<Term> answers = new ArrayList<>();
+        boolean exceeded = false;
         try {
-            // Try left part
-            PrologConfig.trace(indent + "Trying left part: " + left);
-            if (solve(left, solutions)) {
-                foundSolution = true;
-                PrologConfig.trace(indent + "Left part succeeded");
-            }
-            
-            // Backtrack
-            trail.undo(trailMark);
-            substitution.clear();
-            substitution.putAll(saveSubstitution);
-            PrologConfig.trace(indent + "Backtracked after left part");
-            
-            // Try right part
-            PrologConfig.trace(indent + "Trying right part: " + right);
-            if (solve(right, solutions)) {
-                foundSolution = true;
-                PrologConfig.trace(indent + "Right part succeeded");
+            while (limited.advance()) {
+                answers.add(Unifier.resolve(copy));
             }
-        } finally {
-            // Restore original state
-            trail.undo(trailMark);
-            substitution.clear();
-            substitution.putAll(saveSubstitution);
-            PrologConfig.trace(indent + "Backtracked from disjunction");
-        }
-        
-        return foundSolution;
-    }
-    
-    private void solveIsOperator(Term dest, Term expr, java.util.List<Map<String, Term>> solutions) {
-        String indent = "  ".repeat(callDepth);
-        PrologConfig.trace(indent + "Solving 'is' operator: " + dest + " is " + expr);
-        
+        } catch (ResourceLimitException e) {
+            if (e.getLimit() != ResourceLimitException.Limit.INFERENCES || own > left) {
+                inferences += limited.inferences;
+                throw abort(e.getLimit(), e.getMessage());
+            }
+            exceeded = true;
+        }
+        inferences += limited.inferences;
+        Term alternatives = null;
+        if (exceeded) {
+            alternatives = new Struct(new Atom("="), new Term[]{result, new Atom("inference_limit_exceeded")});
+        }
+        for (int i = answers.size() - 1; i >= 0; i--) {
+            Term outcome = i == answers.size() - 1 && !exceeded ? CUT : TRUE;
+            Term alternative = new Struct(new Atom(","), new Term[]{
+                    new Struct(new Atom("="), new Term[]{call, answers.get(i)}),
+                    new Struct(new Atom("="), new Term[]{result, outcome})});
+            alternatives = alternatives == null ? alternative
+                    : new Struct(new Atom(";"), new Term[]{alternative, alternatives});
+        }
+        if (alternatives == null) {
+            return false;
+        }
+        goals = new Goals(alternatives, frame.cutBarrier, frame.depth, goals);
+        return true;
+    }
+
+    /**
+     * Copies each term with variables of its own, so that workers never
+     * bind a variable another thread can see.
+     */
+    private static java.util.List<Term> snapshots(java.util.List<Term> terms) {
+        java.util.List<Term> copies = new ArrayList<>(terms.size());
+        for (Term term : terms) {
+            copies.add(Terms.snapshot(term, new IdentityHashMap<>()));
+        }
+        return copies;
+    }
+
+    /**
+     * Gets the number of elements of a proper list.
+     * @return the length, or -1 if the term is not a proper list
+     */
+    private static int properLength(Term term) {
+        int length = 0;
+        term = Unifier.deref(term);
+        while (term instanceof it.denzosoft.prolog.model.List) {
+            length++;
+            term = Unifier.deref(((it.denzosoft.prolog.model.List) term).getTail());
+        }
+        return TermOrder.isNil(term) ? length : -1;
+    }
+
+    /**
+     * Builds a goal with extra arguments appended, as {@code call/N} does.
+     * @return the goal, or null if the closure is not callable
+     */
+    private static Term addArguments(Term closure, Term[] extra) {
+        closure = Unifier.deref(closure);
+        if (closure instanceof Atom) {
+            return new Struct((Atom) closure, extra);
+        }
+        if (closure instanceof Struct) {
+            Struct struct = (Struct) closure;
+            Term[] args = Arrays.copyOf(struct.getArgs(), struct.getArity() + extra.length);
+            System.arraycopy(extra, 0, args, struct.getArity(), extra.length);
+            return new Struct(struct.getFunctor(), args);
+        }
+        return null;
+    }
+
+    private boolean solveIsOperator(Term dest, Term expr, Goals frame) {
+        String indent = traceEnabled ? "  ".repeat(frame.depth) : "";
+
         // Evaluate the expression
-        Term result = evaluateExpression(expr);
-        
-        if (result != null) {
-            PrologConfig.trace(indent + "Expression evaluated to: " + result);
-            
-            // Save state for backtracking
-            Map<String, Term> saveSubstitution = new HashMap<>(substitution);
-            int trailMark = trail.mark();
-            
-            try {
-                // Bind the destination to the result
-                if (Unifier.unify(dest, result, substitution, trail)) {
-                    PrologConfig.trace(indent + "Binding successful");
-                    solutions.add(new HashMap<>(substitution));
-                } else {
-                    PrologConfig.trace(indent + "Binding failed");
+        Term result = evaluateExpression(expr, indent);
+
+        if (result == null) {
+            trace(indent + "Expression evaluation failed");
+            return false;
+        }
+        return Unifier.unify(dest, result, trail);
+    }
+
+    private boolean compareNumbers(String op, Term left, Term right, Goals frame) {
+        String indent = traceEnabled ? "  ".repeat(frame.depth) : "";
+        Term a = evaluateExpression(left, indent);
+        Term b = evaluateExpression(right, indent);
+        if (a == null || b == null) {
+            return false;
+        }
+        int cmp = Double.compare(((it.denzosoft.prolog.model.Number) a).getValue(),
+                ((it.denzosoft.prolog.model.Number) b).getValue());
+        switch (op) {
+            case "<": return cmp < 0;
+            case ">": return cmp > 0;
+            case "=<": return cmp <= 0;
+            case ">=": return cmp >= 0;
+            case "=:=": return cmp == 0;
+            default: return cmp != 0;
+        }
+    }
+
+    private boolean unifiable(Term a, Term b) {
+        // The bindings are undone right away, so every one of them is trailed
+        long boundary = trail.getBoundary();
+        trail.setBoundary(Long.MAX_VALUE);
+        int mark = trail.mark();
+        boolean result = Unifier.unify(a, b, trail);
+        trail.undo(mark);
+        trail.setBoundary(boundary);
+        return result;
+    }
+
+    private static boolean identical(Term a, Term b) {
+        a = Unifier.deref(a);
+        b = Unifier.deref(b);
+        if (a == b) {
+            return true;
+        }
+        if (a instanceof Variable || b instanceof Variable
+                || a.getClass() != b.getClass() && !(a instanceof Struct && b instanceof Struct)) {
+            return false;
+        }
+        if (a instanceof it.denzosoft.prolog.model.List) {
+            it.denzosoft.prolog.model.List listA = (it.denzosoft.prolog.model.List) a;
+            it.denzosoft.prolog.model.List listB = (it.denzosoft.prolog.model.List) b;
+            return identical(listA.getHead(), listB.getHead()) && identical(listA.getTail(), listB.getTail());
+        }
+        if (a instanceof Struct) {
+            Struct structA = (Struct) a;
+            Struct structB = (Struct) b;
+            if (structA.getArity() != structB.getArity() || !structA.getFunctor().equals(structB.getFunctor())) {
+                return false;
+            }
+            for (int i = 0; i < structA.getArity(); i++) {
+                if (!identical(structA.getArg(i), structB.getArg(i))) {
+                    return false;
                 }
-            } finally {
-                // Backtrack
-                trail.undo(trailMark);
-                substitution.clear();
-                substitution.putAll(saveSubstitution);
-                PrologConfig.trace(indent + "Backtracked from 'is' operator");
             }
-        } else {
-            PrologConfig.trace(indent + "Expression evaluation failed");
+            return true;
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * Copies a clause with fresh variables so each use is independent.
+     */
+    private Clause rename(Clause clause) {
+        Map<Variable, Variable> fresh = new IdentityHashMap<>();
+        Term head = rename(clause.getHead(), fresh);
+        Term body = clause.getBody() == null ? null : rename(clause.getBody(), fresh);
+        return new Clause(head, body);
+    }
+
+    private Term rename(Term term, Map<Variable, Variable> fresh) {
+        if (term instanceof Variable) {
+            Variable var = (Variable) term;
+            if (var.isBound()) {
+                return rename(var.getBinding(), fresh);
+            }
+            Variable renamed = fresh.get(var);
+            if (renamed == null) {
+                renamed = new Variable("_G" + renameCounter, ++renameCounter);
+                fresh.put(var, renamed);
+            }
+            return renamed;
+        }
+        if (term instanceof Struct) {
+            Struct struct = (Struct) term;
+            Term[] args = new Term[struct.getArity()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = rename(struct.getArg(i), fresh);
+            }
+            if (struct instanceof ForeignGoal) {
+                return new ForeignGoal(((ForeignGoal) struct).getSlot(), struct.getFunctor(), args);
+            }
+            return new Struct(struct.getFunctor(), args);
+        }
+        if (term instanceof it.denzosoft.prolog.model.List) {
+            it.denzosoft.prolog.model.List list = (it.denzosoft.prolog.model.List) term;
+            return new it.denzosoft.prolog.model.List(rename(list.getHead(), fresh), rename(list.getTail(), fresh));
         }
+        return term;
     }
-    
-    private Term evaluateExpression(Term expr) {
-        String indent = "  ".repeat(callDepth);
-        PrologConfig.trace(indent + "Evaluating expression: " + expr);
-        
+
+    private Term evaluateExpression(Term expr, String indent) {
+        if (traceEnabled) {
+            trace(indent + "Evaluating expression: " + expr);
+        }
+
         if (expr instanceof it.denzosoft.prolog.model.Number) {
-            PrologConfig.trace(indent + "  Expression is a number: " + expr);
             return expr;
         }
-        
+
         if (expr instanceof Variable) {
             Variable var = (Variable) expr;
             if (var.isBound()) {
-                PrologConfig.trace(indent + "  Variable " + var + " is bound to " + var.getBinding());
-                return evaluateExpression(var.getBinding());
+                return evaluateExpression(var.getBinding(), indent);
             }
             // Unbound variables in expressions cause errors
-            PrologConfig.trace(indent + "  Variable " + var + " is unbound, evaluation failed");
+            trace(indent + "  Variable " + var + " is unbound, evaluation failed");
             return null;
         }
-        
+
         if (expr instanceof Struct) {
             Struct struct = (Struct) expr;
             Atom functor = struct.getFunctor();
             Term[] args = struct.getArgs();
-            
+
             // Evaluate arguments first
             Term[] evaluatedArgs = new Term[args.length];
             for (int i = 0; i < args.length; i++) {
-                evaluatedArgs[i] = evaluateExpression(args[i]);
+                evaluatedArgs[i] = evaluateExpression(args[i], indent);
                 if (evaluatedArgs[i] == null) {
-                    PrologConfig.trace(indent + "  Failed to evaluate argument " + i);
+                    trace(indent + "  Failed to evaluate argument " + i);
                     return null;
                 }
             }
-            
+
             // Simple arithmetic operators
             switch (functor.getValue()) {
                 case "+":
                     if (args.length != 2) {
-                        PrologConfig.trace(indent + "  Invalid number of arguments for + operator");
+                        trace(indent + "  Invalid number of arguments for + operator");
                         return null;
                     }
                     it.denzosoft.prolog.model.Number left = (it.denzosoft.prolog.model.Number) evaluatedArgs[0];
                     it.denzosoft.prolog.model.Number right = (it.denzosoft.prolog.model.Number) evaluatedArgs[1];
-                    Term result = new it.denzosoft.prolog.model.Number(left.getValue() + right.getValue());
-                    PrologConfig.trace(indent + "  Evaluated " + left + " + " + right + " = " + result);
-                    return result;
-                    
+                    return new it.denzosoft.prolog.model.Number(left.getValue() + right.getValue());
+
                 case "-":
                     if (args.length == 1) { // Unary minus
                         it.denzosoft.prolog.model.Number operand = (it.denzosoft.prolog.model.Number) evaluatedArgs[0];
-                        Term unaryResult = new it.denzosoft.prolog.model.Number(-operand.getValue());
-                        PrologConfig.trace(indent + "  Evaluated -" + operand + " = " + unaryResult);
-                        return unaryResult;
+                        return new it.denzosoft.prolog.model.Number(-operand.getValue());
                     } else if (args.length == 2) { // Binary minus
                         it.denzosoft.prolog.model.Number leftOp = (it.denzosoft.prolog.model.Number) evaluatedArgs[0];
                         it.denzosoft.prolog.model.Number rightOp = (it.denzosoft.prolog.model.Number) evaluatedArgs[1];
-                        Term binaryResult = new it.denzosoft.prolog.model.Number(leftOp.getValue() - rightOp.getValue());
-                        PrologConfig.trace(indent + "  Evaluated " + leftOp + " - " + rightOp + " = " + binaryResult);
-                        return binaryResult;
+                        return new it.denzosoft.prolog.model.Number(leftOp.getValue() - rightOp.getValue());
                     }
-                    PrologConfig.trace(indent + "  Invalid number of arguments for - operator");
+                    trace(indent + "  Invalid number of arguments for - operator");
                     return null;
-                    
+
                 case "*":
                     if (args.length != 2) {
-                        PrologConfig.trace(indent + "  Invalid number of arguments for * operator");
+                        trace(indent + "  Invalid number of arguments for * operator");
                         return null;
                     }
                     it.denzosoft.prolog.model.Number leftMul = (it.denzosoft.prolog.model.Number) evaluatedArgs[0];
                     it.denzosoft.prolog.model.Number rightMul = (it.denzosoft.prolog.model.Number) evaluatedArgs[1];
-                    Term mulResult = new it.denzosoft.prolog.model.Number(leftMul.getValue() * rightMul.getValue());
-                    PrologConfig.trace(indent + "  Evaluated " + leftMul + " * " + rightMul + " = " + mulResult);
-                    return mulResult;
-                    
+                    return new it.denzosoft.prolog.model.Number(leftMul.getValue() * rightMul.getValue());
+
                 case "/":
                     if (args.length != 2) {
-                        PrologConfig.trace(indent + "  Invalid number of arguments for / operator");
+                        trace(indent + "  Invalid number of arguments for / operator");
                         return null;
                     }
                     it.denzosoft.prolog.model.Number leftDiv = (it.denzosoft.prolog.model.Number) evaluatedArgs[0];
                     it.denzosoft.prolog.model.Number rightDiv = (it.denzosoft.prolog.model.Number) evaluatedArgs[1];
                     if (rightDiv.getValue() == 0) {
-                        PrologConfig.trace(indent + "  Division by zero");
+                        trace(indent + "  Division by zero");
+                        return null;
+                    }
+                    return new it.denzosoft.prolog.model.Number(leftDiv.getValue() / rightDiv.getValue());
+
+                case "mod":
+                    if (args.length != 2) {
+                        trace(indent + "  Invalid number of arguments for mod operator");
+                        return null;
+                    }
+                    double dividend = ((it.denzosoft.prolog.model.Number) evaluatedArgs[0]).getValue();
+                    double divisor = ((it.denzosoft.prolog.model.Number) evaluatedArgs[1]).getValue();
+                    if (divisor == 0) {
+                        trace(indent + "  Division by zero");
                         return null;
                     }
-                    Term divResult = new it.denzosoft.prolog.model.Number(leftDiv.getValue() / rightDiv.getValue());
-                    PrologConfig.trace(indent + "  Evaluated " + leftDiv + " / " + rightDiv + " = " + divResult);
-                    return divResult;
-                    
+                    return new it.denzosoft.prolog.model.Number(dividend - divisor * Math.floor(dividend / divisor));
+
                 default:
-                    PrologConfig.trace(indent + "  Unknown operator: " + functor.getValue());
+                    trace(indent + "  Unknown operator: " + functor.getValue());
                     return null;
             }
         }
-        
-        PrologConfig.trace(indent + "  Cannot evaluate expression: " + expr);
+
+        trace(indent + "  Cannot evaluate expression: " + expr);
         return null;
     }
-    
+
+    private void trace(String message) {
+        if (traceEnabled) {
+            System.err.println("[TRACE] " + message);
+        }
+    }
+
+    private void debug(String message) {
+        if (debugEnabled) {
+            System.err.println("[DEBUG] " + message);
+        }
+    }
+
     /**
-     * Gets the current substitution.
+     * Gets the current substitution: every bound variable of the goal, with
+     * its value fully resolved.
      */
     public Map<String, Term> getSubstitution() {
-        return new HashMap<>(substitution);
+        Map<String, Term> substitution = new HashMap<>();
+        for (Variable var : variables.values()) {
+            if (var.isBound()) {
+                substitution.put(var.getName(), Unifier.resolve(var));
+            }
+        }
+        return substitution;
+    }
+
+    /**
+     * Gets the names of the variables of a goal in the order they first
+     * occur, the columns of its answer rows.
+     */
+    static String[] columns(Term goal) {
+        Map<String, Variable> variables = new LinkedHashMap<>();
+        collectVariables(goal, variables);
+        return variables.keySet().toArray(new String[0]);
+    }
+
+    private static void collectVariables(Term term, Map<String, Variable> variables) {
+        Deque<Term> pending = new ArrayDeque<>();
+        pending.push(term);
+        while (!pending.isEmpty()) {
+            Term current = pending.pop();
+            if (current instanceof Variable) {
+                Variable var = (Variable) current;
+                if (var.isBound()) {
+                    pending.push(var.getBinding());
+                } else if (!var.getName().equals("_")) {
+                    variables.putIfAbsent(var.getName(), var);
+                }
+            } else if (current instanceof Struct) {
+                Struct struct = (Struct) current;
+                for (int i = struct.getArity() - 1; i >= 0; i--) {
+                    pending.push(struct.getArg(i));
+                }
+            } else if (current instanceof it.denzosoft.prolog.model.List) {
+                it.denzosoft.prolog.model.List list = (it.denzosoft.prolog.model.List) current;
+                pending.push(list.getTail());
+                pending.push(list.getHead());
+            }
+        }
+    }
+
+    /**
+     * Enumerates the answers of a table under batched scheduling, running
+     * the evaluation only when the answers found so far are used up.
+     */
+    private static final class IncrementalAnswers implements Iterator<Clause> {
+        private final SubgoalTable table;
+        private final Evaluation evaluation;
+        private final Object lock;
+        private int position = 0;
+
+        private IncrementalAnswers(SubgoalTable table, Evaluation evaluation, Object lock) {
+            this.table = table;
+            this.evaluation = evaluation;
+            this.lock = lock;
+        }
+
+        @Override
+        public boolean hasNext() {
+            synchronized (lock) {
+                while (position >= table.getAnswerCount() && evaluation.step()) {
+                    // evaluate until an answer appears or the table is complete
+                }
+                return position < table.getAnswerCount();
+            }
+        }
+
+        @Override
+        public Clause next() {
+            synchronized (lock) {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return table.getAnswers().get(position++);
+            }
+        }
+    }
+
+    /**
+     * The structures a query fills as it runs, which an {@link Engine}
+     * hands from one query to the next instead of allocating them anew.
+     */
+    static final class Stacks {
+        private final Trail trail = new Trail();
+        private final ArrayList<ChoicePoint> choicepoints = new ArrayList<>();
+        private final Map<String, Variable> variables = new LinkedHashMap<>();
+
+        /**
+         * Empties the structures, keeping their capacity.
+         */
+        void reset() {
+            trail.reset();
+            choicepoints.clear();
+            variables.clear();
+        }
+    }
+
+    /**
+     * A pending goal, linked to the goals that follow it.
+     */
+    private static final class Goals {
+        private final Term goal;
+        private final int cutBarrier;
+        private final int depth;
+        private final Goals next;
+
+        private Goals(Term goal, int cutBarrier, int depth, Goals next) {
+            this.goal = goal;
+            this.cutBarrier = cutBarrier;
+            this.depth = depth;
+            this.next = next;
+        }
+    }
+
+    /**
+     * A point to resume the search from: either the remaining clauses of a
+     * predicate call or an alternative goal.
+     */
+    private static final class ChoicePoint {
+        private final int trailMark;
+        private final Goals continuation;
+        private final int depth;
+        private final Term goal;
+        private final Iterator<Clause> clauses;
+        private final Term alternative;
+        private final int cutBarrier;
+        private Clause pending;
+        private long serialMark;
+        private NondeterministicPredicate.Redo redo;
+
+        private ChoicePoint(int trailMark, Goals continuation, Term goal, Iterator<Clause> clauses, int depth) {
+            this.trailMark = trailMark;
+            this.continuation = continuation;
+            this.depth = depth;
+            this.goal = goal;
+            this.clauses = clauses;
+            this.alternative = null;
+            this.cutBarrier = 0;
+        }
+
+        private ChoicePoint(int trailMark, Goals continuation, Term alternative, int cutBarrier, int depth) {
+            this.trailMark = trailMark;
+            this.continuation = continuation;
+            this.depth = depth;
+            this.goal = null;
+            this.clauses = null;
+            this.alternative = alternative;
+            this.cutBarrier = cutBarrier;
+        }
     }
 }
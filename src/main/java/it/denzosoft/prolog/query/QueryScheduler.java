@@ -0,0 +1,224 @@
+package it.denzosoft.prolog.query;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.Term;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Interleaves many queries on a few carrier threads by running each in
+ * slices of a fixed number of inferences.
+ * <p>
+ * A query that has used up its slice goes back to the end of the queue of
+ * its priority class, so a cheap query waits for at most one slice of
+ * each query ahead of it instead of for their completion. Carriers pick
+ * the next query by weighted round robin over the classes: out of every
+ * seven slices, four go to {@link Priority#HIGH}, two to
+ * {@link Priority#NORMAL} and one to {@link Priority#LOW}, and a turn
+ * whose class has nothing queued passes to the next class, so that no
+ * class starves. A query may be given a quota of CPU time, measured per
+ * slice on the carrier, beyond which it fails with a
+ * {@link ResourceLimitException}.
+ */
+public class QueryScheduler implements AutoCloseable {
+    public static final long DEFAULT_SLICE = 1000;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+    private static final Priority[] TURNS = {
+            Priority.HIGH, Priority.NORMAL, Priority.HIGH, Priority.LOW,
+            Priority.HIGH, Priority.NORMAL, Priority.HIGH};
+
+    /**
+     * The priority classes of queries.
+     */
+    public enum Priority { HIGH, NORMAL, LOW }
+
+    private final EnginePool engines;
+    private final long slice;
+    private final java.util.List<ArrayDeque<ScheduledQuery>> queues = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ready = lock.newCondition();
+    private final Thread[] carriers;
+    private int turn = 0;
+    private int running = 0;
+    private boolean closed = false;
+
+    /**
+     * @param carriers the number of carrier threads
+     * @param slice the inferences a query runs before yielding
+     */
+    public QueryScheduler(EnginePool engines, int carriers, long slice) {
+        this.engines = engines;
+        this.slice = slice;
+        for (int i = 0; i < Priority.values().length; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+        this.carriers = new Thread[carriers];
+        for (int i = 0; i < carriers; i++) {
+            this.carriers[i] = new Thread(this::carry, "query-carrier-" + i);
+            this.carriers[i].setDaemon(true);
+            this.carriers[i].start();
+        }
+    }
+
+    public QueryScheduler(Database database, int carriers) {
+        this(new EnginePool(database), carriers, DEFAULT_SLICE);
+    }
+
+    /**
+     * Submits a query of normal priority without quota.
+     */
+    public ScheduledQuery submit(Term goal) {
+        return submit(goal, Priority.NORMAL, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Submits a query.
+     * @param cpuQuota the CPU time the query may use, or 0 for no limit
+     */
+    public ScheduledQuery submit(Term goal, Priority priority, long cpuQuota, TimeUnit unit) {
+        ScheduledQuery query = new ScheduledQuery(Terms.copy(goal), priority, unit.toNanos(cpuQuota));
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Scheduler is closed");
+            }
+            queues.get(priority.ordinal()).addLast(query);
+            ready.signal();
+        } finally {
+            lock.unlock();
+        }
+        return query;
+    }
+
+    /**
+     * Gets the number of queries waiting for a carrier.
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            int depth = 0;
+            for (ArrayDeque<ScheduledQuery> queue : queues) {
+                depth += queue.size();
+            }
+            return depth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of queries of a class waiting for a carrier.
+     */
+    public int getQueueDepth(Priority priority) {
+        lock.lock();
+        try {
+            return queues.get(priority.ordinal()).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of queries running a slice.
+     */
+    public int getRunningCount() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the carriers; queries still queued are cancelled and their
+     * engines returned to the pool.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            for (ArrayDeque<ScheduledQuery> queue : queues) {
+                for (ScheduledQuery query : queue) {
+                    query.cancel();
+                    query.release();
+                }
+                queue.clear();
+            }
+            ready.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void carry() {
+        while (true) {
+            ScheduledQuery query;
+            lock.lock();
+            try {
+                while ((query = next()) == null) {
+                    if (closed) {
+                        return;
+                    }
+                    ready.awaitUninterruptibly();
+                }
+                running++;
+            } finally {
+                lock.unlock();
+            }
+            boolean over = query.runSlice(engines, slice);
+            lock.lock();
+            try {
+                running--;
+                if (!over) {
+                    if (closed) {
+                        query.cancel();
+                        query.runSlice(engines, slice);
+                    } else {
+                        queues.get(query.getPriority().ordinal()).addLast(query);
+                        ready.signal();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Takes the query whose turn it is; the caller holds the lock.
+     */
+    private ScheduledQuery next() {
+        for (int i = 0; i < TURNS.length; i++) {
+            Priority priority = TURNS[turn];
+            turn = (turn + 1) % TURNS.length;
+            ScheduledQuery query = queues.get(priority.ordinal()).pollFirst();
+            if (query != null) {
+                return query;
+            }
+        }
+        for (ArrayDeque<ScheduledQuery> queue : queues) {
+            if (!queue.isEmpty()) {
+                return queue.pollFirst();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the CPU time of the current thread, or the wall-clock time if the
+     * JVM cannot measure it.
+     */
+    static long cpuTime() {
+        return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+}
@@ -0,0 +1,73 @@
+package it.denzosoft.prolog.query;
+
+
+/**
+ * Counters describing how a query was executed so far.
+ */
+public class QueryStatistics {
+    private final long calls;
+    private final long deterministicCalls;
+    private final long lastClauseTries;
+    private final long choicePoints;
+    private final long inferences;
+    private final long untrailedBindings;
+
+    public QueryStatistics(long calls, long deterministicCalls, long lastClauseTries,
+                           long choicePoints, long inferences, long untrailedBindings) {
+        this.calls = calls;
+        this.deterministicCalls = deterministicCalls;
+        this.lastClauseTries = lastClauseTries;
+        this.choicePoints = choicePoints;
+        this.inferences = inferences;
+        this.untrailedBindings = untrailedBindings;
+    }
+
+    /**
+     * Gets the number of user predicate calls.
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * Gets the number of calls for which indexing left a single candidate
+     * clause, so no choicepoint was created.
+     */
+    public long getDeterministicCalls() {
+        return deterministicCalls;
+    }
+
+    /**
+     * Gets the number of times the last candidate clause of a call was tried
+     * after its choicepoint had been dropped.
+     */
+    public long getLastClauseTries() {
+        return lastClauseTries;
+    }
+
+    /**
+     * Gets the number of choicepoints created, including those of control
+     * constructs.
+     */
+    public long getChoicePoints() {
+        return choicePoints;
+    }
+
+    public long getInferences() {
+        return inferences;
+    }
+
+    /**
+     * Gets the number of bindings that did not need a trail entry.
+     */
+    public long getUntrailedBindings() {
+        return untrailedBindings;
+    }
+
+    @Override
+    public String toString() {
+        return "calls=" + calls + ", deterministic=" + deterministicCalls
+                + ", lastClause=" + lastClauseTries + ", choicepoints=" + choicePoints
+                + ", inferences=" + inferences + ", untrailed=" + untrailedBindings;
+    }
+}
@@ -0,0 +1,42 @@
+package it.denzosoft.prolog.query;
+
+
+/**
+ * Thrown when a query uses up a resource it was allowed. The query is
+ * aborted: its bindings are undone and it reports no further solutions.
+ */
+public class ResourceLimitException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The resources a query may be limited in.
+     */
+    public enum Limit { INFERENCES, DEPTH, TIME, STACK, CPU_TIME }
+
+    private final Limit limit;
+    private final QueryStatistics statistics;
+
+    /**
+     * @param statistics the counters of the query when it was aborted, or
+     *                   null if it had not started
+     */
+    public ResourceLimitException(Limit limit, String message, QueryStatistics statistics) {
+        super(message);
+        this.limit = limit;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Gets the resource that was used up.
+     */
+    public Limit getLimit() {
+        return limit;
+    }
+
+    /**
+     * Gets the counters of the query up to the moment it was aborted.
+     */
+    public QueryStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -0,0 +1,136 @@
+package it.denzosoft.prolog.query;
+
+import it.denzosoft.prolog.model.Term;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * A query run in time slices by a {@link QueryScheduler}, with the
+ * resources it has consumed so far.
+ * <p>
+ * The query collects all its answers; {@link #getAnswers()} completes with
+ * them, or exceptionally with a {@link ResourceLimitException} once the
+ * query exceeds its CPU-time quota. Cancelling the future, or calling
+ * {@link #cancel()}, drops the query at its next slice.
+ */
+public class ScheduledQuery {
+    private final Term goal;
+    private final QueryScheduler.Priority priority;
+    private final long cpuQuota;
+    private final CompletableFuture<java.util.List<Map<String, Term>>> answers = new CompletableFuture<>();
+    private final java.util.List<Map<String, Term>> found = new ArrayList<>();
+    private Engine engine;
+    private Query query;
+    private volatile long inferences = 0;
+    private volatile long cpuTime = 0;
+    private volatile int slices = 0;
+
+    ScheduledQuery(Term goal, QueryScheduler.Priority priority, long cpuQuota) {
+        this.goal = goal;
+        this.priority = priority;
+        this.cpuQuota = cpuQuota;
+    }
+
+    public Term getGoal() {
+        return goal;
+    }
+
+    public QueryScheduler.Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Gets the future of all answers.
+     */
+    public CompletableFuture<java.util.List<Map<String, Term>>> getAnswers() {
+        return answers;
+    }
+
+    /**
+     * Gets the inferences made so far.
+     */
+    public long getInferenceCount() {
+        return inferences;
+    }
+
+    /**
+     * Gets the CPU time consumed so far, in nanoseconds.
+     */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * Gets the number of slices the query has run.
+     */
+    public int getSliceCount() {
+        return slices;
+    }
+
+    public boolean isDone() {
+        return answers.isDone();
+    }
+
+    public void cancel() {
+        answers.cancel(false);
+    }
+
+    /**
+     * Runs the query for one slice on the calling thread.
+     * @param budget the inferences of the slice
+     * @return true if the query is over
+     */
+    boolean runSlice(EnginePool engines, long budget) {
+        if (answers.isDone()) {
+            release();
+            return true;
+        }
+        long start = QueryScheduler.cpuTime();
+        try {
+            if (query == null) {
+                engine = engines.acquire();
+                query = engine.query(goal);
+            }
+            long end = query.getInferenceCount() + budget;
+            Query.Progress progress;
+            do {
+                progress = query.advance(Math.max(1, end - query.getInferenceCount()));
+                if (progress == Query.Progress.SOLUTION) {
+                    found.add(query.getSubstitution());
+                }
+            } while (progress == Query.Progress.SOLUTION && query.getInferenceCount() < end);
+            inferences = query.getInferenceCount();
+            if (progress == Query.Progress.EXHAUSTED) {
+                answers.complete(found);
+            }
+        } catch (RuntimeException e) {
+            answers.completeExceptionally(e);
+        } finally {
+            slices++;
+            cpuTime += QueryScheduler.cpuTime() - start;
+        }
+        if (!answers.isDone() && cpuQuota > 0 && cpuTime > cpuQuota) {
+            answers.completeExceptionally(new ResourceLimitException(ResourceLimitException.Limit.CPU_TIME,
+                    "CPU-time quota of " + cpuQuota / 1_000_000 + " ms exceeded by " + goal,
+                    query != null ? query.getStatistics() : null));
+        }
+        if (answers.isDone()) {
+            release();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the engine of a query that is over, or will not run again, to
+     * its pool.
+     */
+    void release() {
+        if (engine != null) {
+            engine.close();
+            engine = null;
+        }
+    }
+}
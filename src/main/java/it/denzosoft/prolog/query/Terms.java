@@ -0,0 +1,93 @@
+package it.denzosoft.prolog.query;
+
+import it.denzosoft.prolog.engine.Unifier;
+import it.denzosoft.prolog.model.*;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+/**
+ * The walks over goals shared by the queries that hand goals to other
+ * queries: looking for cuts and copying goals apart from their bindings.
+ * <p>
+ * Copies carry variables of serial 0, so that the query running them
+ * always trails their bindings.
+ */
+final class Terms {
+    private static final Atom CUT = new Atom("!");
+
+    private Terms() {
+    }
+
+    /**
+     * Checks whether a cut occurs anywhere in a goal.
+     */
+    static boolean containsCut(Term term) {
+        term = Unifier.deref(term);
+        if (term instanceof Atom) {
+            return term.equals(CUT);
+        }
+        if (term instanceof Struct) {
+            for (int i = 0; i < ((Struct) term).getArity(); i++) {
+                if (containsCut(((Struct) term).getArg(i))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies a goal with fresh variables of the same names, each
+     * anonymous variable staying distinct.
+     */
+    static Term copy(Term goal) {
+        return copy(goal, new IdentityHashMap<>(), true);
+    }
+
+    /**
+     * Copies a term, resolving its bindings and replacing its unbound
+     * variables with fresh ones. Terms copied with the same map share the
+     * copies of their common variables.
+     */
+    static Term snapshot(Term term, Map<Variable, Variable> fresh) {
+        return copy(term, fresh, false);
+    }
+
+    private static Term copy(Term term, Map<Variable, Variable> fresh, boolean keepNames) {
+        term = Unifier.deref(term);
+        if (term instanceof Variable) {
+            Variable copy = fresh.get(term);
+            if (copy == null) {
+                copy = new Variable(keepNames ? ((Variable) term).getName() : "_P" + fresh.size());
+                fresh.put((Variable) term, copy);
+            }
+            return copy;
+        }
+        if (term instanceof Struct) {
+            Struct struct = (Struct) term;
+            Term[] args = new Term[struct.getArity()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = copy(struct.getArg(i), fresh, keepNames);
+            }
+            return new Struct(struct.getFunctor(), args);
+        }
+        if (term instanceof it.denzosoft.prolog.model.List) {
+            // Copy the spine iteratively so long lists do not overflow the stack
+            java.util.List<Term> heads = new ArrayList<>();
+            Term current = term;
+            while (current instanceof it.denzosoft.prolog.model.List) {
+                it.denzosoft.prolog.model.List cell = (it.denzosoft.prolog.model.List) current;
+                heads.add(copy(cell.getHead(), fresh, keepNames));
+                current = Unifier.deref(cell.getTail());
+            }
+            Term result = copy(current, fresh, keepNames);
+            for (int i = heads.size() - 1; i >= 0; i--) {
+                result = new it.denzosoft.prolog.model.List(heads.get(i), result);
+            }
+            return result;
+        }
+        return term;
+    }
+}
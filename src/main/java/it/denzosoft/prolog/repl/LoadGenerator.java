@@ -0,0 +1,109 @@
+package it.denzosoft.prolog.repl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Sends a query over many connections to a {@link QueryServer} for a
+ * while, then reports the latency percentiles and the throughput.
+ * <p>
+ * Each connection runs on its own thread and sends the next query as soon
+ * as the answers to the previous one are in. Latency is measured from
+ * sending a query to receiving its {@code end} line.
+ */
+public class LoadGenerator {
+    private final String host;
+    private final int port;
+    private final String goal;
+    private final int connections;
+    private final long millis;
+
+    public LoadGenerator(String host, int port, String goal, int connections, long millis) {
+        this.host = host;
+        this.port = port;
+        this.goal = goal;
+        this.connections = connections;
+        this.millis = millis;
+    }
+
+    /**
+     * Runs the load.
+     * @return the latencies in nanoseconds, sorted
+     */
+    public long[] run() throws IOException, InterruptedException {
+        long[][] latencies = new long[connections][];
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[connections];
+        QueryClient[] clients = new QueryClient[connections];
+        for (int c = 0; c < connections; c++) {
+            clients[c] = new QueryClient(host, port);
+        }
+        long deadline = System.nanoTime() + millis * 1_000_000;
+        for (int c = 0; c < connections; c++) {
+            int index = c;
+            threads[c] = new Thread(() -> {
+                long[] samples = new long[1024];
+                int n = 0;
+                try (QueryClient client = clients[index]) {
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        client.query(goal);
+                        if (n == samples.length) {
+                            samples = Arrays.copyOf(samples, n * 2);
+                        }
+                        samples[n++] = System.nanoTime() - start;
+                    }
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                }
+                latencies[index] = Arrays.copyOf(samples, n);
+            });
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new IOException("Load failed: " + failure.get().getMessage(), failure.get());
+        }
+        long[] all = new long[0];
+        for (long[] samples : latencies) {
+            int from = all.length;
+            all = Arrays.copyOf(all, from + samples.length);
+            System.arraycopy(samples, 0, all, from, samples.length);
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    /**
+     * Gets a percentile of sorted latencies.
+     */
+    public static long percentile(long[] sorted, double percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percent / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Runs a load: {@code LoadGenerator [goal [connections [seconds [port [host]]]]]}.
+     */
+    public static void main(String[] args) throws Exception {
+        String goal = args.length > 0 ? args[0] : "true";
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 10;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : QueryServer.DEFAULT_PORT;
+        String host = args.length > 4 ? args[4] : "localhost";
+
+        long[] latencies = new LoadGenerator(host, port, goal, connections, seconds * 1000).run();
+        System.out.printf("%d queries over %d connections in %d s: %.0f queries/s%n",
+                latencies.length, connections, seconds, latencies.length / (double) seconds);
+        System.out.printf("latency p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6,
+                latencies.length > 0 ? latencies[latencies.length - 1] / 1e6 : 0.0);
+    }
+}
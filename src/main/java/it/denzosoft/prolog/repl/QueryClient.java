@@ -0,0 +1,80 @@
+package it.denzosoft.prolog.repl;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A connection to a {@link QueryServer}.
+ */
+public class QueryClient implements Closeable {
+    private final Socket socket;
+    private final BufferedReader in;
+    private final Writer out;
+
+    public QueryClient(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Runs a query and waits for all its answers.
+     * @return the answer lines, without their {@code answer} prefix
+     * @throws IOException if the server reports an error
+     */
+    public List<String> query(String goal) throws IOException {
+        send("?- " + goal);
+        List<String> answers = new ArrayList<>();
+        String line;
+        while ((line = receive()).startsWith("answer ")) {
+            answers.add(line.substring(7));
+        }
+        if (!line.startsWith("end ")) {
+            throw new IOException("Unexpected reply: " + line);
+        }
+        return answers;
+    }
+
+    /**
+     * Adds a clause to the database of the server.
+     * @throws IOException if the server reports an error
+     */
+    public void tell(String clause) throws IOException {
+        send(clause.endsWith(".") ? clause : clause + ".");
+        String line = receive();
+        if (!line.equals("ok")) {
+            throw new IOException("Unexpected reply: " + line);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            send("halt.");
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void send(String line) throws IOException {
+        out.write(line);
+        out.write('\n');
+        out.flush();
+    }
+
+    private String receive() throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            throw new EOFException("Connection closed by server");
+        }
+        if (line.startsWith("error ")) {
+            throw new IOException(line.substring(6));
+        }
+        return line;
+    }
+}
@@ -0,0 +1,318 @@
+package it.denzosoft.prolog.repl;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.*;
+import it.denzosoft.prolog.query.Engine;
+import it.denzosoft.prolog.query.EnginePool;
+import it.denzosoft.prolog.query.Query;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Serves queries on a database over a local TCP port.
+ * <p>
+ * The protocol is line based, in UTF-8. Each request is one line:
+ * <ul>
+ * <li>{@code ?- Goal.} or a goal without final period runs a query. Every
+ * answer is sent as soon as it is found, as {@code answer X = v, ...}
+ * with the bound variables in name order, or {@code answer true} when
+ * none is bound; then {@code end N} gives the number of answers.</li>
+ * <li>A clause ending with a period is added to the database, answered
+ * by {@code ok}.</li>
+ * <li>{@code halt.} closes the connection.</li>
+ * </ul>
+ * A request that cannot be parsed or run is answered by
+ * {@code error Message}. All connections share one database, which is
+ * safe to query and update concurrently, and run their queries on engines
+ * from a shared {@link EnginePool}.
+ * <p>
+ * Each connection is served on a thread of its own: a virtual thread when
+ * the Java runtime provides them, a pooled platform thread otherwise.
+ * Beyond the connection limit, new connections are sent
+ * {@code error server busy} and closed; beyond the query limit, queries
+ * wait for a running one to finish.
+ * <p>
+ * A query runs under a time limit and, if one is set, an inference limit;
+ * exceeding either ends its answers with an {@code error} line. A query
+ * whose answer cannot be written, because the client has gone, is
+ * cancelled, and so are the running queries when the server is closed.
+ */
+public class QueryServer implements Closeable {
+    public static final int DEFAULT_PORT = 7474;
+    public static final long DEFAULT_TIME_LIMIT_SECONDS = 60;
+
+    private final Database database;
+    private final EnginePool engines;
+    private final int port;
+    private final Semaphore connections;
+    private final Semaphore queries;
+    private final AtomicLong served = new AtomicLong();
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private final Set<Query> running = ConcurrentHashMap.newKeySet();
+    private volatile long timeLimit = TimeUnit.SECONDS.toNanos(DEFAULT_TIME_LIMIT_SECONDS);
+    private volatile long inferenceLimit = 0;
+    private ServerSocket socket;
+    private ExecutorService executor;
+    private Thread acceptor;
+
+    /**
+     * @param port the port to listen on, or 0 for any free port
+     * @param maxConnections the number of connections served at once
+     * @param maxQueries the number of queries run at once
+     */
+    public QueryServer(Database database, int port, int maxConnections, int maxQueries) {
+        this.database = database;
+        this.engines = new EnginePool(database, maxQueries);
+        this.port = port;
+        this.connections = new Semaphore(maxConnections);
+        this.queries = new Semaphore(maxQueries, true);
+    }
+
+    /**
+     * Starts listening on the loopback interface.
+     */
+    public void start() throws IOException {
+        socket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        executor = newConnectionExecutor();
+        acceptor = new Thread(this::accept, "query-server-" + socket.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Gets the port the server listens on.
+     */
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    public Database getDatabase() {
+        return database;
+    }
+
+    /**
+     * Sets the wall-clock time each query may run.
+     * @param timeout the time, or 0 for no limit
+     */
+    public void setTimeLimit(long timeout, TimeUnit unit) {
+        this.timeLimit = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sets the number of inferences each query may make.
+     * @param limit the number, or 0 for no limit
+     */
+    public void setInferenceLimit(long limit) {
+        this.inferenceLimit = limit;
+    }
+
+    /**
+     * Gets the number of queries run so far.
+     */
+    public long getQueryCount() {
+        return served.get();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        for (Socket client : open) {
+            client.close();
+        }
+        for (Query query : running) {
+            query.cancel();
+        }
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            Socket client;
+            try {
+                client = socket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            if (!connections.tryAcquire()) {
+                refuse(client);
+                continue;
+            }
+            open.add(client);
+            executor.execute(() -> {
+                try {
+                    serve(client);
+                } finally {
+                    open.remove(client);
+                    connections.release();
+                }
+            });
+        }
+    }
+
+    private static void refuse(Socket client) {
+        try (Socket refused = client) {
+            refused.getOutputStream().write("error server busy\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // the client is gone already
+        }
+    }
+
+    private void serve(Socket client) {
+        try (Socket connection = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8))) {
+            connection.setTcpNoDelay(true);
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.equals("halt.") || line.equals("halt")) {
+                    break;
+                }
+                try {
+                    handle(line, out);
+                } catch (Exception e) {
+                    out.write("error " + String.valueOf(e.getMessage()).replace('\n', ' ') + "\n");
+                }
+                out.flush();
+            }
+        } catch (SocketException e) {
+            // the connection was closed by the client or by close()
+        } catch (IOException e) {
+            System.err.println("Connection error: " + e.getMessage());
+        }
+    }
+
+    private void handle(String line, Writer out) throws Exception {
+        if (line.startsWith("?-")) {
+            line = line.substring(2).trim();
+        } else if (line.endsWith(".")) {
+            database.addClause(Parser.parseClauseFromString(line));
+            out.write("ok\n");
+            return;
+        }
+        if (line.endsWith(".")) {
+            line = line.substring(0, line.length() - 1);
+        }
+        Term goal = Parser.parseTermFromString(line);
+        queries.acquire();
+        try (Engine engine = engines.acquire()) {
+            served.incrementAndGet();
+            Query query = engine.query(goal);
+            if (timeLimit > 0) {
+                query.setTimeLimit(timeLimit, TimeUnit.NANOSECONDS);
+            }
+            if (inferenceLimit > 0) {
+                query.setInferenceLimit(inferenceLimit);
+            }
+            running.add(query);
+            try {
+                int count = 0;
+                Map<String, Term> solution;
+                while ((solution = query.nextSolution()) != null) {
+                    out.write(format(solution));
+                    out.flush();
+                    count++;
+                }
+                out.write("end " + count + "\n");
+            } catch (IOException e) {
+                // The client is gone, so no one waits for further answers
+                query.cancel();
+                throw e;
+            } finally {
+                running.remove(query);
+            }
+        } finally {
+            queries.release();
+        }
+    }
+
+    private static String format(Map<String, Term> solution) {
+        if (solution.isEmpty()) {
+            return "answer true\n";
+        }
+        StringBuilder sb = new StringBuilder("answer ");
+        for (Map.Entry<String, Term> binding : new TreeMap<>(solution).entrySet()) {
+            if (sb.length() > 7) {
+                sb.append(", ");
+            }
+            sb.append(binding.getKey()).append(" = ").append(binding.getValue());
+        }
+        return sb.append('\n').toString();
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task when the
+     * runtime has them, and a cached pool of daemon threads otherwise.
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "query-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Loads the clauses of a program file into a database.
+     */
+    public static void consult(Database database, File file) throws IOException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            Parser parser = new Parser(new Lexer(reader));
+            while (!parser.isAtEnd()) {
+                database.addClause(parser.parseClause());
+            }
+        }
+    }
+
+    /**
+     * Runs a server: {@code QueryServer [port [maxConnections [maxQueries]]] [file...]}.
+     */
+    public static void main(String[] args) throws IOException {
+        int[] limits = {DEFAULT_PORT, 1000, Runtime.getRuntime().availableProcessors() * 2};
+        int n = 0;
+        while (n < args.length && n < limits.length && args[n].matches("\\d+")) {
+            limits[n] = Integer.parseInt(args[n]);
+            n++;
+        }
+        Database database = new Database();
+        for (; n < args.length; n++) {
+            consult(database, new File(args[n]));
+        }
+        QueryServer server = new QueryServer(database, limits[0], limits[1], limits[2]);
+        server.start();
+        System.out.println("Serving queries on localhost:" + server.getPort());
+        try {
+            server.acceptor.join();
+        } catch (InterruptedException e) {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package it.denzosoft.prolog.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+
+/**
+ * A paged B+tree of (key, value) pairs of longs, ordered by key then value.
+ * Duplicate keys are allowed; the value disambiguates entries, so the pairs
+ * for one key are kept in ascending value order. Deletion removes entries
+ * from leaves without rebalancing.
+ */
+public class BPlusTree implements Closeable {
+    private static final int MAGIC = 0x50424931; // "PBI1"
+    private static final byte LEAF = 0;
+    private static final byte INTERNAL = 1;
+    private static final int NODE_HEADER = 16;
+    private static final int LEAF_CAPACITY = (BufferCache.PAGE_SIZE - NODE_HEADER) / 16;
+    private static final int INTERNAL_CAPACITY = (BufferCache.PAGE_SIZE - NODE_HEADER - 8) / 24;
+
+    private final PagedFile file;
+    private long root;
+    private long pageCount;
+
+    public BPlusTree(Path path, BufferCache cache) throws IOException {
+        this.file = new PagedFile(path, cache);
+        if (file.length() < BufferCache.PAGE_SIZE || readHeaderMagic() != MAGIC) {
+            reset();
+        } else {
+            ByteBuffer header = ByteBuffer.wrap(file.page(0).getData());
+            root = header.getLong(4);
+            pageCount = header.getLong(12);
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void reset() throws IOException {
+        file.truncate(0);
+        pageCount = 1;
+        root = allocate();
+        Node leaf = new Node(LEAF, 0);
+        writeNode(root, leaf);
+        writeHeader();
+    }
+
+    /**
+     * Inserts a (key, value) pair.
+     */
+    public void insert(long key, long value) throws IOException {
+        Split split = insert(root, key, value);
+        if (split != null) {
+            Node newRoot = new Node(INTERNAL, 1);
+            newRoot.children[0] = root;
+            newRoot.keys[0] = split.key;
+            newRoot.values[0] = split.value;
+            newRoot.children[1] = split.page;
+            root = allocate();
+            writeNode(root, newRoot);
+        }
+        writeHeader();
+    }
+
+    /**
+     * Removes a (key, value) pair.
+     * @return true if the pair was present
+     */
+    public boolean delete(long key, long value) throws IOException {
+        long pageNo = findLeaf(key, value);
+        Node leaf = readNode(pageNo);
+        int pos = leaf.lowerBound(key, value);
+        if (pos < leaf.count && leaf.keys[pos] == key && leaf.values[pos] == value) {
+            leaf.remove(pos);
+            writeNode(pageNo, leaf);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Collects the values stored under a key, in ascending order.
+     */
+    public long[] lookup(long key) throws IOException {
+        long[] result = new long[8];
+        int size = 0;
+        long pageNo = findLeaf(key, Long.MIN_VALUE);
+        Node leaf = readNode(pageNo);
+        int pos = leaf.lowerBound(key, Long.MIN_VALUE);
+        while (true) {
+            if (pos >= leaf.count) {
+                if (leaf.next == 0) {
+                    break;
+                }
+                leaf = readNode(leaf.next);
+                pos = 0;
+                continue;
+            }
+            if (leaf.keys[pos] != key) {
+                break;
+            }
+            if (size == result.length) {
+                long[] grown = new long[size * 2];
+                System.arraycopy(result, 0, grown, 0, size);
+                result = grown;
+            }
+            result[size++] = leaf.values[pos++];
+        }
+        long[] exact = new long[size];
+        System.arraycopy(result, 0, exact, 0, size);
+        return exact;
+    }
+
+    /**
+     * Writes back dirty pages and forces the index file to the device.
+     */
+    public void force() throws IOException {
+        file.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private long findLeaf(long key, long value) throws IOException {
+        long pageNo = root;
+        Node node = readNode(pageNo);
+        while (node.type == INTERNAL) {
+            pageNo = node.children[node.upperBound(key, value)];
+            node = readNode(pageNo);
+        }
+        return pageNo;
+    }
+
+    private Split insert(long pageNo, long key, long value) throws IOException {
+        Node node = readNode(pageNo);
+        if (node.type == LEAF) {
+            int pos = node.lowerBound(key, value);
+            node.insert(pos, key, value, 0);
+            if (node.count <= LEAF_CAPACITY) {
+                writeNode(pageNo, node);
+                return null;
+            }
+            int half = node.count / 2;
+            Node right = new Node(LEAF, node.count - half);
+            System.arraycopy(node.keys, half, right.keys, 0, right.count);
+            System.arraycopy(node.values, half, right.values, 0, right.count);
+            long rightPage = allocate();
+            right.next = node.next;
+            node.next = rightPage;
+            node.count = half;
+            writeNode(pageNo, node);
+            writeNode(rightPage, right);
+            return new Split(right.keys[0], right.values[0], rightPage);
+        }
+
+        int childIndex = node.upperBound(key, value);
+        Split childSplit = insert(node.children[childIndex], key, value);
+        if (childSplit == null) {
+            return null;
+        }
+        // The child may have evicted this page from the cache, so re-read it
+        node = readNode(pageNo);
+        node.insert(childIndex, childSplit.key, childSplit.value, childSplit.page);
+        if (node.count <= INTERNAL_CAPACITY) {
+            writeNode(pageNo, node);
+            return null;
+        }
+        int middle = node.count / 2;
+        Node right = new Node(INTERNAL, node.count - middle - 1);
+        System.arraycopy(node.keys, middle + 1, right.keys, 0, right.count);
+        System.arraycopy(node.values, middle + 1, right.values, 0, right.count);
+        System.arraycopy(node.children, middle + 1, right.children, 0, right.count + 1);
+        Split split = new Split(node.keys[middle], node.values[middle], allocate());
+        node.count = middle;
+        writeNode(pageNo, node);
+        writeNode(split.page, right);
+        return split;
+    }
+
+    private long allocate() {
+        return pageCount++;
+    }
+
+    private int readHeaderMagic() throws IOException {
+        return ByteBuffer.wrap(file.page(0).getData()).getInt(0);
+    }
+
+    private void writeHeader() throws IOException {
+        BufferCache.Page page = file.page(0);
+        ByteBuffer header = ByteBuffer.wrap(page.getData());
+        header.putInt(0, MAGIC);
+        header.putLong(4, root);
+        header.putLong(12, pageCount);
+        page.markDirty();
+    }
+
+    private Node readNode(long pageNo) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(file.page(pageNo).getData());
+        Node node = new Node(buffer.get(0), buffer.getInt(4));
+        node.next = buffer.getLong(8);
+        if (node.type == LEAF) {
+            for (int i = 0; i < node.count; i++) {
+                node.keys[i] = buffer.getLong(NODE_HEADER + i * 16);
+                node.values[i] = buffer.getLong(NODE_HEADER + i * 16 + 8);
+            }
+        } else {
+            node.children[0] = buffer.getLong(NODE_HEADER);
+            for (int i = 0; i < node.count; i++) {
+                int base = NODE_HEADER + 8 + i * 24;
+                node.keys[i] = buffer.getLong(base);
+                node.values[i] = buffer.getLong(base + 8);
+                node.children[i + 1] = buffer.getLong(base + 16);
+            }
+        }
+        return node;
+    }
+
+    private void writeNode(long pageNo, Node node) throws IOException {
+        BufferCache.Page page = file.page(pageNo);
+        ByteBuffer buffer = ByteBuffer.wrap(page.getData());
+        buffer.put(0, node.type);
+        buffer.putInt(4, node.count);
+        buffer.putLong(8, node.next);
+        if (node.type == LEAF) {
+            for (int i = 0; i < node.count; i++) {
+                buffer.putLong(NODE_HEADER + i * 16, node.keys[i]);
+                buffer.putLong(NODE_HEADER + i * 16 + 8, node.values[i]);
+            }
+        } else {
+            buffer.putLong(NODE_HEADER, node.children[0]);
+            for (int i = 0; i < node.count; i++) {
+                int base = NODE_HEADER + 8 + i * 24;
+                buffer.putLong(base, node.keys[i]);
+                buffer.putLong(base + 8, node.values[i]);
+                buffer.putLong(base + 16, node.children[i + 1]);
+            }
+        }
+        page.markDirty();
+    }
+
+    private static int compare(long key1, long value1, long key2, long value2) {
+        int result = Long.compare(key1, key2);
+        return result != 0 ? result : Long.compare(value1, value2);
+    }
+
+    /**
+     * A decoded node. Arrays have one spare slot so that an overflowing
+     * insert can be applied before the node is split.
+     */
+    private static final class Node {
+        private final byte type;
+        private int count;
+        private long next = 0;
+        private final long[] keys = new long[LEAF_CAPACITY + 1];
+        private final long[] values = new long[LEAF_CAPACITY + 1];
+        private final long[] children;
+
+        private Node(byte type, int count) {
+            this.type = type;
+            this.count = count;
+            this.children = type == INTERNAL ? new long[INTERNAL_CAPACITY + 2] : null;
+        }
+
+        /** First position whose entry is greater than or equal to the pair. */
+        private int lowerBound(long key, long value) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(keys[mid], values[mid], key, value) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /** Number of entries less than or equal to the pair. */
+        private int upperBound(long key, long value) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(keys[mid], values[mid], key, value) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private void insert(int pos, long key, long value, long rightChild) {
+            System.arraycopy(keys, pos, keys, pos + 1, count - pos);
+            System.arraycopy(values, pos, values, pos + 1, count - pos);
+            keys[pos] = key;
+            values[pos] = value;
+            if (children != null) {
+                System.arraycopy(children, pos + 1, children, pos + 2, count - pos);
+                children[pos + 1] = rightChild;
+            }
+            count++;
+        }
+
+        private void remove(int pos) {
+            System.arraycopy(keys, pos + 1, keys, pos, count - pos - 1);
+            System.arraycopy(values, pos + 1, values, pos, count - pos - 1);
+            count--;
+        }
+    }
+
+    private static final class Split {
+        private final long key;
+        private final long value;
+        private final long page;
+
+        private Split(long key, long value, long page) {
+            this.key = key;
+            this.value = value;
+            this.page = page;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package it.denzosoft.prolog.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A bounded cache of fixed-size file pages with LRU eviction.
+ * Dirty pages are written back when they are evicted or flushed.
+ */
+public class BufferCache {
+    public static final int PAGE_SIZE = 4096;
+    private static final int MIN_CAPACITY = 4;
+
+    private final int capacity;
+    private final LinkedHashMap<PageKey, Page> pages = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates a cache holding at most the given number of pages.
+     */
+    public BufferCache(int capacity) {
+        this.capacity = Math.max(MIN_CAPACITY, capacity);
+    }
+
+    /**
+     * Gets a page, reading it from its file on a cache miss.
+     */
+    public Page get(PagedFile file, long pageNo) throws IOException {
+        PageKey key = new PageKey(file.getId(), pageNo);
+        Page page = pages.get(key);
+        if (page != null) {
+            hits++;
+            return page;
+        }
+        misses++;
+        page = new Page(file, pageNo);
+        file.readPage(pageNo, page.data);
+        pages.put(key, page);
+        evict();
+        return page;
+    }
+
+    /**
+     * Writes back all dirty pages of the given file.
+     */
+    public void flush(PagedFile file) throws IOException {
+        for (Page page : pages.values()) {
+            if (page.file == file && page.dirty) {
+                page.writeBack();
+            }
+        }
+    }
+
+    /**
+     * Drops the pages of a file starting at the given page number without
+     * writing them back.
+     */
+    public void invalidate(PagedFile file, long fromPageNo) {
+        Iterator<Page> iterator = pages.values().iterator();
+        while (iterator.hasNext()) {
+            Page page = iterator.next();
+            if (page.file == file && page.pageNo >= fromPageNo) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void evict() throws IOException {
+        if (pages.size() <= capacity) {
+            return;
+        }
+        List<PageKey> victims = new ArrayList<>();
+        int excess = pages.size() - capacity;
+        for (Map.Entry<PageKey, Page> entry : pages.entrySet()) {
+            if (victims.size() == excess) {
+                break;
+            }
+            if (entry.getValue().dirty) {
+                entry.getValue().writeBack();
+            }
+            victims.add(entry.getKey());
+        }
+        for (PageKey victim : victims) {
+            pages.remove(victim);
+        }
+        evictions += victims.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return pages.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * A cached page of a file.
+     */
+    public static final class Page {
+        private final PagedFile file;
+        private final long pageNo;
+        private final byte[] data = new byte[PAGE_SIZE];
+        private boolean dirty = false;
+
+        private Page(PagedFile file, long pageNo) {
+            this.file = file;
+            this.pageNo = pageNo;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public long getPageNo() {
+            return pageNo;
+        }
+
+        /**
+         * Marks the page as modified so it is written back before eviction.
+         */
+        public void markDirty() {
+            dirty = true;
+        }
+
+        private void writeBack() throws IOException {
+            file.writePage(pageNo, data);
+            dirty = false;
+        }
+    }
+
+    private static final class PageKey {
+        private final int fileId;
+        private final long pageNo;
+
+        private PageKey(int fileId, long pageNo) {
+            this.fileId = fileId;
+            this.pageNo = pageNo;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof PageKey)) return false;
+            PageKey other = (PageKey) obj;
+            return fileId == other.fileId && pageNo == other.pageNo;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * fileId + Long.hashCode(pageNo);
+        }
+    }
+}
@@ -0,0 +1,433 @@
+package it.denzosoft.prolog.storage;
+
+import it.denzosoft.prolog.PrologConfig;
+import it.denzosoft.prolog.database.ClauseSource;
+import it.denzosoft.prolog.engine.Unifier;
+import it.denzosoft.prolog.model.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Exposes the rows of a delimited text file as the facts of a predicate.
+ * <p>
+ * The file is memory-mapped and rows are decoded into terms only while
+ * they are enumerated. Fields that parse as numbers become numbers, all
+ * others become atoms. When a key column is given, a sidecar index file of
+ * (hash, row offset) pairs sorted by hash is built on first open and reused
+ * as long as the data file is unchanged. The source is read-only.
+ */
+public class CsvClauseSource implements ClauseSource {
+    private static final long INDEX_MAGIC = 0x504c435356494458L; // "PLCSVIDX"
+    private static final int INDEX_HEADER = 36;
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final String name;
+    private final int arity;
+    private final char delimiter;
+    private final int keyColumn;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    private final long firstRow;
+    private FileChannel indexChannel;
+    private MappedByteBuffer[] index;
+    private long indexEntries;
+
+    private CsvClauseSource(Path file, String name, char delimiter, boolean header, int keyColumn) throws IOException {
+        this.name = name;
+        this.delimiter = delimiter;
+        this.keyColumn = keyColumn;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.segments = map(channel, 0, size);
+        this.firstRow = header ? rowEnd(0) : 0;
+        this.arity = firstRow < size ? decodeRow(firstRow).length : 0;
+        if (keyColumn > 0) {
+            if (keyColumn > arity) {
+                close();
+                throw new IllegalArgumentException("Key column " + keyColumn + " out of range for " + name + "/" + arity);
+            }
+            openIndex(file);
+        }
+    }
+
+    /**
+     * Opens a comma-separated file.
+     * @param header whether the first line holds column names to skip
+     * @param keyColumn the 1-based column to index, or 0 for none
+     */
+    public static CsvClauseSource csv(Path file, String name, boolean header, int keyColumn) throws IOException {
+        return new CsvClauseSource(file, name, ',', header, keyColumn);
+    }
+
+    /**
+     * Opens a tab-separated file.
+     * @param header whether the first line holds column names to skip
+     * @param keyColumn the 1-based column to index, or 0 for none
+     */
+    public static CsvClauseSource tsv(Path file, String name, boolean header, int keyColumn) throws IOException {
+        return new CsvClauseSource(file, name, '\t', header, keyColumn);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getArity() {
+        return arity;
+    }
+
+    @Override
+    public boolean isWritable() {
+        return false;
+    }
+
+    @Override
+    public Iterator<Clause> clauses(Term goal) {
+        if (index != null && goal instanceof Struct) {
+            Term key = Unifier.resolve(((Struct) goal).getArg(keyColumn - 1));
+            if (!key.containsUnboundVariables()) {
+                PrologConfig.trace("CSV source " + name + "/" + arity + " using key column " + keyColumn);
+                return new IndexIterator(TermCodec.hash(key));
+            }
+        }
+        return new ScanIterator();
+    }
+
+    @Override
+    public void add(Clause clause) {
+        throw new UnsupportedOperationException(name + "/" + arity + " is backed by a read-only file");
+    }
+
+    @Override
+    public boolean remove(Clause clause) {
+        throw new UnsupportedOperationException(name + "/" + arity + " is backed by a read-only file");
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        if (indexChannel != null) {
+            indexChannel.close();
+        }
+    }
+
+    /**
+     * Maps a region of a file in segments, each addressable by int.
+     */
+    private static MappedByteBuffer[] map(FileChannel channel, long start, long length) throws IOException {
+        int count = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long offset = i * SEGMENT_SIZE;
+            mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start + offset, Math.min(SEGMENT_SIZE, length - offset));
+        }
+        return mapped;
+    }
+
+    private byte byteAt(long position) {
+        return segments[(int) (position / SEGMENT_SIZE)].get((int) (position % SEGMENT_SIZE));
+    }
+
+    /**
+     * Finds the start of the row following the one at the given offset.
+     * Line breaks inside quoted fields do not end a row.
+     */
+    private long rowEnd(long offset) {
+        boolean quoted = false;
+        long position = offset;
+        while (position < size) {
+            byte b = byteAt(position++);
+            if (b == '"' && delimiter == ',') {
+                quoted = !quoted;
+            } else if (b == '\n' && !quoted) {
+                break;
+            }
+        }
+        return position;
+    }
+
+    private Term[] decodeRow(long offset) {
+        long end = rowEnd(offset);
+        long stop = end;
+        if (stop > offset && byteAt(stop - 1) == '\n') stop--;
+        if (stop > offset && byteAt(stop - 1) == '\r') stop--;
+        byte[] bytes = new byte[(int) (stop - offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = byteAt(offset + i);
+        }
+        String line = new String(bytes, StandardCharsets.UTF_8);
+
+        java.util.List<Term> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (delimiter == ',' && c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                    wasQuoted = true;
+                }
+            } else if (c == delimiter && !quoted) {
+                fields.add(toTerm(field.toString(), wasQuoted));
+                field.setLength(0);
+                wasQuoted = false;
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(toTerm(field.toString(), wasQuoted));
+        return fields.toArray(new Term[0]);
+    }
+
+    private static Term toTerm(String field, boolean quoted) {
+        if (!quoted && !field.isEmpty() && (Character.isDigit(field.charAt(0)) || field.charAt(0) == '-')) {
+            try {
+                return new it.denzosoft.prolog.model.Number(Double.parseDouble(field));
+            } catch (NumberFormatException e) {
+                // Not a number, keep it as an atom
+            }
+        }
+        return new Atom(field);
+    }
+
+    private Clause toClause(long offset) {
+        Term[] fields = decodeRow(offset);
+        if (fields.length != arity) {
+            PrologConfig.debug("Skipping row at " + offset + " of " + name + ": expected " + arity + " fields, found " + fields.length);
+            return null;
+        }
+        Term head = arity == 0 ? new Atom(name) : new Struct(new Atom(name), fields);
+        return new StoredClause(head, null, this, offset);
+    }
+
+    private boolean isBlank(long offset) {
+        byte b = byteAt(offset);
+        return b == '\n' || b == '\r';
+    }
+
+    private void openIndex(Path file) throws IOException {
+        Path indexPath = file.resolveSibling(file.getFileName() + "." + keyColumn + ".idx");
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        if (!indexIsCurrent(indexPath, modified)) {
+            buildIndex(indexPath, modified);
+        }
+        indexChannel = FileChannel.open(indexPath, StandardOpenOption.READ);
+        indexEntries = readHeader(indexChannel).getLong(28);
+        // Entries are mapped past the header so none straddles two segments
+        index = map(indexChannel, INDEX_HEADER, indexEntries * 16);
+    }
+
+    private boolean indexIsCurrent(Path indexPath, long modified) throws IOException {
+        if (!Files.exists(indexPath) || Files.size(indexPath) < INDEX_HEADER) {
+            return false;
+        }
+        try (FileChannel in = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(in);
+            return header.getLong(0) == INDEX_MAGIC && header.getLong(8) == size
+                    && header.getLong(16) == modified && header.getInt(24) == keyColumn
+                    && in.size() == INDEX_HEADER + header.getLong(28) * 16;
+        }
+    }
+
+    private static ByteBuffer readHeader(FileChannel in) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER);
+        while (header.hasRemaining() && in.read(header, header.position()) >= 0) {
+            // Keep reading until the header is complete
+        }
+        return header;
+    }
+
+    /**
+     * Scans the whole file once and writes the sorted (hash, offset) pairs.
+     */
+    private void buildIndex(Path indexPath, long modified) throws IOException {
+        PrologConfig.debug("Building index on column " + keyColumn + " of " + name);
+        long[] hashes = new long[1024];
+        long[] offsets = new long[1024];
+        int count = 0;
+        for (long offset = firstRow; offset < size; offset = rowEnd(offset)) {
+            if (isBlank(offset)) {
+                continue;
+            }
+            Term[] fields = decodeRow(offset);
+            if (fields.length != arity) {
+                continue;
+            }
+            if (count == hashes.length) {
+                long[] grownHashes = new long[count * 2];
+                long[] grownOffsets = new long[count * 2];
+                System.arraycopy(hashes, 0, grownHashes, 0, count);
+                System.arraycopy(offsets, 0, grownOffsets, 0, count);
+                hashes = grownHashes;
+                offsets = grownOffsets;
+            }
+            hashes[count] = TermCodec.hash(fields[keyColumn - 1]);
+            offsets[count] = offset;
+            count++;
+        }
+        sort(hashes, offsets, 0, count - 1);
+
+        try (FileChannel out = FileChannel.open(indexPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER);
+            header.putLong(INDEX_MAGIC).putLong(size).putLong(modified).putInt(keyColumn).putLong(count);
+            header.flip();
+            writeFully(out, header);
+            ByteBuffer entries = ByteBuffer.allocate(16 * 4096);
+            for (int i = 0; i < count; i++) {
+                if (!entries.hasRemaining()) {
+                    entries.flip();
+                    writeFully(out, entries);
+                    entries.clear();
+                }
+                entries.putLong(hashes[i]).putLong(offsets[i]);
+            }
+            entries.flip();
+            writeFully(out, entries);
+            out.force(false);
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Sorts the pairs by hash, then by offset so rows keep file order.
+     */
+    private static void sort(long[] hashes, long[] offsets, int low, int high) {
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            long pivotHash = hashes[mid];
+            long pivotOffset = offsets[mid];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (compare(hashes[i], offsets[i], pivotHash, pivotOffset) < 0) i++;
+                while (compare(hashes[j], offsets[j], pivotHash, pivotOffset) > 0) j--;
+                if (i <= j) {
+                    long h = hashes[i]; hashes[i] = hashes[j]; hashes[j] = h;
+                    long o = offsets[i]; offsets[i] = offsets[j]; offsets[j] = o;
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller half to bound the stack depth
+            if (j - low < high - i) {
+                sort(hashes, offsets, low, j);
+                low = i;
+            } else {
+                sort(hashes, offsets, i, high);
+                high = j;
+            }
+        }
+    }
+
+    private static int compare(long hash1, long offset1, long hash2, long offset2) {
+        int result = Long.compare(hash1, hash2);
+        return result != 0 ? result : Long.compare(offset1, offset2);
+    }
+
+    private long indexHash(long entry) {
+        return indexLong(entry * 16);
+    }
+
+    private long indexOffset(long entry) {
+        return indexLong(entry * 16 + 8);
+    }
+
+    private long indexLong(long position) {
+        return index[(int) (position / SEGMENT_SIZE)].getLong((int) (position % SEGMENT_SIZE));
+    }
+
+    /**
+     * Walks the rows of the file in order.
+     */
+    private final class ScanIterator implements Iterator<Clause> {
+        private long offset = firstRow;
+        private Clause next;
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && offset < size) {
+                long current = offset;
+                offset = rowEnd(offset);
+                if (!isBlank(current)) {
+                    next = toClause(current);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Clause next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Clause result = next;
+            next = null;
+            return result;
+        }
+    }
+
+    /**
+     * Walks the index entries of one key hash, decoding their rows.
+     */
+    private final class IndexIterator implements Iterator<Clause> {
+        private final long hash;
+        private long entry;
+        private Clause next;
+
+        private IndexIterator(long hash) {
+            this.hash = hash;
+            long low = 0;
+            long high = indexEntries;
+            while (low < high) {
+                long mid = (low + high) >>> 1;
+                if (indexHash(mid) < hash) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            this.entry = low;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && entry < indexEntries && indexHash(entry) == hash) {
+                next = toClause(indexOffset(entry++));
+            }
+            return next != null;
+        }
+
+        @Override
+        public Clause next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Clause result = next;
+            next = null;
+            return result;
+        }
+    }
+}
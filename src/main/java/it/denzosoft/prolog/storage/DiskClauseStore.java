@@ -0,0 +1,432 @@
+package it.denzosoft.prolog.storage;
+
+import it.denzosoft.prolog.PrologConfig;
+import it.denzosoft.prolog.database.ClauseSource;
+import it.denzosoft.prolog.engine.Unifier;
+import it.denzosoft.prolog.model.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+
+
+/**
+ * Keeps the clauses of one predicate in local files.
+ * <p>
+ * Clauses are appended to a data file as length-prefixed records and are
+ * looked up through one {@link BPlusTree} per declared key argument, keyed
+ * by a hash of that argument. All pages go through a bounded
+ * {@link BufferCache}. Additions and removals are logged to a
+ * {@link WriteAheadLog} before being applied; on open, pending log records
+ * are replayed and the indexes are rebuilt from the data file.
+ * <p>
+ * Key arguments of stored clauses must be ground. The store may be shared
+ * between threads: its operations, including each step of an iteration,
+ * hold the store's lock, which also guards its cache.
+ */
+public class DiskClauseStore implements ClauseSource {
+    private static final byte[] MAGIC = "PLDATA02".getBytes(StandardCharsets.US_ASCII);
+    private static final int RECORD_HEADER = 5;
+    private static final byte LIVE = 1;
+    private static final byte DELETED = 0;
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 1024;
+
+    private final String name;
+    private final int arity;
+    private final int[] keyArgs;
+    private final Path directory;
+    private final BufferCache cache;
+    private final PagedFile data;
+    private final BPlusTree[] indexes;
+    private final WriteAheadLog wal;
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+    private DiskClauseStore(Path directory, String name, int arity, int[] keyArgs, int cachePages) throws IOException {
+        this.directory = directory;
+        this.name = name;
+        this.arity = arity;
+        this.keyArgs = keyArgs.clone();
+        this.cache = new BufferCache(cachePages);
+        Files.createDirectories(directory);
+
+        boolean rebuild = !sameLayout();
+        this.data = new PagedFile(directory.resolve("clauses.dat"), cache);
+        if (data.length() == 0) {
+            data.append(MAGIC);
+        } else {
+            byte[] magic = new byte[MAGIC.length];
+            data.read(0, magic, 0, magic.length);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a clause store: " + directory);
+            }
+        }
+        this.indexes = new BPlusTree[keyArgs.length];
+        for (int i = 0; i < keyArgs.length; i++) {
+            Path indexPath = directory.resolve("key" + keyArgs[i] + ".idx");
+            rebuild |= !Files.exists(indexPath);
+            indexes[i] = new BPlusTree(indexPath, cache);
+        }
+        this.wal = new WriteAheadLog(directory.resolve("wal.log"));
+        recover(rebuild);
+    }
+
+    /**
+     * Opens or creates the store of a predicate in the given directory.
+     * @param keyArgs the 1-based argument positions to index
+     * @param cachePages the maximum number of pages held in memory
+     */
+    public static DiskClauseStore open(Path directory, String name, int arity, int[] keyArgs, int cachePages) throws IOException {
+        for (int keyArg : keyArgs) {
+            if (keyArg < 1 || keyArg > arity) {
+                throw new IllegalArgumentException("Key argument " + keyArg + " out of range for " + name + "/" + arity);
+            }
+        }
+        return new DiskClauseStore(directory, name, arity, keyArgs, cachePages);
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getArity() {
+        return arity;
+    }
+
+    @Override
+    public boolean isWritable() {
+        return true;
+    }
+
+    public BufferCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets how many logged modifications may accumulate before a checkpoint.
+     */
+    public synchronized void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+    }
+
+    @Override
+    public synchronized Iterator<Clause> clauses(Term goal) {
+        Term[] args = goal instanceof Struct ? ((Struct) goal).getArgs() : new Term[0];
+        long end = data.length();
+        try {
+            for (int i = 0; i < keyArgs.length; i++) {
+                // Hash the value a bound variable stands for, never the variable
+                Term arg = Unifier.resolve(args[keyArgs[i] - 1]);
+                if (!arg.containsUnboundVariables()) {
+                    PrologConfig.trace("Disk store " + name + "/" + arity + " using key argument " + keyArgs[i]);
+                    return new IndexIterator(indexes[i].lookup(TermCodec.hash(arg)), end);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new ScanIterator(end);
+    }
+
+    @Override
+    public synchronized void add(Clause clause) {
+        long[] keys = keyHashes(clause);
+        byte[] payload = TermCodec.encodeClause(clause);
+        try {
+            long offset = data.length();
+            wal.append(WriteAheadLog.ASSERT, offset, payload);
+            writeRecord(payload);
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i].insert(keys[i], offset);
+            }
+            maybeCheckpoint();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized boolean remove(Clause clause) {
+        try {
+            long offset = locate(clause);
+            if (offset < 0) {
+                return false;
+            }
+            Clause stored = readRecord(offset);
+            wal.append(WriteAheadLog.RETRACT, offset, new byte[0]);
+            data.write(offset, new byte[] {DELETED}, 0, 1);
+            long[] keys = keyHashes(stored);
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i].delete(keys[i], offset);
+            }
+            maybeCheckpoint();
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Makes all applied modifications durable and empties the log.
+     */
+    public synchronized void checkpoint() throws IOException {
+        data.force();
+        for (BPlusTree index : indexes) {
+            index.force();
+        }
+        writeLayout();
+        wal.checkpoint();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        checkpoint();
+        data.close();
+        for (BPlusTree index : indexes) {
+            index.close();
+        }
+        wal.close();
+    }
+
+    private void recover(boolean rebuild) throws IOException {
+        List<WriteAheadLog.Record> records = wal.readAll();
+        if (!records.isEmpty()) {
+            PrologConfig.debug("Replaying " + records.size() + " log records for " + name + "/" + arity);
+            long firstAssert = Long.MAX_VALUE;
+            for (WriteAheadLog.Record record : records) {
+                if (record.getOp() == WriteAheadLog.ASSERT) {
+                    firstAssert = Math.min(firstAssert, record.getOffset());
+                }
+            }
+            // Drop records whose append may have been interrupted, then redo them
+            data.truncate(Math.max(firstAssert, MAGIC.length));
+            for (WriteAheadLog.Record record : records) {
+                if (record.getOp() == WriteAheadLog.ASSERT) {
+                    writeRecord(record.getPayload());
+                } else if (record.getOp() == WriteAheadLog.RETRACT && record.getOffset() < data.length()) {
+                    data.write(record.getOffset(), new byte[] {DELETED}, 0, 1);
+                }
+            }
+            rebuild = true;
+        }
+        if (rebuild) {
+            rebuildIndexes();
+            checkpoint();
+        }
+    }
+
+    private void rebuildIndexes() throws IOException {
+        PrologConfig.debug("Rebuilding indexes of " + name + "/" + arity);
+        for (BPlusTree index : indexes) {
+            index.reset();
+        }
+        long offset = MAGIC.length;
+        long end = data.length();
+        while (offset < end) {
+            byte[] header = new byte[RECORD_HEADER];
+            data.read(offset, header, 0, RECORD_HEADER);
+            int length = ByteBuffer.wrap(header).getInt(1);
+            if (header[0] == LIVE) {
+                long[] keys = keyHashes(readRecord(offset));
+                for (int i = 0; i < indexes.length; i++) {
+                    indexes[i].insert(keys[i], offset);
+                }
+            }
+            offset += RECORD_HEADER + length;
+        }
+    }
+
+    private void writeRecord(byte[] payload) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + payload.length);
+        record.put(LIVE).putInt(payload.length).put(payload);
+        data.append(record.array());
+    }
+
+    /**
+     * Reads the record at the given offset.
+     * @return the clause, or null if it has been removed
+     */
+    private StoredClause readRecord(long offset) throws IOException {
+        byte[] header = new byte[RECORD_HEADER];
+        data.read(offset, header, 0, RECORD_HEADER);
+        if (header[0] != LIVE) {
+            return null;
+        }
+        byte[] payload = new byte[ByteBuffer.wrap(header).getInt(1)];
+        data.read(offset + RECORD_HEADER, payload, 0, payload.length);
+        Clause clause = TermCodec.decodeClause(payload);
+        return new StoredClause(clause.getHead(), clause.getBody(), this, offset);
+    }
+
+    private long locate(Clause clause) throws IOException {
+        if (clause instanceof StoredClause && ((StoredClause) clause).getSource() == this) {
+            long offset = ((StoredClause) clause).getOffset();
+            return readRecord(offset) != null ? offset : -1;
+        }
+        Iterator<Clause> candidates = clauses(clause.getHead());
+        while (candidates.hasNext()) {
+            StoredClause candidate = (StoredClause) candidates.next();
+            boolean sameBody = clause.getBody() == null
+                    ? candidate.getBody() == null
+                    : clause.getBody().equals(candidate.getBody());
+            if (candidate.getHead().equals(clause.getHead()) && sameBody) {
+                return candidate.getOffset();
+            }
+        }
+        return -1;
+    }
+
+    private long[] keyHashes(Clause clause) {
+        Term head = clause.getHead();
+        if (!(head instanceof Struct) || !((Struct) head).getFunctor().getValue().equals(name)
+                || ((Struct) head).getArity() != arity) {
+            if (!(arity == 0 && head instanceof Atom && ((Atom) head).getValue().equals(name))) {
+                throw new IllegalArgumentException("Clause " + clause + " does not belong to " + name + "/" + arity);
+            }
+        }
+        long[] keys = new long[keyArgs.length];
+        if (keys.length == 0) {
+            return keys;
+        }
+        Term[] args = ((Struct) head).getArgs();
+        for (int i = 0; i < keyArgs.length; i++) {
+            Term arg = Unifier.resolve(args[keyArgs[i] - 1]);
+            if (arg.containsUnboundVariables()) {
+                throw new IllegalArgumentException("Key argument " + keyArgs[i] + " of " + clause + " is not ground");
+            }
+            keys[i] = TermCodec.hash(arg);
+        }
+        return keys;
+    }
+
+    private void maybeCheckpoint() throws IOException {
+        if (wal.pendingRecords() >= checkpointInterval) {
+            checkpoint();
+        }
+    }
+
+    private boolean sameLayout() throws IOException {
+        Path path = directory.resolve("store.properties");
+        if (!Files.exists(path)) {
+            return false;
+        }
+        Properties layout = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            layout.load(in);
+        }
+        return name.equals(layout.getProperty("name"))
+                && String.valueOf(arity).equals(layout.getProperty("arity"))
+                && Arrays.toString(keyArgs).equals(layout.getProperty("keys"));
+    }
+
+    private void writeLayout() throws IOException {
+        Properties layout = new Properties();
+        layout.setProperty("name", name);
+        layout.setProperty("arity", String.valueOf(arity));
+        layout.setProperty("keys", Arrays.toString(keyArgs));
+        try (OutputStream out = Files.newOutputStream(directory.resolve("store.properties"))) {
+            layout.store(out, "Clause store layout");
+        }
+    }
+
+    /**
+     * Walks the data file record by record up to a fixed end, so clauses
+     * added during the walk are not visited.
+     */
+    private final class ScanIterator implements Iterator<Clause> {
+        private final long end;
+        private long offset = MAGIC.length;
+        private Clause next;
+
+        private ScanIterator(long end) {
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            synchronized (DiskClauseStore.this) {
+                return advance();
+            }
+        }
+
+        private boolean advance() {
+            try {
+                while (next == null && offset < end) {
+                    byte[] header = new byte[RECORD_HEADER];
+                    data.read(offset, header, 0, RECORD_HEADER);
+                    long current = offset;
+                    offset += RECORD_HEADER + ByteBuffer.wrap(header).getInt(1);
+                    if (header[0] == LIVE) {
+                        next = readRecord(current);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return next != null;
+        }
+
+        @Override
+        public Clause next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Clause result = next;
+            next = null;
+            return result;
+        }
+    }
+
+    /**
+     * Decodes the records found by an index lookup, skipping removed ones.
+     */
+    private final class IndexIterator implements Iterator<Clause> {
+        private final long[] offsets;
+        private final long end;
+        private int position = 0;
+        private Clause next;
+
+        private IndexIterator(long[] offsets, long end) {
+            this.offsets = offsets;
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            synchronized (DiskClauseStore.this) {
+                return advance();
+            }
+        }
+
+        private boolean advance() {
+            try {
+                while (next == null && position < offsets.length && offsets[position] < end) {
+                    next = readRecord(offsets[position++]);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return next != null;
+        }
+
+        @Override
+        public Clause next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Clause result = next;
+            next = null;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package it.denzosoft.prolog.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A file accessed page by page through a shared {@link BufferCache}.
+ * The logical length is tracked separately so that a partially filled
+ * last page is never padded on disk.
+ */
+public class PagedFile implements Closeable {
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    private final int id = NEXT_ID.incrementAndGet();
+    private final FileChannel channel;
+    private final BufferCache cache;
+    private long length;
+
+    public PagedFile(Path path, BufferCache cache) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.cache = cache;
+        this.length = channel.size();
+    }
+
+    int getId() {
+        return id;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Reads bytes starting at the given position. Bytes past the end of
+     * the file read as zero.
+     */
+    public void read(long position, byte[] dst, int offset, int count) throws IOException {
+        while (count > 0) {
+            long pageNo = position / BufferCache.PAGE_SIZE;
+            int inPage = (int) (position % BufferCache.PAGE_SIZE);
+            int chunk = Math.min(count, BufferCache.PAGE_SIZE - inPage);
+            System.arraycopy(cache.get(this, pageNo).getData(), inPage, dst, offset, chunk);
+            position += chunk;
+            offset += chunk;
+            count -= chunk;
+        }
+    }
+
+    /**
+     * Writes bytes starting at the given position, extending the file if needed.
+     */
+    public void write(long position, byte[] src, int offset, int count) throws IOException {
+        length = Math.max(length, position + count);
+        while (count > 0) {
+            long pageNo = position / BufferCache.PAGE_SIZE;
+            int inPage = (int) (position % BufferCache.PAGE_SIZE);
+            int chunk = Math.min(count, BufferCache.PAGE_SIZE - inPage);
+            BufferCache.Page page = cache.get(this, pageNo);
+            System.arraycopy(src, offset, page.getData(), inPage, chunk);
+            page.markDirty();
+            position += chunk;
+            offset += chunk;
+            count -= chunk;
+        }
+    }
+
+    /**
+     * Appends bytes at the end of the file.
+     * @return the position the bytes were written at
+     */
+    public long append(byte[] src) throws IOException {
+        long position = length;
+        write(position, src, 0, src.length);
+        return position;
+    }
+
+    /**
+     * Gets a cached page for in-place access. Callers must mark it dirty
+     * after modifying it.
+     */
+    public BufferCache.Page page(long pageNo) throws IOException {
+        length = Math.max(length, (pageNo + 1) * BufferCache.PAGE_SIZE);
+        return cache.get(this, pageNo);
+    }
+
+    /**
+     * Shrinks the file to the given length, discarding cached pages past it.
+     */
+    public void truncate(long newLength) throws IOException {
+        if (newLength >= length) {
+            return;
+        }
+        cache.flush(this);
+        cache.invalidate(this, newLength / BufferCache.PAGE_SIZE);
+        channel.truncate(newLength);
+        length = newLength;
+    }
+
+    /**
+     * Writes back dirty pages and forces the file content to the device.
+     */
+    public void force() throws IOException {
+        cache.flush(this);
+        channel.force(false);
+    }
+
+    void readPage(long pageNo, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long position = pageNo * BufferCache.PAGE_SIZE;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    void writePage(long pageNo, byte[] data) throws IOException {
+        long position = pageNo * BufferCache.PAGE_SIZE;
+        int count = (int) Math.min(BufferCache.PAGE_SIZE, length - position);
+        if (count <= 0) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, count);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        cache.invalidate(this, 0);
+        channel.close();
+    }
+}
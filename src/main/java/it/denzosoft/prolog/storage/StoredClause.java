@@ -0,0 +1,32 @@
+package it.denzosoft.prolog.storage;
+
+import it.denzosoft.prolog.database.ClauseSource;
+import it.denzosoft.prolog.model.Clause;
+import it.denzosoft.prolog.model.Term;
+
+
+/**
+ * A clause decoded from an external source, remembering where it came from
+ * so that it can be removed without searching for it again.
+ */
+public class StoredClause extends Clause {
+    private final ClauseSource source;
+    private final long offset;
+
+    public StoredClause(Term head, Term body, ClauseSource source, long offset) {
+        super(head, body);
+        this.source = source;
+        this.offset = offset;
+    }
+
+    public ClauseSource getSource() {
+        return source;
+    }
+
+    /**
+     * Gets the position of the clause record within its source.
+     */
+    public long getOffset() {
+        return offset;
+    }
+}
@@ -0,0 +1,164 @@
+package it.denzosoft.prolog.storage;
+
+import it.denzosoft.prolog.model.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+/**
+ * Binary encoding of terms and clauses for on-disk storage.
+ * Bound variables are written as their bindings. Unbound variables are
+ * numbered by first occurrence within a clause, by identity rather than by
+ * name, so that distinct variables of the same name, such as every
+ * {@code _}, stay distinct; they decode as fresh variables.
+ */
+public final class TermCodec {
+    private static final byte ATOM = 1;
+    private static final byte NUMBER = 2;
+    private static final byte VARIABLE = 3;
+    private static final byte STRUCT = 4;
+    private static final byte LIST = 5;
+    private static final byte NONE = 0;
+
+    private TermCodec() {
+    }
+
+    /**
+     * Encodes a clause as a byte array.
+     */
+    public static byte[] encodeClause(Clause clause) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            Map<Variable, Integer> variables = new IdentityHashMap<>();
+            write(clause.getHead(), out, variables);
+            if (clause.getBody() == null) {
+                out.writeByte(NONE);
+            } else {
+                write(clause.getBody(), out, variables);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot encode clause " + clause, e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a clause previously produced by {@link #encodeClause(Clause)}.
+     */
+    public static Clause decodeClause(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        java.util.List<Variable> variables = new ArrayList<>();
+        Term head = read(in, variables);
+        Term body = read(in, variables);
+        return new Clause(head, body);
+    }
+
+    /**
+     * Encodes a single term as a byte array.
+     */
+    public static byte[] encodeTerm(Term term) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            write(term, out, new IdentityHashMap<>());
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot encode term " + term, e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Computes a stable 64-bit FNV-1a hash of the encoding of a ground term.
+     */
+    public static long hash(Term term) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : encodeTerm(term)) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static void write(Term term, DataOutputStream out, Map<Variable, Integer> variables) throws IOException {
+        if (term instanceof Variable) {
+            Variable var = (Variable) term;
+            if (var.isBound()) {
+                write(var.getBinding(), out, variables);
+                return;
+            }
+            // A new variable is written with its name, a known one by number only
+            Integer index = variables.get(var);
+            out.writeByte(VARIABLE);
+            if (index == null) {
+                out.writeInt(variables.size());
+                out.writeUTF(var.getName());
+                variables.put(var, variables.size());
+            } else {
+                out.writeInt(index);
+            }
+        } else if (term instanceof Atom) {
+            out.writeByte(ATOM);
+            out.writeUTF(((Atom) term).getValue());
+        } else if (term instanceof it.denzosoft.prolog.model.Number) {
+            out.writeByte(NUMBER);
+            out.writeDouble(((it.denzosoft.prolog.model.Number) term).getValue());
+        } else if (term instanceof Struct) {
+            Struct struct = (Struct) term;
+            Term[] args = struct.getArgs();
+            out.writeByte(STRUCT);
+            out.writeUTF(struct.getFunctor().getValue());
+            out.writeInt(args.length);
+            for (Term arg : args) {
+                write(arg, out, variables);
+            }
+        } else if (term instanceof it.denzosoft.prolog.model.List) {
+            it.denzosoft.prolog.model.List list = (it.denzosoft.prolog.model.List) term;
+            out.writeByte(LIST);
+            write(list.getHead(), out, variables);
+            write(list.getTail(), out, variables);
+        } else {
+            throw new IOException("Cannot encode term: " + term);
+        }
+    }
+
+    private static Term read(DataInputStream in, java.util.List<Variable> variables) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NONE:
+                return null;
+            case ATOM:
+                return new Atom(in.readUTF());
+            case NUMBER:
+                return new it.denzosoft.prolog.model.Number(in.readDouble());
+            case VARIABLE:
+                int index = in.readInt();
+                if (index < variables.size()) {
+                    return variables.get(index);
+                }
+                if (index != variables.size()) {
+                    throw new IOException("Corrupt term encoding, variable " + index + " out of order");
+                }
+                Variable var = new Variable(in.readUTF());
+                variables.add(var);
+                return var;
+            case STRUCT:
+                Atom functor = new Atom(in.readUTF());
+                Term[] args = new Term[in.readInt()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = read(in, variables);
+                }
+                return new Struct(functor, args);
+            case LIST:
+                Term head = read(in, variables);
+                Term tail = read(in, variables);
+                return new it.denzosoft.prolog.model.List(head, tail);
+            default:
+                throw new IOException("Corrupt term encoding, unknown tag " + tag);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package it.denzosoft.prolog.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+
+/**
+ * An append-only log of store modifications. Every record is forced to the
+ * device before the modification is applied, and the log is truncated once
+ * the modified files have been checkpointed. A torn or corrupt tail record
+ * ends the log on replay.
+ */
+public class WriteAheadLog implements Closeable {
+    public static final byte ASSERT = 1;
+    public static final byte RETRACT = 2;
+
+    private final FileChannel channel;
+    private int pending;
+
+    public WriteAheadLog(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.pending = readAll().size();
+    }
+
+    /**
+     * Appends a record and forces it to the device.
+     */
+    public void append(byte op, long offset, byte[] payload) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 4 + payload.length + 8);
+        buffer.put(op).putLong(offset).putInt(payload.length).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+        buffer.flip();
+        long position = channel.size();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.force(false);
+        pending++;
+    }
+
+    /**
+     * Reads all intact records in log order.
+     */
+    public List<Record> readAll() throws IOException {
+        List<Record> records = new ArrayList<>();
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(13);
+        while (position + 13 <= size) {
+            header.clear();
+            readFully(header, position);
+            byte op = header.get(0);
+            long offset = header.getLong(1);
+            int length = header.getInt(9);
+            if (length < 0 || position + 13 + length + 8 > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length + 8);
+            readFully(body, position + 13);
+            CRC32 crc = new CRC32();
+            crc.update(header.array(), 0, 13);
+            crc.update(body.array(), 0, length);
+            if (crc.getValue() != body.getLong(length)) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            System.arraycopy(body.array(), 0, payload, 0, length);
+            records.add(new Record(op, offset, payload));
+            position += 13 + length + 8;
+        }
+        return records;
+    }
+
+    /**
+     * Gets the number of records logged since the last checkpoint.
+     */
+    public int pendingRecords() {
+        return pending;
+    }
+
+    /**
+     * Discards all records. Called once their effects are durable.
+     */
+    public void checkpoint() throws IOException {
+        channel.truncate(0);
+        channel.force(false);
+        pending = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of log");
+            }
+        }
+    }
+
+    /**
+     * A logged modification.
+     */
+    public static final class Record {
+        private final byte op;
+        private final long offset;
+        private final byte[] payload;
+
+        Record(byte op, long offset, byte[] payload) {
+            this.op = op;
+            this.offset = offset;
+            this.payload = payload;
+        }
+
+        public byte getOp() {
+            return op;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package it.denzosoft.prolog.tabling;
+
+import it.denzosoft.prolog.model.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Map;
+import java.util.function.Consumer;
+
+
+/**
+ * The evaluation of a set of mutually dependent tabled subgoals.
+ * <p>
+ * Work is split into tasks: resolving a new subgoal against its clauses,
+ * or resuming a suspended consumer with one answer. A consumer is a call
+ * to a table of this evaluation that cannot be answered yet; it registers
+ * with the table and is resumed once per answer, including the answers the
+ * table already holds. When no task is left, no table of the evaluation
+ * can receive new answers, so all of them are completed together.
+ */
+public class Evaluation {
+    private final TableSpace space;
+    private final Map<String, VariantTrie<SubgoalTable>> variants;
+    private final Deque<Runnable> tasks = new ArrayDeque<>();
+    private final java.util.List<SubgoalTable> tables = new ArrayList<>();
+    private boolean running = false;
+    private boolean complete = false;
+    private long suspensions = 0;
+    private long resumptions = 0;
+
+    Evaluation(TableSpace space, Map<String, VariantTrie<SubgoalTable>> variants) {
+        this.space = space;
+        this.variants = variants;
+    }
+
+    /**
+     * Gets the tables, by predicate, that calls made in this evaluation
+     * find and add to.
+     */
+    Map<String, VariantTrie<SubgoalTable>> getTables() {
+        return variants;
+    }
+
+    void register(SubgoalTable table) {
+        tables.add(table);
+    }
+
+    /**
+     * Schedules a task. Tasks run most recent first, so the newest subgoals
+     * are explored before older ones are resumed.
+     */
+    public void schedule(Runnable task) {
+        tasks.push(task);
+    }
+
+    /**
+     * Suspends a consumer on an incomplete table. It is resumed with every
+     * answer the table holds now or receives later.
+     */
+    public void suspend(SubgoalTable table, Consumer<Clause> consumer) {
+        suspensions++;
+        table.getConsumers().add(consumer);
+        for (Clause answer : new ArrayList<>(table.getAnswers())) {
+            schedule(() -> resume(consumer, answer));
+        }
+    }
+
+    /**
+     * Records an answer, resuming the suspended consumers of the table if it
+     * is new.
+     * @return false if a variant of the answer was already present
+     */
+    public boolean addAnswer(SubgoalTable table, Term answer) {
+        Clause fact = new Clause(space.copy(answer), null);
+        if (!table.addAnswer(fact)) {
+            return false;
+        }
+        for (Consumer<Clause> consumer : table.getConsumers()) {
+            schedule(() -> resume(consumer, fact));
+        }
+        return true;
+    }
+
+    /**
+     * Runs one task, completing the evaluation when none is left.
+     * @return false if the evaluation is complete
+     */
+    public boolean step() {
+        if (complete) {
+            return false;
+        }
+        if (running) {
+            throw new IllegalStateException("Tabled evaluation is already running");
+        }
+        Runnable task = tasks.poll();
+        if (task == null) {
+            complete();
+            return false;
+        }
+        running = true;
+        try {
+            task.run();
+        } finally {
+            running = false;
+        }
+        return true;
+    }
+
+    /**
+     * Runs tasks until every table of the evaluation is complete.
+     */
+    public void run() {
+        while (step()) {
+            // keep going
+        }
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public int getPendingTaskCount() {
+        return tasks.size();
+    }
+
+    public long getSuspensionCount() {
+        return suspensions;
+    }
+
+    public long getResumptionCount() {
+        return resumptions;
+    }
+
+    private void resume(Consumer<Clause> consumer, Clause answer) {
+        resumptions++;
+        consumer.accept(answer);
+    }
+
+    private void complete() {
+        complete = true;
+        for (SubgoalTable table : tables) {
+            table.complete();
+        }
+        tables.clear();
+        space.finished(this);
+    }
+}
@@ -0,0 +1,21 @@
+package it.denzosoft.prolog.tabling;
+
+
+/**
+ * How answers of an incomplete table reach the call that started its
+ * evaluation.
+ */
+public enum Scheduling {
+    /**
+     * The whole set of dependent subgoals is evaluated to completion before
+     * the first answer is returned. Best when all answers are needed.
+     */
+    LOCAL,
+
+    /**
+     * Answers are returned as soon as they are found, and the evaluation
+     * continues only when the caller asks for more. Best when the first
+     * answers are wanted quickly.
+     */
+    BATCHED
+}
@@ -0,0 +1,78 @@
+package it.denzosoft.prolog.tabling;
+
+import it.denzosoft.prolog.model.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.function.Consumer;
+
+
+/**
+ * The answer table of one tabled call variant.
+ * <p>
+ * Answers are kept in the order they were found, with a trie rejecting
+ * variants of answers already present. While the table is incomplete,
+ * suspended consumers are notified of every new answer; once it is
+ * complete the answer list never changes again.
+ */
+public class SubgoalTable {
+    private final Term variant;
+    private final VariantTrie<Clause> trie = new VariantTrie<>();
+    private final java.util.List<Clause> answers = new ArrayList<>();
+    private final java.util.List<Consumer<Clause>> consumers = new ArrayList<>();
+    private Evaluation evaluation;
+    private volatile boolean complete = false;
+
+    SubgoalTable(Term variant, Evaluation evaluation) {
+        this.variant = variant;
+        this.evaluation = evaluation;
+    }
+
+    /**
+     * Gets the call this table answers, with fresh variables.
+     */
+    public Term getVariant() {
+        return variant;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Gets the evaluation that is computing this table.
+     * @return the evaluation, or null once the table is complete
+     */
+    public Evaluation getEvaluation() {
+        return evaluation;
+    }
+
+    /**
+     * Gets the answers found so far, each stored as a fact.
+     */
+    public java.util.List<Clause> getAnswers() {
+        return Collections.unmodifiableList(answers);
+    }
+
+    public int getAnswerCount() {
+        return answers.size();
+    }
+
+    boolean addAnswer(Clause answer) {
+        if (trie.putIfAbsent(answer.getHead(), answer) != null) {
+            return false;
+        }
+        answers.add(answer);
+        return true;
+    }
+
+    java.util.List<Consumer<Clause>> getConsumers() {
+        return consumers;
+    }
+
+    void complete() {
+        evaluation = null;
+        consumers.clear();
+        // Set last, so a thread that sees the table complete sees all its answers
+        complete = true;
+    }
+}
@@ -0,0 +1,223 @@
+package it.denzosoft.prolog.tabling;
+
+import it.denzosoft.prolog.model.*;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * The tabled predicates of a database and the answer tables computed for
+ * their calls.
+ * <p>
+ * Tables are found by call variant, through one trie per predicate. They
+ * outlive the queries that computed them until they are abolished, which
+ * releases their answers, or until the clauses change, which invalidates
+ * them all.
+ * <p>
+ * A table space may be shared by threads. It is its own lock, held by its
+ * methods only for as long as they run. Evaluations take the separate
+ * {@link #getEvaluationLock() evaluation lock} for their whole run, so
+ * they happen one at a time, while complete tables are read, and the
+ * clauses changed, by any number of threads.
+ */
+public class TableSpace {
+    private final Set<String> tabled = ConcurrentHashMap.newKeySet();
+    private final Object evaluationLock = new Object();
+    private Map<String, VariantTrie<SubgoalTable>> tables = new HashMap<>();
+    private volatile Scheduling scheduling = Scheduling.LOCAL;
+    private volatile Evaluation evaluation;
+    private long variableCounter = 0;
+
+    /**
+     * Declares a predicate as tabled.
+     */
+    public void declare(String name, int arity) {
+        tabled.add(indicator(name, arity));
+    }
+
+    /**
+     * Declares every predicate tabled in another table space.
+     */
+    public void declareAll(TableSpace other) {
+        tabled.addAll(other.tabled);
+    }
+
+    /**
+     * Checks whether any predicate has been declared tabled.
+     */
+    public boolean hasTabledPredicates() {
+        return !tabled.isEmpty();
+    }
+
+    public boolean isTabled(String name, int arity) {
+        return !tabled.isEmpty() && tabled.contains(indicator(name, arity));
+    }
+
+    public Scheduling getScheduling() {
+        return scheduling;
+    }
+
+    public void setScheduling(Scheduling scheduling) {
+        this.scheduling = scheduling;
+    }
+
+    /**
+     * Gets the lock held while running evaluations and creating the tables
+     * they evaluate. It is taken before the table space's own lock, never
+     * while holding it.
+     */
+    public Object getEvaluationLock() {
+        return evaluationLock;
+    }
+
+    /**
+     * Finds the table of a variant of the call.
+     * @param caller the evaluation making the call, or null for a query
+     * @return the table, or null if the call has not been evaluated
+     */
+    public synchronized SubgoalTable lookup(String name, int arity, Term call, Evaluation caller) {
+        VariantTrie<SubgoalTable> trie = tablesOf(caller).get(indicator(name, arity));
+        return trie != null ? trie.get(call) : null;
+    }
+
+    /**
+     * Creates the table of a new call and adds it to the evaluation making
+     * the call or, for a query, to the running evaluation, starting one if
+     * needed.
+     * @param caller the evaluation making the call, or null for a query
+     */
+    public synchronized SubgoalTable create(String name, int arity, Term call, Evaluation caller) {
+        Evaluation target = caller;
+        if (target == null) {
+            if (evaluation == null) {
+                evaluation = new Evaluation(this, tables);
+            }
+            target = evaluation;
+        }
+        SubgoalTable table = new SubgoalTable(copy(call), target);
+        VariantTrie<SubgoalTable> trie = target.getTables().computeIfAbsent(indicator(name, arity), key -> new VariantTrie<>());
+        if (trie.putIfAbsent(call, table) != null) {
+            throw new IllegalStateException("Call is already tabled: " + call);
+        }
+        target.register(table);
+        return table;
+    }
+
+    /**
+     * Gets the evaluation in progress.
+     * @return the evaluation, or null if every table is complete
+     */
+    public Evaluation getEvaluation() {
+        return evaluation;
+    }
+
+    /**
+     * Discards every table.
+     * @throws IllegalStateException if tables are being evaluated
+     */
+    public synchronized void abolishAllTables() {
+        checkIdle();
+        tables.clear();
+    }
+
+    /**
+     * Discards every table, as the clauses they were computed from have
+     * changed. Tables being evaluated are detached rather than discarded:
+     * their evaluation goes on for the queries already reading it, even one
+     * cut short that will never finish it, while later calls start new
+     * tables.
+     */
+    public synchronized void invalidate() {
+        tables = new HashMap<>();
+        evaluation = null;
+    }
+
+    /**
+     * Discards the tables of one predicate.
+     * @throws IllegalStateException if tables are being evaluated
+     */
+    public synchronized void abolishTables(String name, int arity) {
+        checkIdle();
+        tables.remove(indicator(name, arity));
+    }
+
+    public synchronized int getTableCount() {
+        int count = 0;
+        for (VariantTrie<SubgoalTable> trie : tables.values()) {
+            count += trie.size();
+        }
+        return count;
+    }
+
+    /**
+     * Copies a term with fresh variables, so that it no longer depends on
+     * the bindings of the query that produced it.
+     */
+    public synchronized Term copy(Term term) {
+        return copy(term, new IdentityHashMap<>());
+    }
+
+    synchronized void finished(Evaluation finished) {
+        if (evaluation == finished) {
+            evaluation = null;
+        }
+    }
+
+    private Term copy(Term term, Map<Variable, Variable> fresh) {
+        while (term instanceof Variable && ((Variable) term).isBound()) {
+            term = ((Variable) term).getBinding();
+        }
+        if (term instanceof Variable) {
+            Variable copy = fresh.get(term);
+            if (copy == null) {
+                copy = new Variable("_T" + (variableCounter++));
+                fresh.put((Variable) term, copy);
+            }
+            return copy;
+        }
+        if (term instanceof Struct) {
+            Struct struct = (Struct) term;
+            Term[] args = new Term[struct.getArity()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = copy(struct.getArg(i), fresh);
+            }
+            return new Struct(struct.getFunctor(), args);
+        }
+        if (term instanceof it.denzosoft.prolog.model.List) {
+            // Copy the spine iteratively so long lists do not overflow the stack
+            java.util.List<Term> heads = new java.util.ArrayList<>();
+            Term current = term;
+            while (current instanceof it.denzosoft.prolog.model.List) {
+                it.denzosoft.prolog.model.List cell = (it.denzosoft.prolog.model.List) current;
+                heads.add(copy(cell.getHead(), fresh));
+                current = cell.getTail();
+                while (current instanceof Variable && ((Variable) current).isBound()) {
+                    current = ((Variable) current).getBinding();
+                }
+            }
+            Term result = copy(current, fresh);
+            for (int i = heads.size() - 1; i >= 0; i--) {
+                result = new it.denzosoft.prolog.model.List(heads.get(i), result);
+            }
+            return result;
+        }
+        return term;
+    }
+
+    private Map<String, VariantTrie<SubgoalTable>> tablesOf(Evaluation caller) {
+        return caller != null ? caller.getTables() : tables;
+    }
+
+    private void checkIdle() {
+        if (evaluation != null) {
+            throw new IllegalStateException("Cannot abolish tables while they are being evaluated");
+        }
+    }
+
+    private static String indicator(String name, int arity) {
+        return name + "/" + arity;
+    }
+}
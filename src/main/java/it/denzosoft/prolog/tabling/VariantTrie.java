@@ -0,0 +1,109 @@
+package it.denzosoft.prolog.tabling;
+
+import it.denzosoft.prolog.model.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+/**
+ * Maps terms to values up to variance: two terms that differ only in the
+ * names of their variables reach the same entry.
+ * <p>
+ * A term is walked in preorder and every symbol selects a child node: atoms
+ * and numbers stand for themselves, structures for their name and arity,
+ * and variables for the position of their first occurrence. Terms sharing
+ * a prefix share the nodes of that prefix, and a lookup costs one hash
+ * probe per symbol whatever the number of entries.
+ */
+public class VariantTrie<V> {
+    private final Node<V> root = new Node<>();
+    private int size = 0;
+
+    /**
+     * Gets the value stored for a variant of the term.
+     * @return the value, or null if there is none
+     */
+    public V get(Term term) {
+        Node<V> node = walk(term, false);
+        return node != null ? node.value : null;
+    }
+
+    /**
+     * Stores a value for the term unless a variant is already present.
+     * @return the value already stored, or null if the value was added
+     */
+    public V putIfAbsent(Term term, V value) {
+        Node<V> node = walk(term, true);
+        if (node.value != null) {
+            return node.value;
+        }
+        node.value = value;
+        size++;
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        root.children.clear();
+        root.value = null;
+        size = 0;
+    }
+
+    private Node<V> walk(Term term, boolean create) {
+        Map<Variable, Integer> numbering = new IdentityHashMap<>();
+        Deque<Term> pending = new ArrayDeque<>();
+        pending.push(term);
+        Node<V> node = root;
+        while (!pending.isEmpty()) {
+            Term current = pending.pop();
+            while (current instanceof Variable && ((Variable) current).isBound()) {
+                current = ((Variable) current).getBinding();
+            }
+
+            Object symbol;
+            if (current instanceof Variable) {
+                Integer index = numbering.get(current);
+                if (index == null) {
+                    index = numbering.size();
+                    numbering.put((Variable) current, index);
+                }
+                symbol = index;
+            } else if (current instanceof Struct) {
+                Struct struct = (Struct) current;
+                symbol = struct.getFunctor().getValue() + "/" + struct.getArity();
+                for (int i = struct.getArity() - 1; i >= 0; i--) {
+                    pending.push(struct.getArg(i));
+                }
+            } else if (current instanceof it.denzosoft.prolog.model.List) {
+                it.denzosoft.prolog.model.List list = (it.denzosoft.prolog.model.List) current;
+                symbol = "./2";
+                pending.push(list.getTail());
+                pending.push(list.getHead());
+            } else {
+                symbol = current;
+            }
+
+            Node<V> child = node.children.get(symbol);
+            if (child == null) {
+                if (!create) {
+                    return null;
+                }
+                child = new Node<>();
+                node.children.put(symbol, child);
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    private static final class Node<V> {
+        private final Map<Object, Node<V>> children = new HashMap<>(4);
+        private V value;
+    }
+}
@@ -0,0 +1,48 @@
+package it.denzosoft.prolog.benchmark;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.Term;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.query.BatchQueries;
+import it.denzosoft.prolog.query.BatchResult;
+import it.denzosoft.prolog.query.PreparedQuery;
+import it.denzosoft.prolog.query.Query;
+
+
+/**
+ * Compares solving many small goals one query at a time with solving them
+ * as a batch, where repeated goals are solved once.
+ * Run with: java -cp target/classes:target/test-classes
+ *     it.denzosoft.prolog.benchmark.BatchBenchmark [skus] [goals]
+ */
+public class BatchBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int skus = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        Database db = new Database();
+        for (int i = 0; i < skus; i++) {
+            db.addClause(Parser.parseClauseFromString("sku(s" + i + ", " + (i % 100) + ")."));
+        }
+        db.addClause(Parser.parseClauseFromString("valid(S) :- sku(S, P), P > 10."));
+        PreparedQuery valid = PreparedQuery.prepare("valid(S)", "S");
+        java.util.List<Term> goals = new java.util.ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            goals.add(valid.bind("s" + (i * 7919 % skus)));
+        }
+        BatchQueries batches = new BatchQueries(db);
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            int answers = 0;
+            for (int i = 0; i < count; i++) {
+                answers += new Query(valid.bind("s" + (i * 7919 % skus)), db).solve().size();
+            }
+            long single = System.nanoTime() - start;
+            BatchResult result = batches.run(goals);
+            System.out.printf("round %d: one by one %8.0f goals/s (%d answers), batch %s%n",
+                    round, count * 1e9 / single, answers, result);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package it.denzosoft.prolog.benchmark;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.datalog.DatalogEvaluator;
+import it.denzosoft.prolog.datalog.Relation;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.query.Query;
+import java.util.Random;
+
+
+/**
+ * Compares top-down tabled evaluation with bottom-up semi-naive evaluation
+ * on the transitive closure of a random graph.
+ * Run with: java -cp target/classes:target/test-classes
+ *     it.denzosoft.prolog.benchmark.ClosureBenchmark [nodes] [edges]
+ */
+public class ClosureBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int edges = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+
+        Random random = new Random(42);
+        Database tabled = new Database();
+        Database bottomUp = new Database();
+        tabled.addClause(Parser.parseClauseFromString(":- table path/2."));
+        for (int i = 0; i < edges; i++) {
+            String edge = "edge(n" + random.nextInt(nodes) + ", n" + random.nextInt(nodes) + ").";
+            tabled.addClause(Parser.parseClauseFromString(edge));
+            bottomUp.addClause(Parser.parseClauseFromString(edge));
+        }
+        for (Database db : new Database[] {tabled, bottomUp}) {
+            db.addClause(Parser.parseClauseFromString("path(X, Y) :- edge(X, Y)."));
+            db.addClause(Parser.parseClauseFromString("path(X, Y) :- path(X, Z), edge(Z, Y)."));
+        }
+
+        long start = System.nanoTime();
+        int answers = new Query(Parser.parseTermFromString("path(X, Y)"), tabled).solve().size();
+        System.out.printf("tabled    : %8.2f ms, %d tuples%n", (System.nanoTime() - start) / 1e6, answers);
+
+        start = System.nanoTime();
+        DatalogEvaluator evaluator = new DatalogEvaluator(bottomUp);
+        Relation path = evaluator.evaluate("path", 2);
+        System.out.printf("semi-naive: %8.2f ms, %d tuples, %d rounds, %d derivations%n",
+                (System.nanoTime() - start) / 1e6, path.size(), evaluator.getIterations(), evaluator.getDerivations());
+    }
+}
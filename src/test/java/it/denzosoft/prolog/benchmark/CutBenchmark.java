@@ -0,0 +1,54 @@
+package it.denzosoft.prolog.benchmark;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.query.Query;
+
+
+/**
+ * Measures the effect of cut on a deterministic lookup-table workload.
+ * A table of facts is queried through three versions of the same rule:
+ * without cut, with a cut after the lookup, and through once/1.
+ * Run with: java -cp target/classes:target/test-classes
+ *     it.denzosoft.prolog.benchmark.CutBenchmark [tableSize] [lookups]
+ */
+public class CutBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tableSize = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        Database db = new Database();
+        for (int i = 0; i < tableSize; i++) {
+            db.addClause(Parser.parseClauseFromString("rate(k" + i + ", " + i + ")."));
+        }
+        db.addClause(Parser.parseClauseFromString("plain(K, V) :- rate(K, V)."));
+        db.addClause(Parser.parseClauseFromString("pruned(K, V) :- rate(K, V), !."));
+
+        run(db, "plain", lookups, tableSize, 3);
+        run(db, "pruned", lookups, tableSize, 3);
+        run(db, "once-plain", lookups, tableSize, 3);
+    }
+
+    private static void run(Database db, String rule, int lookups, int tableSize, int rounds) throws Exception {
+        for (int round = 0; round < rounds; round++) {
+            long inferences = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                // Look up keys in the first tenth of the table, where pruning matters most
+                int key = (i * 7) % Math.max(1, tableSize / 10);
+                String goal = rule.equals("once-plain")
+                        ? "once(plain(k" + key + ", V))"
+                        : rule + "(k" + key + ", V)";
+                Query query = new Query(Parser.parseTermFromString(goal), db);
+                if (query.solve().size() != 1) {
+                    throw new IllegalStateException("Expected one answer for " + goal);
+                }
+                inferences += query.getInferenceCount();
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-10s round %d: %8.2f ms, %6.1f us/lookup, %d inferences%n",
+                    rule, round, elapsed / 1e6, elapsed / 1e3 / lookups, inferences);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package it.denzosoft.prolog.benchmark;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.query.JoinStrategy;
+import it.denzosoft.prolog.query.Query;
+
+
+/**
+ * Compares nested-loop and hash-join execution of a three-way join over
+ * fact tables. The conjunction probes order/2 on its second argument,
+ * which first-argument indexing cannot narrow down.
+ * Run with: java -cp target/classes:target/test-classes
+ *     it.denzosoft.prolog.benchmark.JoinBenchmark [orders] [customers]
+ */
+public class JoinBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int customers = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int regions = 20;
+
+        Database db = new Database();
+        for (int r = 0; r < regions; r++) {
+            db.addClause(Parser.parseClauseFromString("region_tax(r" + r + ", " + (r % 7) + ")."));
+        }
+        for (int c = 0; c < customers; c++) {
+            db.addClause(Parser.parseClauseFromString("customer(c" + c + ", r" + (c % regions) + ")."));
+        }
+        for (int o = 0; o < orders; o++) {
+            db.addClause(Parser.parseClauseFromString("order(o" + o + ", c" + ((o * 31) % customers) + ")."));
+        }
+
+        String goal = "region_tax(R, T), customer(C, R), order(O, C)";
+        for (JoinStrategy strategy : new JoinStrategy[] {JoinStrategy.NESTED_LOOP, JoinStrategy.HASH}) {
+            for (int round = 0; round < 3; round++) {
+                Query query = new Query(Parser.parseTermFromString(goal), db);
+                query.setJoinStrategy(strategy);
+                long start = System.nanoTime();
+                int answers = query.solve().size();
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("%-11s round %d: %8.2f ms, %d answers, %d inferences%n",
+                        strategy, round, elapsed / 1e6, answers, query.getInferenceCount());
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package it.denzosoft.prolog.benchmark;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.query.Query;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Measures OR-parallel speedup on a generate-and-test search: five
+ * distinct digits with constraints on their sum and products, which
+ * enumerates all 15,120 assignments.
+ * Run with: java -cp target/classes:target/test-classes
+ *     it.denzosoft.prolog.benchmark.OrParallelBenchmark [maxWorkers]
+ */
+public class OrParallelBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxWorkers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+
+        Database db = new Database();
+        for (int i = 1; i <= 9; i++) {
+            db.addClause(Parser.parseClauseFromString("digit(" + i + ")."));
+        }
+        db.addClause(Parser.parseClauseFromString(
+                "config(A, B, C, D, E) :- digit(A), digit(B), B =\\= A, digit(C), C =\\= A, C =\\= B,"
+                + " digit(D), D =\\= A, D =\\= B, D =\\= C,"
+                + " digit(E), E =\\= A, E =\\= B, E =\\= C, E =\\= D,"
+                + " A + B + C + D + E =:= 25, A * B - C * D + E =:= 17."));
+
+        run(db, null, 3);
+        for (int workers = 1; workers <= maxWorkers; workers *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            try {
+                run(db, pool, 3);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static void run(Database db, ForkJoinPool pool, int rounds) throws Exception {
+        for (int round = 0; round < rounds; round++) {
+            Query query = new Query(Parser.parseTermFromString("config(A, B, C, D, E)"), db);
+            query.setOrParallel(pool, false);
+            long start = System.nanoTime();
+            int answers = query.solve().size();
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-12s round %d: %8.2f ms, %d answers, %d branches%n",
+                    pool == null ? "sequential" : pool.getParallelism() + " workers",
+                    round, elapsed / 1e6, answers, query.getBranchCount());
+        }
+    }
+}
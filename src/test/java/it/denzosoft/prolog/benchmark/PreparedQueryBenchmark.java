@@ -0,0 +1,50 @@
+package it.denzosoft.prolog.benchmark;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.query.Engine;
+import it.denzosoft.prolog.query.PreparedQuery;
+
+
+/**
+ * Compares building a goal string and parsing it for every lookup with
+ * running a prepared query with the key as parameter.
+ * Run with: java -cp target/classes:target/test-classes
+ *     it.denzosoft.prolog.benchmark.PreparedQueryBenchmark [tableSize] [lookups]
+ */
+public class PreparedQueryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tableSize = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        Database db = new Database();
+        for (int i = 0; i < tableSize; i++) {
+            db.addClause(Parser.parseClauseFromString("account(a" + i + ", owner" + i + ", " + i + ")."));
+        }
+        Engine engine = new Engine(db);
+        PreparedQuery prepared = PreparedQuery.prepare("account(Id, Owner, Balance), Balance >= 0", "Id");
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                String goal = "account(a" + (i % tableSize) + ", Owner, Balance), Balance >= 0";
+                check(engine.solve(Parser.parseTermFromString(goal)).size());
+            }
+            long parsed = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                check(prepared.query(engine, "a" + (i % tableSize)).solve().size());
+            }
+            long bound = System.nanoTime() - start;
+            System.out.printf("round %d: parsed %6.2f us/lookup, prepared %6.2f us/lookup%n",
+                    round, parsed / 1e3 / lookups, bound / 1e3 / lookups);
+        }
+    }
+
+    private static void check(int answers) {
+        if (answers != 1) {
+            throw new IllegalStateException("Expected one answer, got " + answers);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package it.denzosoft.prolog.benchmark;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.query.Query;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Measures query throughput on one database shared by reader threads
+ * while a writer keeps asserting and retracting facts of the predicate
+ * they read.
+ * Run with: java -cp target/classes:target/test-classes
+ *     it.denzosoft.prolog.benchmark.SharedDatabaseBenchmark [maxReaders]
+ */
+public class SharedDatabaseBenchmark {
+    private static final int KEYS = 1000;
+    private static final long MILLIS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int maxReaders = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+
+        Database db = new Database();
+        for (int i = 0; i < KEYS; i++) {
+            db.addClause(Parser.parseClauseFromString("price(item" + i + ", " + i + ")."));
+        }
+        db.addClause(Parser.parseClauseFromString("cheap(I) :- price(I, P), P < 10."));
+
+        for (int readers = 1; readers <= maxReaders; readers *= 2) {
+            run(db, readers);
+        }
+    }
+
+    private static void run(Database db, int readers) throws Exception {
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicLong queries = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        Thread[] threads = new Thread[readers];
+        for (int t = 0; t < readers; t++) {
+            int seed = t;
+            threads[t] = new Thread(() -> {
+                int n = seed;
+                long count = 0;
+                while (!done.get()) {
+                    Term goal = new Struct(new Atom("price"), new Atom("item" + (n++ % KEYS)), new Variable("P"));
+                    new Query(goal, db).solve();
+                    if (n % 16 == 0) {
+                        new Query(new Struct(new Atom("cheap"), new Variable("I")), db).solve();
+                    }
+                    count++;
+                }
+                queries.addAndGet(count);
+            });
+        }
+        Thread writer = new Thread(() -> {
+            int n = 0;
+            while (!done.get()) {
+                Clause clause = new Clause(new Struct(new Atom("price"), new Atom("extra" + n++),
+                        new it.denzosoft.prolog.model.Number(n)), null);
+                db.addClause(clause);
+                db.removeClause(clause);
+                writes.incrementAndGet();
+            }
+        });
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        writer.start();
+        Thread.sleep(MILLIS);
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writer.join();
+        System.out.printf("%2d readers: %,12.0f queries/s, %,10.0f writes/s%n",
+                readers, queries.get() * 1000.0 / MILLIS, writes.get() * 1000.0 / MILLIS);
+    }
+}
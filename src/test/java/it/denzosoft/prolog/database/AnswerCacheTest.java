@@ -0,0 +1,103 @@
+package it.denzosoft.prolog.database;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.query.Query;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+public class AnswerCacheTest {
+
+    private static Database taxes() throws Exception {
+        Database db = new Database();
+        db.addClause(Parser.parseClauseFromString(":- cache(tax/3)."));
+        db.addClause(Parser.parseClauseFromString("rate(de, books, 7)."));
+        db.addClause(Parser.parseClauseFromString("rate(de, food, 7)."));
+        db.addClause(Parser.parseClauseFromString("rate(de, cars, 19)."));
+        db.addClause(Parser.parseClauseFromString("tax(C, K, R) :- rate(C, K, R)."));
+        db.addClause(Parser.parseClauseFromString("other(x)."));
+        return db;
+    }
+
+    private static java.util.List<Map<String, Term>> solve(Database db, String goal) throws Exception {
+        return new Query(Parser.parseTermFromString(goal), db).solve();
+    }
+
+    @Test
+    public void testVariantsShareAnEntry() throws Exception {
+        Database db = taxes();
+        AnswerCache cache = db.getAnswerCache();
+        assertEquals("7", solve(db, "tax(de, books, R)").get(0).get("R").toString());
+        assertEquals("7", solve(db, "tax(de, books, Rate)").get(0).get("Rate").toString());
+        assertEquals(3, solve(db, "tax(de, K, R)").size());
+        assertEquals(3, solve(db, "tax(de, Kind, X)").size());
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRatio(), 1e-9);
+        // Answers are served without resolving rate/3: the only call is tax/3
+        Query query = new Query(Parser.parseTermFromString("tax(de, K, R)"), db);
+        assertEquals(3, query.solve().size());
+        assertEquals(1, query.getStatistics().getCalls());
+    }
+
+    @Test
+    public void testOperatorDirective() throws Exception {
+        Database db = new Database();
+        db.addClause(Parser.parseClauseFromString(":- cache tax/3, other/1."));
+        db.addClause(Parser.parseClauseFromString("tax(de, books, 7)."));
+        solve(db, "tax(de, books, R)");
+        solve(db, "tax(de, books, R)");
+        assertEquals(1, db.getAnswerCache().size());
+        assertEquals(1, db.getAnswerCache().getHitCount());
+    }
+
+    @Test
+    public void testInvalidatedByDependencies() throws Exception {
+        Database db = taxes();
+        AnswerCache cache = db.getAnswerCache();
+        assertEquals(3, solve(db, "tax(de, K, R)").size());
+        db.addClause(Parser.parseClauseFromString("other(y)."));
+        assertEquals(1, cache.size());
+        db.addClause(Parser.parseClauseFromString("rate(de, wine, 19)."));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(4, solve(db, "tax(de, K, R)").size());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        Database db = taxes();
+        AnswerCache cache = db.getAnswerCache();
+        cache.setMaxEntries(2);
+        solve(db, "tax(de, books, R)");
+        solve(db, "tax(de, food, R)");
+        solve(db, "tax(de, books, R)");
+        solve(db, "tax(de, cars, R)");
+        // food was the least recently used
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        solve(db, "tax(de, books, R)");
+        assertEquals(2, cache.getHitCount());
+
+        cache.setTimeToLive(1, TimeUnit.MILLISECONDS);
+        Thread.sleep(5);
+        solve(db, "tax(de, books, R)");
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void testVariantKey() throws Exception {
+        assertEquals(AnswerCache.variantKey(Parser.parseTermFromString("p(X, f(Y, X))")),
+                AnswerCache.variantKey(Parser.parseTermFromString("p(A, f(B, A))")));
+        assertNotEquals(AnswerCache.variantKey(Parser.parseTermFromString("p(X, f(Y, X))")),
+                AnswerCache.variantKey(Parser.parseTermFromString("p(X, f(X, Y))")));
+        assertNotEquals(AnswerCache.variantKey(Parser.parseTermFromString("p('f(a)')")),
+                AnswerCache.variantKey(Parser.parseTermFromString("p(f(a))")));
+    }
+}
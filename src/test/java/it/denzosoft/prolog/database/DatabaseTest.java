@@ -4,7 +4,13 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 
 import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.query.Query;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 public class DatabaseTest {
@@ -40,4 +46,167 @@ public class DatabaseTest {
         assertEquals(0, db.getClauses().size());
         assertEquals(0, db.getDynamicClauses().size());
     }
+
+    @Test
+    public void testStatistics() throws Exception {
+        Database db = new Database();
+        Atom[] colors = {new Atom("red"), new Atom("green")};
+        for (int i = 0; i < 6; i++) {
+            db.addClause(new Clause(new Struct(new Atom("paint"), new Atom("p" + i), colors[i % 2]), null));
+        }
+        PredicateStatistics stats = db.getStatistics("paint", 2);
+        assertEquals(6, stats.getCardinality());
+        assertEquals(6, stats.getDistinct(0));
+        assertEquals(2, stats.getDistinct(1));
+        assertEquals(3.0, stats.estimateMatches(2L), 1e-9);
+
+        db.removeClause(db.getClauses().get(0));
+        db.removeClause(db.getClauses().get(1));
+        stats = db.getStatistics("paint", 2);
+        assertEquals(4, stats.getCardinality());
+        assertEquals(2, stats.getDistinct(1));
+        assertNull(db.getStatistics("paint", 3));
+    }
+
+    @Test
+    public void testLogicalUpdateView() throws Exception {
+        Database db = new Database();
+        Clause[] facts = new Clause[40];
+        for (int i = 0; i < facts.length; i++) {
+            facts[i] = new Clause(new Struct(new Atom("n"), new it.denzosoft.prolog.model.Number(i)), null);
+            db.addClause(facts[i]);
+        }
+        Term goal = new Struct(new Atom("n"), new Variable("X"));
+        Iterator<Clause> before = db.clauseIterator(goal);
+        db.addClause(new Clause(new Struct(new Atom("n"), new it.denzosoft.prolog.model.Number(40)), null));
+        for (int i = 0; i < 30; i++) {
+            assertTrue(db.removeClause(facts[i]));
+        }
+        assertFalse(db.removeClause(facts[0]));
+
+        // The earlier iterator still sees the 40 clauses of its generation
+        int seen = 0;
+        while (before.hasNext()) {
+            assertSame(facts[seen++], before.next());
+        }
+        assertEquals(40, seen);
+        assertEquals(11, db.findClauses(goal).size());
+        assertEquals(11, db.getClauses().size());
+        assertSame(facts[30], db.getClauses().get(0));
+    }
+
+    @Test
+    public void testConcurrentReadersAndWriter() throws Exception {
+        Database db = new Database();
+        for (int i = 0; i < 100; i++) {
+            db.addClause(new Clause(new Struct(new Atom("p"), new Atom("a" + i)), null));
+        }
+        Term goal = new Struct(new Atom("p"), new Variable("X"));
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        // The writer keeps the count between 100 and 101
+                        int count = db.findClauses(goal).size();
+                        if (count != 100 && count != 101) {
+                            throw new AssertionError("Inconsistent snapshot of " + count + " clauses");
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            readers[t].start();
+        }
+        for (int i = 0; i < 5000; i++) {
+            Clause clause = new Clause(new Struct(new Atom("p"), new Atom("b" + i)), null);
+            db.addClause(clause);
+            db.removeClause(db.getClauses().get(0));
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(error.get());
+        assertEquals(100, db.findClauses(goal).size());
+    }
+
+    @Test
+    public void testConcurrentWritersAndTabledReaders() throws Exception {
+        Database db = new Database();
+        for (String clause : new String[] {
+                ":- table path/2.",
+                "path(X, Y) :- path(X, Z), edge(Z, Y).",
+                "path(X, Y) :- edge(X, Y).",
+                "edge(a, b).", "edge(b, c).", "edge(c, a).", "edge(c, d)."}) {
+            db.addClause(Parser.parseClauseFromString(clause));
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        // The writer only touches edges unreachable from a
+                        int count = new Query(Parser.parseTermFromString("path(a, Y)"), db).solve().size();
+                        if (count != 4) {
+                            throw new AssertionError("Expected 4 answers, got " + count);
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            readers[t].start();
+        }
+        for (int i = 0; i < 2000; i++) {
+            Clause clause = Parser.parseClauseFromString("edge(x" + i + ", y).");
+            db.addClause(clause);
+            db.removeClause(clause);
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(error.get());
+    }
+
+    @Test(timeout = 10_000)
+    public void testWritersAndReadersDoNotWaitForEvaluations() throws Exception {
+        Database db = new Database();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        db.getForeignPredicates().register("pause", 0, (context, args) -> {
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        });
+        for (String clause : new String[] {
+                ":- table slow/1.", "slow(X) :- pause, item(X).",
+                ":- table fast/1.", "fast(X) :- item(X).", "item(a)."}) {
+            db.addClause(Parser.parseClauseFromString(clause));
+        }
+        assertEquals(1, new Query(Parser.parseTermFromString("fast(X)"), db).solve().size());
+
+        AtomicReference<Integer> slow = new AtomicReference<>();
+        Term goal = Parser.parseTermFromString("slow(X)");
+        Thread evaluating = new Thread(() -> slow.set(new Query(goal, db).solve().size()));
+        evaluating.start();
+        entered.await();
+        // The evaluation is paused: complete tables are read and clauses added meanwhile
+        assertEquals(1, new Query(Parser.parseTermFromString("fast(X)"), db).solve().size());
+        db.addClause(Parser.parseClauseFromString("item(b)."));
+        release.countDown();
+        evaluating.join();
+        assertEquals(Integer.valueOf(2), slow.get());
+        assertEquals(2, new Query(Parser.parseTermFromString("fast(X)"), db).solve().size());
+    }
 }
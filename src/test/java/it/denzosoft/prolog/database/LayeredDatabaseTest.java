@@ -0,0 +1,106 @@
+package it.denzosoft.prolog.database;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.query.Query;
+import java.util.Iterator;
+import java.util.List;
+
+
+public class LayeredDatabaseTest {
+
+    private static Database base() throws Exception {
+        Database db = new Database();
+        db.addClause(Parser.parseClauseFromString("plan(basic, 10)."));
+        db.addClause(Parser.parseClauseFromString("plan(pro, 30)."));
+        db.addClause(Parser.parseClauseFromString("plan(team, 90)."));
+        db.addClause(Parser.parseClauseFromString("affordable(P) :- plan(P, C), budget(B), C =< B."));
+        return db;
+    }
+
+    private static int count(Database db, String goal) throws Exception {
+        return new Query(Parser.parseTermFromString(goal), db).solve().size();
+    }
+
+    @Test
+    public void testLayersAreIndependent() throws Exception {
+        Database base = base();
+        LayeredDatabase alice = new LayeredDatabase(base);
+        LayeredDatabase bob = new LayeredDatabase(base);
+        alice.addClause(Parser.parseClauseFromString("budget(50)."));
+        bob.addClause(Parser.parseClauseFromString("budget(100)."));
+        bob.addClause(Parser.parseClauseFromString("plan(custom, 70)."));
+
+        assertEquals(2, count(alice, "affordable(P)"));
+        assertEquals(4, count(bob, "affordable(P)"));
+        assertEquals(0, count(base, "affordable(P)"));
+        assertEquals(3, count(base, "plan(P, C)"));
+        assertEquals(5, alice.getClauses().size());
+        assertEquals(4, base.getClauses().size());
+    }
+
+    @Test
+    public void testRemovalHidesBaseClauseInLayerOnly() throws Exception {
+        Database base = base();
+        LayeredDatabase layer = new LayeredDatabase(base);
+        Clause pro = base.getClauses().get(1);
+        Term goal = Parser.parseTermFromString("plan(P, C)");
+        Iterator<Clause> before = layer.clauseIterator(goal);
+
+        assertTrue(layer.removeClause(pro));
+        assertFalse(layer.removeClause(pro));
+        assertEquals(2, count(layer, "plan(P, C)"));
+        assertEquals(0, count(layer, "plan(pro, C)"));
+        assertEquals(3, count(base, "plan(P, C)"));
+        assertEquals(2, layer.factCount(goal));
+        assertEquals(2, layer.getStatistics("plan", 2).getCardinality());
+
+        // An iterator created before the removal still sees the clause
+        int seen = 0;
+        while (before.hasNext()) {
+            before.next();
+            seen++;
+        }
+        assertEquals(3, seen);
+
+        layer.clear();
+        assertEquals(3, count(layer, "plan(P, C)"));
+    }
+
+    @Test
+    public void testLayerFactsJoinWithBase() throws Exception {
+        Database base = base();
+        LayeredDatabase layer = new LayeredDatabase(base);
+        layer.addClause(Parser.parseClauseFromString("plan(free, 0)."));
+        layer.addClause(Parser.parseClauseFromString("seat(free, 1)."));
+        layer.addClause(Parser.parseClauseFromString("seat(team, 10)."));
+        layer.removeClause(base.getClauses().get(2));
+        assertEquals(3, layer.factCount(Parser.parseTermFromString("plan(P, C)")));
+
+        List<Clause> plans = layer.findClauses(Parser.parseTermFromString("plan(P, C)"));
+        assertEquals(3, plans.size());
+        assertEquals("plan(free, 0)", plans.get(2).getHead().toString());
+        assertEquals(1, count(layer, "plan(P, C), seat(P, S)"));
+    }
+
+    @Test
+    public void testBaseChangesReachLayerTables() throws Exception {
+        Database base = new Database();
+        base.getTableSpace().declare("path", 2);
+        base.addClause(Parser.parseClauseFromString("path(X, Y) :- edge(X, Y)."));
+        base.addClause(Parser.parseClauseFromString("path(X, Y) :- edge(X, Z), path(Z, Y)."));
+        base.addClause(Parser.parseClauseFromString("edge(a, b)."));
+        Clause edge = Parser.parseClauseFromString("edge(b, c).");
+        base.addClause(edge);
+        LayeredDatabase layer = new LayeredDatabase(base);
+        assertEquals(2, count(layer, "path(a, X)"));
+
+        base.addClause(Parser.parseClauseFromString("edge(c, d)."));
+        assertEquals(3, count(layer, "path(a, X)"));
+        base.removeClause(edge);
+        assertEquals(1, count(layer, "path(a, X)"));
+    }
+}
@@ -0,0 +1,102 @@
+package it.denzosoft.prolog.datalog;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Lexer;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.query.Query;
+import java.io.StringReader;
+
+
+public class DatalogEvaluatorTest {
+
+    private static Database consult(String program) throws Exception {
+        Database db = new Database();
+        Parser parser = new Parser(new Lexer(new StringReader(program)));
+        while (!parser.isAtEnd()) {
+            db.addClause(parser.parseClause());
+        }
+        return db;
+    }
+
+    private static Tuple tuple(String... atoms) {
+        Term[] values = new Term[atoms.length];
+        for (int i = 0; i < atoms.length; i++) {
+            values[i] = new Atom(atoms[i]);
+        }
+        return new Tuple(values);
+    }
+
+    @Test
+    public void testTransitiveClosureOverCycle() throws Exception {
+        Database db = consult(
+                "edge(a, b). edge(b, c). edge(c, a). edge(c, d).\n"
+                + "path(X, Y) :- edge(X, Y).\n"
+                + "path(X, Y) :- path(X, Z), edge(Z, Y).\n");
+        DatalogEvaluator evaluator = new DatalogEvaluator(db);
+        Relation path = evaluator.evaluate("path", 2);
+        // a, b and c reach each other and d; d reaches nothing
+        assertEquals(12, path.size());
+        assertTrue(path.contains(tuple("a", "a")));
+        assertTrue(path.contains(tuple("b", "d")));
+        assertFalse(path.contains(tuple("d", "a")));
+        assertTrue(evaluator.getIterations() > 1);
+    }
+
+    @Test
+    public void testNonLinearRecursionAndStrata() throws Exception {
+        Database db = consult(
+                "parent(ann, bob). parent(ann, cid). parent(bob, dan). parent(cid, eve).\n"
+                + "person(X) :- parent(X, Y).\n"
+                + "person(Y) :- parent(X, Y).\n"
+                + "sg(X, X) :- person(X).\n"
+                + "sg(X, Y) :- parent(P, X), sg(P, Q), parent(Q, Y).\n");
+        Relation sg = new DatalogEvaluator(db).evaluate("sg", 2);
+        assertTrue(sg.contains(tuple("dan", "eve")));
+        assertTrue(sg.contains(tuple("bob", "cid")));
+        assertFalse(sg.contains(tuple("ann", "bob")));
+    }
+
+    @Test
+    public void testComparisonsAreScheduledAfterBindings() throws Exception {
+        Database db = consult(
+                "age(ann, 40). age(bob, 12). age(cid, 70).\n"
+                + "adult(X) :- A >= 18, age(X, A), X \\= cid.\n"
+                + "named(X) :- X = bob, age(X, A).\n");
+        DatalogEvaluator evaluator = new DatalogEvaluator(db);
+        Relation adult = evaluator.evaluate("adult", 1);
+        assertEquals(1, adult.size());
+        assertTrue(adult.contains(tuple("ann")));
+        assertEquals(1, evaluator.evaluate("named", 1).size());
+    }
+
+    @Test
+    public void testNonDatalogPredicatesAreRejected() throws Exception {
+        Database db = consult(
+                "nat(0).\n"
+                + "nat(N) :- nat(M), N is M + 1.\n"
+                + "wrap(f(X)) :- nat(X).\n"
+                + "loose(X, Y) :- nat(X).\n");
+        DatalogEvaluator evaluator = new DatalogEvaluator(db);
+        assertFalse(evaluator.isDatalog("nat", 1));
+        assertFalse(evaluator.isDatalog("wrap", 1));
+        assertFalse(evaluator.isDatalog("loose", 2));
+    }
+
+    @Test
+    public void testMaterializedRelationAnswersQueries() throws Exception {
+        Database db = consult(
+                "edge(1, 2). edge(2, 3). edge(3, 4).\n"
+                + "reach(X, Y) :- edge(X, Y).\n"
+                + "reach(X, Y) :- edge(X, Z), reach(Z, Y).\n");
+        new DatalogEvaluator(db).materialize("reach", 2);
+        Query query = new Query(Parser.parseTermFromString("reach(2, Y)"), db);
+        assertEquals(2, query.solve().size());
+        // Bound first argument: one call and one clause try per answer
+        assertEquals(3, query.getInferenceCount());
+        assertEquals(6, new Query(Parser.parseTermFromString("reach(X, Y)"), db).solve().size());
+    }
+}
@@ -0,0 +1,136 @@
+package it.denzosoft.prolog.datalog;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Lexer;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.query.Query;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.Set;
+
+
+public class MaterializedViewTest {
+
+    private static Database consult(String program) throws Exception {
+        Database db = new Database();
+        Parser parser = new Parser(new Lexer(new StringReader(program)));
+        while (!parser.isAtEnd()) {
+            db.addClause(parser.parseClause());
+        }
+        return db;
+    }
+
+    private static Clause fact(String text) throws Exception {
+        return new Parser(new Lexer(new StringReader(text))).parseClause();
+    }
+
+    private static Clause stored(Database db, String text) throws Exception {
+        Term head = Parser.parseTermFromString(text);
+        for (Clause clause : db.getClauses()) {
+            if (clause.getBody() == null && clause.getHead().toString().equals(head.toString())) {
+                return clause;
+            }
+        }
+        throw new AssertionError("No fact " + text);
+    }
+
+    /**
+     * Evaluates the predicate from scratch on a copy of the clauses.
+     */
+    private static Set<Tuple> recomputed(Database db, String name, int arity) {
+        Database copy = new Database();
+        for (Clause clause : db.getClauses()) {
+            copy.addClause(clause);
+        }
+        return toSet(new DatalogEvaluator(copy).evaluate(name, arity));
+    }
+
+    private static Set<Tuple> toSet(Relation relation) {
+        Set<Tuple> tuples = new HashSet<>();
+        for (Tuple tuple : relation) {
+            tuples.add(tuple);
+        }
+        return tuples;
+    }
+
+    @Test
+    public void testJoinViewCountsDerivations() throws Exception {
+        Database db = consult(
+                "works(ann, sales). works(bob, sales). works(cid, dev).\n"
+                + "located(sales, rome). located(dev, milan).\n"
+                + "city(P, C) :- works(P, D), located(D, C).\n"
+                + "cities(C) :- city(P, C).\n");
+        MaterializedView view = MaterializedView.create(db, "cities", 1);
+        assertEquals(2, view.getRelation().size());
+
+        db.addClause(fact("located(dev, rome)."));
+        assertEquals(recomputed(db, "cities", 1), toSet(view.getRelation()));
+        assertTrue(view.getLastUpdateCost() > 0);
+
+        // rome still has ann and bob through sales
+        db.removeClause(stored(db, "located(dev, rome)"));
+        db.removeClause(stored(db, "works(cid, dev)"));
+        assertEquals(recomputed(db, "cities", 1), toSet(view.getRelation()));
+        assertEquals(1, view.getRelation().size());
+        assertEquals(1, view.getRecomputationCount());
+        assertEquals(3, view.getUpdateCount());
+    }
+
+    @Test
+    public void testRecursiveViewDeleteAndRederive() throws Exception {
+        Database db = consult(
+                "edge(a, b). edge(b, c). edge(c, a). edge(c, d). edge(a, d).\n"
+                + "path(X, Y) :- edge(X, Y).\n"
+                + "path(X, Y) :- path(X, Z), edge(Z, Y).\n");
+        MaterializedView view = MaterializedView.create(db, "path", 2);
+        assertEquals(12, view.getRelation().size());
+
+        // Breaking the cycle leaves d reachable from a directly
+        db.removeClause(stored(db, "edge(c, a)"));
+        assertEquals(recomputed(db, "path", 2), toSet(view.getRelation()));
+        db.removeClause(stored(db, "edge(c, d)"));
+        assertEquals(recomputed(db, "path", 2), toSet(view.getRelation()));
+
+        db.addClause(fact("edge(d, a)."));
+        assertEquals(recomputed(db, "path", 2), toSet(view.getRelation()));
+        db.addClause(fact("edge(e, e)."));
+        assertEquals(recomputed(db, "path", 2), toSet(view.getRelation()));
+        assertEquals(1, view.getRecomputationCount());
+    }
+
+    @Test
+    public void testQueriesReadTheView() throws Exception {
+        Database db = consult(
+                "edge(1, 2). edge(2, 3).\n"
+                + "reach(X, Y) :- edge(X, Y).\n"
+                + "reach(X, Y) :- edge(X, Z), reach(Z, Y).\n");
+        MaterializedView view = MaterializedView.create(db, "reach", 2);
+        db.addDynamicClause(fact("edge(3, 4)."));
+        Query query = new Query(Parser.parseTermFromString("reach(2, Y)"), db);
+        assertEquals(2, query.solve().size());
+        assertEquals(3, query.getInferenceCount());
+
+        view.drop();
+        assertEquals(6, new Query(Parser.parseTermFromString("reach(X, Y)"), db).solve().size());
+    }
+
+    @Test
+    public void testRuleChangeRecomputes() throws Exception {
+        Database db = consult(
+                "edge(a, b). edge(b, c).\n"
+                + "path(X, Y) :- edge(X, Y).\n"
+                + "linked(X, Y) :- path(X, Y).\n");
+        MaterializedView view = MaterializedView.create(db, "linked", 2);
+        assertEquals(2, view.getRelation().size());
+        db.addClause(fact("path(X, Y) :- path(X, Z), edge(Z, Y)."));
+        assertEquals(3, view.getRelation().size());
+        assertEquals(2, view.getRecomputationCount());
+        // Facts of unrelated predicates are ignored
+        db.addClause(fact("color(red)."));
+        assertEquals(1, view.getUpdateCount());
+    }
+}
@@ -0,0 +1,102 @@
+package it.denzosoft.prolog.engine;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.database.LayeredDatabase;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.query.Query;
+import java.util.Map;
+
+
+public class ForeignPredicatesTest {
+
+    /**
+     * Registers upcase/2, deterministic, and between/3, enumerating the
+     * integers of a range.
+     */
+    private static Database withForeign() {
+        Database db = new Database();
+        ForeignPredicates foreign = db.getForeignPredicates();
+        foreign.register("upcase", 2, (context, args) -> {
+            Term in = context.deref(args[0]);
+            return in instanceof Atom
+                    && context.unify(args[1], new Atom(((Atom) in).getValue().toUpperCase()));
+        });
+        foreign.registerNondeterministic("between", 3, (context, args) -> {
+            int low = (int) ((it.denzosoft.prolog.model.Number) context.deref(args[0])).getValue();
+            int high = (int) ((it.denzosoft.prolog.model.Number) context.deref(args[1])).getValue();
+            int[] next = {low};
+            return again -> next[0] <= high
+                    && again.unify(args[2], new it.denzosoft.prolog.model.Number(next[0]++));
+        });
+        return db;
+    }
+
+    private static java.util.List<Map<String, Term>> solve(Database db, String goal) throws Exception {
+        return new Query(Parser.parseTermFromString(goal), db).solve();
+    }
+
+    @Test
+    public void testDeterministicPredicate() throws Exception {
+        Database db = withForeign();
+        assertEquals("ABC", solve(db, "upcase(abc, X)").get(0).get("X").toString());
+        assertTrue(solve(db, "upcase(1, X)").isEmpty());
+        assertTrue(solve(db, "upcase(abc, abc)").isEmpty());
+    }
+
+    @Test
+    public void testNondeterministicPredicate() throws Exception {
+        Database db = withForeign();
+        java.util.List<Map<String, Term>> solutions = solve(db, "between(1, 3, X)");
+        assertEquals(3, solutions.size());
+        assertEquals("3", solutions.get(2).get("X").toString());
+        assertEquals(1, solve(db, "between(1, 5, X), X > 4").size());
+        assertEquals(1, solve(db, "between(1, 5, X), !").size());
+        assertTrue(solve(db, "between(3, 1, X)").isEmpty());
+        // Each enumeration resumes independently on backtracking
+        assertEquals(6, solve(db, "between(1, 3, X), between(1, X, Y)").size());
+    }
+
+    @Test
+    public void testCallsInClausesAreBound() throws Exception {
+        Database db = withForeign();
+        Clause shout = Parser.parseClauseFromString("shout(X, Y) :- atom(X), upcase(X, Y).");
+        db.addClause(Parser.parseClauseFromString("atom(hello)."));
+        db.addClause(shout);
+        db.addClause(Parser.parseClauseFromString("square(N, S) :- between(1, N, X), S is X * X."));
+        Clause stored = db.findClauses(Parser.parseTermFromString("shout(A, B)")).get(0);
+        assertTrue(((Struct) stored.getBody()).getArg(1) instanceof ForeignGoal);
+        assertEquals("HELLO", solve(db, "shout(hello, Y)").get(0).get("Y").toString());
+        assertEquals("16", solve(db, "square(4, S)").get(3).get("S").toString());
+
+        // The clause as added still removes the stored one, also from a layer
+        LayeredDatabase layer = new LayeredDatabase(db);
+        assertTrue(layer.removeClause(shout));
+        assertTrue(solve(layer, "shout(hello, Y)").isEmpty());
+        assertEquals("ABC", solve(layer, "upcase(abc, X)").get(0).get("X").toString());
+        assertTrue(db.removeClause(shout));
+        assertTrue(solve(db, "shout(hello, Y)").isEmpty());
+    }
+
+    @Test
+    public void testReplacedDefinitionReachesBoundCalls() throws Exception {
+        Database db = new Database();
+        ForeignPredicates foreign = db.getForeignPredicates();
+        assertTrue(foreign.isEmpty());
+        foreign.register("v", 1, (context, args) -> context.unify(args[0], new Atom("old")));
+        assertFalse(foreign.isEmpty());
+        db.addClause(Parser.parseClauseFromString("w(X) :- v(X)."));
+        assertEquals("old", solve(db, "w(X)").get(0).get("X").toString());
+        foreign.register("v", 1, (context, args) -> context.unify(args[0], new Atom("new")));
+        assertEquals("new", solve(db, "w(X)").get(0).get("X").toString());
+        assertEquals("new", solve(db, "v(X)").get(0).get("X").toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testControlConstructsCannotBeRedefined() {
+        new Database().getForeignPredicates().register(",", 2, (context, args) -> true);
+    }
+}
@@ -0,0 +1,135 @@
+package it.denzosoft.prolog.engine;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.query.Query;
+import java.util.ArrayList;
+import java.util.Map;
+
+
+public class ListLibraryTest {
+
+    private static java.util.List<Map<String, Term>> solve(Database db, String goal) throws Exception {
+        return new Query(Parser.parseTermFromString(goal), db).solve();
+    }
+
+    private static String first(Database db, String goal, String variable) throws Exception {
+        java.util.List<Map<String, Term>> solutions = solve(db, goal);
+        assertFalse(goal, solutions.isEmpty());
+        return Unifier.resolve(solutions.get(0).get(variable)).toString();
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        Database db = new Database();
+        assertEquals("[1, 2, 3, 4]", first(db, "append([1, 2], [3, 4], X)", "X"));
+        assertEquals(4, solve(db, "append(X, Y, [1, 2, 3])").size());
+        assertEquals("[1, 2]", first(db, "append(X, [3], [1, 2, 3])", "X"));
+        assertEquals(1, solve(db, "append(X, foo, foo)").size());
+        assertTrue(solve(db, "append(X, [4], [1, 2, 3])").isEmpty());
+    }
+
+    @Test
+    public void testLengthAndMembership() throws Exception {
+        Database db = new Database();
+        assertEquals("3", first(db, "length([a, b, c], N)", "N"));
+        assertEquals(1, solve(db, "length(L, 2), L = [a, b]").size());
+        assertEquals("2", first(db, "length(L, N), N >= 2, !", "N"));
+        assertEquals(3, solve(db, "member(X, [a, b, c])").size());
+        assertEquals(1, solve(db, "memberchk(b, [a, b, b])").size());
+        assertTrue(solve(db, "memberchk(d, [a, b, c])").isEmpty());
+    }
+
+    @Test
+    public void testListOfEmptyLists() throws Exception {
+        Database db = new Database();
+        assertEquals("1", first(db, "length([[]], N)", "N"));
+        assertEquals("[[]]", first(db, "X = [[]]", "X"));
+        assertEquals("[[], []]", first(db, "append([[]], [[]], X)", "X"));
+        assertEquals(1, solve(db, "member(X, [[]]), X == []").size());
+        assertTrue(solve(db, "[[]] == []").isEmpty());
+        assertEquals("[[], a]", first(db, "msort([a, []], X)", "X"));
+    }
+
+    @Test
+    public void testIndexing() throws Exception {
+        Database db = new Database();
+        assertEquals("a", first(db, "nth0(0, [a, b, c], X)", "X"));
+        assertEquals("c", first(db, "nth1(3, [a, b, c], X)", "X"));
+        assertTrue(solve(db, "nth1(4, [a, b, c], X)").isEmpty());
+        assertEquals("2", first(db, "nth1(I, [a, b, c], b)", "I"));
+        assertEquals("[c, b, a]", first(db, "reverse([a, b, c], X)", "X"));
+        assertEquals("c", first(db, "last([a, b, c], X)", "X"));
+        assertEquals(6.0, ((it.denzosoft.prolog.model.Number) Unifier.deref(
+                solve(db, "sum_list([1, 2, 3], S)").get(0).get("S"))).getValue(), 0.0);
+    }
+
+    @Test
+    public void testSorting() throws Exception {
+        Database db = new Database();
+        assertEquals("[1, 2, 2, 3]", first(db, "msort([3, 2, 1, 2], X)", "X"));
+        assertEquals("[1, 2, 3]", first(db, "sort([3, 2, 1, 2], X)", "X"));
+        // Variables, numbers, atoms, then compound terms
+        assertEquals("[1, a, f(x)]", first(db, "sort([f(x), a, 1], X)", "X"));
+        assertEquals("[3, 2, 2, 1]", first(db, "sort(0, @>=, [1, 2, 3, 2], X)", "X"));
+        assertEquals("[p(b, 1), p(a, 2)]", first(db, "sort(2, @<, [p(a, 2), p(b, 1), p(c, 1)], X)", "X"));
+    }
+
+    @Test
+    public void testPredsort() throws Exception {
+        Database db = new Database();
+        db.addClause(Parser.parseClauseFromString("by_length(O, A, B) :- length(A, X), length(B, Y), compare(O, X, Y)."));
+        db.addClause(Parser.parseClauseFromString("compare(<, X, Y) :- X < Y."));
+        db.addClause(Parser.parseClauseFromString("compare(>, X, Y) :- X > Y."));
+        db.addClause(Parser.parseClauseFromString("compare(=, X, X)."));
+        assertEquals("[[c], [a, b]]", first(db, "predsort(by_length, [[a, b], [c], [d]], X)", "X"));
+        assertTrue(solve(db, "predsort(no_such, [2, 1], X)").isEmpty());
+    }
+
+    @Test
+    public void testUserDefinitionOverrides() throws Exception {
+        Database db = new Database();
+        db.addClause(Parser.parseClauseFromString("member(X, [X, X])."));
+        assertEquals(1, solve(db, "member(X, [a, a])").size());
+        assertTrue(solve(db, "member(a, [a, b])").isEmpty());
+    }
+
+    @Test
+    public void testRecursiveUserDefinitionOverrides() throws Exception {
+        Database db = new Database();
+        db.addClause(Parser.parseClauseFromString("append([], L, L)."));
+        db.addClause(Parser.parseClauseFromString("append([H|T], L, [H|R]) :- append(T, L, R)."));
+        db.addClause(Parser.parseClauseFromString("rev([], [])."));
+        db.addClause(Parser.parseClauseFromString("rev([H|T], R) :- rev(T, S), append(S, [H], R)."));
+        assertEquals("[1, 2]", first(db, "append([1], [2], L)", "L"));
+        assertEquals("[c, b, a]", first(db, "rev([a, b, c], R)", "R"));
+        // Calls made before the program defines the predicate use the library
+        Database later = new Database();
+        later.addClause(Parser.parseClauseFromString("both(X, Y, Z) :- append(X, Y, Z)."));
+        assertEquals("[1, 2]", first(later, "both([1], [2], L)", "L"));
+    }
+
+    @Test
+    public void testLongList() throws Exception {
+        Database db = new Database();
+        java.util.List<Term> elements = new ArrayList<>();
+        for (int i = 200_000; i > 0; i--) {
+            elements.add(new it.denzosoft.prolog.model.Number(i));
+        }
+        Term list = ListLibrary.list(elements, new Atom("[]"));
+        Variable sorted = new Variable("S");
+        Variable length = new Variable("N");
+        Term goal = new Struct(new Atom(","),
+                new Struct(new Atom("msort"), list, sorted),
+                new Struct(new Atom("length"), sorted, length));
+        java.util.List<Map<String, Term>> solutions = new Query(goal, db).solve();
+        assertEquals(1, solutions.size());
+        java.util.List<Term> result = ListLibrary.elements(solutions.get(0).get("S"));
+        assertEquals(200_000, result.size());
+        assertEquals("1", Unifier.deref(result.get(0)).toString());
+    }
+}
@@ -0,0 +1,79 @@
+package it.denzosoft.prolog.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+
+public class AndParallelTest {
+
+    private static Database checks() throws Exception {
+        Database db = new Database();
+        for (int i = 1; i <= 6; i++) {
+            db.addClause(Parser.parseClauseFromString("item(" + i + ")."));
+        }
+        db.addClause(Parser.parseClauseFromString("check_a(X) :- item(X), X mod 2 =:= 0."));
+        db.addClause(Parser.parseClauseFromString("check_b(Y) :- item(Y), Y > 3."));
+        db.addClause(Parser.parseClauseFromString("never(X) :- item(X), X > 10."));
+        db.addClause(Parser.parseClauseFromString("first(X) :- item(X), !."));
+        return db;
+    }
+
+    private static Query query(Database db, String goal, ForkJoinPool pool) throws Exception {
+        Query query = new Query(Parser.parseTermFromString(goal), db);
+        query.setAndParallel(pool);
+        return query;
+    }
+
+    @Test
+    public void testSameAnswersInSameOrder() throws Exception {
+        Database db = checks();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            String goal = "check_a(A), check_b(B), A < B";
+            java.util.List<Map<String, Term>> expected = query(db, goal, null).solve();
+            Query parallel = query(db, goal, pool);
+            assertEquals(5, expected.size());
+            assertEquals(expected, parallel.solve());
+            assertEquals(1, parallel.getParallelConjunctionCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailingGoalFailsConjunction() throws Exception {
+        Database db = checks();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Query query = query(db, "check_a(A), never(B)", pool);
+            assertTrue(query.solve().isEmpty());
+            assertEquals(1, query.getParallelConjunctionCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testDependentGoalsStaySequential() throws Exception {
+        Database db = checks();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Query shared = query(db, "check_a(X), check_b(X)", pool);
+            assertEquals(2, shared.solve().size());
+            assertEquals(0, shared.getParallelConjunctionCount());
+
+            // A cut inside a clause body stays local to its worker
+            Query cut = query(db, "first(A), check_b(B)", pool);
+            assertEquals(query(db, "first(A), check_b(B)", null).solve(), cut.solve());
+            assertEquals(1, cut.getParallelConjunctionCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package it.denzosoft.prolog.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+
+public class AnswerTableTest {
+
+    private static Database family() throws Exception {
+        Database db = new Database();
+        db.addClause(Parser.parseClauseFromString("parent(tom, bob)."));
+        db.addClause(Parser.parseClauseFromString("parent(bob, ann)."));
+        db.addClause(Parser.parseClauseFromString("parent(bob, pat)."));
+        db.addClause(Parser.parseClauseFromString("grandparent(X, Z) :- parent(X, Y), parent(Y, Z)."));
+        db.addClause(Parser.parseClauseFromString("pair(X, p(X, _))."));
+        return db;
+    }
+
+    @Test
+    public void testRowsFollowGoalVariables() throws Exception {
+        Query query = new Query(Parser.parseTermFromString("grandparent(G, C), parent(P, C)"), family());
+        AnswerTable table = query.solveRows();
+        assertArrayEquals(new String[]{"G", "C", "P"}, table.getColumns());
+        assertEquals(2, table.size());
+        assertEquals(3, table.getRow(0).length);
+        assertEquals("tom", table.get(0, "G").toString());
+        assertEquals("ann", table.get(0, "C").toString());
+        assertEquals("pat", table.get(1, "C").toString());
+        assertEquals("bob", table.getRow(1)[2].toString());
+        assertNull(table.get(0, "Y"));
+    }
+
+    @Test
+    public void testRowsMatchSolutions() throws Exception {
+        String goal = "pair(a, T), parent(X, Y)";
+        java.util.List<Map<String, Term>> solutions = new Query(Parser.parseTermFromString(goal), family()).solve();
+        AnswerTable table = new Query(Parser.parseTermFromString(goal), family()).solveRows();
+        assertEquals(solutions.size(), table.size());
+        for (int i = 0; i < table.size(); i++) {
+            assertEquals(solutions.get(i).toString(), table.toMap(i).toString());
+        }
+        // Values are dereferenced, leaving only unbound variables of the answer
+        assertTrue(((Struct) table.get(0, "T")).getArg(1) instanceof Variable);
+        assertEquals("a", ((Struct) table.get(0, "T")).getArg(0).toString());
+    }
+
+    @Test
+    public void testUnboundAndParallelRows() throws Exception {
+        Query unbound = new Query(Parser.parseTermFromString("X = Y"), family());
+        Term[] row = unbound.nextRow();
+        assertEquals(2, row.length);
+        // One variable is bound to the other, which stays unbound
+        assertTrue((row[0] == null) != (row[1] == null));
+
+        Query parallel = new Query(Parser.parseTermFromString("parent(bob, C)"), family());
+        parallel.setOrParallel(ForkJoinPool.commonPool(), false);
+        assertEquals(2, parallel.solveRows().size());
+    }
+}
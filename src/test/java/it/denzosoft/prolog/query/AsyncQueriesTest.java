@@ -0,0 +1,132 @@
+package it.denzosoft.prolog.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+
+public class AsyncQueriesTest {
+
+    private static Database counting() throws Exception {
+        Database db = new Database();
+        db.addClause(Parser.parseClauseFromString("nat(0)."));
+        db.addClause(Parser.parseClauseFromString("nat(N) :- nat(M), N is M + 1."));
+        db.addClause(Parser.parseClauseFromString("small(1)."));
+        db.addClause(Parser.parseClauseFromString("small(2)."));
+        return db;
+    }
+
+    @Test
+    public void testFutures() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            AsyncQueries queries = new AsyncQueries(new EnginePool(counting()), executor);
+            Term goal = Parser.parseTermFromString("small(X)");
+            CompletableFuture<Map<String, Term>> first = queries.first(goal);
+            CompletableFuture<java.util.List<Map<String, Term>>> all = queries.all(goal);
+            assertEquals("1", first.get(5, TimeUnit.SECONDS).get("X").toString());
+            assertEquals(2, all.get(5, TimeUnit.SECONDS).size());
+            assertNull(queries.first(Parser.parseTermFromString("small(3)")).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelledFutureStopsSearch() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AsyncQueries queries = new AsyncQueries(new EnginePool(counting()), executor);
+            // Never completes on its own: nat/1 has infinitely many answers
+            CompletableFuture<java.util.List<Map<String, Term>>> endless = queries.all(Parser.parseTermFromString("nat(N)"));
+            Thread.sleep(50);
+            assertTrue(endless.cancel(true));
+            // The single executor thread is free again only if the search stopped
+            assertNotNull(queries.first(Parser.parseTermFromString("small(X)")).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPublisherHonoursDemandAndCancellation() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AsyncQueries queries = new AsyncQueries(new EnginePool(counting()), executor);
+            java.util.List<String> received = new ArrayList<>();
+            CountDownLatch five = new CountDownLatch(5);
+            Flow.Publisher<Map<String, Term>> publisher = queries.publish(Parser.parseTermFromString("nat(N)"));
+            publisher.subscribe(new Flow.Subscriber<Map<String, Term>>() {
+                private Flow.Subscription subscription;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(2);
+                }
+
+                @Override
+                public void onNext(Map<String, Term> answer) {
+                    received.add(answer.get("N").toString());
+                    five.countDown();
+                    if (received.size() == 2) {
+                        subscription.request(3);
+                    } else if (received.size() == 5) {
+                        subscription.cancel();
+                    }
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    fail(error.toString());
+                }
+
+                @Override
+                public void onComplete() {
+                    fail("nat/1 never completes");
+                }
+            });
+            assertTrue(five.await(5, TimeUnit.SECONDS));
+            assertNotNull(queries.first(Parser.parseTermFromString("small(X)")).get(5, TimeUnit.SECONDS));
+            assertEquals(java.util.Arrays.asList("0", "1", "2", "3", "4"), received);
+
+            java.util.List<Map<String, Term>> finite = new ArrayList<>();
+            CountDownLatch complete = new CountDownLatch(1);
+            queries.publish(Parser.parseTermFromString("small(X)")).subscribe(new Flow.Subscriber<Map<String, Term>>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(Map<String, Term> answer) {
+                    finite.add(answer);
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                }
+
+                @Override
+                public void onComplete() {
+                    complete.countDown();
+                }
+            });
+            assertTrue(complete.await(5, TimeUnit.SECONDS));
+            assertEquals(2, finite.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
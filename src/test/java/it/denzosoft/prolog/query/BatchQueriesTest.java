@@ -0,0 +1,124 @@
+package it.denzosoft.prolog.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+
+public class BatchQueriesTest {
+
+    private static Database catalog() throws Exception {
+        Database db = new Database();
+        for (int i = 0; i < 100; i++) {
+            db.addClause(Parser.parseClauseFromString("sku(s" + i + ", " + i + ")."));
+        }
+        db.addClause(Parser.parseClauseFromString("valid(S) :- sku(S, P), P mod 2 =:= 0."));
+        return db;
+    }
+
+    @Test
+    public void testResultsInBatchOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            BatchQueries batches = new BatchQueries(new EnginePool(catalog()), executor, 3);
+            java.util.List<Term> goals = new java.util.ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                goals.add(Parser.parseTermFromString("valid(s" + i + ")"));
+            }
+            BatchResult result = batches.run(goals);
+            assertEquals(100, result.size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals("valid(s" + i + ")", i % 2 == 0 ? 1 : 0, result.get(i).size());
+            }
+            assertEquals(0, result.getErrorCount());
+            assertTrue(result.getGoalsPerSecond() > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testVariantsAreSolvedOnce() throws Exception {
+        BatchQueries batches = new BatchQueries(catalog());
+        java.util.List<Term> goals = java.util.Arrays.asList(
+                Parser.parseTermFromString("sku(s1, P)"),
+                Parser.parseTermFromString("sku(S, 7)"),
+                Parser.parseTermFromString("sku(s1, Price)"),
+                Parser.parseTermFromString("sku(s1, P)"));
+        java.util.Map<Integer, AnswerTable> finished = new ConcurrentHashMap<>();
+        BatchResult result = batches.run(goals, finished::put);
+        assertEquals(2, result.getDistinctCount());
+        assertEquals(4, finished.size());
+        assertEquals("1", result.get(0).get(0, "P").toString());
+        assertEquals("s7", result.get(1).get(0, "S").toString());
+        assertEquals("1", result.get(2).get(0, "Price").toString());
+        assertArrayEquals(new String[]{"Price"}, result.get(2).getColumns());
+        // The goals of the caller are left unbound
+        assertTrue(((Struct) goals.get(0)).getArg(1) instanceof Variable);
+        assertFalse(((Variable) ((Struct) goals.get(0)).getArg(1)).isBound());
+    }
+
+    @Test
+    public void testPreparedTuples() throws Exception {
+        BatchQueries batches = new BatchQueries(catalog());
+        PreparedQuery prepared = PreparedQuery.prepare("sku(S, P), P > Min", "Min");
+        java.util.List<Object[]> tuples = java.util.Arrays.asList(new Object[]{97}, new Object[]{98}, new Object[]{"x"});
+        BatchResult result = batches.run(prepared, tuples);
+        assertEquals(2, result.get(0).size());
+        assertEquals(1, result.get(1).size());
+        assertEquals(0, result.get(2).size());
+        assertEquals(3, BatchQueries.chunkSize(100, 8));
+        assertEquals(256, BatchQueries.chunkSize(1_000_000, 2));
+        assertEquals(1, BatchQueries.chunkSize(3, 8));
+    }
+
+    private static java.util.List<Term> validGoals() throws Exception {
+        java.util.List<Term> goals = new java.util.ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            goals.add(Parser.parseTermFromString("valid(s" + i + ")"));
+        }
+        return goals;
+    }
+
+    @Test(timeout = 10_000)
+    public void testRejectedChunkFailsTheBatch() throws Exception {
+        int[] submitted = {0};
+        Executor firstOnly = task -> {
+            if (submitted[0]++ > 0) {
+                throw new RejectedExecutionException("full");
+            }
+            task.run();
+        };
+        BatchQueries batches = new BatchQueries(new EnginePool(catalog()), firstOnly, 3);
+        try {
+            batches.run(validGoals());
+            fail("Expected the rejection to be rethrown");
+        } catch (RejectedExecutionException e) {
+            assertEquals("full", e.getMessage());
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testRunFromWorkerOfItsPool() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            BatchQueries batches = new BatchQueries(new EnginePool(catalog()), pool, 1);
+            java.util.List<Term> goals = validGoals();
+            BatchResult result = pool.submit(() -> batches.run(goals)).get(5, TimeUnit.SECONDS);
+            assertEquals(100, result.size());
+            assertEquals(0, result.getErrorCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
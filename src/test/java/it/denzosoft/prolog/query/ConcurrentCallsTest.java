@@ -0,0 +1,87 @@
+package it.denzosoft.prolog.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+
+public class ConcurrentCallsTest {
+
+    private static Database numbers() throws Exception {
+        Database db = new Database();
+        db.addClause(Parser.parseClauseFromString("double(X, Y) :- Y is X * 2."));
+        db.addClause(Parser.parseClauseFromString("add(N, X, Y) :- Y is X + N."));
+        db.addClause(Parser.parseClauseFromString("sum(X, Y, Z) :- Z is X + Y."));
+        db.addClause(Parser.parseClauseFromString("small(X) :- X < 5."));
+        db.addClause(Parser.parseClauseFromString("num(1)."));
+        db.addClause(Parser.parseClauseFromString("num(2)."));
+        db.addClause(Parser.parseClauseFromString("num(3)."));
+        return db;
+    }
+
+    private static java.util.List<Map<String, Term>> solve(Database db, String goal) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Query query = new Query(Parser.parseTermFromString(goal), db);
+            query.setWorkerPool(pool);
+            return query.solve();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static String range(int from, int to) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = from; i <= to; i++) {
+            sb.append(i == from ? "" : ", ").append(i);
+        }
+        return sb.append("]").toString();
+    }
+
+    @Test
+    public void testMaplistCopiesBindingsBackInOrder() throws Exception {
+        Database db = numbers();
+        java.util.List<Map<String, Term>> solutions = solve(db, "concurrent_maplist(double, " + range(1, 500) + ", L)");
+        assertEquals(1, solutions.size());
+        Term list = solutions.get(0).get("L");
+        for (int i = 1; i <= 500; i++) {
+            it.denzosoft.prolog.model.List cell = (it.denzosoft.prolog.model.List) list;
+            assertEquals(2.0 * i, ((it.denzosoft.prolog.model.Number) cell.getHead()).getValue(), 0);
+            list = cell.getTail();
+        }
+
+        assertEquals(solve(db, "L = [11, 12, 13]"), solve(db, "concurrent_maplist(add(10), [1, 2, 3], L)"));
+        assertEquals(solve(db, "L = [5, 7]"), solve(db, "concurrent_maplist(sum, [1, 2], [4, 5], L)"));
+    }
+
+    @Test
+    public void testMaplistFailsIfAnyCallFails() throws Exception {
+        Database db = numbers();
+        assertEquals(1, solve(db, "concurrent_maplist(small, [1, 2, 3, 4])").size());
+        assertTrue(solve(db, "concurrent_maplist(small, [1, 2, 7, 4])").isEmpty());
+        assertTrue(solve(db, "concurrent_maplist(double, [1, 2], [2, 5])").isEmpty());
+        assertTrue(solve(db, "concurrent_maplist(sum, [1, 2], [1], L)").isEmpty());
+    }
+
+    @Test
+    public void testForall() throws Exception {
+        Database db = numbers();
+        assertEquals(1, solve(db, "concurrent_forall(num(X), small(X))").size());
+        assertTrue(solve(db, "concurrent_forall(num(X), X < 3)").isEmpty());
+        Map<String, Term> solution = solve(db, "concurrent_forall(num(X), double(X, Y))").get(0);
+        assertTrue(solution.get("X") == null || solution.get("X") instanceof Variable);
+    }
+
+    @Test
+    public void testChunkSizeAdapts() {
+        // Tiny goals travel in large chunks, slow goals one by one
+        assertEquals(32, ConcurrentCalls.chunkSize(10, 1000, 8));
+        assertEquals(100, ConcurrentCalls.chunkSize(5_000, 100_000, 8));
+        assertEquals(1, ConcurrentCalls.chunkSize(10_000_000, 1000, 8));
+    }
+}
@@ -0,0 +1,90 @@
+package it.denzosoft.prolog.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.util.Map;
+
+
+public class ControlConstructsTest {
+
+    private static Database load(String... clauses) throws Exception {
+        Database db = new Database();
+        for (String clause : clauses) {
+            db.addClause(Parser.parseClauseFromString(clause));
+        }
+        return db;
+    }
+
+    private static java.util.List<Map<String, Term>> solve(Database db, String goal) throws Exception {
+        return new Query(Parser.parseTermFromString(goal), db).solve();
+    }
+
+    @Test
+    public void testCutPrunesRemainingClauses() throws Exception {
+        Database db = load(
+                "max(X, Y, X) :- X >= Y, !.",
+                "max(X, Y, Y).");
+        java.util.List<Map<String, Term>> solutions = solve(db, "max(5, 3, M)");
+        assertEquals(1, solutions.size());
+        assertEquals(new it.denzosoft.prolog.model.Number(5), solutions.get(0).get("M"));
+        assertEquals(1, solve(db, "max(2, 3, M)").size());
+    }
+
+    @Test
+    public void testCutIsLocalToItsClause() throws Exception {
+        Database db = load(
+                "item(a).", "item(b).", "item(c).",
+                "first(X) :- item(X), !.",
+                "pair(X, Y) :- first(X), item(Y).");
+        assertEquals(1, solve(db, "first(X)").size());
+        assertEquals(3, solve(db, "pair(X, Y)").size());
+    }
+
+    @Test
+    public void testIfThenElse() throws Exception {
+        Database db = load(
+                "item(a).", "item(b).",
+                "classify(N, C) :- ( N > 0 -> C = positive ; N < 0 -> C = negative ; C = zero ).");
+        assertEquals(new Atom("positive"), solve(db, "classify(4, C)").get(0).get("C"));
+        assertEquals(new Atom("negative"), solve(db, "classify(-4, C)").get(0).get("C"));
+        assertEquals(new Atom("zero"), solve(db, "classify(0, C)").get(0).get("C"));
+        // Only the first solution of the condition is used
+        assertEquals(1, solve(db, "( item(X) -> true ; fail )").size());
+        // Without else, a failing condition fails
+        assertEquals(0, solve(db, "( item(z) -> true )").size());
+    }
+
+    @Test
+    public void testNegationAndOnce() throws Exception {
+        Database db = load("item(a).", "item(b).");
+        assertEquals(1, solve(db, "\\+ item(z)").size());
+        assertEquals(0, solve(db, "\\+ item(a)").size());
+        assertEquals(1, solve(db, "once(item(X))").size());
+        assertEquals(2, solve(db, "item(X), \\+ X == c").size());
+    }
+
+    @Test
+    public void testSolutionsAreProducedLazily() throws Exception {
+        Database db = load(
+                "nat(0).",
+                "nat(N) :- nat(M), N is M + 1.");
+        Query query = new Query(Parser.parseTermFromString("nat(N)"), db);
+        for (int i = 0; i < 5; i++) {
+            Map<String, Term> solution = query.nextSolution();
+            assertEquals(new it.denzosoft.prolog.model.Number(i), solution.get("N"));
+        }
+    }
+
+    @Test
+    public void testAnonymousVariablesAreDistinct() throws Exception {
+        Database db = load(
+                "p(_, _).",
+                "r(X) :- X = f(_, _).");
+        assertEquals(1, solve(db, "p(a, b)").size());
+        assertEquals(1, solve(db, "r(f(1, 2))").size());
+    }
+}
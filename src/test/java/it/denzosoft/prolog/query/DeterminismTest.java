@@ -0,0 +1,97 @@
+package it.denzosoft.prolog.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.util.Map;
+
+
+public class DeterminismTest {
+
+    private static Database load(String... clauses) throws Exception {
+        Database db = new Database();
+        for (String clause : clauses) {
+            db.addClause(Parser.parseClauseFromString(clause));
+        }
+        return db;
+    }
+
+    private static Query query(Database db, String goal) throws Exception {
+        return new Query(Parser.parseTermFromString(goal), db);
+    }
+
+    @Test
+    public void testIndexedCallLeavesNoChoicePoint() throws Exception {
+        Database db = load(
+                "color(apple, red).", "color(banana, yellow).", "color(grape, purple).",
+                "fruit_color(F, C) :- color(F, C).");
+        Query query = query(db, "fruit_color(banana, C)");
+        Map<String, Term> solution = query.nextSolution();
+        assertEquals(new Atom("yellow"), solution.get("C"));
+        assertEquals(0, query.getChoicePointCount());
+
+        QueryStatistics stats = query.getStatistics();
+        assertEquals(2, stats.getCalls());
+        assertEquals(2, stats.getDeterministicCalls());
+        assertEquals(0, stats.getChoicePoints());
+        assertTrue(stats.getUntrailedBindings() > 0);
+        assertNull(query.nextSolution());
+    }
+
+    @Test
+    public void testLastClauseDropsChoicePoint() throws Exception {
+        Database db = load("color(apple, red).", "color(banana, yellow).", "color(grape, purple).");
+        Query query = query(db, "color(F, C)");
+        assertEquals(new Atom("apple"), query.nextSolution().get("F"));
+        assertEquals(1, query.getChoicePointCount());
+        assertEquals(new Atom("banana"), query.nextSolution().get("F"));
+        assertEquals(new Atom("grape"), query.nextSolution().get("F"));
+        assertEquals(0, query.getChoicePointCount());
+        assertEquals(1, query.getStatistics().getLastClauseTries());
+        assertNull(query.nextSolution());
+    }
+
+    @Test
+    public void testVariableClausesStayInEveryBucket() throws Exception {
+        Database db = load("kind(a, letter).", "kind(X, other).", "kind(b, letter).");
+        assertEquals(2, query(db, "kind(a, K)").solve().size());
+        assertEquals(2, query(db, "kind(b, K)").solve().size());
+        assertEquals(1, query(db, "kind(c, K)").solve().size());
+        assertEquals(3, query(db, "kind(X, K)").solve().size());
+    }
+
+    @Test
+    public void testBacktrackingUndoesTrailedBindings() throws Exception {
+        Database db = load(
+                "edge(a, b).", "edge(b, c).", "edge(c, d).",
+                "path(X, Y) :- edge(X, Y).",
+                "path(X, Y) :- edge(X, Z), path(Z, Y).");
+        java.util.List<Map<String, Term>> solutions = query(db, "path(a, Y)").solve();
+        assertEquals(3, solutions.size());
+        assertEquals(new Atom("b"), solutions.get(0).get("Y"));
+        assertEquals(new Atom("c"), solutions.get(1).get("Y"));
+        assertEquals(new Atom("d"), solutions.get(2).get("Y"));
+    }
+
+    @Test
+    public void testRemovedClauseIsNoLongerSelected() throws Exception {
+        Database db = load("flag(on).", "flag(off).");
+        Clause on = db.getClauses().get(0);
+        assertTrue(db.removeClause(on));
+        Query query = query(db, "flag(on)");
+        assertNull(query.nextSolution());
+        assertEquals(1, query(db, "flag(X)").solve().size());
+    }
+
+    @Test
+    public void testGoalIsRestoredAfterSolving() throws Exception {
+        Database db = load("p(1).");
+        Term goal = Parser.parseTermFromString("p(X)");
+        assertEquals(new it.denzosoft.prolog.model.Number(1), new Query(goal, db).solve().get(0).get("X"));
+        assertEquals(new it.denzosoft.prolog.model.Number(1), new Query(goal, db).solve().get(0).get("X"));
+        assertEquals("p(X)", goal.toString());
+    }
+}
@@ -0,0 +1,116 @@
+package it.denzosoft.prolog.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+public class EngineTest {
+
+    private static Database family() throws Exception {
+        Database db = new Database();
+        db.addClause(Parser.parseClauseFromString("parent(tom, bob)."));
+        db.addClause(Parser.parseClauseFromString("parent(bob, ann)."));
+        db.addClause(Parser.parseClauseFromString("parent(bob, pat)."));
+        db.addClause(Parser.parseClauseFromString("grandparent(X, Z) :- parent(X, Y), parent(Y, Z)."));
+        return db;
+    }
+
+    @Test
+    public void testEngineRunsQueriesInTurn() throws Exception {
+        Database db = family();
+        Engine engine = new Engine(db);
+        for (int i = 0; i < 3; i++) {
+            Query query = engine.query(Parser.parseTermFromString("grandparent(tom, Z)"));
+            assertEquals(new Query(Parser.parseTermFromString("grandparent(tom, Z)"), db).solve(), query.solve());
+            assertEquals(0, query.getChoicePointCount());
+        }
+        assertEquals(1, engine.solve(Parser.parseTermFromString("parent(X, ann)")).size());
+        assertEquals(4, engine.getQueryCount());
+    }
+
+    @Test
+    public void testSettingsBelongToEngine() throws Exception {
+        Engine traced = new Engine(family());
+        Engine quiet = new Engine(traced.getDatabase());
+        traced.setTraceEnabled(true);
+        assertTrue(traced.isTraceEnabled());
+        assertFalse(quiet.isTraceEnabled());
+        traced.reset();
+        assertFalse(traced.isTraceEnabled());
+    }
+
+    @Test
+    public void testTracingStaysWithinEngine() throws Exception {
+        Engine traced = new Engine(family());
+        Engine quiet = new Engine(traced.getDatabase());
+        traced.setTraceEnabled(true);
+        PrintStream err = System.err;
+        ByteArrayOutputStream quietOutput = new ByteArrayOutputStream();
+        ByteArrayOutputStream tracedOutput = new ByteArrayOutputStream();
+        try {
+            System.setErr(new PrintStream(quietOutput, true));
+            quiet.solve(Parser.parseTermFromString("grandparent(tom, Z)"));
+            System.setErr(new PrintStream(tracedOutput, true));
+            traced.solve(Parser.parseTermFromString("grandparent(tom, Z)"));
+        } finally {
+            System.setErr(err);
+        }
+        assertEquals("", quietOutput.toString());
+        assertTrue(tracedOutput.toString().contains("Attempting to unify"));
+    }
+
+    @Test
+    public void testPoolReusesEngines() throws Exception {
+        EnginePool pool = new EnginePool(family(), 2);
+        for (int i = 0; i < 5; i++) {
+            try (Engine engine = pool.acquire()) {
+                assertEquals(2, engine.solve(Parser.parseTermFromString("grandparent(G, C)")).size());
+            }
+        }
+        assertEquals(1, pool.getCreatedCount());
+        assertEquals(1, pool.getIdleCount());
+
+        Engine first = pool.acquire();
+        Engine second = pool.acquire();
+        Engine third = pool.acquire();
+        first.close();
+        first.close();
+        second.close();
+        third.close();
+        assertEquals(3, pool.getCreatedCount());
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    public void testPoolServesThreads() throws Exception {
+        EnginePool pool = new EnginePool(family(), 4);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 500; i++) {
+                        java.util.List<Map<String, Term>> solutions = pool.solve(Parser.parseTermFromString("grandparent(tom, Z)"));
+                        assertEquals(2, solutions.size());
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+        assertTrue(pool.getCreatedCount() <= threads.length);
+    }
+}
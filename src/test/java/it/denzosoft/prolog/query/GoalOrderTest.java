@@ -0,0 +1,70 @@
+package it.denzosoft.prolog.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.util.HashSet;
+import java.util.Map;
+
+
+public class GoalOrderTest {
+
+    private static Database load() throws Exception {
+        Database db = new Database();
+        for (int i = 0; i < 200; i++) {
+            db.addClause(Parser.parseClauseFromString("employee(e" + i + ", d" + (i % 20) + ")."));
+        }
+        db.addClause(Parser.parseClauseFromString("audited(d3)."));
+        db.addClause(Parser.parseClauseFromString("audited(d7)."));
+        db.addClause(Parser.parseClauseFromString("report(E) :- employee(E, D), audited(D), E \\== e3."));
+        return db;
+    }
+
+    private static Query query(Database db, String goal, boolean reorder) throws Exception {
+        Query query = new Query(Parser.parseTermFromString(goal), db);
+        query.setJoinStrategy(JoinStrategy.NESTED_LOOP);
+        query.setGoalReordering(reorder);
+        return query;
+    }
+
+    @Test
+    public void testSelectiveGoalRunsFirst() throws Exception {
+        Database db = load();
+        Query plain = query(db, "report(E)", false);
+        Query reordered = query(db, "report(E)", true);
+        java.util.List<Map<String, Term>> expected = plain.solve();
+        java.util.List<Map<String, Term>> actual = reordered.solve();
+        assertEquals(19, expected.size());
+        assertEquals(new HashSet<>(expected), new HashSet<>(actual));
+        assertTrue(reordered.getInferenceCount() < plain.getInferenceCount());
+    }
+
+    @Test
+    public void testBoundArgumentsChangeTheOrder() throws Exception {
+        Database db = load();
+        Query query = query(db, "true", true);
+        String plan = query.explain(Parser.parseTermFromString("employee(E, D), audited(D), E \\== e3"));
+        assertTrue(plan, plan.startsWith("1. audited(D)"));
+        assertTrue(plan, plan.contains("3. \\==(E, e3)  (not reordered)"));
+        assertTrue(plan, plan.endsWith("estimated cost=405.0"));
+
+        plan = query.explain(Parser.parseTermFromString("audited(D), employee(e5, D)"));
+        assertTrue(plan, plan.startsWith("1. employee(e5, D)"));
+    }
+
+    @Test
+    public void testExplainDoesNotRunTheGoal() throws Exception {
+        Database db = load();
+        Query query = query(db, "explain((employee(E, D), audited(D)), Plan)", false);
+        Map<String, Term> solution = query.nextSolution();
+        assertNotNull(solution);
+        assertFalse(solution.containsKey("E"));
+        String plan = ((Atom) solution.get("Plan")).getValue();
+        assertTrue(plan, plan.startsWith("1. audited(D)"));
+        assertTrue(plan, plan.endsWith("estimated cost=405.0"));
+        assertNull(query.nextSolution());
+    }
+}
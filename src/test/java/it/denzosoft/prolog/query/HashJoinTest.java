@@ -0,0 +1,96 @@
+package it.denzosoft.prolog.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.util.Map;
+
+
+public class HashJoinTest {
+
+    private static Database orders() throws Exception {
+        Database db = new Database();
+        String[] customers = {"ann", "bob", "cid", "dan"};
+        String[] regions = {"north", "south", "north", "east"};
+        for (int i = 0; i < customers.length; i++) {
+            db.addClause(Parser.parseClauseFromString("customer(" + customers[i] + ", " + regions[i] + ")."));
+        }
+        db.addClause(Parser.parseClauseFromString("region_tax(north, 20)."));
+        db.addClause(Parser.parseClauseFromString("region_tax(south, 10)."));
+        db.addClause(Parser.parseClauseFromString("region_tax(north, 22)."));
+        for (int o = 0; o < 12; o++) {
+            db.addClause(Parser.parseClauseFromString("order(" + o + ", " + customers[(o * 7) % 4] + ")."));
+        }
+        return db;
+    }
+
+    private static java.util.List<Map<String, Term>> solve(Database db, String goal, JoinStrategy strategy)
+            throws Exception {
+        Query query = new Query(Parser.parseTermFromString(goal), db);
+        query.setJoinStrategy(strategy);
+        return query.solve();
+    }
+
+    @Test
+    public void testJoinKeepsPrologOrder() throws Exception {
+        Database db = orders();
+        String goal = "order(O, C), customer(C, R), region_tax(R, T)";
+        java.util.List<Map<String, Term>> expected = solve(db, goal, JoinStrategy.NESTED_LOOP);
+        java.util.List<Map<String, Term>> joined = solve(db, goal, JoinStrategy.HASH);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, joined);
+    }
+
+    @Test
+    public void testConstantsRepeatedVariablesAndRest() throws Exception {
+        Database db = orders();
+        db.addClause(Parser.parseClauseFromString("same(a, a)."));
+        db.addClause(Parser.parseClauseFromString("same(a, b)."));
+        db.addClause(Parser.parseClauseFromString("same(b, b)."));
+        db.addClause(Parser.parseClauseFromString(
+                "taxed(O, T) :- order(O, C), customer(C, north), region_tax(north, T), T > 20, !."));
+        String[] goals = {
+                "same(X, X), same(X, Y)",
+                "customer(C, R), customer(D, R), C \\== D",
+                "taxed(O, T)",
+                "order(O, C), customer(C, R), \\+ region_tax(R, _)",
+        };
+        for (String goal : goals) {
+            assertEquals(goal, solve(db, goal, JoinStrategy.NESTED_LOOP), solve(db, goal, JoinStrategy.HASH));
+        }
+    }
+
+    @Test
+    public void testAutomaticJoinAboveThreshold() throws Exception {
+        Database db = orders();
+        Query small = new Query(Parser.parseTermFromString("region_tax(R, T), customer(C, R)"), db);
+        small.setJoinThreshold(3);
+        assertEquals(5, small.solve().size());
+        assertEquals(1, small.getHashJoinCount());
+
+        Query large = new Query(Parser.parseTermFromString("region_tax(R, T), customer(C, R)"), db);
+        large.setJoinThreshold(100);
+        assertEquals(5, large.solve().size());
+        assertEquals(0, large.getHashJoinCount());
+
+        // A join bound on the first argument only is left to indexing
+        Query indexed = new Query(Parser.parseTermFromString("order(O, C), customer(C, R)"), db);
+        indexed.setJoinThreshold(1);
+        indexed.solve();
+        assertEquals(0, indexed.getHashJoinCount());
+    }
+
+    @Test
+    public void testJoinSeesClauseChanges() throws Exception {
+        Database db = orders();
+        String goal = "customer(C, R), region_tax(R, T)";
+        assertEquals(5, solve(db, goal, JoinStrategy.HASH).size());
+        db.addClause(Parser.parseClauseFromString("region_tax(east, 5)."));
+        assertEquals(6, solve(db, goal, JoinStrategy.HASH).size());
+        db.removeClause(db.getClauses().get(4));
+        assertEquals(4, solve(db, goal, JoinStrategy.HASH).size());
+    }
+}
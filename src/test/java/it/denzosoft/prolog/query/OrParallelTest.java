@@ -0,0 +1,80 @@
+package it.denzosoft.prolog.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+
+public class OrParallelTest {
+
+    private static Database puzzle() throws Exception {
+        Database db = new Database();
+        for (int i = 1; i <= 9; i++) {
+            db.addClause(Parser.parseClauseFromString("digit(" + i + ")."));
+        }
+        db.addClause(Parser.parseClauseFromString(
+                "triple(A, B, C) :- digit(A), digit(B), A =\\= B, digit(C), C =\\= A, C =\\= B,"
+                + " A + B + C =:= 15, A * B > C * 3."));
+        return db;
+    }
+
+    private static Set<Map<String, Term>> sequential(Database db, String goal) throws Exception {
+        return new HashSet<>(new Query(Parser.parseTermFromString(goal), db).solve());
+    }
+
+    @Test
+    public void testAllSolutionsMatchSequentialSearch() throws Exception {
+        Database db = puzzle();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Query query = new Query(Parser.parseTermFromString("triple(A, B, C)"), db);
+            query.setOrParallel(pool, false);
+            java.util.List<Map<String, Term>> answers = query.solve();
+            Set<Map<String, Term>> expected = sequential(db, "triple(A, B, C)");
+            assertFalse(expected.isEmpty());
+            assertEquals(expected.size(), answers.size());
+            assertEquals(expected, new HashSet<>(answers));
+            assertTrue(query.getBranchCount() > 1);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testFirstSolutionWins() throws Exception {
+        Database db = puzzle();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Query query = new Query(Parser.parseTermFromString("triple(A, B, C)"), db);
+            query.setOrParallel(pool, true);
+            Map<String, Term> first = query.nextSolution();
+            assertNotNull(first);
+            assertTrue(sequential(db, "triple(A, B, C)").contains(first));
+            assertNull(query.nextSolution());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCutKeepsAlternativesTogether() throws Exception {
+        Database db = puzzle();
+        db.addClause(Parser.parseClauseFromString("first_big(X) :- digit(X), X > 4, !."));
+        db.addClause(Parser.parseClauseFromString("pair(X, Y) :- first_big(X), digit(Y), Y > X."));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Query query = new Query(Parser.parseTermFromString("pair(X, Y)"), db);
+            query.setOrParallel(pool, false);
+            assertEquals(sequential(db, "pair(X, Y)"), new HashSet<>(query.solve()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
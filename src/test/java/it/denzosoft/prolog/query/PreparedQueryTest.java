@@ -0,0 +1,69 @@
+package it.denzosoft.prolog.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+public class PreparedQueryTest {
+
+    private static EnginePool staff() throws Exception {
+        Database db = new Database();
+        db.addClause(Parser.parseClauseFromString("salary(alice, 5000)."));
+        db.addClause(Parser.parseClauseFromString("salary(bob, 4000)."));
+        db.addClause(Parser.parseClauseFromString("salary(carol, 6000)."));
+        db.addClause(Parser.parseClauseFromString("team(sales, [alice, bob])."));
+        return new EnginePool(db);
+    }
+
+    @Test
+    public void testPositionalAndNamedValues() throws Exception {
+        EnginePool engines = staff();
+        PreparedQuery above = PreparedQuery.prepare("salary(Name, S), S > Min", "Min");
+        assertEquals(2, above.solve(engines, 4500).size());
+        assertEquals(1, above.solve(engines, 5500.0).size());
+        assertEquals(0, above.solve(engines, 10000L).size());
+
+        PreparedQuery lookup = PreparedQuery.prepare("salary(Name, S)", "Name");
+        Map<String, Object> values = new HashMap<>();
+        values.put("Name", "bob");
+        java.util.List<Map<String, Term>> solutions = lookup.solve(engines, values);
+        assertEquals(1, solutions.size());
+        assertEquals("4000", solutions.get(0).get("S").toString());
+        assertNull(solutions.get(0).get("Name"));
+    }
+
+    @Test
+    public void testInstancesAreIndependent() throws Exception {
+        PreparedQuery prepared = PreparedQuery.prepare("p(X, f(a, b), Y, X)", "Y");
+        Term first = prepared.bind("one");
+        Term second = prepared.bind(Arrays.asList(1, "two"));
+        assertEquals("p(X, f(a, b), one, X)", first.toString());
+        assertEquals("p(X, f(a, b), [1, two], X)", second.toString());
+        Struct s1 = (Struct) first;
+        Struct s2 = (Struct) second;
+        // The ground argument is shared, the variables are not
+        assertSame(s1.getArg(1), s2.getArg(1));
+        assertNotSame(s1.getArg(0), s2.getArg(0));
+        assertSame(s1.getArg(0), s1.getArg(3));
+    }
+
+    @Test
+    public void testListParameter() throws Exception {
+        EnginePool engines = staff();
+        PreparedQuery prepared = PreparedQuery.prepare("team(T, Members)", "Members");
+        assertEquals("sales", prepared.solve(engines, Arrays.asList("alice", "bob")).get(0).get("T").toString());
+        assertTrue(prepared.solve(engines, Arrays.asList("bob")).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownParameter() throws Exception {
+        PreparedQuery.prepare("salary(Name, S)", "Dept");
+    }
+}
@@ -0,0 +1,103 @@
+package it.denzosoft.prolog.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+
+public class QuerySchedulerTest {
+
+    private static Database counting() throws Exception {
+        Database db = new Database();
+        db.addClause(Parser.parseClauseFromString("nat(0)."));
+        db.addClause(Parser.parseClauseFromString("nat(N) :- nat(M), N is M + 1."));
+        db.addClause(Parser.parseClauseFromString("small(1)."));
+        db.addClause(Parser.parseClauseFromString("small(2)."));
+        return db;
+    }
+
+    @Test
+    public void testShortQueryOvertakesLongOne() throws Exception {
+        try (QueryScheduler scheduler = new QueryScheduler(new EnginePool(counting()), 1, 100)) {
+            // Never completes on its own, and holds the only carrier between slices
+            ScheduledQuery endless = scheduler.submit(Parser.parseTermFromString("nat(N), fail"));
+            ScheduledQuery small = scheduler.submit(Parser.parseTermFromString("small(X)"));
+            java.util.List<Map<String, Term>> answers = small.getAnswers().get(5, TimeUnit.SECONDS);
+            assertEquals(2, answers.size());
+            assertEquals("1", answers.get(0).get("X").toString());
+            assertFalse(endless.isDone());
+            endless.cancel();
+        }
+    }
+
+    @Test
+    public void testCpuQuota() throws Exception {
+        try (QueryScheduler scheduler = new QueryScheduler(new EnginePool(counting()), 1, 100)) {
+            ScheduledQuery endless = scheduler.submit(Parser.parseTermFromString("nat(N), fail"),
+                    QueryScheduler.Priority.LOW, 20, TimeUnit.MILLISECONDS);
+            try {
+                endless.getAnswers().get(5, TimeUnit.SECONDS);
+                fail("Expected the quota to stop the query");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ResourceLimitException);
+            }
+            assertTrue(endless.getSliceCount() > 1);
+            assertTrue(endless.getInferenceCount() >= 100);
+            assertTrue(endless.getCpuTime() > 0);
+        }
+    }
+
+    @Test
+    public void testQueueDepth() throws Exception {
+        try (QueryScheduler scheduler = new QueryScheduler(new EnginePool(counting()), 1, 100)) {
+            java.util.List<ScheduledQuery> queries = new java.util.ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                queries.add(scheduler.submit(Parser.parseTermFromString("nat(N), fail"),
+                        QueryScheduler.Priority.HIGH, 0, TimeUnit.NANOSECONDS));
+            }
+            // One query runs a slice at a time, the others wait
+            assertTrue(scheduler.getQueueDepth() >= 3);
+            assertEquals(scheduler.getQueueDepth(), scheduler.getQueueDepth(QueryScheduler.Priority.HIGH));
+            for (ScheduledQuery query : queries) {
+                query.cancel();
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while ((scheduler.getQueueDepth() > 0 || scheduler.getRunningCount() > 0)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(0, scheduler.getQueueDepth());
+        }
+    }
+
+    @Test
+    public void testCloseReturnsEngines() throws Exception {
+        EnginePool engines = new EnginePool(counting(), 4);
+        QueryScheduler scheduler = new QueryScheduler(engines, 1, 100);
+        java.util.List<ScheduledQuery> queries = new java.util.ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            queries.add(scheduler.submit(Parser.parseTermFromString("nat(N), fail")));
+        }
+        // Wait until every query has started, and so holds an engine
+        long deadline = System.currentTimeMillis() + 5000;
+        while (queries.stream().anyMatch(query -> query.getSliceCount() == 0)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        scheduler.close();
+        while (scheduler.getRunningCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(3, engines.getCreatedCount());
+        assertEquals(3, engines.getIdleCount());
+        for (ScheduledQuery query : queries) {
+            assertTrue(query.isDone());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package it.denzosoft.prolog.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+public class ResourceLimitsTest {
+
+    private static Database program() throws Exception {
+        Database db = new Database();
+        db.addClause(Parser.parseClauseFromString("loop :- loop."));
+        db.addClause(Parser.parseClauseFromString("deep(N) :- M is N + 1, deep(M), true."));
+        db.addClause(Parser.parseClauseFromString("nat(0)."));
+        db.addClause(Parser.parseClauseFromString("nat(N) :- nat(M), N is M + 1."));
+        db.addClause(Parser.parseClauseFromString("small(1)."));
+        db.addClause(Parser.parseClauseFromString("small(2)."));
+        return db;
+    }
+
+    private static ResourceLimitException exceeded(Query query) {
+        try {
+            query.solve();
+        } catch (ResourceLimitException e) {
+            assertNull(query.nextSolution());
+            return e;
+        }
+        fail("Expected a resource limit to be exceeded");
+        return null;
+    }
+
+    @Test
+    public void testInferenceLimit() throws Exception {
+        Query query = new Query(Parser.parseTermFromString("loop"), program());
+        query.setInferenceLimit(1000);
+        ResourceLimitException e = exceeded(query);
+        assertEquals(ResourceLimitException.Limit.INFERENCES, e.getLimit());
+        assertTrue(e.getStatistics().getInferences() > 1000);
+    }
+
+    @Test
+    public void testDepthAndStackLimits() throws Exception {
+        Query deep = new Query(Parser.parseTermFromString("deep(0)"), program());
+        deep.setDepthLimit(50);
+        assertEquals(ResourceLimitException.Limit.DEPTH, exceeded(deep).getLimit());
+
+        Query wide = new Query(Parser.parseTermFromString("nat(N), N > 100000"), program());
+        wide.setStackLimit(500);
+        ResourceLimitException e = exceeded(wide);
+        assertEquals(ResourceLimitException.Limit.STACK, e.getLimit());
+        assertTrue(e.getStatistics().getCalls() > 0);
+    }
+
+    @Test
+    public void testTimeLimit() throws Exception {
+        Query query = new Query(Parser.parseTermFromString("loop"), program());
+        query.setTimeLimit(50, TimeUnit.MILLISECONDS);
+        assertEquals(ResourceLimitException.Limit.TIME, exceeded(query).getLimit());
+
+        Query quick = new Query(Parser.parseTermFromString("call_with_time_limit(1, small(X))"), program());
+        java.util.List<Map<String, Term>> solutions = quick.solve();
+        assertEquals(1, solutions.size());
+        assertEquals("1", solutions.get(0).get("X").toString());
+
+        Query slow = new Query(Parser.parseTermFromString("small(X), call_with_time_limit(0.05, loop)"), program());
+        assertEquals(ResourceLimitException.Limit.TIME, exceeded(slow).getLimit());
+    }
+
+    @Test
+    public void testCallWithInferenceLimit() throws Exception {
+        Query query = new Query(Parser.parseTermFromString("call_with_inference_limit(small(X), 100, R)"), program());
+        java.util.List<Map<String, Term>> solutions = query.solve();
+        assertEquals(2, solutions.size());
+        assertEquals("true", solutions.get(0).get("R").toString());
+        assertEquals("2", solutions.get(1).get("X").toString());
+        assertEquals("!", solutions.get(1).get("R").toString());
+
+        query = new Query(Parser.parseTermFromString("call_with_inference_limit(nat(X), 20, R)"), program());
+        solutions = query.solve();
+        Map<String, Term> last = solutions.get(solutions.size() - 1);
+        assertEquals("inference_limit_exceeded", last.get("R").toString());
+        assertNull(last.get("X"));
+        assertEquals("0", solutions.get(0).get("X").toString());
+    }
+}
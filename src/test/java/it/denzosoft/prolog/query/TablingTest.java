@@ -0,0 +1,129 @@
+package it.denzosoft.prolog.query;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Lexer;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.tabling.Scheduling;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+public class TablingTest {
+
+    private static Database consult(String program) throws Exception {
+        Database db = new Database();
+        Parser parser = new Parser(new Lexer(new StringReader(program)));
+        while (!parser.isAtEnd()) {
+            db.addClause(parser.parseClause());
+        }
+        return db;
+    }
+
+    private static Set<String> answers(Database db, String goal, String var) throws Exception {
+        Set<String> values = new HashSet<>();
+        for (Map<String, Term> solution : new Query(Parser.parseTermFromString(goal), db).solve()) {
+            values.add(solution.get(var).toString());
+        }
+        return values;
+    }
+
+    private static final String GRAPH =
+            ":- table path/2.\n"
+            + "path(X, Y) :- path(X, Z), edge(Z, Y).\n"
+            + "path(X, Y) :- edge(X, Y).\n"
+            + "edge(a, b). edge(b, c). edge(c, a). edge(c, d).\n";
+
+    @Test
+    public void testLeftRecursionOverCycleTerminates() throws Exception {
+        Database db = consult(GRAPH);
+        assertEquals(new HashSet<>(java.util.Arrays.asList("a", "b", "c", "d")), answers(db, "path(a, Y)", "Y"));
+        assertEquals(0, answers(db, "path(d, Y)", "Y").size());
+        assertTrue(db.getTableSpace().getTableCount() >= 2);
+    }
+
+    @Test
+    public void testCompleteTableIsReused() throws Exception {
+        Database db = consult(GRAPH);
+        answers(db, "path(a, Y)", "Y");
+        int tables = db.getTableSpace().getTableCount();
+        Query query = new Query(Parser.parseTermFromString("path(a, Y)"), db);
+        assertEquals(4, query.solve().size());
+        assertEquals(tables, db.getTableSpace().getTableCount());
+        // Answered from the table: one call, one try per answer
+        assertEquals(5, query.getInferenceCount());
+    }
+
+    @Test
+    public void testMutualRecursion() throws Exception {
+        Database db = consult(
+                ":- table even/1, odd/1.\n"
+                + "even(z).\n"
+                + "even(s(X)) :- odd(X).\n"
+                + "odd(s(X)) :- even(X).\n"
+                + "num(z). num(s(z)). num(s(s(z))). num(s(s(s(z)))).\n"
+                + "evens(X) :- num(X), even(X).\n");
+        assertEquals(new HashSet<>(java.util.Arrays.asList("z", "s(s(z))")), answers(db, "evens(X)", "X"));
+    }
+
+    @Test
+    public void testTablingAvoidsRecomputation() throws Exception {
+        Database db = consult(
+                ":- table fib/2.\n"
+                + "fib(0, 0).\n"
+                + "fib(1, 1).\n"
+                + "fib(N, F) :- N > 1, N1 is N - 1, N2 is N - 2, fib(N1, F1), fib(N2, F2), F is F1 + F2.\n");
+        assertEquals(java.util.Collections.singleton("832040"), answers(db, "fib(30, F)", "F"));
+    }
+
+    @Test
+    public void testBatchedSchedulingReturnsAnswersEarly() throws Exception {
+        Database db = consult(GRAPH);
+        db.getTableSpace().setScheduling(Scheduling.BATCHED);
+        Query query = new Query(Parser.parseTermFromString("path(a, Y)"), db);
+        assertNotNull(query.nextSolution());
+        assertNotNull(db.getTableSpace().getEvaluation());
+
+        int count = 1;
+        while (query.nextSolution() != null) {
+            count++;
+        }
+        assertEquals(4, count);
+        assertNull(db.getTableSpace().getEvaluation());
+    }
+
+    @Test
+    public void testChangeAfterCutShortEvaluation() throws Exception {
+        Database db = consult(":- table path/2.\n"
+                + "path(X, Y) :- edge(X, Y).\n"
+                + "path(X, Y) :- edge(X, Z), path(Z, Y).\n"
+                + "edge(a, b). edge(b, c).\n");
+        db.getTableSpace().setScheduling(Scheduling.BATCHED);
+        assertEquals(1, new Query(Parser.parseTermFromString("once(path(a, X))"), db).solve().size());
+        assertNotNull(db.getTableSpace().getEvaluation());
+
+        db.addClause(Parser.parseClauseFromString("edge(c, d)."));
+        assertEquals(new HashSet<>(java.util.Arrays.asList("d")), answers(db, "path(c, Y)", "Y"));
+        assertEquals(new HashSet<>(java.util.Arrays.asList("b", "c", "d")), answers(db, "path(a, Y)", "Y"));
+        assertNull(db.getTableSpace().getEvaluation());
+    }
+
+    @Test
+    public void testAbolishReclaimsTables() throws Exception {
+        Database db = consult(GRAPH);
+        answers(db, "path(a, Y)", "Y");
+        assertTrue(db.getTableSpace().getTableCount() > 0);
+        assertEquals(1, new Query(Parser.parseTermFromString("abolish_all_tables"), db).solve().size());
+        assertEquals(0, db.getTableSpace().getTableCount());
+
+        answers(db, "path(a, Y)", "Y");
+        db.addClause(Parser.parseClauseFromString("edge(d, e)."));
+        assertEquals(0, db.getTableSpace().getTableCount());
+        assertTrue(answers(db, "path(a, Y)", "Y").contains("e"));
+    }
+}
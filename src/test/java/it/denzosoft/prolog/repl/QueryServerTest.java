@@ -0,0 +1,94 @@
+package it.denzosoft.prolog.repl;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.parser.Parser;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+
+public class QueryServerTest {
+
+    private static QueryServer start(int maxConnections) throws Exception {
+        Database db = new Database();
+        db.addClause(Parser.parseClauseFromString("color(red)."));
+        db.addClause(Parser.parseClauseFromString("color(green)."));
+        db.addClause(Parser.parseClauseFromString("color(blue)."));
+        QueryServer server = new QueryServer(db, 0, maxConnections, 2);
+        server.start();
+        return server;
+    }
+
+    @Test
+    public void testQueriesAndUpdates() throws Exception {
+        try (QueryServer server = start(4);
+             QueryClient client = new QueryClient("localhost", server.getPort());
+             QueryClient other = new QueryClient("localhost", server.getPort())) {
+            assertEquals(Arrays.asList("C = red", "C = green", "C = blue"), client.query("color(C)"));
+            assertEquals(Arrays.asList("true"), client.query("color(red)."));
+            assertTrue(client.query("color(pink)").isEmpty());
+
+            other.tell("color(pink)");
+            assertEquals(Arrays.asList("true"), client.query("color(pink)"));
+            try {
+                client.query("color(");
+                fail("Parse error expected");
+            } catch (IOException e) {
+                // reported as an error line, the connection stays usable
+            }
+            assertEquals(4, client.query("color(C)").size());
+            assertEquals(5, server.getQueryCount());
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testQueriesAreLimited() throws Exception {
+        try (QueryServer server = start(4);
+             QueryClient client = new QueryClient("localhost", server.getPort())) {
+            server.getDatabase().addClause(Parser.parseClauseFromString("loop :- loop."));
+            server.setInferenceLimit(10_000);
+            try {
+                client.query("loop");
+                fail("Inference limit expected");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Inference limit"));
+            }
+            server.setInferenceLimit(0);
+            server.setTimeLimit(100, TimeUnit.MILLISECONDS);
+            try {
+                client.query("loop");
+                fail("Time limit expected");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("Time limit"));
+            }
+            assertEquals(3, client.query("color(C)").size());
+        }
+    }
+
+    @Test
+    public void testConnectionLimit() throws Exception {
+        try (QueryServer server = start(1);
+             QueryClient client = new QueryClient("localhost", server.getPort())) {
+            assertEquals(3, client.query("color(C)").size());
+            QueryClient refused = new QueryClient("localhost", server.getPort());
+            try {
+                refused.query("color(C)");
+                fail("Connection beyond the limit expected to be refused");
+            } catch (IOException e) {
+                assertEquals("server busy", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testLoadGenerator() throws Exception {
+        try (QueryServer server = start(8)) {
+            long[] latencies = new LoadGenerator("localhost", server.getPort(), "color(C)", 4, 200).run();
+            assertTrue(latencies.length > 0);
+            assertTrue(LoadGenerator.percentile(latencies, 50) <= LoadGenerator.percentile(latencies, 99));
+        }
+    }
+}
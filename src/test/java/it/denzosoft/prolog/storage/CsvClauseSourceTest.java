@@ -0,0 +1,99 @@
+package it.denzosoft.prolog.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+
+public class CsvClauseSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRowsBecomeFacts() throws Exception {
+        Path file = folder.newFile("city.csv").toPath();
+        Files.write(file, ("name,country,population\r\n"
+                + "rome,italy,2873000\r\n"
+                + "\"new york\",usa,8336000\r\n"
+                + "milan,italy,1352000\r\n").getBytes(StandardCharsets.UTF_8));
+
+        try (CsvClauseSource source = CsvClauseSource.csv(file, "city", true, 0)) {
+            assertEquals(3, source.getArity());
+            Database db = new Database();
+            db.attachSource(source);
+
+            List<Clause> rows = db.findClauses(Parser.parseTermFromString("city(X, Y, Z)"));
+            assertEquals(3, rows.size());
+            Struct first = (Struct) rows.get(0).getHead();
+            assertEquals(new Atom("rome"), first.getArgs()[0]);
+            assertEquals(2873000.0, ((it.denzosoft.prolog.model.Number) first.getArgs()[2]).getValue(), 0.001);
+            assertEquals(new Atom("new york"), ((Struct) rows.get(1).getHead()).getArgs()[0]);
+        }
+    }
+
+    @Test
+    public void testKeyedLookupUsesSidecarIndex() throws Exception {
+        Path file = folder.newFile("sale.tsv").toPath();
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            rows.append("sku").append(i % 50).append('\t').append(i).append('\n');
+        }
+        Files.write(file, rows.toString().getBytes(StandardCharsets.UTF_8));
+
+        try (CsvClauseSource source = CsvClauseSource.tsv(file, "sale", false, 1)) {
+            List<Clause> matches = new java.util.ArrayList<>();
+            source.clauses(Parser.parseTermFromString("sale(sku7, N)")).forEachRemaining(matches::add);
+            assertEquals(20, matches.size());
+            assertEquals("sale(sku7, 7).", matches.get(0).toString());
+            assertEquals("sale(sku7, 957).", matches.get(19).toString());
+        }
+        assertTrue(Files.exists(file.resolveSibling("sale.tsv.1.idx")));
+
+        // A second open reuses the index built by the first one
+        long built = Files.getLastModifiedTime(file.resolveSibling("sale.tsv.1.idx")).toMillis();
+        try (CsvClauseSource source = CsvClauseSource.tsv(file, "sale", false, 1)) {
+            assertTrue(source.clauses(Parser.parseTermFromString("sale(sku49, N)")).hasNext());
+            assertFalse(source.clauses(Parser.parseTermFromString("sale(sku50, N)")).hasNext());
+        }
+        assertEquals(built, Files.getLastModifiedTime(file.resolveSibling("sale.tsv.1.idx")).toMillis());
+    }
+
+    @Test
+    public void testKeyBoundThroughVariable() throws Exception {
+        Path file = folder.newFile("stock.csv").toPath();
+        Files.write(file, "apple,3\npear,5\n".getBytes(StandardCharsets.UTF_8));
+
+        try (CsvClauseSource source = CsvClauseSource.csv(file, "stock", false, 1)) {
+            Database db = new Database();
+            db.attachSource(source);
+            List<java.util.Map<String, Term>> solutions = new it.denzosoft.prolog.query.Query(
+                    Parser.parseTermFromString("X = pear, stock(X, N)"), db).solve();
+            assertEquals(1, solutions.size());
+            assertEquals("5", solutions.get(0).get("N").toString());
+            // Bound to a variable that is still free, the key is not ground
+            assertEquals(2, new it.denzosoft.prolog.query.Query(
+                    Parser.parseTermFromString("X = Y, stock(X, N)"), db).solve().size());
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSourceIsReadOnly() throws Exception {
+        Path file = folder.newFile("p.csv").toPath();
+        Files.write(file, "a,1\n".getBytes(StandardCharsets.UTF_8));
+        try (CsvClauseSource source = CsvClauseSource.csv(file, "p", false, 0)) {
+            Database db = new Database();
+            db.attachSource(source);
+            db.addDynamicClause(Parser.parseClauseFromString("p(b, 2)."));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package it.denzosoft.prolog.storage;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.database.Database;
+import it.denzosoft.prolog.model.*;
+import it.denzosoft.prolog.parser.Parser;
+import it.denzosoft.prolog.query.Query;
+import java.nio.file.Path;
+import java.util.List;
+
+
+public class DiskClauseStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testKeyedLookupAcrossManyPages() throws Exception {
+        Path dir = folder.newFolder("edge").toPath();
+        try (DiskClauseStore store = DiskClauseStore.open(dir, "edge", 2, new int[] {1}, 8)) {
+            for (int i = 0; i < 3000; i++) {
+                store.add(Parser.parseClauseFromString("edge(n" + (i % 100) + ", m" + i + ")."));
+            }
+            Database db = new Database();
+            db.attachSource(store);
+
+            List<Clause> matches = db.findClauses(Parser.parseTermFromString("edge(n7, X)"));
+            assertEquals(30, matches.size());
+            assertEquals("edge(n7, m7).", matches.get(0).toString());
+            assertEquals("edge(n7, m2907).", matches.get(29).toString());
+            assertTrue(store.getCache().getEvictions() > 0);
+            assertTrue(store.getCache().size() <= 8);
+        }
+    }
+
+    @Test
+    public void testClausesSurviveReopen() throws Exception {
+        Path dir = folder.newFolder("color").toPath();
+        try (DiskClauseStore store = DiskClauseStore.open(dir, "color", 2, new int[] {1, 2}, 16)) {
+            store.add(Parser.parseClauseFromString("color(sky, blue)."));
+            store.add(Parser.parseClauseFromString("color(grass, green)."));
+            store.add(Parser.parseClauseFromString("color(sea, blue)."));
+        }
+        try (DiskClauseStore store = DiskClauseStore.open(dir, "color", 2, new int[] {1, 2}, 16)) {
+            Database db = new Database();
+            db.attachSource(store);
+            assertEquals(2, db.findClauses(Parser.parseTermFromString("color(X, blue)")).size());
+            assertEquals(1, db.findClauses(Parser.parseTermFromString("color(grass, X)")).size());
+            assertEquals(3, db.findClauses(Parser.parseTermFromString("color(X, Y)")).size());
+        }
+    }
+
+    @Test
+    public void testRemoveIsLoggedAndReplayed() throws Exception {
+        Path dir = folder.newFolder("stock").toPath();
+        DiskClauseStore crashed = DiskClauseStore.open(dir, "stock", 2, new int[] {1}, 16);
+        Database db = new Database();
+        db.attachSource(crashed);
+        db.addDynamicClause(Parser.parseClauseFromString("stock(apple, 3)."));
+        db.addDynamicClause(Parser.parseClauseFromString("stock(pear, 5)."));
+        assertTrue(db.removeClause(Parser.parseClauseFromString("stock(apple, 3).")));
+        assertFalse(db.removeClause(Parser.parseClauseFromString("stock(apple, 3).")));
+        // Simulate a crash: nothing was checkpointed, only the log is on disk
+
+        try (DiskClauseStore store = DiskClauseStore.open(dir, "stock", 2, new int[] {1}, 16)) {
+            assertFalse(store.clauses(Parser.parseTermFromString("stock(apple, N)")).hasNext());
+            assertEquals("stock(pear, 5).", store.clauses(Parser.parseTermFromString("stock(pear, N)")).next().toString());
+        }
+    }
+
+    @Test
+    public void testVariablesDecodeByIdentity() throws Exception {
+        Path dir = folder.newFolder("pair").toPath();
+        try (DiskClauseStore store = DiskClauseStore.open(dir, "pair", 2, new int[0], 16)) {
+            store.add(Parser.parseClauseFromString("pair(_, _)."));
+            store.add(Parser.parseClauseFromString("pair(X, X)."));
+        }
+        try (DiskClauseStore store = DiskClauseStore.open(dir, "pair", 2, new int[0], 16)) {
+            Database db = new Database();
+            db.attachSource(store);
+            assertEquals(1, new Query(Parser.parseTermFromString("pair(a, b)"), db).solve().size());
+            assertEquals(2, new Query(Parser.parseTermFromString("pair(a, a)"), db).solve().size());
+        }
+    }
+
+    @Test
+    public void testKeyBoundThroughVariable() throws Exception {
+        Path dir = folder.newFolder("weight").toPath();
+        try (DiskClauseStore store = DiskClauseStore.open(dir, "p", 2, new int[] {1}, 16)) {
+            store.add(Parser.parseClauseFromString("p(f(a), 1)."));
+            store.add(Parser.parseClauseFromString("p(f(b), 2)."));
+            Database db = new Database();
+            db.attachSource(store);
+            List<java.util.Map<String, Term>> solutions =
+                    new Query(Parser.parseTermFromString("X = f(Y), p(X, N)"), db).solve();
+            assertEquals(2, solutions.size());
+            assertEquals("a", solutions.get(0).get("Y").toString());
+            assertEquals("1", solutions.get(0).get("N").toString());
+            assertEquals("2", new Query(Parser.parseTermFromString("X = f(b), p(X, N)"), db)
+                    .solve().get(0).get("N").toString());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonGroundKeyRejected() throws Exception {
+        Path dir = folder.newFolder("bad").toPath();
+        try (DiskClauseStore store = DiskClauseStore.open(dir, "p", 1, new int[] {1}, 4)) {
+            store.add(Parser.parseClauseFromString("p(X)."));
+        }
+    }
+}
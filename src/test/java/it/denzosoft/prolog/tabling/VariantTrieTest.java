@@ -0,0 +1,33 @@
+package it.denzosoft.prolog.tabling;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import it.denzosoft.prolog.parser.Parser;
+
+
+public class VariantTrieTest {
+
+    @Test
+    public void testVariantsShareAnEntry() throws Exception {
+        VariantTrie<String> trie = new VariantTrie<>();
+        assertNull(trie.putIfAbsent(Parser.parseTermFromString("p(X, f(Y), [a|X])"), "first"));
+        assertEquals("first", trie.get(Parser.parseTermFromString("p(A, f(B), [a|A])")));
+        assertEquals("first", trie.putIfAbsent(Parser.parseTermFromString("p(Q, f(R), [a|Q])"), "second"));
+        assertEquals(1, trie.size());
+    }
+
+    @Test
+    public void testNonVariantsAreDistinct() throws Exception {
+        VariantTrie<String> trie = new VariantTrie<>();
+        trie.putIfAbsent(Parser.parseTermFromString("p(X, Y)"), "distinct");
+        assertNull(trie.get(Parser.parseTermFromString("p(X, X)")));
+        assertNull(trie.get(Parser.parseTermFromString("p(a, Y)")));
+        assertNull(trie.get(Parser.parseTermFromString("p('p(X, Y)')")));
+        assertNull(trie.putIfAbsent(Parser.parseTermFromString("p(X, X)"), "shared"));
+        assertEquals(2, trie.size());
+        trie.clear();
+        assertEquals(0, trie.size());
+        assertNull(trie.get(Parser.parseTermFromString("p(X, Y)")));
+    }
+}